@@ -0,0 +1,21 @@
+package cass.monica.rest;
+
+import org.restlet.resource.Get;
+import org.restlet.resource.ServerResource;
+
+/**
+ * Resource for getting the hit and miss counts of the cache.
+ *
+ * @author David Brodrick
+ */
+public class CacheResource extends ServerResource {
+	@Override
+	public MoniCAApplication getApplication() {
+		return (MoniCAApplication) super.getApplication();
+	}
+
+	@Get
+	public String getStats() {
+		return MoniCAApplication.getGson().toJson(getApplication().getCache().getStats());
+	}
+}
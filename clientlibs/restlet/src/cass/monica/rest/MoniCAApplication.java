@@ -30,6 +30,9 @@ public class MoniCAApplication extends Application {
 	private MoniCAClient monicaServer;
 	private String serverName;
 
+	/** Cache of recent results from the server, shared by all requests. */
+	private PointCache cache = new PointCache(this, 1000, 60000);
+
 	private static Gson theirGson;
 
 	public MoniCAApplication() {
@@ -60,6 +63,19 @@ public class MoniCAApplication extends Application {
 
 				serverName = parset.getProperty("monics-server-name", "");
 				parset.remove("monics-server-name");
+				// How long to cache results for, in ms
+				try {
+					if (parset.getProperty("cache-data-ttl") != null) {
+						cache.setDataTTL(Long.parseLong(parset.getProperty("cache-data-ttl").trim()));
+					}
+					if (parset.getProperty("cache-description-ttl") != null) {
+						cache.setDescriptionTTL(Long.parseLong(parset.getProperty("cache-description-ttl").trim()));
+					}
+				} catch (NumberFormatException e) {
+					logger.log(Level.WARNING, "Could not parse cache TTL", e);
+				}
+				parset.remove("cache-data-ttl");
+				parset.remove("cache-description-ttl");
 			}
 			setMonicaServer(serverName, parset);
 		}
@@ -67,6 +83,11 @@ public class MoniCAApplication extends Application {
 		return monicaServer;
 	}
 
+	/** Get the cache which requests should use to get data from the server. */
+	public PointCache getCache() {
+		return cache;
+	}
+
 	public void setMonicaServer(String serverName, Properties parset) {
 		if (serverName!=null && serverName.trim().length()>0) {
 			try {
@@ -121,6 +142,7 @@ public class MoniCAApplication extends Application {
 	    router.attach("/names", PointNameResource.class);
 	    router.attach("/description/{points}", PointDescriptionResource.class);
 	    router.attach("/descriptions", PointDescriptionResource.class);
+	    router.attach("/cache", CacheResource.class);
 	    
 	    logger.log(Level.INFO, "Resource binding finished");
 		// Return the root router
@@ -69,23 +69,31 @@ public class MoniCARequest {
 		return MoniCAApplication.getGson().toJson(this);
 	}
 
-	/** Complete this request on the given server and return the JSON result. */
-	public Representation completeRequest(MoniCAClient client) {
+	/**
+	 * Complete this request and return the JSON result. Latest values and
+	 * archive data come from the application's cache.
+	 */
+	public Representation completeRequest(MoniCAApplication app) {
 		Vector<PointData> resdata = null;
+		MoniCAClient client = app.getClient();
 		try {
 			if (itsRequestType.equalsIgnoreCase(GET)) {
 				if (itsPointNames != null && itsPointNames.length > 0) {
-					resdata = client.getData(new Vector<String>(Arrays
+					resdata = app.getCache().getData(new Vector<String>(Arrays
 							.asList(itsPointNames)));
 				}
 			} else if (itsRequestType.equalsIgnoreCase(BETWEEN)) {
 				if (itsPointNames != null && itsPointNames.length == 1
 						&& itsStartTime != null && itsEndTime != null) {
-					resdata = client.getArchiveData(itsPointNames[0],
-							itsStartTime, itsEndTime);
-					if (resdata != null) {
-						for (PointData pd : resdata) {
-							pd.setName(null);
+					Vector<PointData> archive = app.getCache().getArchiveData(
+							itsPointNames[0], itsStartTime, itsEndTime);
+					if (archive != null) {
+						// Cached data is shared, so copy it before removing the names
+						resdata = new Vector<PointData>(archive.size());
+						for (PointData pd : archive) {
+							PointData copy = new PointData(pd);
+							copy.setName(null);
+							resdata.add(copy);
 						}
 					}
 				}
@@ -0,0 +1,322 @@
+/*
+ *  Copyright (c) 2012 CSIRO Astronomy and Space Science (CASS), Commonwealth
+ * Scientific and Industrial Research Organisation (CSIRO) PO Box 76, Epping NSW 1710,
+ * Australia atnf-enquiries@csiro.au
+ *
+ * MoniCA is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ */
+
+package cass.monica.rest;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import atnf.atoms.mon.PointData;
+import atnf.atoms.mon.PointDescription;
+import atnf.atoms.mon.comms.MoniCAClient;
+import atnf.atoms.time.AbsTime;
+
+/**
+ * Short lived cache of the results of requests to the MoniCA server, so that many
+ * clients showing the same page don't each cause a call to the server.
+ *
+ * <P>
+ * Latest values, archive data and point descriptions are each remembered for a
+ * configurable time. Requests for several points are answered from the cache
+ * where possible and the remaining points are fetched from the server in a
+ * single call. If a value is already being fetched from the server, other
+ * requests for it wait for that call to finish rather than making their own.
+ *
+ * @author David Brodrick
+ */
+public class PointCache {
+	/** Fetches the values for some keys from the server. */
+	private interface Fetcher<T> {
+		/** Return the values for the keys, in the same order. */
+		Vector<T> fetch(Vector<String> keys) throws Exception;
+	}
+
+	/** A cached value and the time it expires. */
+	private static class Entry<T> {
+		final T itsValue;
+
+		final long itsExpiry;
+
+		Entry(T value, long expiry) {
+			itsValue = value;
+			itsExpiry = expiry;
+		}
+	}
+
+	/** A value which is being fetched from the server. */
+	private static class Flight<T> {
+		private CountDownLatch itsDone = new CountDownLatch(1);
+
+		private T itsValue;
+
+		private Exception itsError;
+
+		void set(T value, Exception error) {
+			itsValue = value;
+			itsError = error;
+			itsDone.countDown();
+		}
+
+		T get() throws Exception {
+			itsDone.await();
+			if (itsError != null) {
+				throw itsError;
+			}
+			return itsValue;
+		}
+	}
+
+	/** Cached values of one kind, with the statistics for them. */
+	private static class Table<T> {
+		/** Number of entries above which expired entries are purged. */
+		private static final int theirPurgeSize = 10000;
+
+		/**
+		 * Time after which expired entries are next purged, so that entries which
+		 * are never requested again, such as archive data for a time range ending
+		 * at the time of the request, are removed.
+		 */
+		private volatile long itsNextPurge = 0;
+
+		private ConcurrentHashMap<String, Entry<T>> itsEntries = new ConcurrentHashMap<String, Entry<T>>();
+
+		private ConcurrentHashMap<String, Flight<T>> itsFlights = new ConcurrentHashMap<String, Flight<T>>();
+
+		/** How long values are kept, in ms. */
+		private volatile long itsTTL;
+
+		private AtomicLong itsHits = new AtomicLong();
+
+		private AtomicLong itsMisses = new AtomicLong();
+
+		private AtomicLong itsCoalesced = new AtomicLong();
+
+		Table(long ttl) {
+			itsTTL = ttl;
+		}
+
+		/**
+		 * Get the values for the keys, fetching those which aren't cached with a
+		 * single call to the fetcher.
+		 */
+		Vector<T> get(Vector<String> keys, Fetcher<T> fetcher) throws Exception {
+			int num = keys.size();
+			Vector<T> res = new Vector<T>(num);
+			res.setSize(num);
+			HashMap<Integer, Flight<T>> waiting = new HashMap<Integer, Flight<T>>();
+			LinkedHashMap<String, Flight<T>> mine = new LinkedHashMap<String, Flight<T>>();
+			long now = System.currentTimeMillis();
+			for (int i = 0; i < num; i++) {
+				String key = keys.get(i);
+				Entry<T> e = itsEntries.get(key);
+				if (e != null && e.itsExpiry > now) {
+					itsHits.incrementAndGet();
+					res.set(i, e.itsValue);
+					continue;
+				}
+				itsMisses.incrementAndGet();
+				Flight<T> f = mine.get(key);
+				if (f == null) {
+					Flight<T> newflight = new Flight<T>();
+					f = itsFlights.putIfAbsent(key, newflight);
+					if (f == null) {
+						f = newflight;
+						mine.put(key, f);
+					} else {
+						itsCoalesced.incrementAndGet();
+					}
+				}
+				waiting.put(Integer.valueOf(i), f);
+			}
+
+			if (!mine.isEmpty()) {
+				Vector<String> tofetch = new Vector<String>(mine.keySet());
+				Vector<T> fetched = null;
+				Exception error = null;
+				try {
+					fetched = fetcher.fetch(tofetch);
+				} catch (Exception e) {
+					error = e;
+				}
+				long expiry = System.currentTimeMillis() + itsTTL;
+				int j = 0;
+				for (Map.Entry<String, Flight<T>> m : mine.entrySet()) {
+					T value = null;
+					if (fetched != null && j < fetched.size()) {
+						value = fetched.get(j);
+					}
+					j++;
+					if (error == null) {
+						itsEntries.put(m.getKey(), new Entry<T>(value, expiry));
+					}
+					itsFlights.remove(m.getKey());
+					m.getValue().set(value, error);
+				}
+				if (itsEntries.size() > theirPurgeSize || expiry - itsTTL >= itsNextPurge) {
+					purge();
+				}
+			}
+
+			for (Map.Entry<Integer, Flight<T>> w : waiting.entrySet()) {
+				res.set(w.getKey().intValue(), w.getValue().get());
+			}
+			return res;
+		}
+
+		/** Remove expired entries. */
+		void purge() {
+			long now = System.currentTimeMillis();
+			itsNextPurge = now + itsTTL;
+			Iterator<Entry<T>> i = itsEntries.values().iterator();
+			while (i.hasNext()) {
+				if (i.next().itsExpiry <= now) {
+					i.remove();
+				}
+			}
+		}
+
+		/** Return the statistics for this table. */
+		Map<String, Long> getStats() {
+			LinkedHashMap<String, Long> res = new LinkedHashMap<String, Long>();
+			res.put("hits", Long.valueOf(itsHits.get()));
+			res.put("misses", Long.valueOf(itsMisses.get()));
+			res.put("coalesced", Long.valueOf(itsCoalesced.get()));
+			res.put("entries", Long.valueOf(itsEntries.size()));
+			return res;
+		}
+	}
+
+	/** The application, which provides the connection to the server. */
+	private MoniCAApplication itsApplication;
+
+	/** Latest values, keyed by point name. */
+	private Table<PointData> itsData;
+
+	/** Archive data, keyed by point name and time range. */
+	private Table<Vector<PointData>> itsArchive;
+
+	/** Point descriptions, keyed by point name. */
+	private Table<PointDescription> itsPoints;
+
+	/** All point descriptions and all point names, keyed by a fixed name. */
+	private Table<Vector<?>> itsAll;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param app
+	 *            The application, which provides the connection to the server.
+	 * @param datattl
+	 *            How long to keep latest values and archive data, in ms.
+	 * @param descttl
+	 *            How long to keep point descriptions and names, in ms.
+	 */
+	public PointCache(MoniCAApplication app, long datattl, long descttl) {
+		itsApplication = app;
+		itsData = new Table<PointData>(datattl);
+		itsArchive = new Table<Vector<PointData>>(datattl);
+		itsPoints = new Table<PointDescription>(descttl);
+		itsAll = new Table<Vector<?>>(descttl);
+	}
+
+	/** Set how long to keep latest values and archive data, in ms. */
+	public void setDataTTL(long ttl) {
+		itsData.itsTTL = ttl;
+		itsArchive.itsTTL = ttl;
+	}
+
+	/** Set how long to keep point descriptions and names, in ms. */
+	public void setDescriptionTTL(long ttl) {
+		itsPoints.itsTTL = ttl;
+		itsAll.itsTTL = ttl;
+	}
+
+	private MoniCAClient getClient() {
+		return itsApplication.getClient();
+	}
+
+	/** Get the latest values of the named points. */
+	public Vector<PointData> getData(Vector<String> pointnames) throws Exception {
+		return itsData.get(pointnames, new Fetcher<PointData>() {
+			public Vector<PointData> fetch(Vector<String> keys) throws Exception {
+				return getClient().getData(keys);
+			}
+		});
+	}
+
+	/** Get the archived data for the named point between the given times. */
+	public Vector<PointData> getArchiveData(final String pointname, final AbsTime start, final AbsTime end) throws Exception {
+		Vector<String> key = new Vector<String>(1);
+		key.add(pointname + "\t" + start.getValue() + "\t" + end.getValue());
+		return itsArchive.get(key, new Fetcher<Vector<PointData>>() {
+			public Vector<Vector<PointData>> fetch(Vector<String> keys) throws Exception {
+				Vector<Vector<PointData>> res = new Vector<Vector<PointData>>(1);
+				res.add(getClient().getArchiveData(pointname, start, end));
+				return res;
+			}
+		}).get(0);
+	}
+
+	/** Get the descriptions of the named points. */
+	public Vector<PointDescription> getPoints(Vector<String> pointnames) throws Exception {
+		return itsPoints.get(pointnames, new Fetcher<PointDescription>() {
+			public Vector<PointDescription> fetch(Vector<String> keys) throws Exception {
+				return getClient().getPoints(keys);
+			}
+		});
+	}
+
+	/** Get the descriptions of all points. */
+	@SuppressWarnings("unchecked")
+	public Vector<PointDescription> getAllPoints() throws Exception {
+		Vector<String> key = new Vector<String>(1);
+		key.add("points");
+		return (Vector<PointDescription>) itsAll.get(key, new Fetcher<Vector<?>>() {
+			public Vector<Vector<?>> fetch(Vector<String> keys) throws Exception {
+				Vector<Vector<?>> res = new Vector<Vector<?>>(1);
+				res.add(getClient().getAllPoints());
+				return res;
+			}
+		}).get(0);
+	}
+
+	/** Get the names of all points. */
+	@SuppressWarnings("unchecked")
+	public Vector<String> getAllPointNames() throws Exception {
+		Vector<String> key = new Vector<String>(1);
+		key.add("names");
+		return (Vector<String>) itsAll.get(key, new Fetcher<Vector<?>>() {
+			public Vector<Vector<?>> fetch(Vector<String> keys) throws Exception {
+				Vector<Vector<?>> res = new Vector<Vector<?>>(1);
+				res.add(getClient().getAllPointNames());
+				return res;
+			}
+		}).get(0);
+	}
+
+	/**
+	 * Return the number of hits, misses, requests which waited for another
+	 * request's call to the server, and cached entries, for each kind of data.
+	 */
+	public Map<String, Map<String, Long>> getStats() {
+		LinkedHashMap<String, Map<String, Long>> res = new LinkedHashMap<String, Map<String, Long>>();
+		res.put("data", itsData.getStats());
+		res.put("archive", itsArchive.getStats());
+		res.put("descriptions", itsPoints.getStats());
+		res.put("all", itsAll.getStats());
+		return res;
+	}
+}
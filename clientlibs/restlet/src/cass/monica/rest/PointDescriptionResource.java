@@ -94,10 +94,10 @@ public class PointDescriptionResource extends ServerResource {
 		try {
 			if (itsPointNames == null || itsPointNames.size() == 0) {
 				// Get all points
-				itsPoints = getApplication().getClient().getAllPoints();
+				itsPoints = getApplication().getCache().getAllPoints();
 			} else {
 				// Specified point names were provided
-				itsPoints = getApplication().getClient().getPoints(itsPointNames);
+				itsPoints = getApplication().getCache().getPoints(itsPointNames);
 			}
 			descriptionList.setStatus("ok");
 		} catch (Exception e) {
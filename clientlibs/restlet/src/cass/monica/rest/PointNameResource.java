@@ -37,7 +37,7 @@ public class PointNameResource extends ServerResource {
 		MonicaPointNameList nameList = new MonicaPointNameList();
 		String itsPointNames[] = new String[0];
 		try {
-			itsPointNames = ((MoniCAApplication)getApplication()).getClient().getAllPointNames();
+			itsPointNames = ((MoniCAApplication)getApplication()).getCache().getAllPointNames().toArray(new String[0]);
 			nameList.setStatus("ok");
 			nameList.setMonitoringPointNames(itsPointNames);
 		} catch (Exception e) {
@@ -45,7 +45,7 @@ public class PointResource extends ServerResource {
 			}
 			req.itsPointNames = pointNames.toArray(new String[] {});
 		}
-		return req.completeRequest(getApplication().getClient());
+		return req.completeRequest(getApplication());
 	}
 
 	@Post("json")
@@ -53,7 +53,7 @@ public class PointResource extends ServerResource {
 		try {
 			MoniCARequest req = MoniCAApplication.getGson().fromJson(arg,
 					MoniCARequest.class);
-			return req.completeRequest(getApplication().getClient());
+			return req.completeRequest(getApplication());
 		} catch (Exception e) {
 			logger.log(Level.WARNING, "acceptJson: Got exception: " + e);
 		}
@@ -82,7 +82,7 @@ public class PointResource extends ServerResource {
 			req.itsPointNames = pointNames.toArray(new String[] {});
 		}
 
-		return req.completeRequest(getApplication().getClient());
+		return req.completeRequest(getApplication());
 	}
 
 	private MoniCARequest formToMonicaRequest(Form form) {
@@ -9,41 +9,162 @@
 
 package atnf.atoms.mon;
 
-import java.util.HashMap;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+import org.apache.log4j.Logger;
+
+import atnf.atoms.mon.util.MonitorConfig;
 import atnf.atoms.time.AbsTime;
 
 /**
  * Class that encapsulates most data about alarms, and facilitates the retrieval and modification
- * of those alarms
+ * of those alarms.
+ *
+ * <P>
+ * Updates to each alarm are serialised on the alarm itself, so updates to different points don't
+ * contend with each other. An index of the alarms which are currently alarming or shelved is kept
+ * up to date as they change, ordered by priority, so finding the current alarms doesn't require
+ * checking every alarm in the system.
+ *
+ * <P>
+ * Each change to the state of an alarm (alarming, acknowledged or shelved) is given a sequence
+ * number and passed to any registered <tt>AlarmEventListener</tt>s. The most recent
+ * <tt>AlarmChangeLogSize</tt> changes are remembered so that clients can ask for the alarms which
+ * have changed since the last sequence number they saw, rather than fetching every alarm again.
+ *
  * @author David Brodrick
  * @author Kalinga Hulugalle
  *
  */
 public class AlarmManager {
-	
+	/** Logger. */
+	private static Logger theirLogger = Logger.getLogger(AlarmManager.class.getName());
+
+	/** Record of all points which have a priority alarm. */
+	private static ConcurrentHashMap<PointDescription, Alarm> theirAlarms = new ConcurrentHashMap<PointDescription, Alarm>(500);
+
+	/** Alarms which are currently alarming or shelved, highest priority first. */
+	private static ConcurrentSkipListSet<Alarm> theirCurrentAlarms = new ConcurrentSkipListSet<Alarm>(new Comparator<Alarm>() {
+		public int compare(Alarm a, Alarm b) {
+			// Priority is fixed when the alarm is created on the server
+			if (a.getPriority() != b.getPriority()) {
+				return a.getPriority() > b.getPriority() ? -1 : 1;
+			}
+			return a.getPointDesc().getFullName().compareTo(b.getPointDesc().getFullName());
+		}
+	});
+
+	/** A change to the state of an alarm. */
+	private static class Change {
+		final long itsSequence;
 
-	/** Record of points which are currently in a priority alarm state. */
-	private static HashMap<PointDescription, Alarm> theirAlarms = new HashMap<PointDescription, Alarm>(500, 1000);
+		final Alarm itsAlarm;
+
+		Change(long seq, Alarm alarm) {
+			itsSequence = seq;
+			itsAlarm = alarm;
+		}
+	}
+
+	/** The most recent changes, oldest first. */
+	private static ArrayDeque<Change> theirChanges = new ArrayDeque<Change>();
+
+	/** Sequence number of the most recent change. */
+	private static long theirSequence = 0;
+
+	/** Maximum number of changes to remember. */
+	private static int theirChangeLogSize;
+
+	/** Listeners to be told about changes to alarms. */
+	private static CopyOnWriteArrayList<AlarmEventListener> theirListeners = new CopyOnWriteArrayList<AlarmEventListener>();
+
+	/** Static block to parse the change log size. */
+	static {
+		try {
+			theirChangeLogSize = Integer.parseInt(MonitorConfig.getProperty("AlarmChangeLogSize", "10000"));
+		} catch (Exception e) {
+			theirLogger.warn("Error parsing AlarmChangeLogSize configuration parameter: " + e);
+			theirChangeLogSize = 10000;
+		}
+	}
+
+	/** Get the alarm for the point, creating it if it doesn't exist yet. */
+	private static Alarm getOrCreate(PointDescription point) {
+		Alarm thisalarm = theirAlarms.get(point);
+		if (thisalarm == null) {
+			// Need to create new data structure
+			Alarm newalarm = new Alarm(point);
+			thisalarm = theirAlarms.putIfAbsent(point, newalarm);
+			if (thisalarm == null) {
+				thisalarm = newalarm;
+				changed(thisalarm);
+			}
+		}
+		return thisalarm;
+	}
+
+	/** Return a number representing the alarm, acknowledged and shelved state of the alarm. */
+	private static int getState(Alarm alarm) {
+		return (alarm.isAlarming() ? 1 : 0) | (alarm.isAcknowledged() ? 2 : 0) | (alarm.isShelved() ? 4 : 0);
+	}
+
+	/**
+	 * Update the index, record the change and notify listeners if the state of the alarm has changed.
+	 * Must be called while synchronized on the alarm.
+	 */
+	private static void stateChanged(Alarm alarm, int oldstate) {
+		if (getState(alarm) == oldstate) {
+			return;
+		}
+		if (alarm.isAlarming() || alarm.isShelved()) {
+			theirCurrentAlarms.add(alarm);
+		} else {
+			theirCurrentAlarms.remove(alarm);
+		}
+		changed(alarm);
+	}
+
+	/** Record a change to the alarm and notify the listeners. */
+	private static void changed(Alarm alarm) {
+		synchronized (theirChanges) {
+			theirSequence++;
+			theirChanges.addLast(new Change(theirSequence, alarm));
+			while (theirChanges.size() > theirChangeLogSize) {
+				theirChanges.removeFirst();
+			}
+		}
+		if (!theirListeners.isEmpty()) {
+			AlarmEvent event = new AlarmEvent(alarm.getPointDesc(), alarm);
+			for (AlarmEventListener listener : theirListeners) {
+				try {
+					listener.onAlarmEvent(event);
+				} catch (Exception e) {
+					theirLogger.warn("Error notifying alarm listener " + listener + ": " + e);
+				}
+			}
+		}
+	}
 
 	/** Set the current alarm status for the given point. */
 	public static void setAlarm(PointDescription point, PointData data) {
-		synchronized (theirAlarms) {
-			Alarm thisalarm = theirAlarms.get(point);
-			if (thisalarm != null) {
-				// Just update the extant data structure
-				thisalarm.updateData(data);
-				// Acknowledgement gets cleared if no longer in alarm
-				if (!thisalarm.isAlarming() && thisalarm.isAcknowledged()) {
-					thisalarm.setAcknowledged(false, null, null);
-				}
-			} else {
-				// Need to create new data structure
-				thisalarm = new Alarm(point, data);
-				theirAlarms.put(point, thisalarm);
+		Alarm thisalarm = getOrCreate(point);
+		synchronized (thisalarm) {
+			int oldstate = getState(thisalarm);
+			// Just update the extant data structure
+			thisalarm.updateData(data);
+			// Acknowledgement gets cleared if no longer in alarm
+			if (!thisalarm.isAlarming() && thisalarm.isAcknowledged()) {
+				thisalarm.setAcknowledged(false, null, null);
 			}
+			stateChanged(thisalarm, oldstate);
 		}
 	}
 	/**
@@ -62,9 +183,10 @@ public class AlarmManager {
 	 * @return The Alarm that corresponds to this PointDescription
 	 */
 	public static Alarm getAlarm(PointDescription point){
-		synchronized (theirAlarms){
-		  return theirAlarms.get(point);
+		if (point == null) {
+			return null;
 		}
+		return theirAlarms.get(point);
 	}
 
 	/**
@@ -72,61 +194,91 @@ public class AlarmManager {
 	 * @param point - The PointDescription for the point
 	 */
 	public static void setAlarm(PointDescription point) {
-		synchronized (theirAlarms) {
-			Alarm thisalarm = theirAlarms.get(point);
-			if (thisalarm != null) {
-				// Acknowledgement gets cleared if no longer in alarm
-				if (!thisalarm.isAlarming() && thisalarm.isAcknowledged()) {
-					thisalarm.setAcknowledged(false, null, null);
-				}
-			} else {
-				// Need to create new data structure
-				thisalarm = new Alarm(point);
-				theirAlarms.put(point, thisalarm);
+		Alarm thisalarm = getOrCreate(point);
+		synchronized (thisalarm) {
+			int oldstate = getState(thisalarm);
+			// Acknowledgement gets cleared if no longer in alarm
+			if (!thisalarm.isAlarming() && thisalarm.isAcknowledged()) {
+				thisalarm.setAcknowledged(false, null, null);
 			}
+			stateChanged(thisalarm, oldstate);
 		}
 	}
 
-	/** Get the list of priority alarms currently in an alarm state (acknowledged or not) or not in an alarm but shelved. */
+	/**
+	 * Get the list of priority alarms currently in an alarm state (acknowledged or not) or not in an alarm but shelved,
+	 * highest priority first.
+	 */
 	public static Vector<Alarm> getAlarms() {
-		Vector<Alarm> res;
-		synchronized (theirAlarms) {
-			res = new Vector<Alarm>(theirAlarms.size());
-			Iterator<Alarm> i = theirAlarms.values().iterator();
-			while (i.hasNext()) {
-				Alarm thisalarm = i.next();
-				if (thisalarm.isAlarming()|| thisalarm.isShelved()) {
-					res.add(thisalarm);
-				}
-			}
-		}
-		return res;
+		return new Vector<Alarm>(theirCurrentAlarms);
 	}
 
 	/** Get the list of all alarms currently defined in the system. */
 	public static Vector<Alarm> getAllAlarms() {
-		Vector<Alarm> res;
-		synchronized (theirAlarms) {
-			res = new Vector<Alarm>(theirAlarms.size());
-			Iterator<Alarm> i = theirAlarms.values().iterator();
+		return new Vector<Alarm>(theirAlarms.values());
+	}
+
+	/** Get the sequence number of the most recent change to any alarm. */
+	public static long getSequence() {
+		synchronized (theirChanges) {
+			return theirSequence;
+		}
+	}
+
+	/**
+	 * Get the alarms whose state has changed since the given sequence number, in the order they last
+	 * changed.
+	 *
+	 * @param seq
+	 *          The sequence number of the last change the caller knows about, as returned by
+	 *          <tt>getSequence</tt>.
+	 * @return The changed alarms, or null if some of the changes since then have been forgotten, in
+	 *         which case the caller needs to get all of the alarms again.
+	 */
+	public static Vector<Alarm> getChangesSince(long seq) {
+		LinkedHashSet<Alarm> changed = new LinkedHashSet<Alarm>();
+		synchronized (theirChanges) {
+			if (seq >= theirSequence) {
+				return new Vector<Alarm>();
+			}
+			if (seq < 0 || theirChanges.isEmpty() || theirChanges.getFirst().itsSequence > seq + 1) {
+				return null;
+			}
+			// Walk backwards from the most recent change so each alarm appears once
+			Iterator<Change> i = theirChanges.descendingIterator();
 			while (i.hasNext()) {
-				Alarm thisalarm = i.next();
-				res.add(thisalarm);
+				Change c = i.next();
+				if (c.itsSequence <= seq) {
+					break;
+				}
+				changed.add(c.itsAlarm);
 			}
 		}
+		Vector<Alarm> res = new Vector<Alarm>(changed);
+		Collections.reverse(res);
 		return res;
 	}
 
+	/**
+	 * Register a listener to be notified whenever the state of an alarm changes. Listeners are called
+	 * by the thread which changed the alarm, so they should return quickly.
+	 */
+	public static void addListener(AlarmEventListener listener) {
+		theirListeners.addIfAbsent(listener);
+	}
+
+	/** Stop notifying the listener about changes to alarms. */
+	public static void removeListener(AlarmEventListener listener) {
+		theirListeners.remove(listener);
+	}
+
 	/** Acknowledge an alarm. */
 	public static void setAcknowledged(PointDescription point, boolean acked, String user, AbsTime time) {
-		synchronized (theirAlarms) {
-			Alarm thisalarm = theirAlarms.get(point);
-			if (thisalarm == null) {
-				// Need to create new data structure
-				thisalarm = new Alarm(point);
-				theirAlarms.put(point, thisalarm);
-			}
+		Alarm thisalarm = getOrCreate(point);
+		synchronized (thisalarm) {
+			int oldstate = getState(thisalarm);
 			thisalarm.setAcknowledged(acked, user, time);
+			stateChanged(thisalarm, oldstate);
 		}
 	}
 
@@ -134,20 +286,17 @@ public class AlarmManager {
   public static void setAcknowledged(PointDescription point, boolean acked, String user) {
     setAcknowledged(point, acked, user, new AbsTime());
   }
-  
+
 	/** Shelve an alarm. */
 	public static void setShelved(PointDescription point, boolean shelved, String user, AbsTime time) {
-		synchronized (theirAlarms) {
-			Alarm thisalarm = theirAlarms.get(point);
-			if (thisalarm == null) {
-				// Need to create new data structure
-				thisalarm = new Alarm(point);
-				theirAlarms.put(point, thisalarm);
-			}
+		Alarm thisalarm = getOrCreate(point);
+		synchronized (thisalarm) {
+			int oldstate = getState(thisalarm);
 			thisalarm.setShelved(shelved, user, time);
+			stateChanged(thisalarm, oldstate);
 		}
 	}
-	
+
   /** Shelve an alarm. */
   public static void setShelved(PointDescription point, boolean shelved, String user) {
     setShelved(point, shelved, user, new AbsTime());
@@ -16,6 +16,7 @@ import atnf.atoms.mon.externalsystem.*;
 import atnf.atoms.mon.util.*;
 import atnf.atoms.mon.archiver.*;
 import atnf.atoms.mon.comms.*;
+import atnf.atoms.mon.translation.DependencyEngine;
 
 /**
  * Top-level class with methods for starting and stopping MoniCA.
@@ -207,6 +208,9 @@ public class MoniCAMain {
     // Points have all been created now
     PointDescription.setPointsCreated();
 
+    // Work out the dependencies between derived points, if enabled
+    DependencyEngine.start();
+
     if (!foundpoints) {
       // Might be intentional, so log, but as info not error
       theirLogger.info("No point definitions were found");
@@ -389,7 +393,11 @@ public class MoniCAMain {
    * Open the network server interfaces.
    */
   public static void openInterfaces() {
-    new MoniCAServerASCII();
+    if (Boolean.parseBoolean(MonitorConfig.getProperty("ASCIIServerNIO", "false"))) {
+      MoniCAServerASCIINIO.start();
+    } else {
+      new MoniCAServerASCII();
+    }
     if (theirICEAdapter == null) {
       MoniCAIceI.startIceServer();
     } else {
@@ -399,6 +407,9 @@ public class MoniCAMain {
       theirLogger.debug("Starting pub/sub server");
       new PubSubManager();
     }
+    if (Boolean.parseBoolean(MonitorConfig.getProperty("HTTPServerEnabled", "false"))) {
+      MoniCAServerHTTP.start();
+    }
   }
 
   /**
@@ -406,7 +417,9 @@ public class MoniCAMain {
    */
   public static void closeInterfaces() {
     MoniCAServerASCII.stopAll();
+    MoniCAServerASCIINIO.stopAll();
     MoniCAIceI.stopIceServer();
+    MoniCAServerHTTP.stop();
     // TODO: Close pub/sub server
   }
 
@@ -11,6 +11,7 @@ package atnf.atoms.mon;
 import java.util.*;
 import org.apache.log4j.Logger;
 import atnf.atoms.time.*;
+import atnf.atoms.mon.util.Downsampler;
 import atnf.atoms.mon.util.MonitorConfig;
 import atnf.atoms.mon.archiver.PointArchiver;
 
@@ -22,7 +23,7 @@ import atnf.atoms.mon.archiver.PointArchiver;
  */
 public class PointBuffer {
   /** Stores the buffers of recently collected data for each point. */
-  private static Hashtable<PointDescription, LinkedList<PointData>> theirBufferTable = new Hashtable<PointDescription, LinkedList<PointData>>(1000, 1000);
+  private static PointBufferStore theirStore;
 
   /** The maximum number of records to be buffered for a single point. */
   private static int theirMaxBufferSize;
@@ -49,6 +50,15 @@ public class PointBuffer {
       numsecs = 90;
     }
     theirMaxBufferAge = RelTime.factory(numsecs * 1000000);
+
+    String storetype = MonitorConfig.getProperty("BufferStore", "List");
+    try {
+      theirStore = (PointBufferStore) (Class.forName("atnf.atoms.mon.PointBufferStore" + storetype).newInstance());
+    } catch (Exception e) {
+      theirLogger.warn("Error creating BufferStore \"" + storetype + "\", using default: " + e);
+      theirStore = new PointBufferStoreList();
+    }
+    theirStore.setLimits(theirMaxBufferSize, theirMaxBufferAge);
   }
 
   /**
@@ -61,29 +71,7 @@ public class PointBuffer {
    */
   public static void updateData(PointDescription pm, PointData data) {
     if (data != null) {
-      LinkedList<PointData> thisbuf = theirBufferTable.get(pm);
-      if (thisbuf == null) {
-        synchronized (theirBufferTable) {
-          // Lock buffer and try again or create if need be
-          thisbuf = theirBufferTable.get(pm);
-          if (thisbuf == null) {
-            // New point, add it to the table
-            thisbuf = new LinkedList<PointData>();
-            theirBufferTable.put(pm, thisbuf);
-          }
-        }
-      }
-
-      synchronized (thisbuf) {
-        // Remove any old data from the buffer
-        AbsTime agecutoff = AbsTime.factory().add(theirMaxBufferAge.negate());
-        while (thisbuf.size() > 0 && (thisbuf.size() > theirMaxBufferSize || thisbuf.getFirst().getTimestamp().isBeforeOrEquals(agecutoff))) {
-          thisbuf.removeFirst();
-        }
-
-        // Add the new data to the buffer
-        thisbuf.add(data);
-      }
+      theirStore.add(pm, data);
     }
   }
 
@@ -112,14 +100,7 @@ public class PointBuffer {
   public static PointData getPointData(PointDescription pm) {
     PointData res = null;
     if (pm != null) {
-      LinkedList<PointData> thisbuf = theirBufferTable.get(pm);
-      if (thisbuf != null) {
-        synchronized (thisbuf) {
-          if (!thisbuf.isEmpty()) {
-            res = thisbuf.getLast();
-          }
-        }
-      }
+      res = theirStore.getLatest(pm);
     }
     return res;
   }
@@ -157,97 +138,160 @@ public class PointBuffer {
    * @return Vector containing all data in the specified time range. <tt>null</tt> will be returned if no data were found.
    */
   public static Vector<PointData> getPointData(PointDescription pm, AbsTime start_time, AbsTime end_time, int maxsamples) {
-    Vector<PointData> bufdata = null;
-    LinkedList<PointData> databuffer = theirBufferTable.get(pm);
-    if (databuffer != null) {
-      synchronized (databuffer) {
-        // If all data is in memory buffer then return it from there
-        if (isAfterOrEqualsFirstData(pm, start_time)) {
-          return getPointDataBuffer(pm, start_time, end_time);
-        }
+    return getPointData(pm, start_time, end_time, maxsamples, null);
+  }
 
-        // Some data may be in memory buffer so try there first
-        bufdata = getPointDataBuffer(pm, start_time, end_time);
+  /**
+   * Return all data in the specified time range for the given point, reduced to no more than <tt>maxsamples</tt> samples using the
+   * specified <tt>Downsampler</tt> mode. When downsampling, each record is passed through the downsampler as it is read from the
+   * archive, so the full time range is reduced without being held in memory and is not clipped at the archive's maximum number of
+   * records.
+   * 
+   * @param pm
+   *          The point to get the data for.
+   * @param start_time
+   *          The earliest time in the range of interest.
+   * @param end_time
+   *          The most recent time in the range of interest.
+   * @param maxsamples
+   *          The maximum number of samples to be returned. 0 for no limit.
+   * @param mode
+   *          Name of the downsampling mode, or null for the default.
+   * @return Vector containing the data in the specified time range. <tt>null</tt> will be returned if no data were found.
+   */
+  public static Vector<PointData> getPointData(PointDescription pm, AbsTime start_time, AbsTime end_time, int maxsamples, String mode) {
+    final Vector<PointData> res = new Vector<PointData>();
+    getPointData(pm, start_time, end_time, maxsamples, mode, new PointArchiver.RecordHandler() {
+      public boolean handle(PointData pd) {
+        res.add(pd);
+        return true;
       }
+    });
+    // Ensure null result if no data were found.
+    if (res.isEmpty()) {
+      return null;
     }
+    return res;
+  }
 
-    if (bufdata == null) {
-      // Ensure not null
-      bufdata = new Vector<PointData>();
+  /**
+   * Pass the data in the specified time range for the given point to the handler in time order, as it is read from the memory
+   * buffer and the archive, rather than gathering it all first. The data is the same as that returned by <tt>getPointData</tt>, so
+   * without downsampling no more than the archive's maximum number of records are read from the archive.
+   * 
+   * @param pm
+   *          The point to get the data for.
+   * @param start_time
+   *          The earliest time in the range of interest.
+   * @param end_time
+   *          The most recent time in the range of interest.
+   * @param maxsamples
+   *          The maximum number of samples to be returned. 0 for no limit.
+   * @param mode
+   *          Name of the downsampling mode, or null for the default.
+   * @param handler
+   *          The handler for each record.
+   */
+  public static void getPointData(PointDescription pm, AbsTime start_time, AbsTime end_time, int maxsamples, String mode,
+      final PointArchiver.RecordHandler handler) {
+    if (maxsamples > 1) {
+      Downsampler ds = Downsampler.factory(mode, start_time, end_time, maxsamples);
+      if (ds == null) {
+        Logger.getLogger(PointBuffer.class.getName()).warn("Unknown downsampling mode \"" + mode + "\", using default");
+        ds = Downsampler.factory(null, start_time, end_time, maxsamples);
+      }
+      Vector<PointData> res = getPointData(pm, start_time, end_time, ds);
+      if (res != null) {
+        for (int i = 0; i < res.size() && handler.handle(res.get(i)); i++) {
+        }
+      }
+      return;
     }
 
-    // Then request rest of data from disk archive
-    PointArchiver arc = PointArchiver.getPointArchiver();
-    Vector<PointData> arcdata = arc.extract(pm, start_time, end_time);
+    Vector<PointData> bufdata = null;
+    PointData oldest = theirStore.getOldest(pm);
+    if (oldest != null) {
+      // Some data may be in memory buffer so try there first
+      bufdata = theirStore.getRange(pm, start_time, end_time);
+      if (start_time.isAfterOrEquals(oldest.getTimestamp())) {
+        // All data is in memory buffer so pass it from there
+        if (bufdata != null) {
+          for (int i = 0; i < bufdata.size() && handler.handle(bufdata.get(i)); i++) {
+          }
+        }
+        return;
+      }
+    }
 
-    if (arcdata == null) {
-      arcdata = new Vector<PointData>(); // Ensure not null
+    // Then read the rest of the data from the disk archive, up to the start of the buffered data
+    AbsTime arc_end = end_time;
+    if (bufdata != null && !bufdata.isEmpty()) {
+      arc_end = bufdata.firstElement().getTimestamp().add(RelTime.factory(-1));
+    }
+    final PointArchiver arc = PointArchiver.getPointArchiver();
+    final int[] numread = new int[1];
+    final boolean[] stopped = new boolean[1];
+    if (start_time.isBeforeOrEquals(arc_end)) {
+      arc.extract(pm, start_time, arc_end, new PointArchiver.RecordHandler() {
+        public boolean handle(PointData pd) {
+          numread[0]++;
+          stopped[0] = !handler.handle(pd);
+          return !stopped[0] && numread[0] < arc.getMaxNumRecords();
+        }
+      });
     }
 
-    boolean mergebuffer = true;
-    if (arcdata.size() > 0) {
-      // This is what goes on here:
-      // The archive may have a limit on the maximum number of points
-      // it can return to a single query, therefore the data that has
-      // just been retrieved may not be the entire collection within
-      // the time range we requested. If this is the case then we must
-      // not append the latest data from the memory buffer. However
-      // if the archive retrieval is complete, then we may need to append
-      // the updates still buffered in memory.
-
-      // If the result has been clipped at the maximum size then assume
-      // it is incomplete.
-      if (arcdata.size() >= arc.getMaxNumRecords()) {
-        mergebuffer = false;
+    // The archive may have a limit on the maximum number of points it can return to a single query, therefore the data that has
+    // just been read may not be the entire collection within the time range we requested. If this is the case then we must not
+    // append the latest data from the memory buffer.
+    if (bufdata != null && !stopped[0] && numread[0] < arc.getMaxNumRecords()) {
+      for (int i = 0; i < bufdata.size() && handler.handle(bufdata.get(i)); i++) {
       }
     }
+  }
 
-    if (mergebuffer) {
-      // Remove any overlap data (data duplicated in archive and buffer)
-      int cnt = 0;
-      if (bufdata.size() > 0) {
-        AbsTime buffer_start = ((PointData) bufdata.firstElement()).getTimestamp();
-        while (arcdata.size() > 0 && ((PointData) arcdata.lastElement()).getTimestamp().isAfterOrEquals(buffer_start)) {
-          arcdata.remove(arcdata.lastElement());
-          cnt++;
-        }
-        // Add the buffer data to the archive data
-        arcdata.addAll(bufdata);
+  /**
+   * Pass the data in the specified time range for the point through the downsampler, a record at a time as it is read.
+   * 
+   * @param pm
+   *          The point to get the data for.
+   * @param start_time
+   *          The earliest time in the range of interest.
+   * @param end_time
+   *          The most recent time in the range of interest.
+   * @param ds
+   *          The downsampler to reduce the data.
+   * @return Vector containing the reduced data. <tt>null</tt> will be returned if no data were found.
+   */
+  private static Vector<PointData> getPointData(PointDescription pm, AbsTime start_time, AbsTime end_time, final Downsampler ds) {
+    Vector<PointData> bufdata = theirStore.getRange(pm, start_time, end_time);
+    PointData oldest = theirStore.getOldest(pm);
+    if (oldest == null || start_time.isBefore(oldest.getTimestamp())) {
+      // Some data is only in the archive. Read up to the start of the buffered data
+      AbsTime arc_end = end_time;
+      if (bufdata != null && !bufdata.isEmpty()) {
+        arc_end = bufdata.firstElement().getTimestamp().add(RelTime.factory(-1));
+      }
+      if (start_time.isBeforeOrEquals(arc_end)) {
+        PointArchiver.getPointArchiver().extract(pm, start_time, arc_end, new PointArchiver.RecordHandler() {
+          public boolean handle(PointData pd) {
+            ds.add(pd);
+            return true;
+          }
+        });
       }
     }
-
-    // If a maximum number of samples was specified then down-sample
-    if (arcdata.size() > 0 && maxsamples > 1 && arcdata.size() > maxsamples) {
-      // System.err.println("PointBuffer: Need to down-sample from " +
-      // arcdata.size() + " to " + maxsamples);
-      AbsTime nextsamp = start_time;
-      RelTime increment = RelTime.factory((end_time.getValue() - start_time.getValue()) / maxsamples);
-      Vector<PointData> newres = new Vector<PointData>(maxsamples);
-
-      int i = 0;
-      while (i < arcdata.size() && nextsamp.isBeforeOrEquals(end_time)) {
-        // Find the next sample which needs to be kept
-        while (i < arcdata.size() && ((PointData) arcdata.get(i)).getTimestamp().isBefore(nextsamp)) {
-          i++;
-        }
-        // If we've exhausted the data then exit the loop
-        if (i >= arcdata.size()) {
-          break;
-        }
-
-        // We need to keep this sample
-        newres.add(arcdata.get(i));
-        nextsamp = nextsamp.add(increment);
-        i++;
+    if (bufdata != null) {
+      for (int i = 0; i < bufdata.size(); i++) {
+        ds.add(bufdata.get(i));
       }
-      arcdata = newres;
     }
 
-    // Ensure null result if no data were found.
-    if (arcdata.isEmpty()) {
-      arcdata = null;
+    Vector<PointData> res = ds.getResult();
+    if (res.isEmpty()) {
+      res = null;
     }
-    return arcdata;
+    return res;
   }
 
   /**
@@ -276,6 +320,30 @@ public class PointBuffer {
     return getPointData(pm, start, end, sample_rate);
   }
 
+  /**
+   * Return data in the specified time range for the given point, downsampled with the specified mode.
+   * 
+   * @param point
+   *          Source and point name to get the data for. This must be in the format <tt>source.pointname</tt>.
+   * @param start
+   *          The earliest time in the range of interest.
+   * @param end
+   *          The most recent time in the range of interest.
+   * @param maxsamples
+   *          The maximum number of samples to be returned. 0 for no limit.
+   * @param mode
+   *          Name of the downsampling mode, or null for the default.
+   * @return Vector containing the data in the specified time range. <tt>null</tt> will be returned if no data were found or if
+   *         the source/point name were invalid.
+   */
+  public static Vector<PointData> getPointData(String point, AbsTime start, AbsTime end, int maxsamples, String mode) {
+    PointDescription pm = PointDescription.getPoint(point);
+    if (pm == null) {
+      return null;
+    }
+    return getPointData(pm, start, end, maxsamples, mode);
+  }
+
   /**
    * Return the last record who's timestamp is <= the timestamp argument.
    * 
@@ -286,36 +354,25 @@ public class PointBuffer {
    * @return The data, or null if no record was found.
    */
   public static PointData getPreceding(String point, AbsTime timestamp) {
-    // Try to get the specified point and check if it was found
-    PointDescription pm = PointDescription.getPoint(point);
+    return getPreceding(PointDescription.getPoint(point), timestamp);
+  }
+
+  /**
+   * Return the last record who's timestamp is <= the timestamp argument.
+   * 
+   * @param pm
+   *          Monitor point to request data for.
+   * @param timestamp
+   *          Get data before or equalling this time.
+   * @return The data, or null if no record was found.
+   */
+  public static PointData getPreceding(PointDescription pm, AbsTime timestamp) {
     if (pm == null) {
       return null;
     }
 
-    PointData res = null;
-
     // Check if the requested data is still in our memory buffer
-    LinkedList<PointData> bufferdata = theirBufferTable.get(pm);
-    if (bufferdata != null) {
-      synchronized (bufferdata) {
-        if (!bufferdata.isEmpty() && bufferdata.getFirst().getTimestamp().isBeforeOrEquals(timestamp)) {
-          // That which we seek is buffered
-          Iterator<PointData> i = bufferdata.iterator();
-          res = i.next();
-          while (i.hasNext()) {
-            PointData pd = i.next();
-            if (pd.getTimestamp().isAfter(timestamp)) {
-              break;
-            }
-            res = pd;
-          }
-          if (res == null) {
-            // Data must not exist
-            return null;
-          }
-        }
-      }
-    }
+    PointData res = theirStore.getPreceding(pm, timestamp);
 
     if (res == null) {
       // The data is no longer buffered - need to ask the archive
@@ -336,8 +393,19 @@ public class PointBuffer {
    * @return The data, or null if no record was found.
    */
   public static PointData getFollowing(String point, AbsTime timestamp) {
-    // Try to get the specified point and check if it was found
-    PointDescription pm = PointDescription.getPoint(point);
+    return getFollowing(PointDescription.getPoint(point), timestamp);
+  }
+
+  /**
+   * Return the last record who's timestamp is >= the timestamp argument.
+   * 
+   * @param pm
+   *          Monitor point to request data for.
+   * @param timestamp
+   *          Get data after or equalling this time.
+   * @return The data, or null if no record was found.
+   */
+  public static PointData getFollowing(PointDescription pm, AbsTime timestamp) {
     if (pm == null) {
       return null;
     }
@@ -346,30 +414,15 @@ public class PointBuffer {
     PointData temp = null;
 
     // Check if the requested data is still in our memory buffer
-    LinkedList<PointData> bufferdata = theirBufferTable.get(pm);
-    if (bufferdata != null) {
-      synchronized (bufferdata) {
-
-        if (!bufferdata.isEmpty()) {
-          if (bufferdata.getFirst().getTimestamp().isBeforeOrEquals(timestamp)) {
-            // That which we seek is certainly in the buffer
-            // Could use descendingIterator, but only since 1.6.
-            for (int i = bufferdata.size() - 1; i >= 0; i--) {
-              PointData pd = ((PointData) bufferdata.get(i));
-              if (pd.getTimestamp().isBefore(timestamp)) {
-                // Stop now
-                break;
-              } else {
-                // This record satisfies our criteria
-                res = pd;
-              }
-            }
-          } else {
-            // Can't be certain it is in buffer, but might be depending on what
-            // data the archive contains.
-            temp = bufferdata.getFirst();
-          }
-        }
+    PointData oldest = theirStore.getOldest(pm);
+    if (oldest != null) {
+      if (oldest.getTimestamp().isBeforeOrEquals(timestamp)) {
+        // That which we seek is certainly in the buffer
+        res = theirStore.getFollowing(pm, timestamp);
+      } else {
+        // Can't be certain it is in buffer, but might be depending on what
+        // data the archive contains.
+        temp = oldest;
       }
     }
 
@@ -385,67 +438,4 @@ public class PointBuffer {
 
     return res;
   }
-
-  /**
-   * Check if the specified timestamp is after or equal to the oldest data in the buffer for the specified point.
-   * 
-   * @param pm
-   *          The point to check.
-   * @param time
-   *          The timestamp to be checked against the buffer.
-   * @return True if the timestamp is equal to or more recent than the oldest buffered data, False otherwise.
-   */
-  private static boolean isAfterOrEqualsFirstData(PointDescription pm, AbsTime time) {
-    boolean res = false;
-    LinkedList<PointData> databuffer = theirBufferTable.get(pm);
-    if (databuffer != null) {
-      synchronized (databuffer) {
-        if (!databuffer.isEmpty() && time.isAfterOrEquals(databuffer.getFirst().getTimestamp())) {
-          res = true;
-        }
-      }
-    }
-    return res;
-  }
-
-  /**
-   * Return data for the given point from the memory buffer between the specified times. NOTE: This data is from the memory buffer
-   * only, the disk archive is not accessed for this operation.
-   * 
-   * @param pm
-   *          The point to get the data for.
-   * @param start_time
-   *          The earliest time in the range of interest.
-   * @param end_time
-   *          The most recent time in the range of interest.
-   * @return Vector of buffer data in the given time range. <tt>null</tt> will be returned if no data were found.
-   */
-  private static Vector<PointData> getPointDataBuffer(PointDescription pm, AbsTime start_time, AbsTime end_time) {
-    Vector<PointData> res = null;
-    LinkedList<PointData> databuffer = theirBufferTable.get(pm);
-    if (databuffer != null) {
-      synchronized (databuffer) {
-        if (!databuffer.isEmpty()) {
-          res = new Vector<PointData>(databuffer.size());
-          Iterator<PointData> i = databuffer.iterator();
-          while (i.hasNext()) {
-            PointData pd = i.next();
-            AbsTime thistime = pd.getTimestamp();
-            if (thistime.isAfter(end_time)) {
-              // We've moved into the realm of data that is too recent
-              break;
-            }
-            if (thistime.isAfterOrEquals(start_time)) {
-              res.add(pd);
-            }
-          }
-          if (res.isEmpty()) {
-            // Didn't find anything
-            res = null;
-          }
-        }
-      }
-    }
-    return res;
-  }
 }
@@ -0,0 +1,93 @@
+//
+// Copyright (C) CSIRO Australia Telescope National Facility
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Library General Public License
+// as published by the Free Software Foundation; either version 2
+// of the License, or (at your option) any later version.
+
+package atnf.atoms.mon;
+
+import java.util.Vector;
+import atnf.atoms.time.*;
+
+/**
+ * Superclass for the in-memory storage used by <tt>PointBuffer</tt> to hold the most recent updates for each point. The
+ * implementation is selected using the <tt>BufferStore</tt> configuration property, which is appended to the name of this class,
+ * eg <tt>BufferStore Ring</tt> selects <tt>PointBufferStoreRing</tt>.
+ *
+ * <P>
+ * Implementations must be safe for concurrent use. Updates for any given point are always serialised by the point itself, but reads
+ * may occur from any thread at any time.
+ *
+ * @author David Brodrick
+ */
+public abstract class PointBufferStore {
+  /** The maximum number of records to be buffered for a single point. */
+  protected int itsMaxSize;
+
+  /** The maximum amount of time to buffer data for a single point. */
+  protected RelTime itsMaxAge;
+
+  /** The maximum amount of time to buffer data for a single point, in microseconds. */
+  protected long itsMaxAgeValue;
+
+  /**
+   * Specify the buffer limits.
+   *
+   * @param maxsize
+   *          The maximum number of records to be buffered for a single point.
+   * @param maxage
+   *          The maximum amount of time to buffer data for a single point.
+   */
+  protected void setLimits(int maxsize, RelTime maxage) {
+    itsMaxSize = maxsize;
+    itsMaxAge = maxage;
+    itsMaxAgeValue = maxage.getValue();
+  }
+
+  /**
+   * Add new data to the buffer for the given point, expiring any data which exceeds the buffer limits.
+   *
+   * @param pm
+   *          The point to add the new data for.
+   * @param data
+   *          The new data for the given point. Will not be null.
+   */
+  public abstract void add(PointDescription pm, PointData data);
+
+  /**
+   * Return the most recent buffered data for the point.
+   *
+   * @return The latest data, or null if nothing is buffered.
+   */
+  public abstract PointData getLatest(PointDescription pm);
+
+  /**
+   * Return the oldest buffered data for the point.
+   *
+   * @return The oldest data, or null if nothing is buffered.
+   */
+  public abstract PointData getOldest(PointDescription pm);
+
+  /**
+   * Return the buffered data between the specified times (inclusive).
+   *
+   * @return Vector of buffer data in the given time range, or null if no data were found.
+   */
+  public abstract Vector<PointData> getRange(PointDescription pm, AbsTime start, AbsTime end);
+
+  /**
+   * Return the last buffered record who's timestamp is <= the timestamp argument.
+   *
+   * @return The data, or null if no such record is buffered.
+   */
+  public abstract PointData getPreceding(PointDescription pm, AbsTime timestamp);
+
+  /**
+   * Return the first buffered record who's timestamp is >= the timestamp argument.
+   *
+   * @return The data, or null if no such record is buffered.
+   */
+  public abstract PointData getFollowing(PointDescription pm, AbsTime timestamp);
+}
@@ -0,0 +1,147 @@
+//
+// Copyright (C) CSIRO Australia Telescope National Facility
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Library General Public License
+// as published by the Free Software Foundation; either version 2
+// of the License, or (at your option) any later version.
+
+package atnf.atoms.mon;
+
+import java.util.*;
+import atnf.atoms.time.*;
+
+/**
+ * The original buffer store, which keeps a synchronised <tt>LinkedList</tt> of updates for each point.
+ *
+ * @author David Brodrick
+ * @author Le Cuong Nguyen
+ */
+public class PointBufferStoreList extends PointBufferStore {
+  /** Stores the buffers of recently collected data for each point. */
+  private Hashtable<PointDescription, LinkedList<PointData>> itsBufferTable = new Hashtable<PointDescription, LinkedList<PointData>>(1000, 1000);
+
+  public void add(PointDescription pm, PointData data) {
+    LinkedList<PointData> thisbuf = itsBufferTable.get(pm);
+    if (thisbuf == null) {
+      synchronized (itsBufferTable) {
+        // Lock buffer and try again or create if need be
+        thisbuf = itsBufferTable.get(pm);
+        if (thisbuf == null) {
+          // New point, add it to the table
+          thisbuf = new LinkedList<PointData>();
+          itsBufferTable.put(pm, thisbuf);
+        }
+      }
+    }
+
+    synchronized (thisbuf) {
+      // Remove any old data from the buffer
+      long agecutoff = AbsTime.nowValue() - itsMaxAgeValue;
+      while (thisbuf.size() > 0 && (thisbuf.size() > itsMaxSize || thisbuf.getFirst().getTimestamp().isBeforeOrEquals(agecutoff))) {
+        thisbuf.removeFirst();
+      }
+
+      // Add the new data to the buffer
+      thisbuf.add(data);
+    }
+  }
+
+  public PointData getLatest(PointDescription pm) {
+    PointData res = null;
+    LinkedList<PointData> thisbuf = itsBufferTable.get(pm);
+    if (thisbuf != null) {
+      synchronized (thisbuf) {
+        if (!thisbuf.isEmpty()) {
+          res = thisbuf.getLast();
+        }
+      }
+    }
+    return res;
+  }
+
+  public PointData getOldest(PointDescription pm) {
+    PointData res = null;
+    LinkedList<PointData> thisbuf = itsBufferTable.get(pm);
+    if (thisbuf != null) {
+      synchronized (thisbuf) {
+        if (!thisbuf.isEmpty()) {
+          res = thisbuf.getFirst();
+        }
+      }
+    }
+    return res;
+  }
+
+  public Vector<PointData> getRange(PointDescription pm, AbsTime start_time, AbsTime end_time) {
+    Vector<PointData> res = null;
+    LinkedList<PointData> databuffer = itsBufferTable.get(pm);
+    if (databuffer != null) {
+      synchronized (databuffer) {
+        if (!databuffer.isEmpty()) {
+          res = new Vector<PointData>(databuffer.size());
+          Iterator<PointData> i = databuffer.iterator();
+          while (i.hasNext()) {
+            PointData pd = i.next();
+            AbsTime thistime = pd.getTimestamp();
+            if (thistime.isAfter(end_time)) {
+              // We've moved into the realm of data that is too recent
+              break;
+            }
+            if (thistime.isAfterOrEquals(start_time)) {
+              res.add(pd);
+            }
+          }
+          if (res.isEmpty()) {
+            // Didn't find anything
+            res = null;
+          }
+        }
+      }
+    }
+    return res;
+  }
+
+  public PointData getPreceding(PointDescription pm, AbsTime timestamp) {
+    PointData res = null;
+    LinkedList<PointData> bufferdata = itsBufferTable.get(pm);
+    if (bufferdata != null) {
+      synchronized (bufferdata) {
+        if (!bufferdata.isEmpty() && bufferdata.getFirst().getTimestamp().isBeforeOrEquals(timestamp)) {
+          // That which we seek is buffered
+          Iterator<PointData> i = bufferdata.iterator();
+          res = i.next();
+          while (i.hasNext()) {
+            PointData pd = i.next();
+            if (pd.getTimestamp().isAfter(timestamp)) {
+              break;
+            }
+            res = pd;
+          }
+        }
+      }
+    }
+    return res;
+  }
+
+  public PointData getFollowing(PointDescription pm, AbsTime timestamp) {
+    PointData res = null;
+    LinkedList<PointData> bufferdata = itsBufferTable.get(pm);
+    if (bufferdata != null) {
+      synchronized (bufferdata) {
+        Iterator<PointData> i = bufferdata.descendingIterator();
+        while (i.hasNext()) {
+          PointData pd = i.next();
+          if (pd.getTimestamp().isBefore(timestamp)) {
+            // Stop now
+            break;
+          } else {
+            // This record satisfies our criteria
+            res = pd;
+          }
+        }
+      }
+    }
+    return res;
+  }
+}
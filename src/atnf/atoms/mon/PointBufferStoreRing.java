@@ -0,0 +1,241 @@
+//
+// Copyright (C) CSIRO Australia Telescope National Facility
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Library General Public License
+// as published by the Free Software Foundation; either version 2
+// of the License, or (at your option) any later version.
+
+package atnf.atoms.mon;
+
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import atnf.atoms.time.*;
+
+/**
+ * Buffer store which keeps a fixed-capacity ring of updates for each point. Updates for a point are serialised by the point, so
+ * each ring has a single writer. Readers never take a lock: they read the published bounds of the ring, locate records by binary
+ * search on the timestamps, and then check that the slots they read were not recycled by the writer in the meantime, retrying if
+ * they were.
+ *
+ * @author David Brodrick
+ */
+public class PointBufferStoreRing extends PointBufferStore {
+  /** Number of lock-free read attempts before a reader falls back to locking the ring. */
+  private static final int theirMaxRetries = 3;
+
+  /** The ring for each point. */
+  private ConcurrentHashMap<PointDescription, Ring> itsRings = new ConcurrentHashMap<PointDescription, Ring>(1000);
+
+  /**
+   * Fixed capacity ring of updates for a single point. Records are addressed by a monotonically increasing logical index, the slot
+   * for index <i>i</i> being <i>i % capacity</i>. Valid records occupy the logical indices <tt>[itsTail, itsHead)</tt>.
+   */
+  private static class Ring {
+    /** The buffered records. */
+    final AtomicReferenceArray<PointData> itsData;
+
+    /** The number of slots in the ring. */
+    final int itsCapacity;
+
+    /** Logical index of the next record to be written. */
+    volatile long itsHead = 0;
+
+    /** Logical index of the oldest valid record. Always advanced before a slot is recycled. */
+    volatile long itsTail = 0;
+
+    Ring(int capacity) {
+      itsCapacity = capacity;
+      itsData = new AtomicReferenceArray<PointData>(capacity);
+    }
+
+    PointData get(long i) {
+      return itsData.get((int) (i % itsCapacity));
+    }
+
+    /** Return the smallest index in [lo,hi) with a timestamp >= key, or hi if there is none. */
+    long ceiling(long lo, long hi, long key) {
+      while (lo < hi) {
+        long mid = (lo + hi) >>> 1;
+        if (getKey(get(mid).getTimestamp()) < key) {
+          lo = mid + 1;
+        } else {
+          hi = mid;
+        }
+      }
+      return lo;
+    }
+
+    /** Return the largest index in [lo,hi) with a timestamp <= key, or lo-1 if there is none. */
+    long floor(long lo, long hi, long key) {
+      long first = lo;
+      while (lo < hi) {
+        long mid = (lo + hi) >>> 1;
+        if (getKey(get(mid).getTimestamp()) <= key) {
+          lo = mid + 1;
+        } else {
+          hi = mid;
+        }
+      }
+      return lo > first ? lo - 1 : first - 1;
+    }
+  }
+
+  /** Map a timestamp onto a long which orders correctly, including the special time NEVER. */
+  private static long getKey(AbsTime t) {
+    return t.isNEVER() ? Long.MAX_VALUE : t.getValue();
+  }
+
+  public void add(PointDescription pm, PointData data) {
+    Ring ring = itsRings.get(pm);
+    if (ring == null) {
+      // Buffer holds MaxBufferSize records plus the newest update, as for the list store
+      Ring newring = new Ring(Math.max(1, itsMaxSize + 1));
+      ring = itsRings.putIfAbsent(pm, newring);
+      if (ring == null) {
+        ring = newring;
+      }
+    }
+
+    synchronized (ring) {
+      long tail = ring.itsTail;
+      long head = ring.itsHead;
+      // Expire any records which are too old
+      long agecutoff = AbsTime.nowValue() - itsMaxAgeValue;
+      while (tail < head && getKey(ring.get(tail).getTimestamp()) <= agecutoff) {
+        tail++;
+      }
+      // Make room for the new record, publishing the new tail before the slot is recycled
+      if (tail < head + 1 - ring.itsCapacity) {
+        tail = head + 1 - ring.itsCapacity;
+      }
+      ring.itsTail = tail;
+      ring.itsData.set((int) (head % ring.itsCapacity), data);
+      ring.itsHead = head + 1;
+    }
+  }
+
+  public PointData getLatest(PointDescription pm) {
+    Ring ring = itsRings.get(pm);
+    if (ring == null) {
+      return null;
+    }
+    for (int attempt = 0; attempt < theirMaxRetries; attempt++) {
+      long head = ring.itsHead;
+      if (ring.itsTail >= head) {
+        return null;
+      }
+      PointData res = ring.get(head - 1);
+      if (head - 1 >= ring.itsTail) {
+        return res;
+      }
+    }
+    synchronized (ring) {
+      return ring.itsTail < ring.itsHead ? ring.get(ring.itsHead - 1) : null;
+    }
+  }
+
+  public PointData getOldest(PointDescription pm) {
+    Ring ring = itsRings.get(pm);
+    if (ring == null) {
+      return null;
+    }
+    for (int attempt = 0; attempt < theirMaxRetries; attempt++) {
+      long tail = ring.itsTail;
+      if (tail >= ring.itsHead) {
+        return null;
+      }
+      PointData res = ring.get(tail);
+      if (tail >= ring.itsTail) {
+        return res;
+      }
+    }
+    synchronized (ring) {
+      return ring.itsTail < ring.itsHead ? ring.get(ring.itsTail) : null;
+    }
+  }
+
+  public Vector<PointData> getRange(PointDescription pm, AbsTime start_time, AbsTime end_time) {
+    Ring ring = itsRings.get(pm);
+    if (ring == null) {
+      return null;
+    }
+    long startkey = getKey(start_time);
+    long endkey = getKey(end_time);
+    Vector<PointData> res = null;
+    boolean valid = false;
+    for (int attempt = 0; attempt < theirMaxRetries && !valid; attempt++) {
+      res = getRange(ring, startkey, endkey);
+      valid = res != null;
+    }
+    if (!valid) {
+      synchronized (ring) {
+        res = getRange(ring, startkey, endkey);
+      }
+    }
+    if (res.isEmpty()) {
+      res = null;
+    }
+    return res;
+  }
+
+  /** Copy records within the given range, or return null if the ring was modified underneath us. */
+  private Vector<PointData> getRange(Ring ring, long startkey, long endkey) {
+    long tail = ring.itsTail;
+    long head = ring.itsHead;
+    long first = ring.ceiling(tail, head, startkey);
+    long last = ring.floor(first, head, endkey);
+    Vector<PointData> res = new Vector<PointData>((int) Math.max(0, last - first + 1));
+    for (long i = first; i <= last; i++) {
+      res.add(ring.get(i));
+    }
+    if (tail < ring.itsTail) {
+      // Writer has since recycled or expired some of the records we looked at
+      return null;
+    }
+    return res;
+  }
+
+  public PointData getPreceding(PointDescription pm, AbsTime timestamp) {
+    Ring ring = itsRings.get(pm);
+    if (ring == null) {
+      return null;
+    }
+    long key = getKey(timestamp);
+    for (int attempt = 0; attempt < theirMaxRetries; attempt++) {
+      long tail = ring.itsTail;
+      long head = ring.itsHead;
+      long i = ring.floor(tail, head, key);
+      PointData res = i >= tail ? ring.get(i) : null;
+      if (tail >= ring.itsTail) {
+        return res;
+      }
+    }
+    synchronized (ring) {
+      long i = ring.floor(ring.itsTail, ring.itsHead, key);
+      return i >= ring.itsTail ? ring.get(i) : null;
+    }
+  }
+
+  public PointData getFollowing(PointDescription pm, AbsTime timestamp) {
+    Ring ring = itsRings.get(pm);
+    if (ring == null) {
+      return null;
+    }
+    long key = getKey(timestamp);
+    for (int attempt = 0; attempt < theirMaxRetries; attempt++) {
+      long tail = ring.itsTail;
+      long head = ring.itsHead;
+      long i = ring.ceiling(tail, head, key);
+      PointData res = i < head ? ring.get(i) : null;
+      if (tail >= ring.itsTail) {
+        return res;
+      }
+    }
+    synchronized (ring) {
+      long i = ring.ceiling(ring.itsTail, ring.itsHead, key);
+      return i < ring.itsHead ? ring.get(i) : null;
+    }
+  }
+}
@@ -8,6 +8,7 @@
 package atnf.atoms.mon;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.io.*;
 import java.awt.event.*;
 import javax.swing.event.*;
@@ -89,6 +90,9 @@ public class PointDescription implements ActionListener, NamedObject, Comparable
   /** Translations used to transform the data. */
   protected Translation[] itsTranslations = null;
 
+  /** Listener which is given each update before any other processing, or null. */
+  protected volatile PointListener itsDependencyListener = null;
+
   /** String representation of Translations. */
   protected String[] itsTranslationStrings = {};
 
@@ -432,6 +436,15 @@ public class PointDescription implements ActionListener, NamedObject, Comparable
     itsListenerList.remove(PointListener.class, listener);
   }
 
+  /**
+   * Set the listener which is given each update as soon as it has been translated, on the thread which fired the update and before
+   * any alarm checking, archiving or distribution to the normal listeners. This is used by the <tt>DependencyEngine</tt> to
+   * propagate updates to derived points in the correct order.
+   */
+  public void setDependencyListener(PointListener listener) {
+    itsDependencyListener = listener;
+  }
+
   public void actionPerformed(ActionEvent e) {
   }
 
@@ -858,9 +871,13 @@ public class PointDescription implements ActionListener, NamedObject, Comparable
     return result;
   }
 
-  /** Distribute data to listeners. */
-  public synchronized void distributeData(PointEvent pe) {
-    // Pass the event on to all listeners
+  /**
+   * Distribute data to listeners. This doesn't lock the point, so a slow listener
+   * doesn't hold up the next update.
+   */
+  public void distributeData(PointEvent pe) {
+    // Pass the event on to all listeners. The list is a snapshot, so it is safe to
+    // use while listeners are being added or removed.
     Object[] listeners = itsListenerList.getListenerList();
     for (int i = 0; i < listeners.length; i += 2) {
       if (listeners[i] == PointListener.class) {
@@ -908,81 +925,112 @@ public class PointDescription implements ActionListener, NamedObject, Comparable
       pe = new PointEvent(this, data, false);
     }
 
-    if (data != null && data.isValid()) {
-      // Check alarm criteria    
-      evaluateAlarms(data);
-
-      // Perform any required output transactions
-      if (getEnabled() && itsOutputTransactions != null && itsOutputTransactions.length > 0) {
-        for (int i = 0; i < itsOutputTransactions.length; i++) {
-          Transaction thistrans = itsOutputTransactions[i];
-          if (thistrans != null) {
-            // Find the ExternalSystem responsible for handling this control operation
-            ExternalSystem ds = ExternalSystem.getExternalSystem(thistrans.getChannel());
-            if (ds == null) {
-              theirLogger.warn("(" + getFullName() + ") No ExternalSystem for output Transaction channel " + thistrans.getChannel());
-            } else if (!ds.isConnected()) {
-              // Could connect here but might block for too long?
-              theirLogger.warn("(" + getFullName() + ") While writing output data: ExternalSystem " + thistrans.getChannel() + " is not connected");
-            } else {
-              try {
-                ds.putData(this, data);
-              } catch (Exception e) {
-                //e.printStackTrace();
-                theirLogger.warn("(" + getFullName() + ") while writing output data, ExternalSystem " + ds.getName() + " threw exception \"" + e + "\"");
-              }
-            }
-          }
-        }
+    // Let derived points know about the update straight away
+    PointListener dependants = itsDependencyListener;
+    if (dependants != null && data != null) {
+      try {
+        dependants.onPointEvent(this, pe);
+      } catch (Exception e) {
+        theirLogger.warn(getFullName() + ": Error passing update to derived points (" + e + ")");
       }
+    }
 
-      // Change registered alarm status if required
-      if (itsPriority > -1) {
-        AlarmManager.setAlarm(this, data);
+    // Schedule the next collection
+    if (itsPeriod > 0) {
+      if (data != null && data.isValid()) {
+        itsNextEpoch = data.getTimestamp().getValue() + itsPeriod;
+      } else {
+        itsNextEpoch = AbsTime.nowValue() + itsPeriod;
       }
+    }
+
+    PointEventPipeline pipeline = PointEventPipeline.getPipeline();
+    if (pipeline != null) {
+      // Remaining processing is handed off so we don't stall the caller
+      pipeline.process(this, pe);
+      return;
+    }
 
-      // Send any required notifications, unless acknowledged or shelved
-      if (itsNotifications != null && itsNotifications.length > 0) {
-        Alarm alarm = AlarmManager.getAlarm(this);
-        if (alarm == null || (!alarm.isAcknowledged() && !alarm.isShelved())) {
-          for (int i = 0; i < itsNotifications.length; i++) {
+    if (data != null && data.isValid()) {
+      checkAlarms(data);
+      doOutputTransactions(data);
+      doNotifications(data);
+      doArchive(data);
+    }
+
+    // Add the updated value to the data buffer
+    if (data != null) {
+      PointBuffer.updateData(this, data);
+    }
+
+    // Pass the event on to all listeners
+    distributeData(pe);
+  }
+
+  /** Check the alarm criteria for new data and record any change in alarm status. */
+  protected void checkAlarms(PointData data) {
+    // Check alarm criteria
+    evaluateAlarms(data);
+
+    // Change registered alarm status if required
+    if (itsPriority > -1) {
+      AlarmManager.setAlarm(this, data);
+    }
+  }
+
+  /** Perform any required output transactions for new data. */
+  protected void doOutputTransactions(PointData data) {
+    if (getEnabled() && itsOutputTransactions != null && itsOutputTransactions.length > 0) {
+      for (int i = 0; i < itsOutputTransactions.length; i++) {
+        Transaction thistrans = itsOutputTransactions[i];
+        if (thistrans != null) {
+          // Find the ExternalSystem responsible for handling this control operation
+          ExternalSystem ds = ExternalSystem.getExternalSystem(thistrans.getChannel());
+          if (ds == null) {
+            theirLogger.warn("(" + getFullName() + ") No ExternalSystem for output Transaction channel " + thistrans.getChannel());
+          } else if (!ds.isConnected()) {
+            // Could connect here but might block for too long?
+            theirLogger.warn("(" + getFullName() + ") While writing output data: ExternalSystem " + thistrans.getChannel() + " is not connected");
+          } else {
             try {
-              if (itsNotifications[i] != null) {
-                itsNotifications[i].checkNotify(data);
-              }
+              ds.putData(this, data);
             } catch (Exception e) {
-              theirLogger.error("(" + getFullName() + ") Error on Notification " + (i + 1) + "/" + itsNotifications.length + ": " + e);
-              e.printStackTrace();
+              //e.printStackTrace();
+              theirLogger.warn("(" + getFullName() + ") while writing output data, ExternalSystem " + ds.getName() + " threw exception \"" + e + "\"");
             }
           }
         }
       }
+    }
+  }
 
-      // Archive data
-      if (itsArchiver != null && itsEnabled) {
-        for (int i = 0; i < itsArchive.length; i++) {
-          if (itsArchive[i] != null && itsArchive[i].checkArchiveThis(data)) {
-            itsArchiver.archiveData(this, data);
-            break;
+  /** Send any required notifications for new data, unless acknowledged or shelved. */
+  protected void doNotifications(PointData data) {
+    if (itsNotifications != null && itsNotifications.length > 0) {
+      Alarm alarm = AlarmManager.getAlarm(this);
+      if (alarm == null || (!alarm.isAcknowledged() && !alarm.isShelved())) {
+        for (int i = 0; i < itsNotifications.length; i++) {
+          try {
+            if (itsNotifications[i] != null) {
+              itsNotifications[i].checkNotify(data);
+            }
+          } catch (Exception e) {
+            theirLogger.error("(" + getFullName() + ") Error on Notification " + (i + 1) + "/" + itsNotifications.length + ": " + e);
+            e.printStackTrace();
           }
         }
       }
     }
+  }
 
-    // Add the updated value to the data buffer
-    if (data != null) {
-      PointBuffer.updateData(this, data);
-    }
-
-    // Pass the event on to all listeners
-    distributeData(pe);
-
-    // Schedule the next collection
-    if (itsPeriod > 0) {
-      if (data != null && data.isValid()) {
-        itsNextEpoch = data.getTimestamp().getValue() + itsPeriod;
-      } else {
-        itsNextEpoch = (new AbsTime()).getValue() + itsPeriod;
+  /** Archive new data if required by the archive policies. */
+  protected void doArchive(PointData data) {
+    if (itsArchiver != null && itsEnabled) {
+      for (int i = 0; i < itsArchive.length; i++) {
+        if (itsArchive[i] != null && itsArchive[i].checkArchiveThis(data)) {
+          itsArchiver.archiveData(this, data);
+          break;
+        }
       }
     }
   }
@@ -1066,73 +1114,120 @@ public class PointDescription implements ActionListener, NamedObject, Comparable
   }
 
   /** Map of all points (including aliases) indexed by name. */
-  private static TreeMap<String, PointDescription> theirPoints = new TreeMap<String, PointDescription>();
+  private static ConcurrentHashMap<String, PointDescription> theirPoints = new ConcurrentHashMap<String, PointDescription>(4096);
 
   /** Map of all points (excluding aliases) indexed by name. */
-  private static TreeMap<String, PointDescription> theirUniquePoints = new TreeMap<String, PointDescription>();
+  private static ConcurrentHashMap<String, PointDescription> theirUniquePoints = new ConcurrentHashMap<String, PointDescription>(4096);
+
+  /** Sorted names of all points (including aliases), or null if it needs to be rebuilt. */
+  private static volatile String[] theirNameSnapshot = null;
+
+  /** Sorted names of all points (excluding aliases), or null if it needs to be rebuilt. */
+  private static volatile String[] theirUniqueNameSnapshot = null;
+
+  /** All points (excluding aliases) sorted by name, or null if it needs to be rebuilt. */
+  private static volatile PointDescription[] theirUniquePointSnapshot = null;
+
+  /** Lock held while adding points or rebuilding the snapshots. */
+  private static final Object theirRegistryLock = new Object();
 
   /** Add a new point to the running system. */
-  public static synchronized void addPoint(PointDescription pm) {
+  public static void addPoint(PointDescription pm) {
     String[] names = pm.getFullNames();
-    if (!theirUniquePoints.containsKey(names[0])) {
-      theirUniquePoints.put(names[0], pm);
-    }
-    for (int i = 0; i < names.length; i++) {
-      if (!theirPoints.containsKey(names[i])) {
-        theirPoints.put(names[i], pm);
+    synchronized (theirRegistryLock) {
+      theirUniquePoints.putIfAbsent(names[0], pm);
+      for (int i = 0; i < names.length; i++) {
+        theirPoints.putIfAbsent(names[i], pm);
       }
+      // Snapshots are rebuilt when next needed, so adding many points at once is cheap
+      theirNameSnapshot = null;
+      theirUniqueNameSnapshot = null;
+      theirUniquePointSnapshot = null;
     }
   }
 
-  /** Returns all the point names (including aliases) in the system */
-  public static synchronized String[] getAllPointNames() {
-    return MonitorUtils.toStringArray(theirPoints.keySet().toArray());
+  /** Return the keys of the map as a sorted array. */
+  private static String[] getSortedNames(ConcurrentHashMap<String, PointDescription> map) {
+    String[] res = map.keySet().toArray(new String[0]);
+    Arrays.sort(res);
+    return res;
+  }
+
+  /** Returns all the point names (including aliases) in the system, sorted. The array is shared and must not be modified. */
+  public static String[] getAllPointNames() {
+    String[] res = theirNameSnapshot;
+    if (res == null) {
+      synchronized (theirRegistryLock) {
+        res = theirNameSnapshot;
+        if (res == null) {
+          res = getSortedNames(theirPoints);
+          theirNameSnapshot = res;
+        }
+      }
+    }
+    return res;
   }
 
-  /** Returns all the point names (excluding aliases) in the system */
-  public static synchronized String[] getAllUniqueNames() {
-    return MonitorUtils.toStringArray(theirUniquePoints.keySet().toArray());
+  /** Returns all the point names (excluding aliases) in the system, sorted. The array is shared and must not be modified. */
+  public static String[] getAllUniqueNames() {
+    String[] res = theirUniqueNameSnapshot;
+    if (res == null) {
+      synchronized (theirRegistryLock) {
+        res = theirUniqueNameSnapshot;
+        if (res == null) {
+          res = getSortedNames(theirUniquePoints);
+          theirUniqueNameSnapshot = res;
+        }
+      }
+    }
+    return res;
   }
 
   /** Get the point with the specified name. */
-  public static synchronized PointDescription getPoint(String name) {
+  public static PointDescription getPoint(String name) {
+    if (name == null) {
+      return null;
+    }
     return theirPoints.get(name);
   }
 
   /** Get all points (including aliases). */
-  public static synchronized Collection<PointDescription> getAllPoints() {
-    return theirPoints.values();
-  }
-
-  /** Get all points (excluding aliases). */
-  public static synchronized PointDescription[] getAllUniquePoints() {
-    Collection<PointDescription> values = theirUniquePoints.values();
-    PointDescription[] res = new PointDescription[values.size()];
-    theirUniquePoints.values().toArray(res);
+  public static Collection<PointDescription> getAllPoints() {
+    return Collections.unmodifiableCollection(theirPoints.values());
+  }
+
+  /** Get all points (excluding aliases), sorted by name. The array is shared and must not be modified. */
+  public static PointDescription[] getAllUniquePoints() {
+    PointDescription[] res = theirUniquePointSnapshot;
+    if (res == null) {
+      synchronized (theirRegistryLock) {
+        res = theirUniquePointSnapshot;
+        if (res == null) {
+          String[] names = getAllUniqueNames();
+          res = new PointDescription[names.length];
+          for (int i = 0; i < names.length; i++) {
+            res[i] = theirUniquePoints.get(names[i]);
+          }
+          theirUniquePointSnapshot = res;
+        }
+      }
+    }
     return res;
   }
 
   /** Check if the point with the specified name exists */
   public static boolean checkPointName(String name) {
-    if (theirPoints.containsKey(name)) {
-      return true;
-    } else {
-      return false;
-    }
+    return name != null && theirPoints.containsKey(name);
   }
 
   /** Check if the point if the given name if an alias, rather than a primary point name. */
   public static boolean checkPointAlias(String name) {
-    if (theirPoints.containsKey(name) && !theirUniquePoints.containsKey(name)) {
-      return true;
-    } else {
-      return false;
-    }
+    return name != null && theirPoints.containsKey(name) && !theirUniquePoints.containsKey(name);
   }
 
   /** Check if the point is a valid primary name (0), a valid alias (1) or doesn't exist (-1). */
   public static int checkPointNameType(String name) {
-    if (!theirPoints.containsKey(name)) {
+    if (name == null || !theirPoints.containsKey(name)) {
       // Point doesn't exist
       return -1;
     } else if (!theirUniquePoints.containsKey(name)) {
@@ -0,0 +1,300 @@
+//
+// Copyright (C) CSIRO Australia Telescope National Facility
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Library General Public License
+// as published by the Free Software Foundation; either version 2
+// of the License, or (at your option) any later version.
+
+package atnf.atoms.mon;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import org.apache.log4j.Logger;
+import atnf.atoms.mon.util.LatencyHistogram;
+import atnf.atoms.mon.util.MonitorConfig;
+
+/**
+ * Optional staged pipeline for processing point updates once they have been translated. When enabled with the
+ * <tt>PointEventPipeline</tt> configuration property, <tt>PointDescription.firePointEvent</tt> translates the data on the calling
+ * thread as usual, but hands the remaining processing to the stages of this pipeline so that a slow notification, output
+ * transaction or listener cannot stall data collection.
+ *
+ * <P>
+ * The stages are:
+ * <ul>
+ * <li><b>alarm</b> Evaluate the alarm criteria and update the <tt>AlarmManager</tt>. Once complete the update is buffered and passed
+ * to the following stages.
+ * <li><b>output</b> Perform output transactions.
+ * <li><b>notify</b> Send notifications.
+ * <li><b>archive</b> Hand the data to the archiver.
+ * <li><b>listener</b> Distribute the update to the point's listeners.
+ * </ul>
+ *
+ * <P>
+ * Each stage has its own pool of <tt>PointEventPipelineThreads</tt> threads. Within a stage the updates for any one point are
+ * always processed one at a time and in order. The queue of points waiting for each pool is bounded by
+ * <tt>PointEventPipelineQueueSize</tt>, and when it is full the submitting thread processes the work itself, which slows the
+ * producer rather than allowing an unbounded backlog.
+ *
+ * <P>
+ * Each stage records histograms of the time updates spend queued and the time taken to process them.
+ *
+ * @author David Brodrick
+ */
+public class PointEventPipeline {
+  /** Name of the alarm evaluation stage. */
+  public static final String ALARM = "alarm";
+
+  /** Name of the output transaction stage. */
+  public static final String OUTPUT = "output";
+
+  /** Name of the notification stage. */
+  public static final String NOTIFY = "notify";
+
+  /** Name of the archive stage. */
+  public static final String ARCHIVE = "archive";
+
+  /** Name of the listener distribution stage. */
+  public static final String LISTENER = "listener";
+
+  /** The pipeline, or null if it is not enabled. */
+  private static PointEventPipeline theirPipeline = null;
+
+  /** Logger. */
+  private static Logger theirLogger = Logger.getLogger(PointEventPipeline.class.getName());
+
+  /** Static block to create the pipeline if it is enabled. */
+  static {
+    if (Boolean.parseBoolean(MonitorConfig.getProperty("PointEventPipeline", "false"))) {
+      int numthreads;
+      try {
+        numthreads = Integer.parseInt(MonitorConfig.getProperty("PointEventPipelineThreads", "2"));
+      } catch (Exception e) {
+        theirLogger.warn("Error parsing PointEventPipelineThreads configuration parameter: " + e);
+        numthreads = 2;
+      }
+      int queuesize;
+      try {
+        queuesize = Integer.parseInt(MonitorConfig.getProperty("PointEventPipelineQueueSize", "1000"));
+      } catch (Exception e) {
+        theirLogger.warn("Error parsing PointEventPipelineQueueSize configuration parameter: " + e);
+        queuesize = 1000;
+      }
+      theirPipeline = new PointEventPipeline(numthreads, queuesize);
+      theirLogger.info("Point update pipeline enabled with " + numthreads + " threads per stage");
+    }
+  }
+
+  /** Return the pipeline, or null if updates are processed entirely by the calling thread. */
+  public static PointEventPipeline getPipeline() {
+    return theirPipeline;
+  }
+
+  /** One stage of the pipeline. */
+  public static class Stage {
+    /** Name of the stage. */
+    private String itsName;
+
+    /** Threads which run the stage. */
+    private ThreadPoolExecutor itsPool;
+
+    /** Queue of pending work for each point. */
+    private ConcurrentHashMap<PointDescription, PointQueue> itsQueues = new ConcurrentHashMap<PointDescription, PointQueue>(1000);
+
+    /** Number of tasks awaiting processing. */
+    private AtomicInteger itsPending = new AtomicInteger();
+
+    /** Time tasks spend waiting to be processed. */
+    private LatencyHistogram itsQueueTime = new LatencyHistogram();
+
+    /** Time taken to process tasks. */
+    private LatencyHistogram itsServiceTime = new LatencyHistogram();
+
+    /** A task with the time it was submitted. */
+    private static class Task {
+      final Runnable itsRunnable;
+      final long itsSubmitTime;
+
+      Task(Runnable r) {
+        itsRunnable = r;
+        itsSubmitTime = System.nanoTime();
+      }
+    }
+
+    /** Pending work for a single point, drained by at most one thread at a time. */
+    private class PointQueue implements Runnable {
+      /** Maximum number of tasks processed before yielding the thread to other points. */
+      static final int MAXBATCH = 32;
+
+      final PointDescription itsPoint;
+      final ConcurrentLinkedQueue<Task> itsTasks = new ConcurrentLinkedQueue<Task>();
+      final AtomicBoolean itsScheduled = new AtomicBoolean(false);
+
+      PointQueue(PointDescription point) {
+        itsPoint = point;
+      }
+
+      public void run() {
+        for (int i = 0; i < MAXBATCH; i++) {
+          Task t = itsTasks.poll();
+          if (t == null) {
+            break;
+          }
+          itsPending.decrementAndGet();
+          long start = System.nanoTime();
+          itsQueueTime.record((start - t.itsSubmitTime) / 1000);
+          try {
+            t.itsRunnable.run();
+          } catch (Throwable e) {
+            theirLogger.error("(" + itsPoint.getFullName() + ") Error in " + itsName + " stage: " + e);
+            e.printStackTrace();
+          }
+          itsServiceTime.record((System.nanoTime() - start) / 1000);
+        }
+        itsScheduled.set(false);
+        if (!itsTasks.isEmpty()) {
+          schedule(this);
+        }
+      }
+    }
+
+    Stage(String name, int numthreads, int queuesize) {
+      itsName = name;
+      final String threadname = "PointEventPipeline " + name;
+      itsPool = new ThreadPoolExecutor(numthreads, numthreads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queuesize), new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, threadname);
+          t.setDaemon(true);
+          return t;
+        }
+      }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /** Queue the task to be run after any work already queued for the same point. */
+    public void submit(PointDescription point, Runnable task) {
+      PointQueue q = itsQueues.get(point);
+      if (q == null) {
+        PointQueue newq = new PointQueue(point);
+        q = itsQueues.putIfAbsent(point, newq);
+        if (q == null) {
+          q = newq;
+        }
+      }
+      itsPending.incrementAndGet();
+      q.itsTasks.add(new Task(task));
+      schedule(q);
+    }
+
+    /** Give the point's queue to the thread pool, unless it is already scheduled. */
+    private void schedule(PointQueue q) {
+      if (q.itsScheduled.compareAndSet(false, true)) {
+        itsPool.execute(q);
+      }
+    }
+
+    /** Return the name of the stage. */
+    public String getName() {
+      return itsName;
+    }
+
+    /** Return the number of tasks awaiting processing. */
+    public int getPending() {
+      return itsPending.get();
+    }
+
+    /** Return the histogram of time tasks spend waiting to be processed. */
+    public LatencyHistogram getQueueTime() {
+      return itsQueueTime;
+    }
+
+    /** Return the histogram of time taken to process tasks. */
+    public LatencyHistogram getServiceTime() {
+      return itsServiceTime;
+    }
+  }
+
+  /** The alarm evaluation stage. */
+  private Stage itsAlarmStage;
+
+  /** The output transaction stage. */
+  private Stage itsOutputStage;
+
+  /** The notification stage. */
+  private Stage itsNotifyStage;
+
+  /** The archive stage. */
+  private Stage itsArchiveStage;
+
+  /** The listener distribution stage. */
+  private Stage itsListenerStage;
+
+  private PointEventPipeline(int numthreads, int queuesize) {
+    itsAlarmStage = new Stage(ALARM, numthreads, queuesize);
+    itsOutputStage = new Stage(OUTPUT, numthreads, queuesize);
+    itsNotifyStage = new Stage(NOTIFY, numthreads, queuesize);
+    itsArchiveStage = new Stage(ARCHIVE, numthreads, queuesize);
+    itsListenerStage = new Stage(LISTENER, numthreads, queuesize);
+  }
+
+  /** Return all of the stages. */
+  public Stage[] getStages() {
+    return new Stage[] { itsAlarmStage, itsOutputStage, itsNotifyStage, itsArchiveStage, itsListenerStage };
+  }
+
+  /** Return the stage with the given name, or null if there is no such stage. */
+  public Stage getStage(String name) {
+    Stage[] stages = getStages();
+    for (int i = 0; i < stages.length; i++) {
+      if (stages[i].getName().equals(name)) {
+        return stages[i];
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Process a translated update for the point.
+   *
+   * @param point
+   *          The point which has updated.
+   * @param pe
+   *          The translated event, which will be distributed to listeners.
+   */
+  public void process(final PointDescription point, final PointEvent pe) {
+    itsAlarmStage.submit(point, new Runnable() {
+      public void run() {
+        final PointData data = pe.getPointData();
+        if (data != null && data.isValid()) {
+          point.checkAlarms(data);
+
+          itsOutputStage.submit(point, new Runnable() {
+            public void run() {
+              point.doOutputTransactions(data);
+            }
+          });
+          itsNotifyStage.submit(point, new Runnable() {
+            public void run() {
+              point.doNotifications(data);
+            }
+          });
+          itsArchiveStage.submit(point, new Runnable() {
+            public void run() {
+              point.doArchive(data);
+            }
+          });
+        }
+
+        // Alarm state is now known so the update can be published
+        if (data != null) {
+          PointBuffer.updateData(point, data);
+        }
+        itsListenerStage.submit(point, new Runnable() {
+          public void run() {
+            point.distributeData(pe);
+          }
+        });
+      }
+    });
+  }
+}
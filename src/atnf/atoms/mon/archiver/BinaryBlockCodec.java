@@ -0,0 +1,607 @@
+//
+// Copyright (C) CSIRO Australia Telescope National Facility
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Library General Public License
+// as published by the Free Software Foundation; either version 2
+// of the License, or (at your option) any later version.
+
+package atnf.atoms.mon.archiver;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.*;
+import atnf.atoms.mon.PointData;
+import atnf.atoms.util.*;
+import atnf.atoms.time.*;
+
+/**
+ * Encodes blocks of archive records for <tt>PointArchiverBinary</tt>. A block holds a run of records for a single point and is
+ * self-contained, so it can be decoded without reference to any other block.
+ *
+ * <P>
+ * The records are split into columns, each of which is encoded to suit its contents:
+ * <ul>
+ * <li><b>time</b> The first timestamp, then the first difference, then the differences between consecutive differences, as
+ * zig-zag varints. Regularly sampled points cost a byte per record.
+ * <li><b>type</b> Run-length encoded type tags.
+ * <li><b>alarm</b> Run-length encoded alarm flags, as alternating run lengths starting with a run of records not in alarm.
+ * <li><b>double</b> <tt>Double</tt> and <tt>Angle</tt> values XOR'd with the previous value and packed as in Facebook's Gorilla.
+ * <li><b>float</b> <tt>Float</tt> values, packed the same way.
+ * <li><b>integer</b> Integral, <tt>Boolean</tt>, <tt>AbsTime</tt> and <tt>RelTime</tt> values as zig-zag varint differences from
+ * the previous integral value.
+ * <li><b>string</b> <tt>String</tt>, <tt>EnumItem</tt> and <tt>BigInteger</tt> values as indices into a dictionary which is built
+ * up as the block is decoded. The first occurrence of each value is written in full.
+ * </ul>
+ * The payload of the block is each column in turn, preceded by its length.
+ *
+ * @author David Brodrick
+ */
+class BinaryBlockCodec {
+  /** Type tags. */
+  static final int T_NULL = 0;
+  static final int T_DBL = 1;
+  static final int T_FLT = 2;
+  static final int T_INT = 3;
+  static final int T_SHORT = 4;
+  static final int T_LONG = 5;
+  static final int T_BOOL = 6;
+  static final int T_STR = 7;
+  static final int T_ENUM = 8;
+  static final int T_ANG = 9;
+  static final int T_HR = 10;
+  static final int T_ABST = 11;
+  static final int T_RELT = 12;
+  static final int T_BIG = 13;
+
+  /** Number of columns in a block. */
+  private static final int NUMCOLUMNS = 7;
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /** Return the type tag for the object, or -1 if the type cannot be archived. */
+  static int getType(Object data) {
+    if (data == null) {
+      return T_NULL;
+    } else if (data instanceof Double) {
+      return T_DBL;
+    } else if (data instanceof Float) {
+      return T_FLT;
+    } else if (data instanceof Integer) {
+      return T_INT;
+    } else if (data instanceof Short) {
+      return T_SHORT;
+    } else if (data instanceof Long) {
+      return T_LONG;
+    } else if (data instanceof Boolean) {
+      return T_BOOL;
+    } else if (data instanceof String) {
+      return T_STR;
+    } else if (data instanceof EnumItem) {
+      return T_ENUM;
+    } else if (data instanceof HourAngle) {
+      return T_HR;
+    } else if (data instanceof Angle) {
+      return T_ANG;
+    } else if (data instanceof AbsTime) {
+      return T_ABST;
+    } else if (data instanceof RelTime) {
+      return T_RELT;
+    } else if (data instanceof BigInteger) {
+      return T_BIG;
+    }
+    return -1;
+  }
+
+  /**
+   * Encode the records into a block payload. Records must be in time order and of types accepted by <tt>getType</tt>.
+   *
+   * @param data
+   *          The records to encode.
+   * @return The payload.
+   */
+  static byte[] encode(List<PointData> data) {
+    ByteColumn times = new ByteColumn();
+    ByteColumn types = new ByteColumn();
+    ByteColumn alarms = new ByteColumn();
+    XORColumn doubles = new XORColumn(64);
+    XORColumn floats = new XORColumn(32);
+    ByteColumn integers = new ByteColumn();
+    ByteColumn strings = new ByteColumn();
+
+    long prevtime = 0;
+    long prevdelta = 0;
+    int prevtype = -1;
+    int typerun = 0;
+    boolean prevalarm = false;
+    int alarmrun = 0;
+    long previnteger = 0;
+    HashMap<String, Integer> dictionary = new HashMap<String, Integer>();
+
+    for (int i = 0; i < data.size(); i++) {
+      PointData pd = data.get(i);
+
+      // Timestamps
+      long t = pd.getTimestamp().getValue();
+      if (i == 0) {
+        times.writeVarLong(t);
+      } else if (i == 1) {
+        prevdelta = t - prevtime;
+        times.writeSignedVarLong(prevdelta);
+      } else {
+        long delta = t - prevtime;
+        times.writeSignedVarLong(delta - prevdelta);
+        prevdelta = delta;
+      }
+      prevtime = t;
+
+      // Type tags
+      Object val = pd.getData();
+      int type = getType(val);
+      if (type == prevtype) {
+        typerun++;
+      } else {
+        if (typerun > 0) {
+          types.writeVarLong(prevtype);
+          types.writeVarLong(typerun);
+        }
+        prevtype = type;
+        typerun = 1;
+      }
+
+      // Alarm flags
+      if (pd.getAlarm() == prevalarm) {
+        alarmrun++;
+      } else {
+        alarms.writeVarLong(alarmrun);
+        prevalarm = !prevalarm;
+        alarmrun = 1;
+      }
+
+      // Values
+      switch (type) {
+      case T_DBL:
+        doubles.write(Double.doubleToRawLongBits(((Double) val).doubleValue()));
+        break;
+      case T_ANG:
+      case T_HR:
+        doubles.write(Double.doubleToRawLongBits(((Angle) val).getValue()));
+        break;
+      case T_FLT:
+        floats.write(Float.floatToRawIntBits(((Float) val).floatValue()) & 0xFFFFFFFFL);
+        break;
+      case T_INT:
+      case T_SHORT:
+      case T_LONG:
+      case T_BOOL:
+      case T_ABST:
+      case T_RELT: {
+        long l;
+        if (type == T_BOOL) {
+          l = ((Boolean) val).booleanValue() ? 1 : 0;
+        } else if (type == T_ABST) {
+          l = ((AbsTime) val).getValue();
+        } else if (type == T_RELT) {
+          l = ((RelTime) val).getValue();
+        } else {
+          l = ((Number) val).longValue();
+        }
+        integers.writeSignedVarLong(l - previnteger);
+        previnteger = l;
+        break;
+      }
+      case T_STR:
+      case T_ENUM:
+      case T_BIG: {
+        String s = val.toString();
+        Integer index = dictionary.get(s);
+        if (index == null) {
+          // New entry, which the decoder will add to its own dictionary
+          strings.writeVarLong(dictionary.size());
+          byte[] b = s.getBytes(UTF8);
+          strings.writeVarLong(b.length);
+          strings.write(b, 0, b.length);
+          dictionary.put(s, dictionary.size());
+        } else {
+          strings.writeVarLong(index.intValue());
+        }
+        break;
+      }
+      case T_NULL:
+        break;
+      default:
+        throw new IllegalArgumentException("Unsupported Type: " + val.getClass());
+      }
+    }
+    if (typerun > 0) {
+      types.writeVarLong(prevtype);
+      types.writeVarLong(typerun);
+    }
+    alarms.writeVarLong(alarmrun);
+
+    ByteColumn[] columns = new ByteColumn[] { times, types, alarms, doubles.finish(), floats.finish(), integers, strings };
+    ByteColumn res = new ByteColumn();
+    for (int i = 0; i < columns.length; i++) {
+      res.writeVarLong(columns[i].size());
+      res.write(columns[i].itsData, 0, columns[i].size());
+    }
+    return res.toByteArray();
+  }
+
+  /**
+   * Decode the records in a block payload, passing each to the handler in turn.
+   *
+   * @param buf
+   *          Buffer containing the payload.
+   * @param offset
+   *          Offset of the payload within the buffer.
+   * @param length
+   *          Length of the payload.
+   * @param count
+   *          Number of records in the block.
+   * @param pname
+   *          Name of the point the records belong to.
+   * @param handler
+   *          The handler for each record.
+   * @return <code>False</code> if the handler stopped the decoding, <code>True</code> otherwise.
+   */
+  static boolean decode(ByteBuffer buf, int offset, int length, int count, String pname, PointArchiver.RecordHandler handler) {
+    ByteReader payload = new ByteReader(buf, offset, offset + length);
+    ByteReader[] columns = new ByteReader[NUMCOLUMNS];
+    for (int i = 0; i < NUMCOLUMNS; i++) {
+      int len = (int) payload.readVarLong();
+      if (len < 0 || payload.itsPos + len > payload.itsEnd) {
+        throw new IllegalArgumentException("Corrupt block");
+      }
+      columns[i] = new ByteReader(buf, payload.itsPos, payload.itsPos + len);
+      payload.itsPos += len;
+    }
+    ByteReader times = columns[0];
+    ByteReader types = columns[1];
+    ByteReader alarms = columns[2];
+    XORReader doubles = new XORReader(columns[3], 64);
+    XORReader floats = new XORReader(columns[4], 32);
+    ByteReader integers = columns[5];
+    ByteReader strings = columns[6];
+
+    long prevtime = 0;
+    long prevdelta = 0;
+    int type = -1;
+    long typerun = 0;
+    boolean alarm = true;
+    long alarmrun = 0;
+    long previnteger = 0;
+    ArrayList<String> dictionary = new ArrayList<String>();
+
+    for (int i = 0; i < count; i++) {
+      long t;
+      if (i == 0) {
+        t = times.readVarLong();
+      } else if (i == 1) {
+        prevdelta = times.readSignedVarLong();
+        t = prevtime + prevdelta;
+      } else {
+        prevdelta += times.readSignedVarLong();
+        t = prevtime + prevdelta;
+      }
+      prevtime = t;
+
+      while (typerun == 0) {
+        type = (int) types.readVarLong();
+        typerun = types.readVarLong();
+      }
+      typerun--;
+
+      while (alarmrun == 0) {
+        alarm = !alarm;
+        alarmrun = alarms.readVarLong();
+      }
+      alarmrun--;
+
+      Object val;
+      switch (type) {
+      case T_NULL:
+        val = null;
+        break;
+      case T_DBL:
+        val = Double.valueOf(Double.longBitsToDouble(doubles.read()));
+        break;
+      case T_ANG:
+        val = Angle.factory(Double.longBitsToDouble(doubles.read()));
+        break;
+      case T_HR:
+        val = new HourAngle(Double.longBitsToDouble(doubles.read()));
+        break;
+      case T_FLT:
+        val = Float.valueOf(Float.intBitsToFloat((int) floats.read()));
+        break;
+      case T_INT:
+      case T_SHORT:
+      case T_LONG:
+      case T_BOOL:
+      case T_ABST:
+      case T_RELT: {
+        long l = previnteger + integers.readSignedVarLong();
+        previnteger = l;
+        if (type == T_INT) {
+          val = Integer.valueOf((int) l);
+        } else if (type == T_SHORT) {
+          val = Short.valueOf((short) l);
+        } else if (type == T_LONG) {
+          val = Long.valueOf(l);
+        } else if (type == T_BOOL) {
+          val = Boolean.valueOf(l != 0);
+        } else if (type == T_ABST) {
+          val = AbsTime.factory(l);
+        } else {
+          val = RelTime.factory(l);
+        }
+        break;
+      }
+      case T_STR:
+      case T_ENUM:
+      case T_BIG: {
+        int index = (int) strings.readVarLong();
+        String s;
+        if (index == dictionary.size()) {
+          int len = (int) strings.readVarLong();
+          s = strings.readString(len);
+          dictionary.add(s);
+        } else {
+          s = dictionary.get(index);
+        }
+        if (type == T_STR) {
+          val = s;
+        } else if (type == T_BIG) {
+          val = new BigInteger(s);
+        } else {
+          try {
+            val = EnumItem.valueOf(s);
+          } catch (Exception e) {
+            val = null;
+          }
+        }
+        break;
+      }
+      default:
+        throw new IllegalArgumentException("Unknown type tag " + type);
+      }
+
+      if (!handler.handle(new PointData(pname, AbsTime.factory(t), val, alarm))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Growable column of bytes with varint encoding. */
+  static class ByteColumn {
+    byte[] itsData = new byte[256];
+    int itsSize = 0;
+
+    void writeByte(int b) {
+      if (itsSize == itsData.length) {
+        itsData = Arrays.copyOf(itsData, itsData.length * 2);
+      }
+      itsData[itsSize++] = (byte) b;
+    }
+
+    void write(byte[] b, int off, int len) {
+      if (itsSize + len > itsData.length) {
+        itsData = Arrays.copyOf(itsData, Math.max(itsData.length * 2, itsSize + len));
+      }
+      System.arraycopy(b, off, itsData, itsSize, len);
+      itsSize += len;
+    }
+
+    /** Write an unsigned value, seven bits per byte. */
+    void writeVarLong(long v) {
+      while ((v & ~0x7FL) != 0) {
+        writeByte((int) ((v & 0x7F) | 0x80));
+        v >>>= 7;
+      }
+      writeByte((int) v);
+    }
+
+    /** Write a signed value with zig-zag encoding so that small negative values are short. */
+    void writeSignedVarLong(long v) {
+      writeVarLong((v << 1) ^ (v >> 63));
+    }
+
+    int size() {
+      return itsSize;
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(itsData, itsSize);
+    }
+  }
+
+  /** Reads a column of bytes from a buffer. */
+  static class ByteReader {
+    final ByteBuffer itsBuf;
+    int itsPos;
+    final int itsEnd;
+
+    ByteReader(ByteBuffer buf, int start, int end) {
+      itsBuf = buf;
+      itsPos = start;
+      itsEnd = end;
+    }
+
+    int readByte() {
+      if (itsPos >= itsEnd) {
+        throw new IllegalArgumentException("Corrupt block");
+      }
+      return itsBuf.get(itsPos++) & 0xFF;
+    }
+
+    long readVarLong() {
+      long res = 0;
+      int shift = 0;
+      int b;
+      do {
+        b = readByte();
+        res |= (long) (b & 0x7F) << shift;
+        shift += 7;
+      } while ((b & 0x80) != 0 && shift < 64);
+      return res;
+    }
+
+    long readSignedVarLong() {
+      long v = readVarLong();
+      return (v >>> 1) ^ -(v & 1);
+    }
+
+    String readString(int len) {
+      if (len < 0 || itsPos + len > itsEnd) {
+        throw new IllegalArgumentException("Corrupt block");
+      }
+      byte[] b = new byte[len];
+      for (int i = 0; i < len; i++) {
+        b[i] = itsBuf.get(itsPos + i);
+      }
+      itsPos += len;
+      return new String(b, UTF8);
+    }
+  }
+
+  /**
+   * Column of floating point values of the given width, each XOR'd with the previous value. An unchanged value takes one bit.
+   * Otherwise the meaningful bits of the XOR are written, reusing the previous count of leading and trailing zeros when they still
+   * fit.
+   */
+  static class XORColumn extends ByteColumn {
+    final int itsWidth;
+    int itsCurrent = 0;
+    int itsNumBits = 0;
+    long itsPrev = 0;
+    int itsPrevLeading = -1;
+    int itsPrevTrailing = 0;
+    boolean itsFirst = true;
+
+    XORColumn(int width) {
+      itsWidth = width;
+    }
+
+    void writeBits(long v, int n) {
+      while (n > 0) {
+        int space = 8 - itsNumBits;
+        int take = Math.min(space, n);
+        int bits = (int) ((v >>> (n - take)) & ((1 << take) - 1));
+        itsCurrent |= bits << (space - take);
+        itsNumBits += take;
+        n -= take;
+        if (itsNumBits == 8) {
+          writeByte(itsCurrent);
+          itsCurrent = 0;
+          itsNumBits = 0;
+        }
+      }
+    }
+
+    void write(long bits) {
+      if (itsFirst) {
+        writeBits(bits, itsWidth);
+        itsFirst = false;
+      } else {
+        long xor = bits ^ itsPrev;
+        if (xor == 0) {
+          writeBits(0, 1);
+        } else {
+          int leading = Math.min(Long.numberOfLeadingZeros(xor) - (64 - itsWidth), 31);
+          int trailing = Long.numberOfTrailingZeros(xor);
+          if (itsPrevLeading != -1 && leading >= itsPrevLeading && trailing >= itsPrevTrailing) {
+            // Fits within the previous window
+            writeBits(2, 2);
+            writeBits(xor >>> itsPrevTrailing, itsWidth - itsPrevLeading - itsPrevTrailing);
+          } else {
+            int meaningful = itsWidth - leading - trailing;
+            writeBits(3, 2);
+            writeBits(leading, 5);
+            // A length of 64 is written as 0
+            writeBits(meaningful & 0x3F, 6);
+            writeBits(xor >>> trailing, meaningful);
+            itsPrevLeading = leading;
+            itsPrevTrailing = trailing;
+          }
+        }
+      }
+      itsPrev = bits;
+    }
+
+    /** Flush any partial byte and return this column. */
+    XORColumn finish() {
+      if (itsNumBits > 0) {
+        writeByte(itsCurrent);
+        itsCurrent = 0;
+        itsNumBits = 0;
+      }
+      return this;
+    }
+  }
+
+  /** Reads a column written by <tt>XORColumn</tt>. */
+  static class XORReader {
+    final ByteReader itsIn;
+    final int itsWidth;
+    int itsCurrent = 0;
+    int itsNumBits = 0;
+    long itsPrev = 0;
+    int itsPrevLeading = -1;
+    int itsPrevTrailing = 0;
+    boolean itsFirst = true;
+
+    XORReader(ByteReader in, int width) {
+      itsIn = in;
+      itsWidth = width;
+    }
+
+    long readBits(int n) {
+      long res = 0;
+      while (n > 0) {
+        if (itsNumBits == 0) {
+          itsCurrent = itsIn.readByte();
+          itsNumBits = 8;
+        }
+        int take = Math.min(itsNumBits, n);
+        int bits = (itsCurrent >>> (itsNumBits - take)) & ((1 << take) - 1);
+        res = (res << take) | bits;
+        itsNumBits -= take;
+        n -= take;
+      }
+      return res;
+    }
+
+    long read() {
+      if (itsFirst) {
+        itsPrev = readBits(itsWidth);
+        itsFirst = false;
+      } else if (readBits(1) != 0) {
+        if (readBits(1) == 0) {
+          if (itsPrevLeading == -1) {
+            throw new IllegalArgumentException("Corrupt block");
+          }
+          long xor = readBits(itsWidth - itsPrevLeading - itsPrevTrailing) << itsPrevTrailing;
+          itsPrev ^= xor;
+        } else {
+          int leading = (int) readBits(5);
+          int meaningful = (int) readBits(6);
+          if (meaningful == 0) {
+            meaningful = 64;
+          }
+          int trailing = itsWidth - leading - meaningful;
+          if (trailing < 0) {
+            throw new IllegalArgumentException("Corrupt block");
+          }
+          long xor = readBits(meaningful) << trailing;
+          itsPrev ^= xor;
+          itsPrevLeading = leading;
+          itsPrevTrailing = trailing;
+        }
+      }
+      return itsPrev;
+    }
+  }
+}
@@ -24,6 +24,18 @@ public abstract class PointArchiver extends Thread {
   /** Archiver used for archiving data to disk, database, etc. */
   private static PointArchiver theirArchiver;
 
+  /** Receives each record as it is read from the archive. */
+  public interface RecordHandler {
+    /**
+     * Handle the next record from the archive.
+     * 
+     * @param pd
+     *          The record.
+     * @return <code>True</code> to continue reading, <code>False</code> if no further records are required.
+     */
+    boolean handle(PointData pd);
+  }
+
   /** Logger. */
   protected Logger itsLogger = Logger.getLogger(getClass().getName());
 
@@ -192,6 +204,88 @@ public abstract class PointArchiver extends Thread {
    */
   protected abstract Vector<PointData> extractDeep(PointDescription pm, AbsTime start, AbsTime end);
 
+  /**
+   * Pass all data for the point over the time range to the handler, in time order, as it is read from the archive. Unlike
+   * <i>extract</i> the data isn't held in memory, so the whole range is read rather than being clipped at the maximum number of
+   * records.
+   * 
+   * @param pm
+   *          Point to extract data for.
+   * @param start
+   *          Earliest time in the range of interest.
+   * @param end
+   *          Most recent time in the range of interest.
+   * @param handler
+   *          The handler for each record.
+   */
+  public void extract(PointDescription pm, AbsTime start, AbsTime end, RecordHandler handler) {
+    // Data still waiting to be written is newer than anything on disk
+    Vector<PointData> pending = new Vector<PointData>();
+    Vector<PointData> buffer = itsBuffer.get(pm);
+    if (buffer != null) {
+      synchronized (buffer) {
+        for (int i = 0; i < buffer.size(); i++) {
+          AbsTime ts = buffer.get(i).getTimestamp();
+          if (ts.isAfterOrEquals(start) && ts.isBeforeOrEquals(end)) {
+            pending.add(buffer.get(i));
+          }
+        }
+      }
+    }
+    AbsTime diskend = end;
+    if (!pending.isEmpty()) {
+      diskend = pending.firstElement().getTimestamp().add(RelTime.factory(-1));
+    }
+    try {
+      if (start.isBeforeOrEquals(diskend) && !extractDeep(pm, start, diskend, handler)) {
+        return;
+      }
+      for (int i = 0; i < pending.size(); i++) {
+        if (!handler.handle(pending.get(i))) {
+          return;
+        }
+      }
+    } catch (Exception e) {
+      itsLogger.warn("While extracting archive data: " + e);
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Pass all data for the point over the time range to the handler as it is read from disk. By default this reads the data
+   * through <i>extractDeep</i> in chunks of at most the maximum number of records, so subclasses which can read their records one
+   * at a time should override it.
+   * 
+   * @param pm
+   *          Point to extract data for.
+   * @param start
+   *          Earliest time in the range of interest.
+   * @param end
+   *          Most recent time in the range of interest.
+   * @param handler
+   *          The handler for each record.
+   * @return <code>False</code> if the handler stopped the read, <code>True</code> otherwise.
+   */
+  protected boolean extractDeep(PointDescription pm, AbsTime start, AbsTime end, RecordHandler handler) {
+    AbsTime chunkstart = start;
+    while (true) {
+      Vector<PointData> data = extractDeep(pm, chunkstart, end);
+      if (data == null || data.isEmpty()) {
+        return true;
+      }
+      for (int i = 0; i < data.size(); i++) {
+        if (!handler.handle(data.get(i))) {
+          return false;
+        }
+      }
+      if (data.size() < MAXNUMRECORDS) {
+        // Query wasn't clipped so we have everything
+        return true;
+      }
+      chunkstart = data.lastElement().getTimestamp().add(RelTime.factory(1));
+    }
+  }
+
   /**
    * Return the last update which precedes the specified time. We interpret 'precedes' to mean data_time<=req_time.
    * 
@@ -330,7 +424,7 @@ public abstract class PointArchiver extends Thread {
         flushing = true;
       }
 
-      AbsTime cutoff = (new AbsTime()).add(theirMaxAge);
+      long cutoff = AbsTime.nowValue() + theirMaxAge.getValue();
       int counter = 0;
       Enumeration<PointDescription> keys = itsBuffer.keys();
       try {
@@ -351,7 +445,7 @@ public abstract class PointArchiver extends Thread {
             // This prevents bulk points all being flushed together each time.
             int namehash = pm.getFullName().hashCode();
             int minnumrecs = theirMaxRecordCount + (namehash % theirRecordCountOffset);
-            AbsTime cutoff2 = cutoff.add(namehash % theirMaxAgeOffset);
+            long cutoff2 = cutoff + namehash % theirMaxAgeOffset;
 
             if (thisdata.size() < minnumrecs && thisdata.lastElement().getTimestamp().isAfter(cutoff2)) {
               // Point does not meet any criteria for writing to the archive at this time
@@ -27,7 +27,8 @@ import atnf.atoms.time.*;
  * file.
  * 
  * <P>
- * The compression is transparent to the user as the archiver will decompress files when a archive request is made.
+ * The compression is transparent to the user as compressed files are read directly through a <tt>ZipInputStream</tt> when an
+ * archive request is made.
  * 
  * @author David Brodrick
  * @author Le Cuong Ngyuen
@@ -39,9 +40,6 @@ public class PointArchiverASCII extends PointArchiver {
   /** Base directory for the data archive. */
   private static String theirArchiveDir;
 
-  /** Directory for writing temporary files. */
-  private static File theirTempDir;
-
   /** Maximum size for an archive file. */
   private static int theirMaxFileSize;
 
@@ -60,6 +58,25 @@ public class PointArchiverASCII extends PointArchiver {
   /** Cache of current file names to write to for each point. */
   private HashMap<String, String> itsFileNameCache = new HashMap<String, String>(1000, 1000);
 
+  /**
+   * Index of the archive files in a point's directory, keyed by the BAT of the start time in each file name. The index is updated
+   * as the archiver creates, compresses and purges files, and is rebuilt from a directory listing if the modification time of the
+   * directory shows it has been changed by something else.
+   */
+  private static class DirIndex {
+    /** The files, where a compressed file's name includes the <i>.zip</i> extension. */
+    final TreeMap<Long, String> itsFiles = new TreeMap<Long, String>();
+
+    /** Modification time of the directory when the index was last brought up to date, or -1 if never. */
+    long itsModified = -1;
+
+    /** Time in ms when the index was last brought up to date. */
+    long itsChecked = 0;
+  }
+
+  /** Index of the files in each point's archive directory. */
+  private ConcurrentHashMap<String, DirIndex> itsDirIndexes = new ConcurrentHashMap<String, DirIndex>(1000);
+
   static {
     theirArchiveDir = System.getProperty("MoniCA.ArchiveDir");
     if (theirArchiveDir == null) {
@@ -75,17 +92,7 @@ public class PointArchiverASCII extends PointArchiver {
       theirLogger.info("ArchiveDir overridden by system property");
     }
 
-    String temp = MonitorConfig.getProperty("ArchiveTempDir");
-    if (temp == null) {
-      temp = MonitorConfig.getProperty("TempDir");
-    }
-    if (temp != null) {
-      theirTempDir = new File(temp);
-    } else {
-      theirLogger.error("Configuration option \"ArchiveTempDir\" was not defined");
-    }
-
-    temp = MonitorConfig.getProperty("ArchiveMaxSize");
+    String temp = MonitorConfig.getProperty("ArchiveMaxSize");
     if (temp == null) {
       temp = MonitorConfig.getProperty("ArchiveSize");
     }
@@ -158,58 +165,28 @@ public class PointArchiverASCII extends PointArchiver {
             fileName = path + FSEP + getDateTime(filedate);
             file = new File(fileName);
             file.createNewFile();
+            fileAdded(path, fileName);
           }
         } else {
-          // Need to find it. Find the right directory and get a listing of the files
-          fileName = path + FSEP + getDateTime(itsData.firstElement().getTimestamp().getAsDate());
+          // Need to find it. Find the right directory and the most recent file in it
           File myDir = new File(path);
           if (!myDir.isDirectory()) {
             myDir.mkdirs();
           }
-          String[] dirFiles = myDir.list();
-
-          // If there are no existing files, create a new empty one
-          if (dirFiles == null || dirFiles.length < 1) {
-            (new File(fileName)).createNewFile();
-            dirFiles = myDir.list();
-          }
-
-          // Find the most recent extant, non-archived file
-          int latest = -1;
-          Date lastdate = null;
-          for (int i = 0; i < dirFiles.length; i++) {
-            Date thisdate = null;
-            String thisfile = dirFiles[i];
-            if (thisfile.startsWith(".")) {
-              // It's a hidden file so ignore it
-              continue;
-            }
-            if (isCompressed(thisfile)) {
-              // Cut the ".zip" off the end of the string
-              thisfile = thisfile.substring(0, thisfile.length() - 4);
-            }
-            thisdate = getDateTime(thisfile);
-            if (thisdate == null) {
-              itsLogger.debug("PointArchiverASCII:saveNow: Bad file name " + dirFiles[i] + " in directory " + path);
-              continue;
-            }
-            if (latest == -1 || thisdate.after(lastdate)) {
-              latest = i;
-              lastdate = thisdate;
-            }
-          }
+          String latest = getLatestFile(path);
 
-          if (latest != -1 && isCompressed(dirFiles[latest])) {
-            // Latest file is compressed so need a new file
+          if (latest == null || isCompressed(latest)) {
+            // No existing files, or latest file is compressed, so need a new file
             filedate = itsData.firstElement().getTimestamp().getAsDate();
             fileName = path + FSEP + getDateTime(filedate);
             file = new File(fileName);
             file.createNewFile();
+            fileAdded(path, fileName);
           } else {
             // Found what we were looking for
-            fileName = path + FSEP + dirFiles[latest];
+            fileName = path + FSEP + latest;
             file = new File(fileName);
-            filedate = lastdate;
+            filedate = getDateTime(latest);
           }
         }
 
@@ -226,6 +203,7 @@ public class PointArchiverASCII extends PointArchiver {
           // Delete uncompressed version of the file - if we can
           try {
             file.delete();
+            fileAdded(path, fileName + ".zip");
           } catch (Exception e) {
             // Unable to delete it. Remove .zip so we don't duplicate this data
             itsLogger.warn("In saveNow: Can't delete uncompressed file " + fileName + ": " + e);
@@ -237,6 +215,7 @@ public class PointArchiverASCII extends PointArchiver {
           fileName = path + FSEP + getDateTime(filedate);
           file = new File(fileName);
           file.createNewFile();
+          fileAdded(path, fileName);
         }
 
         itsFileNameCache.put(itsPoint.getFullName(), fileName);
@@ -309,6 +288,7 @@ public class PointArchiverASCII extends PointArchiver {
       for (int i = 0; i < files.size() - 1; i++) {
         try {
           (new File(dir + FSEP + files.get(i))).delete();
+          fileRemoved(dir, files.get(i));
         } catch (Exception e) {
           // There was a problem deleting the file. Should we log a message about it?
         }
@@ -358,12 +338,8 @@ public class PointArchiverASCII extends PointArchiver {
 
     // Try to load data from each of the files
     for (int j = 0; j < files.size(); j++) {
-      loadFile(res, pm, dir + FSEP + files.get(j), start, end, true);
-      if (res.size() >= MAXNUMRECORDS) {
-        // Max size limit to prevent server bogging down
-        // MonitorMap.logger.warning("MoniCA Server: Truncating archive request
-        // to " +
-        // res.size() + " records");
+      if (!loadFile(res, pm, dir + FSEP + files.get(j), start, end, true)) {
+        // Passed the end of the range, or hit the max size limit to prevent server bogging down
         break;
       }
     }
@@ -374,6 +350,44 @@ public class PointArchiverASCII extends PointArchiver {
     return res;
   }
 
+  /**
+   * Pass each record in the time range to the handler as it is read from the archive files.
+   * 
+   * @param pm
+   *          Point to extract data for.
+   * @param start
+   *          Earliest time in the range of interest.
+   * @param end
+   *          Most recent time in the range of interest.
+   * @param handler
+   *          The handler for each record.
+   * @return <code>False</code> if the handler stopped the read, <code>True</code> otherwise.
+   */
+  protected boolean extractDeep(PointDescription pm, final AbsTime start, final AbsTime end, final RecordHandler handler) {
+    String dir = getDir(pm);
+    Vector<String> files = getFiles(dir, start, end);
+    final boolean[] stopped = new boolean[1];
+    RecordHandler range = new RecordHandler() {
+      public boolean handle(PointData pd) {
+        AbsTime ts = pd.getTimestamp();
+        if (ts.isBefore(start)) {
+          return true; // Data's too early
+        }
+        if (ts.isAfter(end)) {
+          return false; // No more useful data
+        }
+        stopped[0] = !handler.handle(pd);
+        return !stopped[0];
+      }
+    };
+    for (int j = 0; j < files.size(); j++) {
+      if (!scanFile(pm.getFullName(), dir + FSEP + files.get(j), range)) {
+        break;
+      }
+    }
+    return !stopped[0];
+  }
+
   /**
    * Return the last update which precedes the specified time. We interpret 'precedes' to mean data_time<=req_time.
    * 
@@ -396,19 +410,24 @@ public class PointArchiverASCII extends PointArchiver {
     if (preceding != null) {
       files.insertElementAt(preceding, 0);
     }
-    // Try to load data from each of the files
-    Vector<PointData> tempbuf = new Vector<PointData>(1000, 1000);
+    // Read through the files, keeping the latest update which doesn't follow the argument timestamp
+    final AbsTime target = ts;
+    final PointData[] res = new PointData[1];
+    RecordHandler handler = new RecordHandler() {
+      public boolean handle(PointData pd) {
+        if (pd.getTimestamp().isAfter(target)) {
+          return false;
+        }
+        res[0] = pd;
+        return true;
+      }
+    };
     for (int i = 0; i < files.size(); i++) {
-      loadFile(tempbuf, pm, dir + FSEP + files.get(i), null, null, false);
-    }
-
-    // Try to find the update which precedes the argument timestamp
-    PointData res = null;
-    int resi = MonitorUtils.getPrevEqualsPointData(tempbuf, ts);
-    if (resi != -1) {
-      res = tempbuf.get(resi);
+      if (!scanFile(pm.getFullName(), dir + FSEP + files.get(i), handler)) {
+        break;
+      }
     }
-    return res;
+    return res[0];
   }
 
   /**
@@ -434,27 +453,24 @@ public class PointArchiverASCII extends PointArchiver {
       files.add(following);
     }
 
-    // Try to load data from each of the files
-    Vector<PointData> tempbuf = new Vector<PointData>(1000, 1000);
-    for (int i = 0; i < files.size(); i++) {
-      loadFile(tempbuf, pm, dir + FSEP + files.get(i), null, null, false);
-    }
-
-    // Try to find the update which follows the argument timestamp
-    PointData res = null;
-    int resi = MonitorUtils.getNextPointData(tempbuf, ts);
-    if (resi != -1) {
-      // We found first point after but check if index before is equal
-      if (resi != 0) {
-        PointData prev = tempbuf.get(resi - 1);
-        if (prev.getTimestamp().equiv(ts)) {
-          // Prev is equal to request time, so it is the correct result
-          resi = resi - 1;
+    // Read through the files until we find the first update which doesn't precede the argument timestamp
+    final AbsTime target = ts;
+    final PointData[] res = new PointData[1];
+    RecordHandler handler = new RecordHandler() {
+      public boolean handle(PointData pd) {
+        if (pd.getTimestamp().isBefore(target)) {
+          return true;
         }
+        res[0] = pd;
+        return false;
+      }
+    };
+    for (int i = 0; i < files.size(); i++) {
+      if (!scanFile(pm.getFullName(), dir + FSEP + files.get(i), handler)) {
+        break;
       }
-      res = tempbuf.get(resi);
     }
-    return res;
+    return res[0];
   }
 
   /** Convert the PointData to a line of ASCII text. */
@@ -470,24 +486,37 @@ public class PointArchiverASCII extends PointArchiver {
 
   /** Recover the PointData from a line of ASCII text. */
   protected PointData getPDForString(PointDescription pm, String data) {
-    PointData res = null;
-    StringTokenizer st = new StringTokenizer(data, "\t");
-    if (st.countTokens() < 3) {
+    return getPDForString(pm.getFullName(), data);
+  }
+
+  /**
+   * Recover the PointData for the named point from a line of ASCII text. The fields are located directly rather than with a
+   * <tt>StringTokenizer</tt>, since this is called for every record read from the archive.
+   */
+  protected PointData getPDForString(String pname, String data) {
+    int tab1 = data.indexOf('\t');
+    if (tab1 == -1) {
+      return null;
+    }
+    int tab2 = data.indexOf('\t', tab1 + 1);
+    if (tab2 == -1) {
       return null;
     }
+    int tab3 = data.indexOf('\t', tab2 + 1);
+    int dataend = tab3 == -1 ? data.length() : tab3;
 
     // Try to parse the timestamp
     AbsTime ts = null;
     try {
-      ts = AbsTime.factory(st.nextToken());
+      ts = parseTimestamp(data, 0, tab1);
     } catch (Exception e) {
       System.err.println(e.getMessage());
       return null;
     }
 
     // Parse the main data field
-    String type = st.nextToken();
-    String dstr = st.nextToken();
+    String type = data.substring(tab1 + 1, tab2);
+    String dstr = data.substring(tab2 + 1, dataend);
     Object d1 = null;
     try {
       d1 = getObjectForString(type, dstr);
@@ -498,13 +527,41 @@ public class PointArchiverASCII extends PointArchiver {
 
     // Check if the record has an active alarm condition saved
     boolean alarm = false;
-    if (st.countTokens() == 1) {
-      if (st.nextToken().equals("A")) {
-        alarm = true;
+    if (tab3 != -1 && data.length() == tab3 + 2 && data.charAt(tab3 + 1) == 'A') {
+      alarm = true;
+    }
+    return new PointData(pname, ts, d1, alarm);
+  }
+
+  /**
+   * Parse the <tt>HEX_BAT</tt> timestamp which occupies the given part of the string. Anything other than an ordinary hex timestamp
+   * is handed to <tt>AbsTime.factory</tt>.
+   * 
+   * @param data
+   *          String containing the timestamp.
+   * @param start
+   *          Index of the first character of the timestamp.
+   * @param end
+   *          Index following the last character of the timestamp.
+   * @return The timestamp.
+   */
+  private static AbsTime parseTimestamp(String data, int start, int end) throws NumberFormatException, Time.Ex_TimeNotAvailable {
+    if (end - start < 3 || end - start > 18 || data.charAt(start) != '0' || data.charAt(start + 1) != 'x') {
+      return AbsTime.factory(data.substring(start, end));
+    }
+    long val = 0;
+    for (int i = start + 2; i < end; i++) {
+      int digit = Character.digit(data.charAt(i), 16);
+      if (digit < 0) {
+        throw new NumberFormatException("bad absolute time: \"" + data.substring(start, end) + "\"");
       }
+      val = (val << 4) | digit;
     }
-    res = new PointData(pm.getFullName(), ts, d1, alarm);
-    return res;
+    if (val <= 0) {
+      // Reserved or out of range, let AbsTime deal with it
+      return AbsTime.factory(data.substring(start, end));
+    }
+    return AbsTime.factory(val);
   }
 
   /**
@@ -574,23 +631,23 @@ public class PointArchiverASCII extends PointArchiver {
   protected Object getObjectForString(String type, String data) {
     Object res = null;
     if (type.equals("dbl")) {
-      res = new Double(data);
+      res = Double.valueOf(data);
     } else if (type.equals("flt")) {
-      res = new Float(data);
+      res = Float.valueOf(data);
     } else if (type.equals("ang")) {
       res = Angle.factory(data);
     } else if (type.equals("hr")) {
       res = new HourAngle(Double.parseDouble(data));
     } else if (type.equals("int")) {
-      res = new Integer(data);
+      res = Integer.valueOf(data);
     } else if (type.equals("str")) {
       res = data;
     } else if (type.equals("bool")) {
-      res = new Boolean(data);
+      res = Boolean.valueOf(data);
     } else if (type.equals("short")) {
-      res = new Short(data);
+      res = Short.valueOf(data);
     } else if (type.equals("long")) {
-      res = new Long(data);
+      res = Long.valueOf(data);
     } else if (type.equals("abst")) {
       long foo = Long.parseLong(data, 16); // Hex
       res = AbsTime.factory(foo);
@@ -615,7 +672,134 @@ public class PointArchiverASCII extends PointArchiver {
   }
 
   /**
-   * Get the names of archive files relevant to the given time range for the point.
+   * Get the key for the archive file in the directory index.
+   * 
+   * @param fname
+   *          The name of the file, without the directory.
+   * @return BAT of the start time of the file, or null if the name could not be parsed.
+   */
+  private static Long getFileKey(String fname) {
+    if (isCompressed(fname)) {
+      // Remove the ".zip" from the file name so we can parse it
+      fname = fname.substring(0, fname.length() - 4);
+    }
+    Date date = getDateTime(fname);
+    if (date == null) {
+      return null;
+    }
+    return new Long(AbsTime.factory(date).getValue());
+  }
+
+  /**
+   * Get the index of the files in the directory, rebuilding it from a listing of the directory if the directory has been modified
+   * since the index was last brought up to date. The caller must synchronise on the index while using it.
+   * 
+   * @param dir
+   *          Archive directory for the point.
+   * @return The index.
+   */
+  private DirIndex getDirIndex(String dir) {
+    DirIndex idx = itsDirIndexes.get(dir);
+    if (idx == null) {
+      DirIndex newidx = new DirIndex();
+      idx = itsDirIndexes.putIfAbsent(dir, newidx);
+      if (idx == null) {
+        idx = newidx;
+      }
+    }
+    synchronized (idx) {
+      long modified = (new File(dir)).lastModified();
+      // Modification times can be coarse, so don't trust the index if the directory changed around the time it was checked
+      if (modified == 0 || modified != idx.itsModified || idx.itsChecked - modified < 2000) {
+        idx.itsFiles.clear();
+        String[] files = (new File(dir)).list();
+        if (files != null) {
+          for (int i = 0; i < files.length; i++) {
+            if (files[i].startsWith(".")) {
+              // It's a hidden file so ignore it
+              continue;
+            }
+            Long key = getFileKey(files[i]);
+            if (key == null) {
+              itsLogger.debug("getDirIndex: Bad file name " + files[i] + " in directory " + dir);
+              continue;
+            }
+            String existing = idx.itsFiles.get(key);
+            if (existing == null || isCompressed(existing)) {
+              // If a file is present both compressed and uncompressed then the compression did not complete
+              idx.itsFiles.put(key, files[i]);
+            }
+          }
+        }
+        idx.itsModified = modified;
+        idx.itsChecked = System.currentTimeMillis();
+      }
+    }
+    return idx;
+  }
+
+  /**
+   * Record that the archiver has created or compressed a file in the directory.
+   * 
+   * @param dir
+   *          Archive directory for the point.
+   * @param fname
+   *          The name of the file, which may include the directory.
+   */
+  private void fileAdded(String dir, String fname) {
+    fname = fname.substring(fname.lastIndexOf(FSEP) + 1);
+    Long key = getFileKey(fname);
+    DirIndex idx = itsDirIndexes.get(dir);
+    if (idx == null || key == null) {
+      return;
+    }
+    synchronized (idx) {
+      idx.itsFiles.put(key, fname);
+      idx.itsModified = (new File(dir)).lastModified();
+      idx.itsChecked = System.currentTimeMillis();
+    }
+  }
+
+  /**
+   * Record that the archiver has deleted a file from the directory.
+   * 
+   * @param dir
+   *          Archive directory for the point.
+   * @param fname
+   *          The name of the file, without the directory.
+   */
+  private void fileRemoved(String dir, String fname) {
+    Long key = getFileKey(fname);
+    DirIndex idx = itsDirIndexes.get(dir);
+    if (idx == null || key == null) {
+      return;
+    }
+    synchronized (idx) {
+      if (fname.equals(idx.itsFiles.get(key))) {
+        idx.itsFiles.remove(key);
+      }
+      idx.itsModified = (new File(dir)).lastModified();
+      idx.itsChecked = System.currentTimeMillis();
+    }
+  }
+
+  /**
+   * Get the most recent archive file in the directory.
+   * 
+   * @param dir
+   *          Archive directory for the point.
+   * @return Name of the most recent file, or null if there are no files.
+   */
+  private String getLatestFile(String dir) {
+    DirIndex idx = getDirIndex(dir);
+    synchronized (idx) {
+      return idx.itsFiles.isEmpty() ? null : idx.itsFiles.lastEntry().getValue();
+    }
+  }
+
+  /**
+   * Get the names of archive files relevant to the given time range for the point. This is every file which starts within the
+   * range, and the file preceding the range since it may contain data within the range.
    * 
    * @param dir
    *          Archive directory to search.
@@ -627,80 +811,18 @@ public class PointArchiverASCII extends PointArchiver {
    */
   private Vector<String> getFiles(String dir, AbsTime start, AbsTime end) {
     Vector<String> res = new Vector<String>();
-    TreeMap<Long, String> map = new TreeMap<Long, String>();
-
-    // Get listing of all files in the archive dir for the given point
-    // /Should use filename filter with this .list() call
-    String[] files = (new File(dir)).list();
-    // Can't do anything if there were no files!
-    if (files == null || files.length == 0) {
-      return res;
-    }
-
-    // Map the filenames to dates, and sort
-    for (int i = 0; i < files.length; i++) {
-      Date date = null;
-      if (isCompressed(files[i])) {
-        // Remove the ".zip" from the file name so we can parse it
-        date = getDateTime(files[i].substring(0, files[i].length() - 4));
-      } else {
-        date = getDateTime(files[i]);
-      }
-      if (date == null) {
-        System.err.println("PointArchiverASCII:getFiles: Bad File Name " + files[i] + " in directory " + dir);
-        continue;
+    Long startkey = new Long(start.getValue());
+    Long endkey = new Long(end.getValue());
+    DirIndex idx = getDirIndex(dir);
+    synchronized (idx) {
+      Map.Entry<Long, String> prev = idx.itsFiles.lowerEntry(startkey);
+      if (prev != null) {
+        res.add(prev.getValue());
       }
-      AbsTime atime = AbsTime.factory(date);
-      map.put(new Long(atime.getValue()), files[i]);
-    }
-
-    // Get an Iterator so we can look through the files
-    Iterator it = map.keySet().iterator();
-
-    boolean hit = false; // Have we found a file within the range yet
-    Object prevkey = null; // Keep reference to previous file's epoch
-
-    while (it.hasNext()) {
-      Object key = it.next();
-      AbsTime ftime = AbsTime.factory(((Long) key).longValue());
-
-      if (ftime.isBefore(start)) {
-        // Haven't caught up to the start time yet
-        prevkey = key;
-      } else if (ftime.isAfter(end)) {
-        // This file not of interest, but prev might be
-        if (!hit) {
-          // No files completely within the range
-          // but the previous file may contain useful data
-          if (prevkey != null) {
-            hit = true;
-            res.add(map.get(prevkey)); // (if there was one)
-          }
-        }
-        // No point looking further into the future
-        break;
-
-      } else {
-        // We need this file it is within the range
-        if (!hit) {
-          // This file's start time is in the range,
-          // so the previous file may also contain useful data
-          hit = true;
-          if (prevkey != null) {
-            res.add(map.get(prevkey)); // (if there was one)
-          }
-        }
-        res.add(map.get(key));
-      }
-    }
-    if (!hit) {
-      // No files completely within the range
-      // but most recent file may contain useful data
-      if (prevkey != null) {
-        res.add(map.get(prevkey)); // (if there was one)
+      if (startkey.longValue() <= endkey.longValue()) {
+        res.addAll(idx.itsFiles.subMap(startkey, true, endkey, true).values());
       }
     }
-
     return res;
   }
 
@@ -714,46 +836,15 @@ public class PointArchiverASCII extends PointArchiver {
    * @return Next chronological file name, or null if none exist.
    */
   private String getFollowingFile(String dir, String fname) {
-    // Get timestamp corresponding to argument file
-    AbsTime argdate = null;
-    if (isCompressed(fname)) {
-      // Remove the ".zip" from the file name so we can parse it
-      argdate = AbsTime.factory(getDateTime(fname.substring(0, fname.length() - 4)));
-    } else {
-      argdate = AbsTime.factory(getDateTime(fname));
-    }
-
-    // Get listing of all files in the archive dir for the given point
-    String[] files = (new File(dir)).list();
-    if (files == null || files.length == 0) {
+    Long key = getFileKey(fname);
+    if (key == null) {
       return null;
     }
-
-    // Map the filenames to dates, and find target file
-    RelTime afterdiff = null;
-    String aftername = null;
-    for (int i = 0; i < files.length; i++) {
-      Date date = null;
-      if (isCompressed(files[i])) {
-        // Remove the ".zip" from the file name so we can parse it
-        date = getDateTime(files[i].substring(0, files[i].length() - 4));
-      } else {
-        date = getDateTime(files[i]);
-      }
-      if (date == null) {
-        System.err.println("PointArchiverASCII:getFollowingFile: Bad File Name " + files[i] + " in directory " + dir);
-        continue;
-      }
-      AbsTime thisdate = AbsTime.factory(date);
-      if (thisdate.isAfter(argdate)) {
-        RelTime thisdiff = Time.diff(thisdate, argdate);
-        if (afterdiff == null || thisdiff.getValue() < afterdiff.getValue()) {
-          afterdiff = thisdiff;
-          aftername = files[i];
-        }
-      }
+    DirIndex idx = getDirIndex(dir);
+    synchronized (idx) {
+      Map.Entry<Long, String> e = idx.itsFiles.higherEntry(key);
+      return e == null ? null : e.getValue();
     }
-    return aftername;
   }
 
   /**
@@ -766,46 +857,15 @@ public class PointArchiverASCII extends PointArchiver {
    * @return Previous chronological file name, or null if none exist.
    */
   private String getPrecedingFile(String dir, String fname) {
-    // Get timestamp corresponding to argument file
-    AbsTime argdate = null;
-    if (isCompressed(fname)) {
-      // Remove the ".zip" from the file name so we can parse it
-      argdate = AbsTime.factory(getDateTime(fname.substring(0, fname.length() - 4)));
-    } else {
-      argdate = AbsTime.factory(getDateTime(fname));
-    }
-
-    // Get listing of all files in the archive dir for the given point
-    String[] files = (new File(dir)).list();
-    if (files == null || files.length == 0) {
+    Long key = getFileKey(fname);
+    if (key == null) {
       return null;
     }
-
-    // Map the filenames to dates, and find target file
-    RelTime beforediff = null;
-    String beforename = null;
-    for (int i = 0; i < files.length; i++) {
-      Date date = null;
-      if (isCompressed(files[i])) {
-        // Remove the ".zip" from the file name so we can parse it
-        date = getDateTime(files[i].substring(0, files[i].length() - 4));
-      } else {
-        date = getDateTime(files[i]);
-      }
-      if (date == null) {
-        System.err.println("PointArchiverASCII:getPrecedingFile: Bad File Name " + files[i] + " in directory " + dir);
-        continue;
-      }
-      AbsTime thisdate = AbsTime.factory(date);
-      if (thisdate.isBefore(argdate)) {
-        RelTime thisdiff = Time.diff(argdate, thisdate);
-        if (beforediff == null || thisdiff.getValue() < beforediff.getValue()) {
-          beforediff = thisdiff;
-          beforename = files[i];
-        }
-      }
+    DirIndex idx = getDirIndex(dir);
+    synchronized (idx) {
+      Map.Entry<Long, String> e = idx.itsFiles.lowerEntry(key);
+      return e == null ? null : e.getValue();
     }
-    return beforename;
   }
 
   /**
@@ -813,64 +873,83 @@ public class PointArchiverASCII extends PointArchiver {
    * 
    * @param res
    *          Vector which holds the loaded data.
-   * @param fname
-   *          Full path to the file to load data from.
    * @param pm
    *          PointDescription we are reconstructing data for.
-   * @param pname
-   *          Name of the monitor point we are loading.
+   * @param fname
+   *          Full path to the file to load data from.
    * @param start
    *          The earliest time of interest, null to ignore.
    * @param end
    *          The most recent time of interest, null to ignore.
    * @param truncate
    *          Whether to truncate at the archive query limit.
+   * @return <code>False</code> if reading stopped because the end time or the query limit was reached, <code>True</code>
+   *         otherwise.
    */
-  private void loadFile(Vector<PointData> res, PointDescription pm, String fname, AbsTime start, AbsTime end, boolean truncate) {
-    try {
-      // If the file's compressed we need to decompress it first
-      boolean hadtodecompress = false;
-      if (isCompressed(fname)) {
-        fname = decompress(fname);
-        hadtodecompress = true;
-      }
-      BufferedReader reader = new BufferedReader(new FileReader(fname));
-
-      while (reader.ready()) {
-        String line = reader.readLine();
-        // Read the next data record from the archive file
-        PointData pd = getPDForString(pm, line);
-        if (pd == null) {
-          continue;
-        }
+  private boolean loadFile(final Vector<PointData> res, PointDescription pm, String fname, final AbsTime start, final AbsTime end,
+      final boolean truncate) {
+    return scanFile(pm.getFullName(), fname, new RecordHandler() {
+      public boolean handle(PointData pd) {
         // Check if it's in the right time range
         AbsTime ts = pd.getTimestamp();
         if (start != null && ts.isBefore(start)) {
-          continue; // Data's too early
+          return true; // Data's too early
         }
         if (end != null && ts.isAfter(end)) {
-          break; // No more useful data in this file
+          return false; // No more useful data
         }
-
         res.add(pd);
+        return !truncate || res.size() < MAXNUMRECORDS;
+      }
+    });
+  }
 
-        if (truncate && res.size() >= MAXNUMRECORDS) {
-          break;
+  /**
+   * Read each record from the file in turn and pass it to the handler. Compressed files are read directly from the archive rather
+   * than being decompressed to disk first.
+   * 
+   * @param pname
+   *          Name of the point we are reconstructing data for.
+   * @param fname
+   *          Full path to the file to read.
+   * @param handler
+   *          The handler for each record.
+   * @return <code>False</code> if the handler stopped the read, <code>True</code> otherwise.
+   */
+  boolean scanFile(String pname, String fname, RecordHandler handler) {
+    BufferedReader reader = null;
+    try {
+      if (isCompressed(fname)) {
+        ZipInputStream zip = new ZipInputStream(new BufferedInputStream(new FileInputStream(fname), 8192));
+        reader = new BufferedReader(new InputStreamReader(zip, "ISO-8859-1"), 65536);
+        if (zip.getNextEntry() == null) {
+          System.err.println("PointArchiverASCII:scanFile: " + fname + " contains no entries");
+          return true;
         }
+      } else {
+        reader = new BufferedReader(new FileReader(fname), 65536);
       }
-      reader.close();
 
-      // System.err.println("PointArchiverASCII:loadFile: "
-      // + "LOADED " + num + " FROM " + fname);
-
-      if (hadtodecompress) {
-        // We need to delete the temporary file now
-        (new File(fname)).delete();
+      String line;
+      while ((line = reader.readLine()) != null) {
+        // Read the next data record from the archive file
+        PointData pd = getPDForString(pname, line);
+        if (pd != null && !handler.handle(pd)) {
+          return false;
+        }
       }
     } catch (Exception e) {
-      System.err.println("PointArchiverASCII:loadFile: " + fname + " " + e.getMessage());
+      System.err.println("PointArchiverASCII:scanFile: " + fname + " " + e.getMessage());
       e.printStackTrace();
+    } finally {
+      if (reader != null) {
+        try {
+          reader.close();
+        } catch (Exception e) {
+        }
+      }
     }
+    return true;
   }
 
   /**
@@ -881,64 +960,10 @@ public class PointArchiverASCII extends PointArchiver {
    *          The file name to check.
    * @return <code>True</code> if the file is compressed, <code>False</code> otherwise.
    */
-  private boolean isCompressed(String filename) {
+  static boolean isCompressed(String filename) {
     return filename.endsWith(".zip");
   }
 
-  /**
-   * Decompress the specified file and return the path to a temporary file. The temporary file should generally be deleted by the
-   * caller once it is no longer required.
-   * 
-   * @param filename
-   *          Full path to the file to decompress.
-   * @return Name of temporary file containing the decompressed data.
-   */
-  private String decompress(String filename) {
-    File f = null;
-    InputStream compressed = null;
-    PrintWriter uncompressed = null;
-    String res = null;
-
-    try {
-      ZipFile zip = new ZipFile(filename);
-      String foo = filename.substring(filename.lastIndexOf(FSEP) + 1);
-      foo = foo.substring(0, foo.length() - 4);
-      ZipEntry ze = zip.getEntry(foo);
-      compressed = zip.getInputStream(ze);
-      if (!theirTempDir.isDirectory()) {
-        // Ensure directory exists
-        theirTempDir.mkdirs();
-      }
-      f = File.createTempFile("foo", ".tmp", theirTempDir);
-      uncompressed = new PrintWriter(new BufferedWriter(new FileWriter(f)));
-      res = f.getPath();
-
-      // Extract data and copy to plain text file
-      final int blen = 4096;
-      byte[] bbuf = new byte[blen];
-      char[] cbuf = new char[blen];
-      int len;
-      while ((len = compressed.read(bbuf)) > 0) {
-        for (int i = 0; i < len; i++) {
-          cbuf[i] = (char) bbuf[i];
-        }
-        uncompressed.write(cbuf, 0, len);
-      }
-
-      compressed.close();
-      uncompressed.close();
-      zip.close();
-    } catch (Exception e) {
-      // if (compressed!=null) compressed.close();
-      // if (uncompressed!=null) uncompressed.close();
-      e.printStackTrace();
-    }
-
-    // System.err.println("PointArchiverASCII:decompress: Extracted "
-    // + filename + " to " + res);
-    return res;
-  }
-
   /**
    * Compress the specified file. The file location is not not changed but the file will be renamed with a <i>.zip</i> extension.
    * 
@@ -1064,7 +1089,7 @@ public class PointArchiverASCII extends PointArchiver {
     /*
      * if (args.length<1) { System.err.println("USAGE: Specify a file to be compressed"); System.exit(1); }
      * 
-     * System.out.println("Will compress " + args[0]); paa.compress(args[0]); paa.decompress(args[0]+".zip");
+     * System.out.println("Will compress " + args[0]); paa.compress(args[0]);
      */
   }
 
@@ -0,0 +1,734 @@
+//
+// Copyright (C) CSIRO Australia Telescope National Facility
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Library General Public License
+// as published by the Free Software Foundation; either version 2
+// of the License, or (at your option) any later version.
+
+package atnf.atoms.mon.archiver;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import org.apache.log4j.Logger;
+import atnf.atoms.mon.*;
+import atnf.atoms.mon.util.*;
+import atnf.atoms.time.*;
+
+/**
+ * Archiver which stores data in compact binary segment files.
+ *
+ * <P>
+ * The directory hierarchy is the same as for <tt>PointArchiverASCII</tt>, rooted at <tt>ArchiveBinaryDir</tt>. Each point's
+ * directory holds segment files named after the time of their first record with a <i>.seg</i> extension. Segments are rotated
+ * according to the <tt>ArchiveMaxSize</tt> and <tt>ArchiveMaxAge</tt> properties.
+ *
+ * <P>
+ * Each time data for a point is flushed it is appended to the current segment as a block. A block has a 32 byte header giving a
+ * magic number, the payload length, the number of records, the first and last timestamps and a CRC of the payload, and the payload
+ * is encoded by <tt>BinaryBlockCodec</tt>. The block headers serve as a time index for the segment: they are scanned once and
+ * cached, so a query only decodes the blocks which overlap the time range of interest. Segments are read through memory-mapped
+ * buffers.
+ *
+ * <P>
+ * The <tt>main</tt> method converts an existing ASCII archive.
+ *
+ * @author David Brodrick
+ */
+public class PointArchiverBinary extends PointArchiver {
+  /** OS-dependant file separation character. */
+  private static final String FSEP = System.getProperty("file.separator");
+
+  /** Extension for segment files. */
+  private static final String SEGEXT = ".seg";
+
+  /** Magic number at the start of each block. */
+  private static final int BLOCKMAGIC = 0x4D424C4B;
+
+  /** Length of a block header. */
+  private static final int HEADERLEN = 32;
+
+  /** Max number of records to encode in a single block. */
+  private static final int MAXBLOCKRECORDS = 4096;
+
+  /** Base directory for the data archive. */
+  private static String theirArchiveDir;
+
+  /** Maximum size for a segment file. */
+  private static long theirMaxFileSize = 1048576;
+
+  /** Max time-span for a segment file, in ms. */
+  private static long theirMaxFileAge = 604800000l;
+
+  /** Logger. */
+  private static Logger theirLogger = Logger.getLogger(PointArchiverBinary.class.getName());
+
+  static {
+    theirArchiveDir = System.getProperty("MoniCA.ArchiveBinaryDir");
+    if (theirArchiveDir == null) {
+      theirArchiveDir = MonitorConfig.getProperty("ArchiveBinaryDir");
+      if (theirArchiveDir == null) {
+        theirLogger.error("Configuration option \"ArchiveBinaryDir\" was not defined");
+      }
+    } else {
+      theirLogger.info("ArchiveBinaryDir overridden by system property");
+    }
+    try {
+      theirMaxFileSize = Long.parseLong(MonitorConfig.getProperty("ArchiveMaxSize", "1048576"));
+    } catch (Exception e) {
+      theirLogger.error("Error parsing configuration option \"ArchiveMaxSize\"");
+    }
+    try {
+      theirMaxFileAge = 1000l * Long.parseLong(MonitorConfig.getProperty("ArchiveMaxAge", "604800"));
+    } catch (Exception e) {
+      theirLogger.error("Error parsing configuration option \"ArchiveMaxAge\"");
+    }
+  }
+
+  /** Headers of the valid blocks in a segment file. */
+  private static class SegmentIndex {
+    /** Length of the file covered by valid blocks. */
+    long itsLength = 0;
+
+    int itsNumBlocks = 0;
+    long[] itsOffsets = new long[16];
+    int[] itsLengths = new int[16];
+    int[] itsCounts = new int[16];
+    long[] itsFirst = new long[16];
+    long[] itsLast = new long[16];
+
+    void add(long offset, int length, int count, long first, long last) {
+      if (itsNumBlocks == itsOffsets.length) {
+        int newlen = itsNumBlocks * 2;
+        itsOffsets = Arrays.copyOf(itsOffsets, newlen);
+        itsLengths = Arrays.copyOf(itsLengths, newlen);
+        itsCounts = Arrays.copyOf(itsCounts, newlen);
+        itsFirst = Arrays.copyOf(itsFirst, newlen);
+        itsLast = Arrays.copyOf(itsLast, newlen);
+      }
+      itsOffsets[itsNumBlocks] = offset;
+      itsLengths[itsNumBlocks] = length;
+      itsCounts[itsNumBlocks] = count;
+      itsFirst[itsNumBlocks] = first;
+      itsLast[itsNumBlocks] = last;
+      itsNumBlocks++;
+    }
+  }
+
+  /** Cached index for each segment file. */
+  private ConcurrentHashMap<String, SegmentIndex> itsIndexes = new ConcurrentHashMap<String, SegmentIndex>();
+
+  /** Current segment file for each point. */
+  private HashMap<String, String> itsCurrentSegments = new HashMap<String, String>(1000, 1000);
+
+  /** Constructor. */
+  public PointArchiverBinary() {
+    super();
+  }
+
+  /**
+   * Get the save directory for the given point.
+   *
+   * @param pm
+   *          Point to get the archive directory for.
+   * @return Name of appropriate archive directory.
+   */
+  public static String getDir(PointDescription pm) {
+    String tempname = pm.getName();
+    tempname = tempname.replace(".", FSEP);
+    return theirArchiveDir + FSEP + tempname + FSEP + pm.getSource();
+  }
+
+  /**
+   * Get the segment files in the directory, keyed by the BAT of their first record.
+   *
+   * @param dir
+   *          The directory to list.
+   * @return Map of start times to file names, which is empty if there are no segments.
+   */
+  private static TreeMap<Long, String> getSegments(String dir) {
+    TreeMap<Long, String> res = new TreeMap<Long, String>();
+    String[] files = (new File(dir)).list();
+    if (files == null) {
+      return res;
+    }
+    for (int i = 0; i < files.length; i++) {
+      if (!files[i].endsWith(SEGEXT)) {
+        continue;
+      }
+      Date date = PointArchiverASCII.getDateTime(files[i].substring(0, files[i].length() - SEGEXT.length()));
+      if (date == null) {
+        theirLogger.warn("getSegments: Bad file name " + files[i] + " in directory " + dir);
+        continue;
+      }
+      res.put(AbsTime.factory(date).getValue(), files[i]);
+    }
+    return res;
+  }
+
+  /**
+   * Get the segments which may contain data in the given time range, in chronological order.
+   *
+   * @param dir
+   *          The directory of the point.
+   * @param start
+   *          BAT of the start of the range.
+   * @param end
+   *          BAT of the end of the range.
+   * @return Full paths of the relevant segments.
+   */
+  private static Vector<String> getSegments(String dir, long start, long end) {
+    Vector<String> res = new Vector<String>();
+    if (end < start) {
+      return res;
+    }
+    TreeMap<Long, String> segs = getSegments(dir);
+    Long first = segs.floorKey(start);
+    if (first == null) {
+      first = start;
+    }
+    for (String s : segs.subMap(first, true, end, true).values()) {
+      res.add(dir + FSEP + s);
+    }
+    return res;
+  }
+
+  /**
+   * Return the index of the segment file, bringing it up to date if the file has grown.
+   *
+   * @param fname
+   *          Full path to the segment.
+   * @return The index, or null if the file could not be read.
+   */
+  private SegmentIndex getIndex(String fname) {
+    File f = new File(fname);
+    long len = f.length();
+    SegmentIndex idx = itsIndexes.get(fname);
+    if (idx != null && idx.itsLength == len) {
+      return idx;
+    }
+    synchronized (this) {
+      idx = itsIndexes.get(fname);
+      if (idx == null || idx.itsLength > len) {
+        // New or truncated file
+        idx = new SegmentIndex();
+      }
+      try {
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+          ByteBuffer header = ByteBuffer.allocate(HEADERLEN);
+          long pos = idx.itsLength;
+          SegmentIndex newidx = new SegmentIndex();
+          copyIndex(idx, newidx);
+          while (pos + HEADERLEN <= len) {
+            header.clear();
+            raf.getChannel().read(header, pos);
+            header.flip();
+            int magic = header.getInt();
+            int plen = header.getInt();
+            int count = header.getInt();
+            long first = header.getLong();
+            long last = header.getLong();
+            if (magic != BLOCKMAGIC || plen < 0 || count <= 0 || pos + HEADERLEN + plen > len) {
+              // Partial or corrupt block, probably still being written
+              break;
+            }
+            newidx.add(pos, plen, count, first, last);
+            pos += HEADERLEN + plen;
+          }
+          newidx.itsLength = pos;
+          idx = newidx;
+        } finally {
+          raf.close();
+        }
+      } catch (IOException e) {
+        theirLogger.warn("getIndex: " + fname + ": " + e);
+        itsIndexes.remove(fname);
+        return null;
+      }
+      itsIndexes.put(fname, idx);
+      return idx;
+    }
+  }
+
+  /** Copy the blocks of one index into another. */
+  private static void copyIndex(SegmentIndex from, SegmentIndex to) {
+    for (int i = 0; i < from.itsNumBlocks; i++) {
+      to.add(from.itsOffsets[i], from.itsLengths[i], from.itsCounts[i], from.itsFirst[i], from.itsLast[i]);
+    }
+    to.itsLength = from.itsLength;
+  }
+
+  /** Map the valid part of the segment into memory. */
+  private static MappedByteBuffer map(String fname, SegmentIndex idx) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(fname, "r");
+    try {
+      return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, idx.itsLength);
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Decode a block, checking its CRC first.
+   *
+   * @return <code>False</code> if the handler stopped the decoding, <code>True</code> otherwise.
+   */
+  private static boolean decodeBlock(ByteBuffer buf, SegmentIndex idx, int block, String pname, RecordHandler handler) {
+    int offset = (int) idx.itsOffsets[block];
+    int len = idx.itsLengths[block];
+    int crc = buf.getInt(offset + HEADERLEN - 4);
+    CRC32 check = new CRC32();
+    for (int i = 0; i < len; i++) {
+      check.update(buf.get(offset + HEADERLEN + i));
+    }
+    if ((int) check.getValue() != crc) {
+      theirLogger.warn("decodeBlock: CRC mismatch for block at offset " + offset + " for " + pname);
+      return true;
+    }
+    try {
+      return BinaryBlockCodec.decode(buf, offset + HEADERLEN, len, idx.itsCounts[block], pname, handler);
+    } catch (IllegalArgumentException e) {
+      theirLogger.warn("decodeBlock: " + e.getMessage() + " at offset " + offset + " for " + pname);
+      return true;
+    }
+  }
+
+  /**
+   * Purge all data for the given point that is older than the specified age in days.
+   *
+   * @param point
+   *          The point whos data we wish to purge.
+   */
+  protected void purgeOldData(PointDescription point) {
+    if (point.getArchiveLongevity() <= 0)
+      return;
+
+    String dir = getDir(point);
+    long cutoff = (new AbsTime()).getValue() - 86400000000l * point.getArchiveLongevity();
+    TreeMap<Long, String> segs = getSegments(dir);
+    // Delete segments whose successor starts before the cutoff, since all of their data is older than the cutoff
+    Map.Entry<Long, String> prev = null;
+    for (Map.Entry<Long, String> e : segs.entrySet()) {
+      if (e.getKey() > cutoff) {
+        break;
+      }
+      if (prev != null) {
+        String fname = dir + FSEP + prev.getValue();
+        (new File(fname)).delete();
+        itsIndexes.remove(fname);
+      }
+      prev = e;
+    }
+  }
+
+  /**
+   * Method to do the actual archiving.
+   *
+   * @param pm
+   *          The point whos data we wish to archive.
+   * @param alldata
+   *          Vector of data to be archived.
+   */
+  protected void saveNow(PointDescription pm, Vector<PointData> alldata) {
+    try {
+      synchronized (alldata) {
+        if (!alldata.isEmpty()) {
+          // Drop any records which can't be encoded
+          Vector<PointData> data = new Vector<PointData>(alldata.size());
+          for (int i = 0; i < alldata.size(); i++) {
+            PointData pd = alldata.get(i);
+            if (pd.getTimestamp() == null || BinaryBlockCodec.getType(pd.getData()) == -1) {
+              itsLogger.warn("saveNow: Can't archive " + pd + " for " + pm.getFullName());
+            } else {
+              data.add(pd);
+            }
+          }
+          if (!data.isEmpty()) {
+            String fname = getSegmentForWrite(pm, data.firstElement().getTimestamp());
+            appendBlocks(fname, data);
+          }
+          // Finished archiving this data
+          alldata.clear();
+        }
+      }
+    } catch (Exception e) {
+      itsLogger.error("While archiving: " + pm.getFullName() + ": " + e);
+    } finally {
+      synchronized (itsBeingArchived) {
+        itsBeingArchived.remove(pm.getFullName());
+      }
+    }
+  }
+
+  /**
+   * Find the segment to append the point's data to, starting a new segment if the current one has reached its size or age limit.
+   *
+   * @param pm
+   *          The point to be archived.
+   * @param firsttime
+   *          Timestamp of the first record to be written.
+   * @return Full path to the segment.
+   */
+  private String getSegmentForWrite(PointDescription pm, AbsTime firsttime) throws IOException {
+    String dir = getDir(pm);
+    String fname;
+    synchronized (itsCurrentSegments) {
+      fname = itsCurrentSegments.get(pm.getFullName());
+    }
+    if (fname == null || !(new File(fname)).exists()) {
+      File d = new File(dir);
+      if (!d.isDirectory()) {
+        d.mkdirs();
+      }
+      TreeMap<Long, String> segs = getSegments(dir);
+      if (segs.isEmpty()) {
+        fname = null;
+      } else {
+        fname = dir + FSEP + segs.lastEntry().getValue();
+        // Discard any partial block left at the end of the file
+        SegmentIndex idx = getIndex(fname);
+        File f = new File(fname);
+        if (idx != null && idx.itsLength < f.length()) {
+          itsLogger.warn("Truncating partial block in " + fname);
+          RandomAccessFile raf = new RandomAccessFile(f, "rw");
+          try {
+            raf.setLength(idx.itsLength);
+          } finally {
+            raf.close();
+          }
+        }
+      }
+    }
+
+    if (fname != null) {
+      String shortname = fname.substring(fname.lastIndexOf(FSEP) + 1);
+      Date filedate = PointArchiverASCII.getDateTime(shortname.substring(0, shortname.length() - SEGEXT.length()));
+      if (filedate == null || filedate.before(new Date(System.currentTimeMillis() - theirMaxFileAge))
+          || (new File(fname)).length() > theirMaxFileSize) {
+        fname = null;
+      }
+    }
+    if (fname == null) {
+      // Start a new segment
+      fname = dir + FSEP + PointArchiverASCII.getDateTime(firsttime.getAsDate()) + SEGEXT;
+    }
+
+    synchronized (itsCurrentSegments) {
+      itsCurrentSegments.put(pm.getFullName(), fname);
+    }
+    return fname;
+  }
+
+  /**
+   * Encode the data and append it to the segment file.
+   *
+   * @param fname
+   *          Full path to the segment.
+   * @param data
+   *          The data to write, in time order.
+   */
+  private static void appendBlocks(String fname, List<PointData> data) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (int start = 0; start < data.size(); start += MAXBLOCKRECORDS) {
+      List<PointData> chunk = data.subList(start, Math.min(start + MAXBLOCKRECORDS, data.size()));
+      byte[] payload = BinaryBlockCodec.encode(chunk);
+      CRC32 crc = new CRC32();
+      crc.update(payload);
+      ByteBuffer header = ByteBuffer.allocate(HEADERLEN);
+      header.putInt(BLOCKMAGIC);
+      header.putInt(payload.length);
+      header.putInt(chunk.size());
+      header.putLong(chunk.get(0).getTimestamp().getValue());
+      header.putLong(chunk.get(chunk.size() - 1).getTimestamp().getValue());
+      header.putInt((int) crc.getValue());
+      out.write(header.array());
+      out.write(payload);
+    }
+    FileOutputStream f = new FileOutputStream(fname, true);
+    try {
+      f.write(out.toByteArray());
+    } finally {
+      f.close();
+    }
+  }
+
+  /**
+   * Extract data from the archive.
+   *
+   * @param pm
+   *          Point to extract data for.
+   * @param start
+   *          Earliest time in the range of interest.
+   * @param end
+   *          Most recent time in the range of interest.
+   * @return Vector containing all data for the point over the time range.
+   */
+  protected Vector<PointData> extractDeep(PointDescription pm, AbsTime start, AbsTime end) {
+    final Vector<PointData> res = new Vector<PointData>(1000, 8000);
+    extractDeep(pm, start, end, new RecordHandler() {
+      public boolean handle(PointData pd) {
+        res.add(pd);
+        return res.size() < MAXNUMRECORDS;
+      }
+    });
+    return res;
+  }
+
+  /**
+   * Pass each record in the time range to the handler as it is decoded from the segments.
+   *
+   * @param pm
+   *          Point to extract data for.
+   * @param start
+   *          Earliest time in the range of interest.
+   * @param end
+   *          Most recent time in the range of interest.
+   * @param handler
+   *          The handler for each record.
+   * @return <code>False</code> if the handler stopped the read, <code>True</code> otherwise.
+   */
+  protected boolean extractDeep(PointDescription pm, AbsTime start, AbsTime end, final RecordHandler handler) {
+    final long startval = start.getValue();
+    final long endval = end.getValue();
+    final boolean[] stopped = new boolean[1];
+    RecordHandler range = new RecordHandler() {
+      public boolean handle(PointData pd) {
+        long t = pd.getTimestamp().getValue();
+        if (t < startval) {
+          return true;
+        }
+        if (t > endval) {
+          return false;
+        }
+        stopped[0] = !handler.handle(pd);
+        return !stopped[0];
+      }
+    };
+
+    Vector<String> segs = getSegments(getDir(pm), startval, endval);
+    try {
+      for (int i = 0; i < segs.size(); i++) {
+        String fname = segs.get(i);
+        SegmentIndex idx = getIndex(fname);
+        if (idx == null || idx.itsNumBlocks == 0) {
+          continue;
+        }
+        MappedByteBuffer buf = map(fname, idx);
+        for (int b = 0; b < idx.itsNumBlocks; b++) {
+          if (idx.itsLast[b] < startval) {
+            continue;
+          }
+          if (idx.itsFirst[b] > endval) {
+            break;
+          }
+          if (!decodeBlock(buf, idx, b, pm.getFullName(), range)) {
+            return !stopped[0];
+          }
+        }
+      }
+    } catch (IOException e) {
+      itsLogger.warn("extractDeep: " + pm.getFullName() + ": " + e);
+    }
+    return true;
+  }
+
+  /**
+   * Return the last update which precedes the specified time. We interpret 'precedes' to mean data_time<=req_time.
+   *
+   * @param pm
+   *          Point to extract data for.
+   * @param ts
+   *          Find data preceding this timestamp.
+   * @return PointData for preceding update or null if none found.
+   */
+  protected PointData getPrecedingDeep(PointDescription pm, AbsTime ts) {
+    final long target = ts.getValue();
+    final PointData[] res = new PointData[1];
+    RecordHandler handler = new RecordHandler() {
+      public boolean handle(PointData pd) {
+        if (pd.getTimestamp().getValue() > target) {
+          return false;
+        }
+        res[0] = pd;
+        return true;
+      }
+    };
+
+    String dir = getDir(pm);
+    TreeMap<Long, String> segs = getSegments(dir);
+    try {
+      // Work back from the segment which starts at or before the target time
+      for (String s : segs.headMap(target, true).descendingMap().values()) {
+        String fname = dir + FSEP + s;
+        SegmentIndex idx = getIndex(fname);
+        if (idx == null || idx.itsNumBlocks == 0) {
+          continue;
+        }
+        MappedByteBuffer buf = map(fname, idx);
+        for (int b = idx.itsNumBlocks - 1; b >= 0; b--) {
+          if (idx.itsFirst[b] > target) {
+            continue;
+          }
+          decodeBlock(buf, idx, b, pm.getFullName(), handler);
+          if (res[0] != null) {
+            return res[0];
+          }
+        }
+      }
+    } catch (IOException e) {
+      itsLogger.warn("getPrecedingDeep: " + pm.getFullName() + ": " + e);
+    }
+    return res[0];
+  }
+
+  /**
+   * Return the first update which follows the specified time. We interpret 'follows' to mean data_time>=req_time.
+   *
+   * @param pm
+   *          Point to extract data for.
+   * @param ts
+   *          Find data following this timestamp.
+   * @return PointData for following update or null if none found.
+   */
+  protected PointData getFollowingDeep(PointDescription pm, AbsTime ts) {
+    final long target = ts.getValue();
+    final PointData[] res = new PointData[1];
+    RecordHandler handler = new RecordHandler() {
+      public boolean handle(PointData pd) {
+        if (pd.getTimestamp().getValue() < target) {
+          return true;
+        }
+        res[0] = pd;
+        return false;
+      }
+    };
+
+    String dir = getDir(pm);
+    TreeMap<Long, String> segs = getSegments(dir);
+    Long first = segs.floorKey(target);
+    if (first == null) {
+      first = target;
+    }
+    try {
+      for (String s : segs.tailMap(first, true).values()) {
+        String fname = dir + FSEP + s;
+        SegmentIndex idx = getIndex(fname);
+        if (idx == null || idx.itsNumBlocks == 0) {
+          continue;
+        }
+        MappedByteBuffer buf = map(fname, idx);
+        for (int b = 0; b < idx.itsNumBlocks; b++) {
+          if (idx.itsLast[b] < target) {
+            continue;
+          }
+          if (!decodeBlock(buf, idx, b, pm.getFullName(), handler)) {
+            return res[0];
+          }
+        }
+      }
+    } catch (IOException e) {
+      itsLogger.warn("getFollowingDeep: " + pm.getFullName() + ": " + e);
+    }
+    return res[0];
+  }
+
+  /**
+   * Convert the ASCII archive files in the directory tree into segment files in the equivalent location under the destination
+   * directory. Existing segments are not overwritten.
+   *
+   * @param ascii
+   *          The ASCII archiver, used to read the files.
+   * @param srcdir
+   *          Directory to convert.
+   * @param destdir
+   *          Equivalent directory in the binary archive.
+   * @return The number of records converted.
+   */
+  private static long convert(PointArchiverASCII ascii, File srcdir, File destdir) throws IOException {
+    long res = 0;
+    String[] files = srcdir.list();
+    if (files == null) {
+      return 0;
+    }
+    Arrays.sort(files);
+    for (int i = 0; i < files.length; i++) {
+      File src = new File(srcdir, files[i]);
+      if (src.isDirectory()) {
+        res += convert(ascii, src, new File(destdir, files[i]));
+        continue;
+      }
+      String base = files[i];
+      if (PointArchiverASCII.isCompressed(base)) {
+        base = base.substring(0, base.length() - 4);
+      }
+      if (base.startsWith(".") || PointArchiverASCII.getDateTime(base) == null) {
+        continue;
+      }
+      File dest = new File(destdir, base + SEGEXT);
+      if (dest.exists()) {
+        System.err.println("Skipping " + src + " since " + dest + " already exists");
+        continue;
+      }
+      if (!destdir.isDirectory()) {
+        destdir.mkdirs();
+      }
+
+      final Vector<PointData> data = new Vector<PointData>(MAXBLOCKRECORDS);
+      final String fname = dest.getPath();
+      final long[] count = new long[1];
+      final IOException[] error = new IOException[1];
+      ascii.scanFile("", src.getPath(), new RecordHandler() {
+        public boolean handle(PointData pd) {
+          if (BinaryBlockCodec.getType(pd.getData()) == -1) {
+            return true;
+          }
+          data.add(pd);
+          if (data.size() == MAXBLOCKRECORDS) {
+            try {
+              appendBlocks(fname, data);
+            } catch (IOException e) {
+              error[0] = e;
+              return false;
+            }
+            count[0] += data.size();
+            data.clear();
+          }
+          return true;
+        }
+      });
+      if (error[0] != null) {
+        throw error[0];
+      }
+      if (!data.isEmpty()) {
+        appendBlocks(fname, data);
+        count[0] += data.size();
+      }
+      System.out.println(src + " -> " + dest + " (" + count[0] + " records)");
+      res += count[0];
+    }
+    return res;
+  }
+
+  /** Convert an existing ASCII archive directory to the binary format. */
+  public static final void main(String args[]) {
+    if (args.length < 2) {
+      System.err.println("USAGE: PointArchiverBinary <ascii archive dir> <binary archive dir>");
+      System.exit(1);
+    }
+    try {
+      long num = convert(new PointArchiverASCII(), new File(args[0]), new File(args[1]));
+      System.out.println("Converted " + num + " records");
+      System.exit(0);
+    } catch (Exception e) {
+      System.err.println("Conversion failed: " + e);
+      e.printStackTrace();
+      System.exit(1);
+    }
+  }
+}
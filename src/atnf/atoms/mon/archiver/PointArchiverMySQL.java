@@ -9,8 +9,10 @@ package atnf.atoms.mon.archiver;
 
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import atnf.atoms.mon.*;
+import atnf.atoms.mon.util.*;
 import atnf.atoms.util.*;
 import atnf.atoms.time.*;
 
@@ -18,12 +20,16 @@ import atnf.atoms.time.*;
  * Archiver which uses a MySQL database as the back end.
  * 
  * <P>
- * Connects to mysqld on localhost as user <i>monica</i> with a blank password. Writes data to a database called <i>MoniCA</i>, so
- * the user needs full permissions to that database. A script <i>bin/setupMySQL.sh</i> is provided which creates the user and the
- * database.
+ * By default connects to mysqld on localhost as user <i>monica</i> with a blank password. Writes data to a database called
+ * <i>MoniCA</i>, so the user needs full permissions to that database. A script <i>bin/setupMySQL.sh</i> is provided which creates
+ * the user and the database. A different JDBC URL may be given with the <tt>ArchiveMySQLURL</tt> configuration property.
  * 
  * <P>
- * TODO: The URL to connect to the database should really be passed as an argument from the configuration file.
+ * Archive writes and history queries use separate pools of connections, sized by <tt>ArchiveMySQLWriteConnections</tt> and
+ * <tt>ArchiveMySQLReadConnections</tt>, so a slow query does not hold up archiving. Data is written with batched
+ * <tt>PreparedStatement</tt>s, and the tables known to exist are cached so that each table is only created once. The statements
+ * which rely on MySQL extensions, to create tables and to skip rows whose timestamp is already archived, come from
+ * <i>getCreateTableSQL</i> and <i>getInsertSQL</i> so a subclass can adapt them for another database.
  * 
  * <P>
  * Since monitor points in MoniCA are not strictly-typed data is stored as a string/varchar and the data type stored in a separate
@@ -33,22 +39,51 @@ import atnf.atoms.time.*;
  * @author David Brodrick
  */
 public class PointArchiverMySQL extends PointArchiver {
-  /** The connection to the MySQL server. */
-  protected Connection itsConnection = null;
+  /** The default URL to connect to the server/database. */
+  protected static final String theirDefaultURL = "jdbc:mysql://localhost:3306/MoniCA?user=monica&tcpRcvBuf=100000&rewriteBatchedStatements=true";
 
-  /** The URL to connect to the server/database. */
-  protected String itsURL = "jdbc:mysql://localhost:3306/MoniCA?user=monica&tcpRcvBuf=100000&autoReconnect=true";
+  /** Max number of rows to send in a single batch, since MySQL can have maximum packet size limits. */
+  protected static final int MAXCHUNK = 100;
+
+  /** Connections used to write to the archive. */
+  protected JDBCConnectionPool itsWritePool;
+
+  /** Connections used to query the archive. */
+  protected JDBCConnectionPool itsReadPool;
+
+  /** Tables which are known to exist. */
+  protected Set<String> itsKnownTables = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
   /** Constructor. */
   public PointArchiverMySQL() {
+    this(MonitorConfig.getProperty("ArchiveMySQLURL", theirDefaultURL));
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param url
+   *          The JDBC URL of the database to use.
+   */
+  public PointArchiverMySQL(String url) {
     super();
 
+    int numwrite;
     try {
-      itsConnection = DriverManager.getConnection(itsURL);
+      numwrite = Integer.parseInt(MonitorConfig.getProperty("ArchiveMySQLWriteConnections", "1"));
     } catch (Exception e) {
-      itsLogger.error("PointArchiverMySQL Constructor: " + e.getMessage());
-      itsConnection = null;
+      itsLogger.warn("Error parsing ArchiveMySQLWriteConnections configuration parameter: " + e);
+      numwrite = 1;
     }
+    int numread;
+    try {
+      numread = Integer.parseInt(MonitorConfig.getProperty("ArchiveMySQLReadConnections", "4"));
+    } catch (Exception e) {
+      itsLogger.warn("Error parsing ArchiveMySQLReadConnections configuration parameter: " + e);
+      numread = 4;
+    }
+    itsWritePool = new JDBCConnectionPool(url, numwrite);
+    itsReadPool = new JDBCConnectionPool(url, numread);
   }
 
   /**
@@ -62,30 +97,21 @@ public class PointArchiverMySQL extends PointArchiver {
       return;
 
     String table = getTableName(point);
-    Statement stmt = null;
-
+    long purgetime = (new AbsTime()).getValue() - point.getArchiveLongevity() * 86400000000l;
+    Connection conn = null;
     try {
-      // Can't do anything if the server is not running
-      if (!checkConnection()) {
-        return;
-      }
-
-      // Build and execute the data request
-      long purgetime = (new AbsTime()).getValue() - point.getArchiveLongevity() * 86400000000l;
-      String cmd = "DELETE from " + table + " WHERE ts<" + purgetime + ";";
-      synchronized (itsConnection) {
-        stmt = itsConnection.createStatement();
-        stmt.execute(cmd);
+      conn = itsWritePool.getConnection();
+      PreparedStatement stmt = conn.prepareStatement("DELETE FROM " + table + " WHERE ts<?");
+      try {
+        stmt.setLong(1, purgetime);
+        stmt.executeUpdate();
+      } finally {
+        stmt.close();
       }
-      stmt.close();
-
+      itsWritePool.release(conn);
     } catch (Exception e) {
       itsLogger.warn("purgeOldData: " + e);
-      try {
-        if (stmt != null)
-          stmt.close();
-      } catch (Exception f) {
-      }
+      itsWritePool.releaseAfterError(conn);
     }
   }
 
@@ -99,57 +125,85 @@ public class PointArchiverMySQL extends PointArchiver {
    */
   protected void saveNow(PointDescription pm, Vector<PointData> alldata) {
     String table = getTableName(pm);
-
-    // MySQL can have maximum packet size limits, so archive data in blocks
-    final int MAXCHUNK = 100;
-    synchronized (alldata) {
-      for (int start = 0; start < alldata.size(); start = start + MAXCHUNK) {
-        Statement stmt = null;
-        try {
-          // Build the full SQL command, adding each new row
-          String cmd = "INSERT IGNORE INTO " + table + " VALUES";
-
-          for (int i = start; i < (start + MAXCHUNK) && i < alldata.size(); i++) {
-            PointData data = (PointData) alldata.get(i);
-
-            // Get a string representation of the object type and value
-            String typeval = null;
+    try {
+      synchronized (alldata) {
+        if (!alldata.isEmpty()) {
+          // Try twice, in case the table or connection needed to be recreated
+          boolean saved = false;
+          for (int attempt = 0; attempt < 2 && !saved; attempt++) {
+            Connection conn = null;
             try {
-              typeval = getStringForObject(data.getData());
-            } catch (IllegalArgumentException e) {
-              // Can't save this object
-              itsLogger.warn("insertData: " + e);
-              continue;
+              conn = itsWritePool.getConnection();
+              ensureTable(conn, table);
+              insertData(conn, table, alldata);
+              itsWritePool.release(conn);
+              saved = true;
+            } catch (SQLException e) {
+              itsLogger.warn("saveNow (" + table + "): " + e);
+              itsKnownTables.remove(table);
+              itsWritePool.releaseAfterError(conn);
             }
-
-            if (i != start) {
-              cmd = cmd + ",";
-            }
-            cmd = cmd + " (" + data.getTimestamp().getValue() + ", " + typeval + ")";
-          }
-          cmd = cmd + ";";
-          synchronized (itsConnection) {
-            stmt = itsConnection.createStatement();
-            stmt.execute(cmd);
-            stmt.close();
           }
-        } catch (Exception e) {
+          // Finished archiving this data
+          alldata.clear();
+        }
+      }
+    } finally {
+      synchronized (itsBeingArchived) {
+        itsBeingArchived.remove(pm.getFullName());
+      }
+    }
+  }
+
+  /**
+   * Write the data to the table using batches of inserts.
+   * 
+   * @param conn
+   *          The connection to use.
+   * @param table
+   *          Name of the table to write to.
+   * @param alldata
+   *          The data to be written.
+   */
+  protected void insertData(Connection conn, String table, Vector<PointData> alldata) throws SQLException {
+    PreparedStatement stmt = conn.prepareStatement(getInsertSQL(table));
+    try {
+      int numbatched = 0;
+      for (int i = 0; i < alldata.size(); i++) {
+        PointData data = alldata.get(i);
+        try {
+          stmt.setLong(1, data.getTimestamp().getValue());
+          setObject(stmt, 2, data.getData());
+        } catch (IllegalArgumentException e) {
+          // Can't save this object
           itsLogger.warn("insertData: " + e);
-          checkConnection();
-          createTable(table);
-          try {
-            if (stmt != null) {
-              stmt.close();
-            }
-          } catch (Exception g) {
-          }
+          continue;
         }
-      }      
-      // Finished archiving this data
-      alldata.clear();
+        stmt.addBatch();
+        numbatched++;
+        if (numbatched == MAXCHUNK) {
+          stmt.executeBatch();
+          numbatched = 0;
+        }
+      }
+      if (numbatched > 0) {
+        stmt.executeBatch();
+      }
+    } finally {
+      stmt.close();
     }
   }
 
+  /** Return the SQL to insert a row into the given table, skipping rows whose timestamp already exists. */
+  protected String getInsertSQL(String table) {
+    return "INSERT IGNORE INTO " + table + " (ts, type, val) VALUES (?, ?, ?)";
+  }
+
+  /** Return the SQL to create the given table if it doesn't already exist. */
+  protected String getCreateTableSQL(String table) {
+    return "CREATE TABLE IF NOT EXISTS " + table + " (ts BIGINT, type CHAR(4), val VARCHAR(255), PRIMARY KEY(ts)) ENGINE = MyISAM";
+  }
+
   /**
    * Extract data from the archive.
    * 
@@ -162,49 +216,108 @@ public class PointArchiverMySQL extends PointArchiver {
    * @return Vector containing all data for the point over the time range.
    */
   protected Vector<PointData> extractDeep(PointDescription pm, AbsTime start, AbsTime end) {
-    try {
-      // Can't do anything if the server is not running
-      if (!checkConnection()) {
-        return null;
-      }
+    String table = getTableName(pm);
+    if (!itsKnownTables.contains(table) && !tableExists(table)) {
+      // No data has ever been archived for this point
+      return null;
+    }
 
-      // Allocate result vector
+    Connection conn = null;
+    try {
+      conn = itsReadPool.getConnection();
       Vector<PointData> res = new Vector<PointData>(1000, 8000);
-      // Get the table name for this point
-      String table = getTableName(pm);
-
-      // Build and execute the data request
-      String cmd = "SELECT * from " + table + " WHERE ts>=" + start.getValue() + " AND ts<=" + end.getValue() + " ORDER BY ts " + "LIMIT " + MAXNUMRECORDS
-          + ";";
-
-      Statement stmt;
-      ResultSet rs;
-      synchronized (itsConnection) {
-        stmt = itsConnection.createStatement();
-        stmt.execute(cmd);
-        rs = stmt.getResultSet();
+      PreparedStatement stmt = conn.prepareStatement("SELECT ts, type, val FROM " + table + " WHERE ts>=? AND ts<=? ORDER BY ts LIMIT ?");
+      try {
+        stmt.setLong(1, start.getValue());
+        stmt.setLong(2, end.getValue());
+        stmt.setInt(3, MAXNUMRECORDS);
+        ResultSet rs = stmt.executeQuery();
+        while (rs.next()) {
+          PointData pd = getPointDataForRow(pm, rs);
+          if (pd != null) {
+            res.add(pd);
+          }
+        }
+      } finally {
+        stmt.close();
       }
-
-      // Ensure we got some data
-      if (!rs.first()) {
-        return null;
+      itsReadPool.release(conn);
+      if (res.isEmpty()) {
+        res = null;
       }
-      do {
-        PointData pd = getPointDataForRow(pm, rs);
-        if (pd != null) {
-          res.add(pd);
-        }
-      } while (rs.next());
-
-      stmt.close();
       // Finished - return the extracted data
       return res;
     } catch (Exception e) {
       itsLogger.warn("extract: " + e);
+      itsReadPool.releaseAfterError(conn);
       return null;
     }
   }
 
+  /**
+   * Pass each record in the time range to the handler as it is read from the result set. The range is read with a series of
+   * queries which each return no more than the maximum number of records.
+   * 
+   * @param pm
+   *          Point to extract data for.
+   * @param start
+   *          Earliest time in the range of interest.
+   * @param end
+   *          Most recent time in the range of interest.
+   * @param handler
+   *          The handler for each record.
+   * @return <code>False</code> if the handler stopped the read, <code>True</code> otherwise.
+   */
+  protected boolean extractDeep(PointDescription pm, AbsTime start, AbsTime end, RecordHandler handler) {
+    String table = getTableName(pm);
+    if (!itsKnownTables.contains(table) && !tableExists(table)) {
+      // No data has ever been archived for this point
+      return true;
+    }
+
+    long chunkstart = start.getValue();
+    while (true) {
+      int numread = 0;
+      long last = 0;
+      boolean stopped = false;
+      Connection conn = null;
+      try {
+        conn = itsReadPool.getConnection();
+        PreparedStatement stmt = conn.prepareStatement("SELECT ts, type, val FROM " + table + " WHERE ts>=? AND ts<=? ORDER BY ts LIMIT ?");
+        try {
+          stmt.setLong(1, chunkstart);
+          stmt.setLong(2, end.getValue());
+          stmt.setInt(3, MAXNUMRECORDS);
+          ResultSet rs = stmt.executeQuery();
+          while (rs.next()) {
+            numread++;
+            last = rs.getLong(1);
+            PointData pd = getPointDataForRow(pm, rs);
+            if (pd != null && !handler.handle(pd)) {
+              stopped = true;
+              break;
+            }
+          }
+        } finally {
+          stmt.close();
+        }
+        itsReadPool.release(conn);
+      } catch (Exception e) {
+        itsLogger.warn("extract: " + e);
+        itsReadPool.releaseAfterError(conn);
+        return true;
+      }
+      if (stopped) {
+        return false;
+      }
+      if (numread < MAXNUMRECORDS) {
+        // Query wasn't clipped so we have everything
+        return true;
+      }
+      chunkstart = last + 1;
+    }
+  }
+
   /**
    * Return the last update which precedes the specified time. We interpret 'precedes' to mean data_time<=req_time.
    * 
@@ -215,39 +328,7 @@ public class PointArchiverMySQL extends PointArchiver {
    * @return PointData for preceding update or null if none found.
    */
   protected PointData getPrecedingDeep(PointDescription pm, AbsTime ts) {
-    try {
-      // Can't do anything if the server is not running
-      if (!checkConnection()) {
-        return null;
-      }
-
-      // Get the table name for this point
-      String table = getTableName(pm);
-
-      // Build and execute the data request
-      String cmd = "SELECT * from " + table + " WHERE ts<=" + ts.getValue() + " ORDER BY ts DESC LIMIT 1;";
-
-      Statement stmt;
-      ResultSet rs;
-      synchronized (itsConnection) {
-        stmt = itsConnection.createStatement();
-        stmt.execute(cmd);
-        rs = stmt.getResultSet();
-      }
-
-      // Ensure we got some data
-      if (!rs.first()) {
-        return null;
-      }
-      PointData res = getPointDataForRow(pm, rs);
-
-      stmt.close();
-      // Finished - return the extracted data
-      return res;
-    } catch (Exception e) {
-      itsLogger.warn("getPreceding: " + e);
-      return null;
-    }
+    return getSingleRow(pm, "SELECT ts, type, val FROM " + getTableName(pm) + " WHERE ts<=? ORDER BY ts DESC LIMIT 1", ts);
   }
 
   /**
@@ -260,37 +341,45 @@ public class PointArchiverMySQL extends PointArchiver {
    * @return PointData for following update or null if none found.
    */
   protected PointData getFollowingDeep(PointDescription pm, AbsTime ts) {
-    try {
-      // Can't do anything if the server is not running
-      if (!checkConnection()) {
-        return null;
-      }
-
-      // Get the table name for this point
-      String table = getTableName(pm);
-
-      // Build and execute the data request
-      String cmd = "SELECT * from " + table + " WHERE ts>=" + ts.getValue() + " ORDER BY TS LIMIT 1;";
+    return getSingleRow(pm, "SELECT ts, type, val FROM " + getTableName(pm) + " WHERE ts>=? ORDER BY ts LIMIT 1", ts);
+  }
 
-      ResultSet rs;
-      Statement stmt;
-      synchronized (itsConnection) {
-        stmt = itsConnection.createStatement();
-        stmt.execute(cmd);
-        rs = stmt.getResultSet();
-      }
+  /**
+   * Run a query which takes a single timestamp argument and return the first row.
+   * 
+   * @param pm
+   *          Point to extract data for.
+   * @param sql
+   *          The query to run.
+   * @param ts
+   *          The timestamp argument for the query.
+   * @return PointData for the row or null if none found.
+   */
+  protected PointData getSingleRow(PointDescription pm, String sql, AbsTime ts) {
+    String table = getTableName(pm);
+    if (!itsKnownTables.contains(table) && !tableExists(table)) {
+      return null;
+    }
 
-      // Ensure we got some data
-      if (!rs.first()) {
-        return null;
+    Connection conn = null;
+    try {
+      conn = itsReadPool.getConnection();
+      PointData res = null;
+      PreparedStatement stmt = conn.prepareStatement(sql);
+      try {
+        stmt.setLong(1, ts.getValue());
+        ResultSet rs = stmt.executeQuery();
+        if (rs.next()) {
+          res = getPointDataForRow(pm, rs);
+        }
+      } finally {
+        stmt.close();
       }
-      PointData res = getPointDataForRow(pm, rs);
-
-      stmt.close();
-      // Finished - return the extracted data
+      itsReadPool.release(conn);
       return res;
     } catch (Exception e) {
-      itsLogger.warn("getFollowing: " + e);
+      itsLogger.warn("getSingleRow: " + e);
+      itsReadPool.releaseAfterError(conn);
       return null;
     }
   }
@@ -310,7 +399,10 @@ public class PointArchiverMySQL extends PointArchiver {
       AbsTime ts = AbsTime.factory(rs.getLong(1));
       String type = rs.getString(2);
       String val = rs.getString(3);
-      Object oval = getObjectForString(type, val);
+      Object oval = null;
+      if (type != null) {
+        oval = getObjectForString(type, val);
+      }
       res = new PointData(pm.getFullName(), ts, oval);
     } catch (Exception e) {
       res = null;
@@ -319,69 +411,51 @@ public class PointArchiverMySQL extends PointArchiver {
   }
 
   /**
-   * Create the specified table if it doesn't already exist.
+   * Create the specified table, unless we already know it exists.
    * 
+   * @param conn
+   *          The connection to use.
    * @param table
    *          Name of the table to create.
    */
-  protected void createTable(String table) {
-    Statement stmt = null;
+  protected void ensureTable(Connection conn, String table) throws SQLException {
+    if (itsKnownTables.contains(table)) {
+      return;
+    }
+    itsLogger.debug("ensureTable: Creating " + table);
+    Statement stmt = conn.createStatement();
     try {
-      itsLogger.debug("createTable: Creating " + table);
-      synchronized (itsConnection) {
-        stmt = itsConnection.createStatement();
-        stmt.execute("CREATE table if not exists " + table + "(ts BIGINT, type CHAR(4), val VARCHAR(255), " + "PRIMARY KEY(`ts`)) ENGINE = MyISAM;");
-        stmt.close();
-      }
-    } catch (Exception e) {
-      itsLogger.error("createTable: " + e);
-      try {
-        if (stmt != null) {
-          stmt.close();
-        }
-      } catch (Exception g) {
-      }
+      stmt.execute(getCreateTableSQL(table));
+    } finally {
+      stmt.close();
     }
+    itsKnownTables.add(table);
   }
 
   /**
-   * Check if we are connected to the server and reconnect if required.
+   * Check the database to see if the specified table exists, recording it if so.
    * 
-   * @return True if connected (or reconnected). False if not connected.
+   * @param table
+   *          Name of the table to check.
+   * @return True if the table exists, False if it doesn't or the database could not be checked.
    */
-  protected boolean checkConnection() {
-    boolean res = false;
-    Statement stmt = null;
+  protected boolean tableExists(String table) {
+    Connection conn = null;
     try {
-      // Do a minimal query to see if connection is valid
-      // From Java 1.6 we could use itsConnection.isValid(1)
-      if (itsConnection != null) {
-        try {
-          synchronized (itsConnection) {
-            stmt = itsConnection.createStatement();
-            stmt.execute("select 1;");
-            stmt.close();
-          }
-        } catch (Exception f) {
-          itsConnection = null;
-          try {
-            if (stmt != null) {
-              stmt.close();
-            }
-          } catch (Exception g) {
-          }
-        }
-      }
-      if (itsConnection == null) {
-        itsConnection = DriverManager.getConnection(itsURL);
-      } else {
-        res = true;
+      conn = itsReadPool.getConnection();
+      ResultSet rs = conn.getMetaData().getTables(null, null, table, null);
+      boolean res = rs.next();
+      rs.close();
+      itsReadPool.release(conn);
+      if (res) {
+        itsKnownTables.add(table);
       }
+      return res;
     } catch (Exception e) {
-      itsLogger.warn("checkConnection: " + e);
-      itsConnection = null;
+      itsLogger.warn("tableExists: " + e);
+      itsReadPool.releaseAfterError(conn);
+      return false;
     }
-    return res;
   }
 
   /**
@@ -401,51 +475,67 @@ public class PointArchiverMySQL extends PointArchiver {
   }
 
   /**
-   * Get a string representation of the Object. The string includes a type specifier as well as an ASCII representation of the data.
-   * These fields are separated by tabs. The <i>getObjectForString</i> method is able to decode this representation and recover the
-   * original Object.
+   * Bind the type specifier and an ASCII representation of the Object to two consecutive statement parameters. The
+   * <i>getObjectForString</i> method is able to decode this representation and recover the original Object.
    * <P>
    * <i>null</i> objects are properly handled.
    * 
+   * @param stmt
+   *          The statement to bind the parameters of.
+   * @param col
+   *          Index of the parameter for the type, the value is bound to the following parameter.
    * @param data
    *          The Object to encode into ASCII text.
-   * @return An ASCII String representation of the data.
    */
-  protected String getStringForObject(Object data) throws IllegalArgumentException {
-    String res = null;
+  protected void setObject(PreparedStatement stmt, int col, Object data) throws IllegalArgumentException, SQLException {
+    String type;
+    String val;
     if (data == null) {
-      res = "NULL, NULL";
+      stmt.setNull(col, Types.CHAR);
+      stmt.setNull(col + 1, Types.VARCHAR);
+      return;
     } else if (data instanceof Double) {
-      res = "'dbl', '" + ((Double) data).doubleValue() + "'";
+      type = "dbl";
+      val = Double.toString(((Double) data).doubleValue());
     } else if (data instanceof Float) {
-      res = "'flt', '" + ((Float) data).floatValue() + "'";
+      type = "flt";
+      val = Float.toString(((Float) data).floatValue());
     } else if (data instanceof Integer) {
-      res = "'int', '" + ((Integer) data).intValue() + "'";
+      type = "int";
+      val = Integer.toString(((Integer) data).intValue());
     } else if (data instanceof String) {
-      res = "'str', '" + (String) data + "'";
+      type = "str";
+      val = (String) data;
     } else if (data instanceof HourAngle) {
-      res = "'hr', '" + ((Angle) data).getValue() + "'";
+      type = "hr";
+      val = Double.toString(((Angle) data).getValue());
     } else if (data instanceof Angle) {
-      res = "'ang', '" + ((Angle) data).getValue() + "'";
+      type = "ang";
+      val = Double.toString(((Angle) data).getValue());
     } else if (data instanceof Boolean) {
-      res = "'bool', '" + ((Boolean) data).booleanValue() + "'";
+      type = "bool";
+      val = Boolean.toString(((Boolean) data).booleanValue());
     } else if (data instanceof Short) {
-      res = "'shrt', '" + ((Short) data).shortValue() + "'";
+      type = "shrt";
+      val = Short.toString(((Short) data).shortValue());
     } else if (data instanceof Long) {
-      res = "'long', '" + ((Long) data).longValue() + "'";
+      type = "long";
+      val = Long.toString(((Long) data).longValue());
     } else if (data instanceof AbsTime) {
-      res = "'abst', '" + ((AbsTime) data).toString(AbsTime.Format.HEX_BAT) + "'";
+      type = "abst";
+      val = ((AbsTime) data).toString(AbsTime.Format.HEX_BAT);
     } else if (data instanceof RelTime) {
-      res = "'relt', '" + ((RelTime) data).toString(RelTime.Format.DECIMAL_BAT) + "'";
-      // } else if (data instanceof BigInteger) {
-      // res = "'big', '" + ((BigInteger)data).toString() + "'";
+      type = "relt";
+      val = ((RelTime) data).toString(RelTime.Format.DECIMAL_BAT);
     } else if (data instanceof EnumItem) {
-      res = "'enum', '" + ((EnumItem) data).toString() + "'";
+      type = "enum";
+      val = ((EnumItem) data).toString();
     } else {
       // Unhandled data type
       throw new IllegalArgumentException("Unsupported Type: " + data.getClass());
     }
-    return res;
+    stmt.setString(col, type);
+    stmt.setString(col + 1, val);
   }
 
   /**
@@ -3,6 +3,7 @@ package atnf.atoms.mon.client;
 import java.util.*;
 
 import atnf.atoms.mon.*;
+import atnf.atoms.mon.comms.MoniCAClient;
 import atnf.atoms.mon.util.*;
 import atnf.atoms.time.*;
 
@@ -10,6 +11,13 @@ import atnf.atoms.time.*;
  * The DataMaintainer provides a simple interface for listeners to subscribe to
  * updates for nominated points.
  * 
+ * <P>
+ * If the server provides a feed of updates then the points are added to a
+ * subscription on the server and their updates are received through a long-poll
+ * request, rather than each point being polled at its update period. Points are
+ * polled whenever the feed isn't available, and the feed is tried again
+ * periodically.
+ * 
  * @author Le Cuong Nguyen, David Brodrick
  */
 public class DataMaintainer implements Runnable
@@ -17,57 +25,16 @@ public class DataMaintainer implements Runnable
   // Create a thread to do the polling of the server
   static {
     new Thread(new DataMaintainer(), "DataMaintainer Collector").start();
-  }
-
-  /**
-   * Comparator to compare PointDescriptions and/or AbsTimes. We need to use
-   * this Comparator with the SortedLinkedList class.
-   */
-  private static class TimeComp implements Comparator
-  {
-    /** Return a timestamp for any known class type. */
-    private long getTimeStamp(Object o)
-    {
-      if (o instanceof PointDescription) {
-        return ((PointDescription) o).getNextEpoch();
-      } else if (o instanceof AbsTime) {
-        return ((AbsTime) o).getValue();
-      } else if (o == null) {
-        return 0;
-      } else {
-        System.err.println("ExternalSystem: TimeComp: compare: UNKNOWN TYPE (" + o.getClass() + ")");
-        return 0;
-      }
-    }
-
-    /** Compare PointDescriptions and/or AbsTimes. */
-    public int compare(Object o1, Object o2)
-    {
-      long val1 = getTimeStamp(o1);
-      long val2 = getTimeStamp(o2);
-
-      if (val1 > val2) {
-        return 1;
-      }
-      if (val1 < val2) {
-        return -1;
-      }
-      return 0;
-    }
-
-    /** Test if equivalent to the given Comparator. */
-    public boolean equals(Object o)
-    {
-      if (o instanceof TimeComp) {
-        return true;
-      } else {
-        return false;
+    new Thread("DataMaintainer Feed") {
+      public void run()
+      {
+        runFeed();
       }
-    }
+    }.start();
   }
 
   /** Queue of points sorted by time of next collection. */
-  protected static SortedLinkedList theirQueue = new SortedLinkedList(new TimeComp());
+  protected static CollectionScheduler theirQueue = new CollectionScheduler();
 
   /** All points currently being collected. */
   protected static HashMap<String, PointDescription> theirPoints = new HashMap<String, PointDescription>();
@@ -75,6 +42,39 @@ public class DataMaintainer implements Runnable
   /** Record of the latest data reported to subscribers for each point. */
   protected static HashMap<String, PointData> theirLastData = new HashMap<String, PointData>();
 
+  /** ID of the subscription on the server, or zero if there isn't one. Only used by the feed thread. */
+  protected static long theirFeedID = 0;
+
+  /** The server on which the subscription was made. Only used by the feed thread. */
+  protected static MoniCAClient theirFeedServer = null;
+
+  /** Set if all points need to be added to the subscription again. Only used by the feed thread. */
+  protected static boolean theirFeedResync = false;
+
+  /**
+   * Names of points waiting to be added to the subscription. They are polled until
+   * the server has them. Guarded by the lock on theirQueue.
+   */
+  protected static HashSet<String> theirFeedAdditions = new HashSet<String>();
+
+  /** Names of points being added to the subscription. Guarded by the lock on theirQueue. */
+  protected static HashSet<String> theirFeedSending = new HashSet<String>();
+
+  /** Names of points waiting to be removed from the subscription. Guarded by the lock on theirQueue. */
+  protected static HashSet<String> theirFeedRemovals = new HashSet<String>();
+
+  /** Set when points are being updated from the feed rather than polled. */
+  protected static volatile boolean theirFeedActive = false;
+
+  /** Maximum time the server should hold each request for updates, in ms. */
+  protected static final int theirFeedWait = 10000;
+
+  /** Time to wait before trying the feed again after a failure, in ms. */
+  protected static final long theirFeedRetry = 10000;
+
+  /** Time to wait before trying again if the server doesn't have the feed, in ms. */
+  protected static final long theirFeedUnsupportedRetry = 600000;
+
   public DataMaintainer()
   {
   }
@@ -94,10 +94,14 @@ public class DataMaintainer implements Runnable
   {
     synchronized (theirPoints) {
       theirPoints.put(pd.getFullName(), pd);
+      theirPoints.notifyAll();
     }
+    String thisname = pd.getFullName();
     synchronized (theirQueue) {
+      // Leave the feed thread to tell the server and poll the point until then
+      theirFeedRemovals.remove(thisname);
+      theirFeedAdditions.add(thisname);
       theirQueue.add(pd);
-      theirQueue.notifyAll();
     }
   }
 
@@ -110,12 +114,189 @@ public class DataMaintainer implements Runnable
     }
     synchronized (theirQueue) {
       theirQueue.remove(pd);
+      // Leave the feed thread to tell the server
+      theirFeedAdditions.remove(thisname);
+      theirFeedRemovals.add(thisname);
     }
     synchronized (theirLastData) {
       theirLastData.remove(thisname);
     }
   }
 
+  /**
+   * Check if the point needs to be polled because the feed isn't being used or the
+   * server doesn't have the point yet. Must hold the lock on theirQueue.
+   */
+  protected static boolean needsPolling(String name)
+  {
+    return !theirFeedActive || theirFeedAdditions.contains(name) || theirFeedSending.contains(name);
+  }
+
+  /** Stop using the feed and go back to polling all points. */
+  protected static void stopFeed()
+  {
+    Vector<PointDescription> points;
+    synchronized (theirPoints) {
+      points = new Vector<PointDescription>(theirPoints.values());
+    }
+    theirFeedID = 0;
+    synchronized (theirQueue) {
+      theirFeedAdditions.clear();
+      theirFeedSending.clear();
+      theirFeedRemovals.clear();
+      if (theirFeedActive) {
+        theirFeedActive = false;
+        for (int i = 0; i < points.size(); i++) {
+          if (!theirQueue.contains(points.get(i))) {
+            theirQueue.add(points.get(i));
+          }
+        }
+      }
+    }
+  }
+
+  /** Start using the feed and stop polling the points which the server has. */
+  protected static void startFeed()
+  {
+    Vector<PointDescription> points;
+    synchronized (theirPoints) {
+      points = new Vector<PointDescription>(theirPoints.values());
+    }
+    synchronized (theirQueue) {
+      theirFeedActive = true;
+      for (int i = 0; i < points.size(); i++) {
+        if (!needsPolling(points.get(i).getFullName())) {
+          theirQueue.remove(points.get(i));
+        }
+      }
+    }
+  }
+
+  /** Pass a value received from the feed to the point's listeners if it is new. */
+  protected static void distributeUpdate(PointData data)
+  {
+    PointDescription pm = PointDescription.getPoint(data.getName());
+    if (pm == null || !alreadyCollecting(pm.getFullName())) {
+      // Point has been unsubscribed in the meantime
+      return;
+    }
+    synchronized (theirLastData) {
+      PointData lastdata = theirLastData.get(pm.getFullName());
+      if (lastdata != null && lastdata.getTimestamp() != null && data.getTimestamp() != null && lastdata.getTimestamp().compare(data.getTimestamp()) == 0) {
+        // Already reported this value
+        return;
+      }
+      theirLastData.put(pm.getFullName(), data);
+    }
+    pm.distributeData(new PointEvent(pm, data, false));
+  }
+
+  /** Main loop for the thread which receives updates through the feed. */
+  protected static void runFeed()
+  {
+    long sequence = 0;
+    while (true) {
+      // Wait until there are points to collect
+      synchronized (theirPoints) {
+        while (theirPoints.isEmpty()) {
+          try {
+            theirPoints.wait();
+          } catch (InterruptedException e) {
+          }
+        }
+      }
+
+      long retry = theirFeedRetry;
+      MoniCAClient server = MonClientUtil.getServer();
+      if (server != null) {
+        try {
+          // Send the points which have been added or removed since the last request
+          boolean resync = theirFeedID == 0 || theirFeedResync || server != theirFeedServer;
+          if (server != theirFeedServer) {
+            theirFeedID = 0;
+            theirFeedServer = server;
+          }
+          Vector<String> add;
+          Vector<String> remove;
+          synchronized (theirQueue) {
+            if (resync) {
+              // Subscribe to all points
+              synchronized (theirPoints) {
+                add = new Vector<String>(theirPoints.keySet());
+              }
+              theirFeedAdditions.clear();
+            } else {
+              add = new Vector<String>(theirFeedAdditions);
+              theirFeedAdditions.removeAll(add);
+            }
+            remove = new Vector<String>(theirFeedRemovals);
+            theirFeedRemovals.clear();
+            theirFeedSending.addAll(add);
+          }
+          if (resync || !add.isEmpty() || !remove.isEmpty()) {
+            long newid = server.updateSubscription(theirFeedID, add, remove);
+            if (newid != theirFeedID && !resync) {
+              // Server has lost our subscription so all points need to be added again
+              theirFeedID = newid;
+              theirFeedResync = true;
+              continue;
+            }
+            theirFeedID = newid;
+            theirFeedResync = false;
+            if (resync) {
+              sequence = 0;
+            }
+            synchronized (theirQueue) {
+              theirFeedSending.clear();
+              if (theirFeedActive) {
+                // Server has the new points so stop polling them
+                synchronized (theirPoints) {
+                  for (int i = 0; i < add.size(); i++) {
+                    PointDescription pd = theirPoints.get(add.get(i));
+                    if (pd != null && !needsPolling(add.get(i))) {
+                      theirQueue.remove(pd);
+                    }
+                  }
+                }
+              }
+            }
+          }
+          long id = theirFeedID;
+
+          long[] latest = new long[1];
+          Vector<PointData> resdata = server.getUpdates(id, sequence, theirFeedWait, latest);
+          if (latest[0] < 0) {
+            // Server no longer has our subscription
+            theirFeedResync = true;
+            continue;
+          }
+          if (!theirFeedActive) {
+            startFeed();
+          }
+          sequence = latest[0];
+          for (int i = 0; i < resdata.size(); i++) {
+            if (resdata.get(i) != null) {
+              distributeUpdate(resdata.get(i));
+            }
+          }
+          continue;
+        } catch (UnsupportedOperationException e) {
+          // Check again occasionally in case the server is upgraded
+          retry = theirFeedUnsupportedRetry;
+        } catch (Exception e) {
+          System.err.println("DataMaintainer.runFeed: " + e);
+        }
+      }
+
+      // Poll the points until the feed can be tried again
+      stopFeed();
+      try {
+        Thread.sleep(retry);
+      } catch (InterruptedException e) {
+      }
+    }
+  }
+
   /** Subscribe the specified listener to updates from all of the given points. */
   public static void subscribe(final Vector<String> points, final PointListener pl)
   {
@@ -311,7 +492,6 @@ public class DataMaintainer implements Runnable
   {
     while (true) {      
       Vector<PointDescription> getpoints = null;
-      AbsTime nextTime = AbsTime.factory("ASAP");
       synchronized (theirQueue) {
         try {
           // Wait for notification if no points are waiting
@@ -322,7 +502,8 @@ public class DataMaintainer implements Runnable
         }
 
         // Get the points which are ready for collection
-        getpoints = theirQueue.headSet(AbsTime.factory().add(ClockErrorMonitor.getClockError()));
+        long now = AbsTime.factory().getValue() + ClockErrorMonitor.getClockError().getValue();
+        getpoints = theirQueue.headSet(now, now);
       }
 
       if (getpoints.size() > 0) {
@@ -376,9 +557,9 @@ public class DataMaintainer implements Runnable
 
         // Need to reinsert the points to reschedule collection
         for (int i = 0; i < getpoints.size(); i++) {
-          // Ensure point subscription hasn't been cancelled in meantime
+          // Ensure point subscription hasn't been cancelled and isn't using the feed
           synchronized (theirQueue) {
-            if (theirPoints.containsKey(getpoints.get(i).getFullName()) && !theirQueue.contains(getpoints.get(i))) {
+            if (needsPolling(getpoints.get(i).getFullName()) && theirPoints.containsKey(getpoints.get(i).getFullName()) && !theirQueue.contains(getpoints.get(i))) {
               theirQueue.add(getpoints.get(i));
             }
           }
@@ -386,27 +567,10 @@ public class DataMaintainer implements Runnable
       }      
       
       try {
-        synchronized (theirQueue) {
-          if (theirQueue.size() > 0) {
-            PointDescription pm = (PointDescription) theirQueue.first();
-            nextTime = AbsTime.factory(pm.getNextEpoch());
-          }
-        }
-        AbsTime timenow = AbsTime.factory().add(ClockErrorMonitor.getClockError());
-        if (nextTime.isAfter(timenow)) {
-          final RelTime maxsleep = RelTime.factory(100000);
-          // We need to wait before we collect the next point.
-          // Work out how long we need to wait for
-          RelTime waittime = Time.diff(nextTime, timenow);
-          if (waittime.getValue() > maxsleep.getValue()) {
-            // We don't want to sleep longer than this, in case points
-            // have been inserted or removed in the mean time
-            maxsleep.sleep();
-          } else {
-            // Sleep for the correct amount of time
-            waittime.sleep();
-          }
-        }
+        // We need to wait before we collect the next point. We don't want to
+        // sleep longer than the maximum, in case the clock error changes.
+        final long maxsleep = 100000;
+        theirQueue.awaitNext(AbsTime.factory().getValue() + ClockErrorMonitor.getClockError().getValue(), maxsleep);
       } catch (Exception e) {
         System.err.println("PointCollector::run(): " + e.getMessage());
         e.printStackTrace();
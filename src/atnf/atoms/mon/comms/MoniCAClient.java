@@ -303,6 +303,45 @@ public abstract class MoniCAClient {
    */
   public abstract boolean setData(Vector<String> pointnames, Vector<PointData> values, String username, String passwd) throws Exception;
 
+  /**
+   * Create a subscription to updates for the given points on the server, or add and remove points from an existing subscription.
+   * Updates are then obtained by calling <tt>getUpdates</tt>. If the returned ID differs from the one given then a new subscription
+   * was created and all points need to be added to it again.
+   * 
+   * @param id
+   *          ID of the existing subscription, or zero to create a new one.
+   * @param add
+   *          Names of the points to add to the subscription.
+   * @param remove
+   *          Names of the points to remove from the subscription.
+   * @return The ID of the subscription.
+   * @throws UnsupportedOperationException
+   *           If the server doesn't support subscriptions.
+   */
+  public long updateSubscription(long id, Vector<String> add, Vector<String> remove) throws Exception {
+    throw new UnsupportedOperationException("Subscriptions are not supported");
+  }
+
+  /**
+   * Get the latest value of each point in the subscription which has been updated since the given sequence number, waiting for up
+   * to the given time if there are none. The values of newly added points are always returned.
+   * 
+   * @param id
+   *          ID of the subscription.
+   * @param sequence
+   *          Sequence number returned by the previous call, or zero to get the latest value of all points.
+   * @param timeout
+   *          Maximum time to wait for updates, in ms.
+   * @param latest
+   *          The first element is set to the sequence number to pass to the next call, or -1 if the subscription doesn't exist.
+   * @return The updated values, which may be empty.
+   * @throws UnsupportedOperationException
+   *           If the server doesn't support subscriptions.
+   */
+  public Vector<PointData> getUpdates(long id, long sequence, int timeout, long[] latest) throws Exception {
+    throw new UnsupportedOperationException("Subscriptions are not supported");
+  }
+
   /**
    * Return all SavedSetups for client Objects from the server. <tt>null</tt> may be returned if the server has no SavedSetups.
    */
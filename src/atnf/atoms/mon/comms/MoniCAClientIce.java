@@ -400,6 +400,33 @@ public class MoniCAClientIce extends MoniCAClient {
    * @return Data from the archive between the specified times, for each point.
    */
   public Vector<Vector<PointData>> getArchiveData(Vector<String> pointnames, AbsTime start, AbsTime end, int maxsamples) throws Exception {
+    return getArchiveData(pointnames, start, end, maxsamples, null);
+  }
+
+  /**
+   * Return archived data for the given points, reduced using the specified downsampling mode.
+   * 
+   * @param pointnames
+   *          Names of points to get data for.
+   * @param start
+   *          The oldest data to be retrieved.
+   * @param end
+   *          The most recent data to be retrieved.
+   * @param maxsamples
+   *          Maximum number of records to be returned.
+   * @param mode
+   *          Name of the downsampling mode, eg "minmax" or "lttb", or null for the server default.
+   * @return Data from the archive between the specified times, for each point.
+   */
+  public Vector<Vector<PointData>> getArchiveData(Vector<String> pointnames, AbsTime start, AbsTime end, int maxsamples, String mode)
+      throws Exception {
+    // The mode is passed in the request context so that the interface is unchanged
+    java.util.Map<String, String> ctx = new java.util.HashMap<String, String>();
+    if (mode != null) {
+      ctx.put("downsample", mode);
+    }
+    // Downsampled data for the whole range is returned in a single response
+    boolean singleresponse = mode != null && maxsamples > 1;
     Vector<Vector<PointData>> res = new Vector<Vector<PointData>>(pointnames.size());
     try {
       if (!isConnected()) {
@@ -412,7 +439,7 @@ public class MoniCAClientIce extends MoniCAClient {
         Vector<PointData> thisdata = new Vector<PointData>();
         AbsTime thisstart = start;
         while (true) {
-          PointDataIce[][] icedata = itsIceClient.getArchiveData(new String[] { thisname }, thisstart.getValue(), end.getValue(), maxsamples);
+          PointDataIce[][] icedata = itsIceClient.getArchiveData(new String[] { thisname }, thisstart.getValue(), end.getValue(), maxsamples, ctx);
           if (icedata != null && icedata.length > 0 && icedata[0].length > 0) {
             // Convert data to native representation
             Vector<PointData> newdata = MoniCAIceUtil.getPointDataFromIce(icedata[0]);
@@ -421,7 +448,7 @@ public class MoniCAClientIce extends MoniCAClient {
               newdata.get(j).setName(thisname);
             }
             thisdata.addAll(MoniCAIceUtil.getPointDataFromIce(icedata[0]));
-            if (icedata[0].length == 1) {
+            if (icedata[0].length == 1 || singleresponse) {
               // No data will be returned to subsequent queries so stop now
               break;
             }
@@ -480,6 +507,73 @@ public class MoniCAClientIce extends MoniCAClient {
     return res;
   }
 
+  /**
+   * Create a subscription to updates for the given points on the server, or add and remove points from an existing subscription.
+   * 
+   * @param id
+   *          ID of the existing subscription, or zero to create a new one.
+   * @param add
+   *          Names of the points to add to the subscription.
+   * @param remove
+   *          Names of the points to remove from the subscription.
+   * @return The ID of the subscription, which differs from <i>id</i> if a new subscription was created.
+   */
+  public long updateSubscription(long id, Vector<String> add, Vector<String> remove) throws Exception {
+    long res = 0;
+    try {
+      if (!isConnected()) {
+        connect();
+      }
+      res = itsIceClient.updateSubscription(id, add.toArray(new String[0]), remove.toArray(new String[0]));
+    } catch (Ice.OperationNotExistException e) {
+      // Server predates subscriptions
+      throw new UnsupportedOperationException("Server does not support subscriptions");
+    } catch (Exception e) {
+      System.err.println("MoniCAClientIce.updateSubscription:" + e.getClass());
+      disconnect();
+      throw e;
+    }
+    return res;
+  }
+
+  /**
+   * Get the latest value of each point in the subscription which has been updated since the given sequence number, waiting for up
+   * to the given time if there are none.
+   * 
+   * @param id
+   *          ID of the subscription.
+   * @param sequence
+   *          Sequence number returned by the previous call, or zero to get the latest value of all points.
+   * @param timeout
+   *          Maximum time to wait for updates, in ms.
+   * @param latest
+   *          The first element is set to the sequence number to pass to the next call, or -1 if the subscription doesn't exist.
+   * @return The updated values, which may be empty.
+   */
+  public Vector<PointData> getUpdates(long id, long sequence, int timeout, long[] latest) throws Exception {
+    Vector<PointData> res = null;
+    try {
+      if (!isConnected()) {
+        connect();
+      }
+      Ice.LongHolder latestholder = new Ice.LongHolder();
+      PointDataIce[] icedata = itsIceClient.getUpdates(id, sequence, timeout, latestholder);
+      res = MoniCAIceUtil.getPointDataFromIce(icedata);
+      if (res == null) {
+        res = new Vector<PointData>();
+      }
+      latest[0] = latestholder.value;
+    } catch (Ice.OperationNotExistException e) {
+      // Server predates subscriptions
+      throw new UnsupportedOperationException("Server does not support subscriptions");
+    } catch (Exception e) {
+      System.err.println("MoniCAClientIce.getUpdates:" + e.getClass());
+      disconnect();
+      throw e;
+    }
+    return res;
+  }
+
   /**
    * Return all SavedSetups for client Objects from the server. <tt>null</tt> may be returned if the server has no SavedSetups.
    */
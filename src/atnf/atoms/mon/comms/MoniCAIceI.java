@@ -13,9 +13,12 @@ import java.util.Set;
 import java.util.SortedMap;
 import java.util.Vector;
 import java.util.Date;
+import java.util.concurrent.Callable;
 
 import Ice.Current;
 import atnf.atoms.mon.*;
+import atnf.atoms.mon.archiver.PointArchiver;
+import atnf.atoms.mon.util.ArchiveQueryPool;
 import atnf.atoms.mon.util.MonitorConfig;
 import atnf.atoms.mon.util.RADIUSAuthenticator;
 import atnf.atoms.time.*;
@@ -165,34 +168,65 @@ public final class MoniCAIceI extends _MoniCAIceDisp {
     return stringsetups;
   }
 
-  /** Return historical data for the specified points. */
+  /**
+   * Return historical data for the specified points. The downsampling mode can be selected by setting the <tt>downsample</tt> key
+   * of the Ice request context to the name of one of the modes supported by <tt>Downsampler</tt>, which keeps the interface
+   * compatible with existing clients.
+   */
   public PointDataIce[][] getArchiveData(String[] names, long start, long end, long maxsamples, Ice.Current __current) {
-    AbsTime absstart = AbsTime.factory(start);
-    AbsTime absend = AbsTime.factory(end);
-    PointDataIce[][] res = new PointDataIce[names.length][];
+    final AbsTime absstart = AbsTime.factory(start);
+    final AbsTime absend = AbsTime.factory(end);
+    final int maxsamps = (int) maxsamples;
+    final String mode = (__current != null && __current.ctx != null) ? __current.ctx.get("downsample") : null;
+    // Read and convert each point's data concurrently
+    Vector<Callable<PointDataIce[]>> tasks = new Vector<Callable<PointDataIce[]>>(names.length);
     for (int i = 0; i < names.length; i++) {
       checkPoint(names[i], __current);
-      // Get the requested data from the buffer/archive
-      Vector<PointData> thisdata = PointBuffer.getPointData(names[i], absstart, absend, (int) maxsamples);
-      if (thisdata == null) {
+      final String name = names[i];
+      tasks.add(new Callable<PointDataIce[]>() {
+        public PointDataIce[] call() {
+          return getArchiveData(name, absstart, absend, maxsamps, mode);
+        }
+      });
+    }
+    Vector<PointDataIce[]> results = ArchiveQueryPool.invokeAll(tasks);
+
+    PointDataIce[][] res = new PointDataIce[names.length][];
+    for (int i = 0; i < names.length; i++) {
+      res[i] = results.get(i);
+      if (res[i] == null) {
         // Ice doesn't like null, so replace with empty return structure
-        thisdata = new Vector<PointData>(0);
-	theirLogger.debug("getArchiveData: No archive data found for point " + names[i]);
-      }
-      else {
-        theirLogger.debug("getArchiveData: Found " + thisdata.size() + " entries for point " + names[i]);
-      }
-      // Convert to Ice representation
-      res[i] = MoniCAIceUtil.getPointDataAsIce(thisdata);
-      // Blank the name to minimise network traffic
-      for (int j = 0; j < res[i].length; j++) {
-        res[i][j].name = "";
+        res[i] = new PointDataIce[0];
       }
-
     }
     return res;
   }
 
+  /** Get the historical data for a single point in its Ice representation, converting each record as it is read. */
+  private static PointDataIce[] getArchiveData(String name, AbsTime start, AbsTime end, int maxsamples, String mode) {
+    PointDescription pm = PointDescription.getPoint(name);
+    if (pm == null) {
+      return new PointDataIce[0];
+    }
+    // Get the requested data from the buffer/archive
+    final Vector<PointDataIce> thisdata = new Vector<PointDataIce>();
+    PointBuffer.getPointData(pm, start, end, maxsamples, mode, new PointArchiver.RecordHandler() {
+      public boolean handle(PointData pd) {
+        PointDataIce pdi = MoniCAIceUtil.getPointDataAsIce(pd);
+        // Blank the name to minimise network traffic
+        pdi.name = "";
+        thisdata.add(pdi);
+        return true;
+      }
+    });
+    if (thisdata.isEmpty()) {
+      theirLogger.debug("getArchiveData: No archive data found for point " + name);
+    } else {
+      theirLogger.debug("getArchiveData: Found " + thisdata.size() + " entries for point " + name);
+    }
+    return thisdata.toArray(new PointDataIce[thisdata.size()]);
+  }
+
   /** Return the latest values for the given points. */
   public PointDataIce[] getData(String[] names, Ice.Current __current) {
     PointDataIce[] temp = new PointDataIce[names.length];
@@ -290,6 +324,19 @@ public final class MoniCAIceI extends _MoniCAIceDisp {
     return result;
   }
 
+  /** Add and remove points from a subscription, creating a new subscription if required. */
+  public long updateSubscription(long id, String[] add, String[] remove, Ice.Current __current) {
+    for (int i = 0; i < add.length; i++) {
+      checkPoint(add[i], __current);
+    }
+    return UpdateFeed.updateSubscription(id, add, remove);
+  }
+
+  /** Return the updates to a subscription since the given sequence number, waiting if there are none. */
+  public void getUpdates_async(AMD_MoniCAIce_getUpdates __cb, long id, long sequence, int timeout, Ice.Current __current) {
+    UpdateFeed.getUpdates(__cb, id, sequence, timeout);
+  }
+
   /** Get all priority alarms defined on the system irrespective of current state. */
   public AlarmIce[] getAllAlarms(Current __current) {
     Vector<Alarm> allalarms = AlarmManager.getAllAlarms();
@@ -560,4 +607,71 @@ public final class MoniCAIceI extends _MoniCAIceDisp {
       }
     }
   }
+
+  /**
+   * Simple benchmark which compares the time taken to read archive data for increasing numbers of points one after the other, as
+   * <tt>getArchiveData</tt> used to, and through the archive query pool. Data is written to and read back from the archiver
+   * configured with the <tt>Archiver</tt> property. The optional arguments are the maximum number of points and the number of
+   * records for each point.
+   */
+  public static final void main(String[] args) throws Exception {
+    int maxpoints = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+    int numrecords = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+    PointArchiver pa = (PointArchiver) Class.forName("atnf.atoms.mon.archiver.PointArchiver" + MonitorConfig.getProperty("Archiver"))
+        .newInstance();
+    PointArchiver.setPointArchiver(pa);
+    ((Thread) pa).start();
+
+    // Create the points and archive a record per second for each, ending now
+    String source = "bench" + System.currentTimeMillis();
+    String[] names = new String[maxpoints];
+    long now = AbsTime.nowValue();
+    long start = now - numrecords * 1000000L;
+    for (int i = 0; i < maxpoints; i++) {
+      for (PointDescription p : PointDescription.parseLine("P" + i + " \"bench\" \"\" \"\" " + source + " T - - - - - 1000000 -")) {
+        p.populateServerFields();
+      }
+      names[i] = source + ".P" + i;
+    }
+    PointDescription.setPointsCreated();
+    for (int i = 0; i < maxpoints; i++) {
+      Vector<PointData> data = new Vector<PointData>(numrecords);
+      for (int j = 0; j < numrecords; j++) {
+        data.add(new PointData(names[i], AbsTime.factory(start + j * 1000000L), new Double(j)));
+      }
+      pa.archiveData(PointDescription.getPoint(names[i]), data);
+    }
+    pa.flushArchive();
+
+    System.out.println(pa.getClass().getSimpleName() + ", " + numrecords + " records per point, "
+        + MonitorConfig.getProperty("ArchiveQueryThreads", "default") + " query threads");
+    System.out.println("pass\tpoints\tserial(ms)\tpool(ms)");
+    MoniCAIceI ice = new MoniCAIceI();
+    long check = 0;
+    int[] counts = { 1, 10, 30, 60, 100 };
+    for (int pass = 0; pass < 5; pass++) {
+      for (int c = 0; c < counts.length && counts[c] <= maxpoints; c++) {
+        String[] these = new String[counts[c]];
+        System.arraycopy(names, 0, these, 0, these.length);
+
+        // Old method, each point read in turn
+        long t = System.nanoTime();
+        for (int i = 0; i < these.length; i++) {
+          check += getArchiveData(these[i], AbsTime.factory(start), AbsTime.factory(now), 0, null).length;
+        }
+        long serialtime = System.nanoTime() - t;
+
+        // Points read concurrently through the pool
+        t = System.nanoTime();
+        PointDataIce[][] res = ice.getArchiveData(these, start, now, 0, null);
+        long pooltime = System.nanoTime() - t;
+        for (int i = 0; i < res.length; i++) {
+          check -= res[i].length;
+        }
+        System.out.println(pass + "\t" + these.length + "\t" + (serialtime / 1000000) + "\t\t" + (pooltime / 1000000));
+      }
+    }
+    System.out.println("Difference between results: " + check);
+    System.exit(0);
+  }
 }
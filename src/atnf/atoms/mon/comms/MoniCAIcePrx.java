@@ -220,6 +220,42 @@ public interface MoniCAIcePrx extends Ice.ObjectPrx
 
     public boolean end_setData(Ice.AsyncResult __result);
 
+    public long updateSubscription(long id, String[] add, String[] remove);
+
+    public long updateSubscription(long id, String[] add, String[] remove, java.util.Map<String, String> __ctx);
+
+    public Ice.AsyncResult begin_updateSubscription(long id, String[] add, String[] remove);
+
+    public Ice.AsyncResult begin_updateSubscription(long id, String[] add, String[] remove, java.util.Map<String, String> __ctx);
+
+    public Ice.AsyncResult begin_updateSubscription(long id, String[] add, String[] remove, Ice.Callback __cb);
+
+    public Ice.AsyncResult begin_updateSubscription(long id, String[] add, String[] remove, java.util.Map<String, String> __ctx, Ice.Callback __cb);
+
+    public Ice.AsyncResult begin_updateSubscription(long id, String[] add, String[] remove, Callback_MoniCAIce_updateSubscription __cb);
+
+    public Ice.AsyncResult begin_updateSubscription(long id, String[] add, String[] remove, java.util.Map<String, String> __ctx, Callback_MoniCAIce_updateSubscription __cb);
+
+    public long end_updateSubscription(Ice.AsyncResult __result);
+
+    public PointDataIce[] getUpdates(long id, long sequence, int timeout, Ice.LongHolder latest);
+
+    public PointDataIce[] getUpdates(long id, long sequence, int timeout, Ice.LongHolder latest, java.util.Map<String, String> __ctx);
+
+    public Ice.AsyncResult begin_getUpdates(long id, long sequence, int timeout);
+
+    public Ice.AsyncResult begin_getUpdates(long id, long sequence, int timeout, java.util.Map<String, String> __ctx);
+
+    public Ice.AsyncResult begin_getUpdates(long id, long sequence, int timeout, Ice.Callback __cb);
+
+    public Ice.AsyncResult begin_getUpdates(long id, long sequence, int timeout, java.util.Map<String, String> __ctx, Ice.Callback __cb);
+
+    public Ice.AsyncResult begin_getUpdates(long id, long sequence, int timeout, Callback_MoniCAIce_getUpdates __cb);
+
+    public Ice.AsyncResult begin_getUpdates(long id, long sequence, int timeout, java.util.Map<String, String> __ctx, Callback_MoniCAIce_getUpdates __cb);
+
+    public PointDataIce[] end_getUpdates(Ice.LongHolder latest, Ice.AsyncResult __result);
+
     public String[] getAllSetups();
 
     public String[] getAllSetups(java.util.Map<String, String> __ctx);
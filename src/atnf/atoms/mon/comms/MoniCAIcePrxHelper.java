@@ -2438,6 +2438,144 @@ public final class MoniCAIcePrxHelper extends Ice.ObjectPrxHelperBase implements
         }
     }
 
+    private static final String __getUpdates_name = "getUpdates";
+
+    public PointDataIce[] getUpdates(long id, long sequence, int timeout, Ice.LongHolder latest)
+    {
+        return getUpdates(id, sequence, timeout, latest, null, false);
+    }
+
+    public PointDataIce[] getUpdates(long id, long sequence, int timeout, Ice.LongHolder latest, java.util.Map<String, String> __ctx)
+    {
+        return getUpdates(id, sequence, timeout, latest, __ctx, true);
+    }
+
+    private PointDataIce[] getUpdates(long id, long sequence, int timeout, Ice.LongHolder latest, java.util.Map<String, String> __ctx, boolean __explicitCtx)
+    {
+        if(__explicitCtx && __ctx == null)
+        {
+            __ctx = _emptyContext;
+        }
+        final Ice.Instrumentation.InvocationObserver __observer = IceInternal.ObserverHelper.get(this, "getUpdates", __ctx);
+        int __cnt = 0;
+        try
+        {
+            while(true)
+            {
+                Ice._ObjectDel __delBase = null;
+                try
+                {
+                    __checkTwowayOnly("getUpdates");
+                    __delBase = __getDelegate(false);
+                    _MoniCAIceDel __del = (_MoniCAIceDel)__delBase;
+                    return __del.getUpdates(id, sequence, timeout, latest, __ctx, __observer);
+                }
+                catch(IceInternal.LocalExceptionWrapper __ex)
+                {
+                    __cnt = __handleExceptionWrapperRelaxed(__delBase, __ex, null, __cnt, __observer);
+                }
+                catch(Ice.LocalException __ex)
+                {
+                    __cnt = __handleException(__delBase, __ex, null, __cnt, __observer);
+                }
+            }
+        }
+        finally
+        {
+            if(__observer != null)
+            {
+                __observer.detach();
+            }
+        }
+    }
+
+    public Ice.AsyncResult begin_getUpdates(long id, long sequence, int timeout)
+    {
+        return begin_getUpdates(id, sequence, timeout, null, false, null);
+    }
+
+    public Ice.AsyncResult begin_getUpdates(long id, long sequence, int timeout, java.util.Map<String, String> __ctx)
+    {
+        return begin_getUpdates(id, sequence, timeout, __ctx, true, null);
+    }
+
+    public Ice.AsyncResult begin_getUpdates(long id, long sequence, int timeout, Ice.Callback __cb)
+    {
+        return begin_getUpdates(id, sequence, timeout, null, false, __cb);
+    }
+
+    public Ice.AsyncResult begin_getUpdates(long id, long sequence, int timeout, java.util.Map<String, String> __ctx, Ice.Callback __cb)
+    {
+        return begin_getUpdates(id, sequence, timeout, __ctx, true, __cb);
+    }
+
+    public Ice.AsyncResult begin_getUpdates(long id, long sequence, int timeout, Callback_MoniCAIce_getUpdates __cb)
+    {
+        return begin_getUpdates(id, sequence, timeout, null, false, __cb);
+    }
+
+    public Ice.AsyncResult begin_getUpdates(long id, long sequence, int timeout, java.util.Map<String, String> __ctx, Callback_MoniCAIce_getUpdates __cb)
+    {
+        return begin_getUpdates(id, sequence, timeout, __ctx, true, __cb);
+    }
+
+    private Ice.AsyncResult begin_getUpdates(long id, long sequence, int timeout, java.util.Map<String, String> __ctx, boolean __explicitCtx, IceInternal.CallbackBase __cb)
+    {
+        __checkAsyncTwowayOnly(__getUpdates_name);
+        IceInternal.OutgoingAsync __result = new IceInternal.OutgoingAsync(this, __getUpdates_name, __cb);
+        try
+        {
+            __result.__prepare(__getUpdates_name, Ice.OperationMode.Idempotent, __ctx, __explicitCtx);
+            IceInternal.BasicStream __os = __result.__startWriteParams(Ice.FormatType.DefaultFormat);
+            __os.writeLong(id);
+            __os.writeLong(sequence);
+            __os.writeInt(timeout);
+            __result.__endWriteParams();
+            __result.__send(true);
+        }
+        catch(Ice.LocalException __ex)
+        {
+            __result.__exceptionAsync(__ex);
+        }
+        return __result;
+    }
+
+    public PointDataIce[] end_getUpdates(Ice.LongHolder latest, Ice.AsyncResult __result)
+    {
+        Ice.AsyncResult.__check(__result, this, __getUpdates_name);
+        boolean __ok = __result.__wait();
+        try
+        {
+            if(!__ok)
+            {
+                try
+                {
+                    __result.__throwUserException();
+                }
+                catch(Ice.UserException __ex)
+                {
+                    throw new Ice.UnknownUserException(__ex.ice_name(), __ex);
+                }
+            }
+            IceInternal.BasicStream __is = __result.__startReadParams();
+            PointDataIce[] __ret;
+            latest.value = __is.readLong();
+            __ret = pointdatasetHelper.read(__is);
+            __is.readPendingObjects();
+            __result.__endReadParams();
+            return __ret;
+        }
+        catch(Ice.LocalException ex)
+        {
+            Ice.Instrumentation.InvocationObserver __obsv = __result.__getObserver();
+            if(__obsv != null)
+            {
+                __obsv.failed(ex.ice_name());
+            }
+            throw ex;
+        }
+    }
+
     private static final String __setData_name = "setData";
 
     public boolean setData(String[] names, PointDataIce[] values, String username, String passwd)
@@ -2713,6 +2851,142 @@ public final class MoniCAIcePrxHelper extends Ice.ObjectPrxHelperBase implements
         }
     }
 
+    private static final String __updateSubscription_name = "updateSubscription";
+
+    public long updateSubscription(long id, String[] add, String[] remove)
+    {
+        return updateSubscription(id, add, remove, null, false);
+    }
+
+    public long updateSubscription(long id, String[] add, String[] remove, java.util.Map<String, String> __ctx)
+    {
+        return updateSubscription(id, add, remove, __ctx, true);
+    }
+
+    private long updateSubscription(long id, String[] add, String[] remove, java.util.Map<String, String> __ctx, boolean __explicitCtx)
+    {
+        if(__explicitCtx && __ctx == null)
+        {
+            __ctx = _emptyContext;
+        }
+        final Ice.Instrumentation.InvocationObserver __observer = IceInternal.ObserverHelper.get(this, "updateSubscription", __ctx);
+        int __cnt = 0;
+        try
+        {
+            while(true)
+            {
+                Ice._ObjectDel __delBase = null;
+                try
+                {
+                    __checkTwowayOnly("updateSubscription");
+                    __delBase = __getDelegate(false);
+                    _MoniCAIceDel __del = (_MoniCAIceDel)__delBase;
+                    return __del.updateSubscription(id, add, remove, __ctx, __observer);
+                }
+                catch(IceInternal.LocalExceptionWrapper __ex)
+                {
+                    __handleExceptionWrapper(__delBase, __ex, __observer);
+                }
+                catch(Ice.LocalException __ex)
+                {
+                    __cnt = __handleException(__delBase, __ex, null, __cnt, __observer);
+                }
+            }
+        }
+        finally
+        {
+            if(__observer != null)
+            {
+                __observer.detach();
+            }
+        }
+    }
+
+    public Ice.AsyncResult begin_updateSubscription(long id, String[] add, String[] remove)
+    {
+        return begin_updateSubscription(id, add, remove, null, false, null);
+    }
+
+    public Ice.AsyncResult begin_updateSubscription(long id, String[] add, String[] remove, java.util.Map<String, String> __ctx)
+    {
+        return begin_updateSubscription(id, add, remove, __ctx, true, null);
+    }
+
+    public Ice.AsyncResult begin_updateSubscription(long id, String[] add, String[] remove, Ice.Callback __cb)
+    {
+        return begin_updateSubscription(id, add, remove, null, false, __cb);
+    }
+
+    public Ice.AsyncResult begin_updateSubscription(long id, String[] add, String[] remove, java.util.Map<String, String> __ctx, Ice.Callback __cb)
+    {
+        return begin_updateSubscription(id, add, remove, __ctx, true, __cb);
+    }
+
+    public Ice.AsyncResult begin_updateSubscription(long id, String[] add, String[] remove, Callback_MoniCAIce_updateSubscription __cb)
+    {
+        return begin_updateSubscription(id, add, remove, null, false, __cb);
+    }
+
+    public Ice.AsyncResult begin_updateSubscription(long id, String[] add, String[] remove, java.util.Map<String, String> __ctx, Callback_MoniCAIce_updateSubscription __cb)
+    {
+        return begin_updateSubscription(id, add, remove, __ctx, true, __cb);
+    }
+
+    private Ice.AsyncResult begin_updateSubscription(long id, String[] add, String[] remove, java.util.Map<String, String> __ctx, boolean __explicitCtx, IceInternal.CallbackBase __cb)
+    {
+        __checkAsyncTwowayOnly(__updateSubscription_name);
+        IceInternal.OutgoingAsync __result = new IceInternal.OutgoingAsync(this, __updateSubscription_name, __cb);
+        try
+        {
+            __result.__prepare(__updateSubscription_name, Ice.OperationMode.Normal, __ctx, __explicitCtx);
+            IceInternal.BasicStream __os = __result.__startWriteParams(Ice.FormatType.DefaultFormat);
+            __os.writeLong(id);
+            stringarrayHelper.write(__os, add);
+            stringarrayHelper.write(__os, remove);
+            __result.__endWriteParams();
+            __result.__send(true);
+        }
+        catch(Ice.LocalException __ex)
+        {
+            __result.__exceptionAsync(__ex);
+        }
+        return __result;
+    }
+
+    public long end_updateSubscription(Ice.AsyncResult __result)
+    {
+        Ice.AsyncResult.__check(__result, this, __updateSubscription_name);
+        boolean __ok = __result.__wait();
+        try
+        {
+            if(!__ok)
+            {
+                try
+                {
+                    __result.__throwUserException();
+                }
+                catch(Ice.UserException __ex)
+                {
+                    throw new Ice.UnknownUserException(__ex.ice_name(), __ex);
+                }
+            }
+            IceInternal.BasicStream __is = __result.__startReadParams();
+            long __ret;
+            __ret = __is.readLong();
+            __result.__endReadParams();
+            return __ret;
+        }
+        catch(Ice.LocalException ex)
+        {
+            Ice.Instrumentation.InvocationObserver __obsv = __result.__getObserver();
+            if(__obsv != null)
+            {
+                __obsv.failed(ex.ice_name());
+            }
+            throw ex;
+        }
+    }
+
     public static MoniCAIcePrx checkedCast(Ice.ObjectPrx __obj)
     {
         MoniCAIcePrx __d = null;
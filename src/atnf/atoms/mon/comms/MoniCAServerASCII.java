@@ -29,6 +29,7 @@ import atnf.atoms.mon.PointBuffer;
 import atnf.atoms.mon.PointData;
 import atnf.atoms.mon.PointDescription;
 import atnf.atoms.mon.PointEvent;
+import atnf.atoms.mon.util.Downsampler;
 import atnf.atoms.mon.util.MonitorConfig;
 import atnf.atoms.mon.util.MonitorUtils;
 import atnf.atoms.mon.util.RADIUSAuthenticator;
@@ -107,9 +108,48 @@ public class MoniCAServerASCII extends Thread {
     start();
   }
 
-  /** Return the number of clients connected. */
+  /**
+   * Creates a server which handles requests from a client connected through some other means, such as
+   * <tt>MoniCAServerASCIINIO</tt>. Requests are passed to <tt>runCommand</tt>.
+   * 
+   * @param clienthost
+   *          The host name of the client.
+   * @param clientname
+   *          The name of the client, including host and port number.
+   */
+  protected MoniCAServerASCII(String clienthost, String clientname) {
+    super("MonitorServerASCII/" + clienthost);
+    itsClientHost = clienthost;
+    itsClientName = clientname;
+  }
+
+  /**
+   * Service a single request from a client which isn't handled by our own thread.
+   * 
+   * @param line
+   *          The first line of the request, which names the command.
+   * @param reader
+   *          Supplies any further lines of the request.
+   * @param writer
+   *          Receives the response.
+   * @return False if the connection to the client should now be closed.
+   */
+  protected boolean runCommand(String line, BufferedReader reader, PrintWriter writer) {
+    itsReader = reader;
+    itsWriter = writer;
+    try {
+      processCommand(line.trim());
+    } catch (Exception f) {
+      theirLogger.error("Problem processing request from " + itsClientName + ": " + f);
+      itsRunning = false;
+    }
+    itsWriter.flush();
+    return itsRunning;
+  }
+
+  /** Return the number of clients connected, including those connected to <tt>MoniCAServerASCIINIO</tt>. */
   public static int getNumClients() {
-    return theirNumClients;
+    return theirNumClients + MoniCAServerASCIINIO.getNumClients();
   }
 
   /** Make all servers exit. */
@@ -132,6 +172,48 @@ public class MoniCAServerASCII extends Thread {
     interrupt();
   }
 
+  /** Service the request named by the line read from the client. */
+  protected void processCommand(String line) {
+    if (line.equalsIgnoreCase("poll")) {
+      poll();
+    } else if (line.equalsIgnoreCase("poll2")) {
+      poll2();
+    } else if (line.equalsIgnoreCase("since")) {
+      since();
+    } else if (line.equalsIgnoreCase("between")) {
+      between();
+    } else if (line.equalsIgnoreCase("preceding") || line.equalsIgnoreCase("preceeding")) {
+      // Original interface had spelling error
+      preceding();
+    } else if (line.equalsIgnoreCase("following")) {
+      following();
+    } else if (line.equalsIgnoreCase("names")) {
+      names();
+    } else if (line.equalsIgnoreCase("details")) {
+      details();
+    } else if (line.equalsIgnoreCase("set")) {
+      set();
+    } else if (line.equalsIgnoreCase("ack")) {
+      ack();
+    } else if (line.equalsIgnoreCase("shelve")) {
+      shelve();
+    } else if (line.equalsIgnoreCase("alarms")) {
+      alarms();
+    } else if (line.equalsIgnoreCase("allalarms")) {
+      allalarms();
+    } else if (line.equalsIgnoreCase("alarmchanges")) {
+      alarmchanges();
+    } else if (line.equalsIgnoreCase("rsa")) {
+      rsa();
+    } else if (line.equalsIgnoreCase("rsapersist")) {
+      rsapersist();
+    } else if (line.equalsIgnoreCase("leapseconds")) {
+      leapseconds();
+    } else if (line.equalsIgnoreCase("exit")) {
+      itsRunning = false;
+    }
+  }
+
   /** Main loop to parse and service client requests. */
   private void processConnection() {
     // Main loop for handling client requests
@@ -144,43 +226,7 @@ public class MoniCAServerASCII extends Thread {
             itsRunning = false;
             return;
           }
-          line = line.trim();
-          if (line.equalsIgnoreCase("poll")) {
-            poll();
-          } else if (line.equalsIgnoreCase("poll2")) {
-            poll2();
-          } else if (line.equalsIgnoreCase("since")) {
-            since();
-          } else if (line.equalsIgnoreCase("between")) {
-            between();
-          } else if (line.equalsIgnoreCase("preceding") || line.equalsIgnoreCase("preceeding")) {
-            // Original interface had spelling error
-            preceding();
-          } else if (line.equalsIgnoreCase("following")) {
-            following();
-          } else if (line.equalsIgnoreCase("names")) {
-            names();
-          } else if (line.equalsIgnoreCase("details")) {
-            details();
-          } else if (line.equalsIgnoreCase("set")) {
-            set();
-          } else if (line.equalsIgnoreCase("ack")) {
-            ack();
-          } else if (line.equalsIgnoreCase("shelve")) {
-            shelve();
-          } else if (line.equalsIgnoreCase("alarms")) {
-            alarms();
-          } else if (line.equalsIgnoreCase("allalarms")) {
-            allalarms();
-          } else if (line.equalsIgnoreCase("rsa")) {
-            rsa();
-          } else if (line.equalsIgnoreCase("rsapersist")) {
-            rsapersist();
-          } else if (line.equalsIgnoreCase("leapseconds")) {
-            leapseconds();
-          } else if (line.equalsIgnoreCase("exit")) {
-            itsRunning = false;
-          }
+          processCommand(line.trim());
         }
       } catch (Exception f) {
         System.err.println("MonitorServerASCII: processConnection: " + f.getClass());
@@ -224,7 +270,7 @@ public class MoniCAServerASCII extends Thread {
   protected void between() {
     try {
       String tempstr = itsReader.readLine().trim();
-      // Line should say <TIMESTAMP> <TIMESTAMP> <POINTNAME> [alarms]
+      // Line should say <TIMESTAMP> <TIMESTAMP> <POINTNAME> [alarms] [<MAXSAMPLES> [<MODE>]]
       StringTokenizer st = new StringTokenizer(tempstr);
       if (st.countTokens() < 3) {
         itsWriter.println("? Need two BAT timestamps and a point name argument");
@@ -268,16 +314,27 @@ public class MoniCAServerASCII extends Thread {
         return;
       }
 
-      // Check if alarm information was requested
+      // Check if alarm information or downsampling was requested
       boolean withalarms = false;
-      if (st.hasMoreTokens()) {
-        if (st.nextToken().toLowerCase().equals("alarms")) {
+      int maxsamples = 0;
+      String mode = null;
+      while (st.hasMoreTokens()) {
+        String opt = st.nextToken();
+        if (opt.equalsIgnoreCase("alarms")) {
           withalarms = true;
+        } else if (Downsampler.isMode(opt)) {
+          mode = opt;
+        } else {
+          try {
+            maxsamples = Integer.parseInt(opt);
+          } catch (NumberFormatException e) {
+            // Ignore unrecognised arguments
+          }
         }
       }
 
       // Get data between the specified times
-      Vector<PointData> data = PointBuffer.getPointData(mpname, starttime, endtime, 0);
+      Vector<PointData> data = PointBuffer.getPointData(mpname, starttime, endtime, maxsamples, mode);
       if (data == null) {
         // We have no data to send
         itsWriter.println("0");
@@ -515,6 +572,41 @@ public class MoniCAServerASCII extends Thread {
     }
   }
 
+  /**
+   * Return the alarms which have changed since the sequence number given on the next line. The reply is the sequence number of
+   * the most recent change, the number of alarms and then each alarm. If the changes since the given sequence number are no longer
+   * known then all of the alarms are returned.
+   */
+  protected void alarmchanges() {
+    try {
+      long seq;
+      try {
+        seq = Long.parseLong(itsReader.readLine().trim());
+      } catch (NumberFormatException e) {
+        itsWriter.println("? Need sequence number argument");
+        itsWriter.flush();
+        return;
+      }
+
+      long latest = AlarmManager.getSequence();
+      Vector<Alarm> thesealarms = AlarmManager.getChangesSince(seq);
+      if (thesealarms == null) {
+        thesealarms = AlarmManager.getAllAlarms();
+      }
+
+      itsWriter.println(latest);
+      itsWriter.println(thesealarms.size());
+      for (int i = 0; i < thesealarms.size(); i++) {
+        itsWriter.println(thesealarms.get(i));
+      }
+
+      itsWriter.flush();
+    } catch (Exception e) {
+      theirLogger.error("Problem in alarmchanges request from " + itsClientName + ": " + e);
+      itsRunning = false;
+    }
+  }
+
   /** Set the acknowledge state for an alarm. */
   protected void ack() {
     try {
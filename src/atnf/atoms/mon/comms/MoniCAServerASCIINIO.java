@@ -0,0 +1,607 @@
+// Copyright (C) CSIRO Australia Telescope National Facility
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Library General Public License
+// as published by the Free Software Foundation; either version 2
+// of the License, or (at your option) any later version.
+
+package atnf.atoms.mon.comms;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import atnf.atoms.mon.util.MonitorConfig;
+
+/**
+ * Serves the same line based protocol as <tt>MoniCAServerASCII</tt>, but multiplexes all of the client connections over a small
+ * number of I/O threads rather than starting a thread for each client. This suits clients such as web scripts which make many
+ * short connections. It is used instead of <tt>MoniCAServerASCII</tt> when the <tt>ASCIIServerNIO</tt> configuration parameter is
+ * true.
+ *
+ * <P>
+ * The I/O threads (<tt>ASCIIServerNIOThreads</tt>) split the incoming data into lines and work out when a complete request has
+ * arrived, which depends on the command since many commands are followed by a count and then that many argument lines. Complete
+ * requests are serviced in order by a pool of <tt>ASCIIServerNIOWorkers</tt> threads using the same code as
+ * <tt>MoniCAServerASCII</tt>, so the responses are identical. Clients may send further requests without waiting for the response
+ * to the previous one. Responses are queued for each connection and written without blocking. Reading from a client is paused
+ * while too many of its responses are waiting to be written or too many of its requests are waiting to be serviced.
+ *
+ * <P>
+ * No more than <tt>ASCIIMaxClients</tt> clients may be connected at once, and connections which have been idle for
+ * <tt>ASCIIIdleTimeout</tt> seconds are closed.
+ *
+ * @author David Brodrick
+ */
+public class MoniCAServerASCIINIO implements Runnable {
+  /** Logger. */
+  private static Logger theirLogger = Logger.getLogger(MoniCAServerASCIINIO.class.getName());
+
+  /** Character set used by the protocol, the same as the threaded server. */
+  private static final Charset theirCharset = Charset.defaultCharset();
+
+  /** Largest amount of unprocessed input we will hold for a client, in bytes. */
+  private static final int theirMaxInput = 4 * 1024 * 1024;
+
+  /** Amount of queued output above which we stop starting new requests for a client, in bytes. */
+  private static final int theirMaxOutput = 1024 * 1024;
+
+  /** Number of received lines waiting for a busy worker above which we stop reading from a client. */
+  private static final int theirMaxLines = 10000;
+
+  /** The I/O threads, or null if the server isn't running. */
+  private static volatile MoniCAServerASCIINIO[] theirServers = null;
+
+  /** Index of the I/O thread to give the next connection to. */
+  private static int theirNextServer = 0;
+
+  /** The channel which accepts new connections. */
+  private static ServerSocketChannel theirServerChannel;
+
+  /** Threads which service the requests. */
+  private static ThreadPoolExecutor theirWorkers;
+
+  /** Number of clients connected. */
+  private static AtomicInteger theirNumClients = new AtomicInteger();
+
+  /** Maximum number of clients which may be connected at once. */
+  private static int theirMaxClients;
+
+  /** Time after which idle connections are closed, in ms, or 0 to never close them. */
+  private static long theirIdleTimeout;
+
+  /** Selector for this I/O thread. */
+  private Selector itsSelector;
+
+  /** Operations to be performed on the I/O thread. */
+  private ConcurrentLinkedQueue<Runnable> itsTasks = new ConcurrentLinkedQueue<Runnable>();
+
+  /** All connections handled by this thread. */
+  private HashSet<Connection> itsConnections = new HashSet<Connection>();
+
+  /** Whether the thread should keep running. */
+  private volatile boolean itsRunning = true;
+
+  private MoniCAServerASCIINIO() throws IOException {
+    itsSelector = Selector.open();
+  }
+
+  /** Start the server on the port given by the <tt>ASCIIPort</tt> configuration parameter. */
+  public static synchronized void start() {
+    if (theirServers != null) {
+      return;
+    }
+    int numthreads;
+    try {
+      numthreads = Integer.parseInt(MonitorConfig.getProperty("ASCIIServerNIOThreads", "2"));
+    } catch (Exception e) {
+      theirLogger.warn("Error parsing ASCIIServerNIOThreads configuration parameter: " + e);
+      numthreads = 2;
+    }
+    int numworkers;
+    try {
+      numworkers = Integer.parseInt(MonitorConfig.getProperty("ASCIIServerNIOWorkers", "4"));
+    } catch (Exception e) {
+      theirLogger.warn("Error parsing ASCIIServerNIOWorkers configuration parameter: " + e);
+      numworkers = 4;
+    }
+    try {
+      theirMaxClients = Integer.parseInt(MonitorConfig.getProperty("ASCIIMaxClients", "500"));
+    } catch (Exception e) {
+      theirLogger.warn("Error parsing ASCIIMaxClients configuration parameter: " + e);
+      theirMaxClients = 500;
+    }
+    try {
+      theirIdleTimeout = (long) (Double.parseDouble(MonitorConfig.getProperty("ASCIIIdleTimeout", "300")) * 1000);
+    } catch (Exception e) {
+      theirLogger.warn("Error parsing ASCIIIdleTimeout configuration parameter: " + e);
+      theirIdleTimeout = 300000;
+    }
+
+    theirWorkers = new ThreadPoolExecutor(Math.max(numworkers, 1), Math.max(numworkers, 1), 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+          public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "MoniCAServerASCIINIO worker");
+            t.setDaemon(true);
+            return t;
+          }
+        });
+    theirWorkers.allowCoreThreadTimeOut(true);
+
+    try {
+      int port = Integer.parseInt(MonitorConfig.getProperty("ASCIIPort"));
+      theirServerChannel = ServerSocketChannel.open();
+      theirServerChannel.socket().setReuseAddress(true);
+      theirServerChannel.socket().bind(new InetSocketAddress(port));
+      theirServerChannel.configureBlocking(false);
+
+      theirServers = new MoniCAServerASCIINIO[Math.max(numthreads, 1)];
+      for (int i = 0; i < theirServers.length; i++) {
+        theirServers[i] = new MoniCAServerASCIINIO();
+      }
+      // The first I/O thread also accepts new connections
+      theirServerChannel.register(theirServers[0].itsSelector, SelectionKey.OP_ACCEPT);
+      for (int i = 0; i < theirServers.length; i++) {
+        Thread t = new Thread(theirServers[i], "MoniCAServerASCIINIO " + i);
+        t.setDaemon(true);
+        t.start();
+      }
+      theirLogger.info("Serving ASCII clients on port " + port + " with " + theirServers.length + " I/O threads");
+    } catch (Exception e) {
+      theirLogger.error("Can't open server port: " + e);
+      theirServers = null;
+    }
+  }
+
+  /** Close all connections and stop accepting new ones. */
+  public static synchronized void stopAll() {
+    if (theirServers == null) {
+      return;
+    }
+    try {
+      theirServerChannel.close();
+    } catch (IOException e) {
+    }
+    for (int i = 0; i < theirServers.length; i++) {
+      final MoniCAServerASCIINIO server = theirServers[i];
+      server.invoke(new Runnable() {
+        public void run() {
+          for (Connection c : new Vector<Connection>(server.itsConnections)) {
+            c.close();
+          }
+          server.itsRunning = false;
+        }
+      });
+    }
+    theirServers = null;
+  }
+
+  /** Return the number of clients connected. */
+  public static int getNumClients() {
+    return theirNumClients.get();
+  }
+
+  /** Arrange for the task to be run on the I/O thread. */
+  private void invoke(Runnable task) {
+    itsTasks.add(task);
+    itsSelector.wakeup();
+  }
+
+  /** Main loop for the I/O thread. */
+  public void run() {
+    while (itsRunning) {
+      try {
+        itsSelector.select(1000);
+
+        Runnable task;
+        while ((task = itsTasks.poll()) != null) {
+          task.run();
+        }
+
+        Iterator<SelectionKey> i = itsSelector.selectedKeys().iterator();
+        while (i.hasNext()) {
+          SelectionKey key = i.next();
+          i.remove();
+          if (!key.isValid()) {
+            continue;
+          }
+          if (key.isAcceptable()) {
+            accept();
+            continue;
+          }
+          Connection c = (Connection) key.attachment();
+          if (key.isReadable()) {
+            c.read();
+          }
+          if (key.isValid() && key.isWritable()) {
+            c.write();
+          }
+        }
+
+        if (theirIdleTimeout > 0) {
+          long now = System.currentTimeMillis();
+          for (Connection c : new Vector<Connection>(itsConnections)) {
+            if (!c.itsBusy && now - c.itsLastActive >= theirIdleTimeout) {
+              theirLogger.debug("Closing idle connection from " + c.itsClientName);
+              c.close();
+            }
+          }
+        }
+      } catch (Exception e) {
+        theirLogger.error("Unexpected exception: " + e);
+      }
+    }
+    try {
+      itsSelector.close();
+    } catch (IOException e) {
+    }
+  }
+
+  /** Accept any new connections and hand them to the I/O threads in turn. */
+  private void accept() {
+    while (true) {
+      SocketChannel channel;
+      try {
+        channel = theirServerChannel.accept();
+      } catch (IOException e) {
+        theirLogger.warn("Error accepting connection: " + e);
+        return;
+      }
+      if (channel == null) {
+        return;
+      }
+      if (theirNumClients.get() >= theirMaxClients) {
+        theirLogger.warn("Rejecting connection from " + channel.socket().getInetAddress().getHostAddress() + ": already have "
+            + theirMaxClients + " clients");
+        try {
+          channel.close();
+        } catch (IOException e) {
+        }
+        continue;
+      }
+      theirNumClients.incrementAndGet();
+      MoniCAServerASCIINIO[] servers = theirServers;
+      if (servers == null) {
+        return;
+      }
+      final MoniCAServerASCIINIO server = servers[theirNextServer++ % servers.length];
+      final SocketChannel newchannel = channel;
+      server.invoke(new Runnable() {
+        public void run() {
+          server.register(newchannel);
+        }
+      });
+    }
+  }
+
+  /** Start handling a new connection on this I/O thread. */
+  private void register(SocketChannel channel) {
+    try {
+      channel.configureBlocking(false);
+      channel.socket().setTcpNoDelay(true);
+      Connection c = new Connection(channel);
+      c.itsKey = channel.register(itsSelector, SelectionKey.OP_READ, c);
+      itsConnections.add(c);
+    } catch (IOException e) {
+      theirLogger.warn("Error setting up connection: " + e);
+      theirNumClients.decrementAndGet();
+      try {
+        channel.close();
+      } catch (IOException f) {
+      }
+    }
+  }
+
+  /**
+   * Return the number of lines which make up the request starting at the given line, or -1 if more lines are needed. This has to
+   * follow the way each command in <tt>MoniCAServerASCII</tt> reads its arguments.
+   */
+  private static int getRequestLength(ArrayList<String> lines, int start) {
+    String cmd = lines.get(start).trim();
+    int countline;
+    if (cmd.equalsIgnoreCase("poll") || cmd.equalsIgnoreCase("poll2") || cmd.equalsIgnoreCase("details") || cmd.equalsIgnoreCase("preceding")
+        || cmd.equalsIgnoreCase("preceeding") || cmd.equalsIgnoreCase("following")) {
+      // Count of points followed by a line for each
+      countline = 1;
+    } else if (cmd.equalsIgnoreCase("set") || cmd.equalsIgnoreCase("ack") || cmd.equalsIgnoreCase("shelve")) {
+      // User name and password, then count of points followed by a line for each
+      countline = 3;
+    } else if (cmd.equalsIgnoreCase("since") || cmd.equalsIgnoreCase("between") || cmd.equalsIgnoreCase("alarmchanges")) {
+      // A single line of arguments
+      return start + 1 < lines.size() ? 2 : -1;
+    } else {
+      return 1;
+    }
+    if (start + countline >= lines.size()) {
+      return -1;
+    }
+    int count;
+    try {
+      count = Math.max(Integer.parseInt(lines.get(start + countline).trim()), 0);
+    } catch (NumberFormatException e) {
+      // The command will fail when it reads the count
+      return countline + 1;
+    }
+    int len = countline + 1 + count;
+    return start + len <= lines.size() ? len : -1;
+  }
+
+  /** Feeds the lines of a request to the command. */
+  private static class LineReader extends BufferedReader {
+    private final List<String> itsLines;
+
+    private int itsNext = 0;
+
+    LineReader(List<String> lines) {
+      super(new StringReader(""));
+      itsLines = lines;
+    }
+
+    public String readLine() {
+      if (itsNext >= itsLines.size()) {
+        return null;
+      }
+      return itsLines.get(itsNext++);
+    }
+  }
+
+  /** A connection from a client, which is only accessed by its I/O thread except where noted. */
+  private class Connection {
+    /** The socket. */
+    final SocketChannel itsChannel;
+
+    /** Registration with the selector. */
+    SelectionKey itsKey;
+
+    /** Name of the client, including host and port number. */
+    final String itsClientName;
+
+    /** Services the client's requests, and keeps per-connection state such as RSA keys. Only used by the worker threads. */
+    final MoniCAServerASCII itsSession;
+
+    /** Data which has been read but not yet split into lines. */
+    byte[] itsInput = new byte[4096];
+
+    /** Number of bytes in the input buffer. */
+    int itsInputLength = 0;
+
+    /** Whether the last line ended with a carriage return, so a following newline should be ignored. */
+    boolean itsSkipNewline = false;
+
+    /** Lines which have been received but not yet serviced. */
+    ArrayList<String> itsLines = new ArrayList<String>();
+
+    /** Responses waiting to be written. */
+    ArrayDeque<ByteBuffer> itsOutput = new ArrayDeque<ByteBuffer>();
+
+    /** Number of bytes waiting to be written. */
+    long itsOutputLength = 0;
+
+    /** Whether a worker is servicing requests for this connection. */
+    boolean itsBusy = false;
+
+    /** Whether the connection should be closed once the output has been written. */
+    boolean itsClosing = false;
+
+    /** Whether the connection has been closed. */
+    boolean itsClosed = false;
+
+    /** Time of the last activity on the connection. */
+    long itsLastActive = System.currentTimeMillis();
+
+    Connection(SocketChannel channel) {
+      itsChannel = channel;
+      String host = channel.socket().getInetAddress().getHostAddress();
+      itsClientName = host + ":" + channel.socket().getPort();
+      itsSession = new MoniCAServerASCII(host, itsClientName);
+    }
+
+    /** Read any available data and service complete requests. */
+    void read() {
+      int n;
+      try {
+        if (itsInputLength == itsInput.length) {
+          if (itsInput.length >= theirMaxInput) {
+            theirLogger.warn("Closing connection from " + itsClientName + ": request too long");
+            close();
+            return;
+          }
+          itsInput = Arrays.copyOf(itsInput, itsInput.length * 2);
+        }
+        n = itsChannel.read(ByteBuffer.wrap(itsInput, itsInputLength, itsInput.length - itsInputLength));
+      } catch (IOException e) {
+        close();
+        return;
+      }
+      if (n < 0) {
+        // Client has finished sending, finish any complete requests then close
+        if (itsInputLength > 0) {
+          itsLines.add(new String(itsInput, 0, itsInputLength, theirCharset));
+          itsInputLength = 0;
+        }
+        itsClosing = true;
+        itsKey.interestOps(itsKey.interestOps() & ~SelectionKey.OP_READ);
+        dispatch();
+        return;
+      }
+      itsLastActive = System.currentTimeMillis();
+      itsInputLength += n;
+      splitLines();
+      dispatch();
+      updateReadInterest();
+    }
+
+    /** Stop reading from the client while it has a backlog of requests or responses, and resume once the backlog clears. */
+    void updateReadInterest() {
+      if (itsClosed || itsClosing) {
+        return;
+      }
+      boolean backlogged = itsOutputLength > theirMaxOutput || (itsBusy && itsLines.size() >= theirMaxLines);
+      int ops = itsKey.interestOps();
+      if (backlogged) {
+        itsKey.interestOps(ops & ~SelectionKey.OP_READ);
+      } else {
+        itsKey.interestOps(ops | SelectionKey.OP_READ);
+      }
+    }
+
+    /** Move complete lines from the input buffer to the list of lines. */
+    void splitLines() {
+      int start = 0;
+      for (int i = 0; i < itsInputLength; i++) {
+        byte b = itsInput[i];
+        if (b == '\n' && itsSkipNewline && i == start) {
+          // Second half of a CR LF line ending
+          start = i + 1;
+          itsSkipNewline = false;
+          continue;
+        }
+        itsSkipNewline = false;
+        if (b == '\n' || b == '\r') {
+          itsLines.add(new String(itsInput, start, i - start, theirCharset));
+          itsSkipNewline = (b == '\r');
+          start = i + 1;
+        }
+      }
+      System.arraycopy(itsInput, start, itsInput, 0, itsInputLength - start);
+      itsInputLength -= start;
+    }
+
+    /** Hand any complete requests to a worker, unless one is already busy with this connection. */
+    void dispatch() {
+      if (itsBusy || itsClosed || itsOutputLength > theirMaxOutput) {
+        return;
+      }
+      final ArrayList<List<String>> requests = new ArrayList<List<String>>();
+      int start = 0;
+      while (start < itsLines.size()) {
+        if (itsLines.get(start).trim().length() == 0) {
+          // Blank lines between requests are ignored
+          start++;
+          continue;
+        }
+        int len = getRequestLength(itsLines, start);
+        if (len < 0) {
+          if (itsClosing) {
+            // Client won't send the rest, so let the command fail as the threaded server would
+            len = itsLines.size() - start;
+          } else {
+            break;
+          }
+        }
+        requests.add(new ArrayList<String>(itsLines.subList(start, start + len)));
+        start += len;
+      }
+      itsLines.subList(0, start).clear();
+
+      if (requests.isEmpty()) {
+        if (itsClosing && itsOutput.isEmpty()) {
+          close();
+        }
+        return;
+      }
+      itsBusy = true;
+      final MoniCAServerASCIINIO server = MoniCAServerASCIINIO.this;
+      theirWorkers.execute(new Runnable() {
+        public void run() {
+          // Service the requests in order, collecting the responses
+          StringWriter sw = new StringWriter();
+          PrintWriter pw = new PrintWriter(sw);
+          boolean keepopen = true;
+          for (int i = 0; i < requests.size() && keepopen; i++) {
+            List<String> lines = requests.get(i);
+            keepopen = itsSession.runCommand(lines.get(0), new LineReader(lines.subList(1, lines.size())), pw);
+          }
+          final byte[] response = sw.toString().getBytes(theirCharset);
+          final boolean close = !keepopen;
+          server.invoke(new Runnable() {
+            public void run() {
+              finished(response, close);
+            }
+          });
+        }
+      });
+    }
+
+    /** Called on the I/O thread when a worker has finished servicing requests. */
+    void finished(byte[] response, boolean close) {
+      itsBusy = false;
+      if (itsClosed) {
+        return;
+      }
+      if (close) {
+        itsClosing = true;
+        itsLines.clear();
+      }
+      if (response.length > 0) {
+        itsOutput.add(ByteBuffer.wrap(response));
+        itsOutputLength += response.length;
+        write();
+      }
+      dispatch();
+      if (itsClosing && !itsBusy && itsOutput.isEmpty()) {
+        close();
+      }
+      updateReadInterest();
+    }
+
+    /** Write as much queued output as the socket will accept. */
+    void write() {
+      if (itsClosed) {
+        return;
+      }
+      try {
+        while (!itsOutput.isEmpty()) {
+          ByteBuffer[] bufs = itsOutput.toArray(new ByteBuffer[itsOutput.size()]);
+          long n = itsChannel.write(bufs);
+          itsOutputLength -= n;
+          while (!itsOutput.isEmpty() && !itsOutput.peekFirst().hasRemaining()) {
+            itsOutput.removeFirst();
+          }
+          if (n == 0) {
+            break;
+          }
+        }
+        itsLastActive = System.currentTimeMillis();
+      } catch (IOException e) {
+        close();
+        return;
+      }
+      int ops = itsKey.interestOps();
+      if (itsOutput.isEmpty()) {
+        itsKey.interestOps(ops & ~SelectionKey.OP_WRITE);
+        if (itsClosing && !itsBusy) {
+          close();
+        } else if (itsOutputLength <= theirMaxOutput) {
+          dispatch();
+        }
+      } else {
+        itsKey.interestOps(ops | SelectionKey.OP_WRITE);
+      }
+      updateReadInterest();
+    }
+
+    /** Close the connection. */
+    void close() {
+      if (itsClosed) {
+        return;
+      }
+      itsClosed = true;
+      itsConnections.remove(this);
+      theirNumClients.decrementAndGet();
+      try {
+        itsKey.cancel();
+        itsChannel.close();
+      } catch (IOException e) {
+        theirLogger.warn("When closing socket: " + e);
+      }
+    }
+  }
+}
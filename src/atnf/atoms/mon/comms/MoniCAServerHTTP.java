@@ -0,0 +1,629 @@
+// Copyright (C) CSIRO Australia Telescope National Facility
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Library General Public License
+// as published by the Free Software Foundation; either version 2
+// of the License, or (at your option) any later version.
+
+package atnf.atoms.mon.comms;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.log4j.Logger;
+
+import com.eclipsesource.json.*;
+import com.sun.net.httpserver.*;
+
+import atnf.atoms.mon.*;
+import atnf.atoms.mon.util.Downsampler;
+import atnf.atoms.mon.util.MonitorConfig;
+import atnf.atoms.time.AbsTime;
+
+/**
+ * Serves point data and alarms as JSON over HTTP, so that browser based dashboards can get them directly from the server rather
+ * than through a CGI script or the Restlet gateway. It is started when the <tt>HTTPServerEnabled</tt> configuration parameter is
+ * true and listens on <tt>HTTPPort</tt>.
+ *
+ * <P>
+ * All requests use GET with the arguments given as query parameters. Lists of point names are comma separated:
+ * <ul>
+ * <li><tt>/names</tt> The names of all points.
+ * <li><tt>/details?points=</tt> The description, units and update period of the points.
+ * <li><tt>/poll?points=</tt> The latest value of the points.
+ * <li><tt>/between?point=&start=[&end=][&maxsamples=][&mode=]</tt> Archived data for a point. The end time defaults to now.
+ * <li><tt>/preceding?point=&time=</tt> and <tt>/following?point=&time=</tt> The value before or after the given time.
+ * <li><tt>/alarms[?all=true]</tt> The current alarms, or all alarms.
+ * <li><tt>/stream?points=</tt> A Server-Sent Events stream which sends the latest value of each point and then each new value as
+ * it is produced.
+ * </ul>
+ * Times are accepted in any format understood by <tt>AbsTime</tt>. Times are returned as UTC strings unless the
+ * <tt>timeformat</tt> parameter is <tt>bat</tt> (hex BAT) or <tt>ms</tt> (milliseconds since 1970).
+ *
+ * <P>
+ * Responses are compressed when the client accepts gzip and carry an ETag, so clients which poll for data which hasn't changed
+ * get an empty 304 response. Each stream delivers only the newest value of each point if the client falls behind.
+ *
+ * @author David Brodrick
+ */
+public class MoniCAServerHTTP {
+  /** Logger. */
+  private static Logger theirLogger = Logger.getLogger(MoniCAServerHTTP.class.getName());
+
+  /** Character set for responses. */
+  private static final Charset theirCharset = Charset.forName("UTF-8");
+
+  /** Responses smaller than this aren't worth compressing, in bytes. */
+  private static final int theirMinCompress = 1024;
+
+  /** Interval between keep-alive comments on idle streams, in ms. */
+  private static final long theirKeepAlive = 15000;
+
+  /** The HTTP server, or null if it isn't running. */
+  private static HttpServer theirServer = null;
+
+  /** Threads which service normal requests. */
+  private static ThreadPoolExecutor theirWorkers;
+
+  /** Threads which each deliver one stream. */
+  private static ThreadPoolExecutor theirStreamers;
+
+  /** Number of open streams. */
+  private static AtomicInteger theirNumStreams = new AtomicInteger();
+
+  /** Maximum number of open streams. */
+  private static int theirMaxStreams;
+
+  /** Value for the Access-Control-Allow-Origin header, or null to not send one. */
+  private static String theirAllowOrigin;
+
+  /** Start the server on the port given by the <tt>HTTPPort</tt> configuration parameter. */
+  public static synchronized void start() {
+    if (theirServer != null) {
+      return;
+    }
+    int numthreads;
+    try {
+      numthreads = Integer.parseInt(MonitorConfig.getProperty("HTTPServerThreads", "8"));
+    } catch (Exception e) {
+      theirLogger.warn("Error parsing HTTPServerThreads configuration parameter: " + e);
+      numthreads = 8;
+    }
+    try {
+      theirMaxStreams = Integer.parseInt(MonitorConfig.getProperty("HTTPMaxStreams", "100"));
+    } catch (Exception e) {
+      theirLogger.warn("Error parsing HTTPMaxStreams configuration parameter: " + e);
+      theirMaxStreams = 100;
+    }
+    theirAllowOrigin = MonitorConfig.getProperty("HTTPAllowOrigin", null);
+
+    theirWorkers = new ThreadPoolExecutor(Math.max(numthreads, 1), Math.max(numthreads, 1), 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), getThreadFactory("MoniCAServerHTTP worker"));
+    theirWorkers.allowCoreThreadTimeOut(true);
+    theirStreamers = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+        getThreadFactory("MoniCAServerHTTP stream"));
+
+    try {
+      int port = Integer.parseInt(MonitorConfig.getProperty("HTTPPort", "8053"));
+      HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+      server.setExecutor(theirWorkers);
+      server.createContext("/names", new Handler() {
+        protected JsonValue get(Map<String, String> args) {
+          JsonArray res = new JsonArray();
+          for (String name : PointDescription.getAllPointNames()) {
+            res.add(name);
+          }
+          return res;
+        }
+      });
+      server.createContext("/details", new Handler() {
+        protected JsonValue get(Map<String, String> args) {
+          JsonArray res = new JsonArray();
+          for (String name : getPointNames(args)) {
+            PointDescription pd = PointDescription.getPoint(name);
+            JsonObject thisres = new JsonObject();
+            thisres.add("name", name);
+            if (pd != null) {
+              thisres.add("desc", pd.getLongDesc());
+              thisres.add("units", pd.getUnits());
+              thisres.add("period", pd.getPeriod() / 1000000.0);
+            }
+            res.add(thisres);
+          }
+          return res;
+        }
+      });
+      server.createContext("/poll", new Handler() {
+        protected JsonValue get(Map<String, String> args) {
+          JsonArray res = new JsonArray();
+          for (String name : getPointNames(args)) {
+            PointDescription pd = PointDescription.getPoint(name);
+            PointData data = (pd == null) ? null : PointBuffer.getPointData(pd);
+            if (data == null) {
+              res.add(new JsonObject().add("pointName", name));
+            } else {
+              res.add(toJSON(name, data, args));
+            }
+          }
+          return res;
+        }
+      });
+      server.createContext("/between", new Handler() {
+        protected JsonValue get(Map<String, String> args) {
+          String name = getArg(args, "point");
+          PointDescription pd = getPoint(name);
+          AbsTime start = getTime(args, "start");
+          AbsTime end = args.containsKey("end") ? getTime(args, "end") : new AbsTime();
+          if (end.isBefore(start)) {
+            AbsTime temp = end;
+            end = start;
+            start = temp;
+          }
+          int maxsamples = 0;
+          if (args.containsKey("maxsamples")) {
+            try {
+              maxsamples = Integer.parseInt(args.get("maxsamples"));
+            } catch (NumberFormatException e) {
+              throw new IllegalArgumentException("Couldn't parse maxsamples");
+            }
+          }
+          String mode = args.get("mode");
+          if (mode != null && !Downsampler.isMode(mode)) {
+            throw new IllegalArgumentException("Unrecognised mode \"" + mode + "\"");
+          }
+          JsonArray data = new JsonArray();
+          Vector<PointData> thesedata = PointBuffer.getPointData(pd, start, end, maxsamples, mode);
+          if (thesedata != null) {
+            for (PointData thisdata : thesedata) {
+              data.add(toJSON(null, thisdata, args));
+            }
+          }
+          return new JsonObject().add("pointName", name).add("data", data);
+        }
+      });
+      server.createContext("/preceding", new Handler() {
+        protected JsonValue get(Map<String, String> args) {
+          String name = getArg(args, "point");
+          PointData data = PointBuffer.getPreceding(getPoint(name), getTime(args, "time"));
+          return data == null ? new JsonObject().add("pointName", name) : toJSON(name, data, args);
+        }
+      });
+      server.createContext("/following", new Handler() {
+        protected JsonValue get(Map<String, String> args) {
+          String name = getArg(args, "point");
+          PointData data = PointBuffer.getFollowing(getPoint(name), getTime(args, "time"));
+          return data == null ? new JsonObject().add("pointName", name) : toJSON(name, data, args);
+        }
+      });
+      server.createContext("/alarms", new Handler() {
+        protected JsonValue get(Map<String, String> args) {
+          Vector<Alarm> alarms;
+          if (Boolean.parseBoolean(args.get("all"))) {
+            alarms = AlarmManager.getAllAlarms();
+          } else {
+            alarms = AlarmManager.getAlarms();
+          }
+          JsonArray res = new JsonArray();
+          for (Alarm a : alarms) {
+            res.add(toJSON(a, args));
+          }
+          return res;
+        }
+      });
+      server.createContext("/stream", new StreamHandler());
+      server.start();
+      theirServer = server;
+      theirLogger.info("Listening for HTTP clients on port " + port);
+    } catch (Exception e) {
+      theirLogger.error("Couldn't start HTTP server: " + e);
+      theirWorkers.shutdown();
+      theirStreamers.shutdown();
+    }
+  }
+
+  /** Stop the server and close all streams. */
+  public static synchronized void stop() {
+    if (theirServer == null) {
+      return;
+    }
+    theirServer.stop(1);
+    theirServer = null;
+    theirStreamers.shutdownNow();
+    theirWorkers.shutdown();
+  }
+
+  /** Return the number of streams currently open. */
+  public static int getNumStreams() {
+    return theirNumStreams.get();
+  }
+
+  /** Create a factory for daemon threads with the given name. */
+  private static ThreadFactory getThreadFactory(final String name) {
+    return new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        return t;
+      }
+    };
+  }
+
+  /** Parse the query parameters of the request. */
+  private static Map<String, String> getArgs(HttpExchange exchange) throws UnsupportedEncodingException {
+    HashMap<String, String> res = new HashMap<String, String>();
+    String query = exchange.getRequestURI().getRawQuery();
+    if (query != null) {
+      for (String arg : query.split("&")) {
+        int i = arg.indexOf('=');
+        if (i < 0) {
+          res.put(URLDecoder.decode(arg, "UTF-8"), "");
+        } else {
+          res.put(URLDecoder.decode(arg.substring(0, i), "UTF-8"), URLDecoder.decode(arg.substring(i + 1), "UTF-8"));
+        }
+      }
+    }
+    return res;
+  }
+
+  /** Get a required argument. */
+  private static String getArg(Map<String, String> args, String name) {
+    String res = args.get(name);
+    if (res == null || res.length() == 0) {
+      throw new IllegalArgumentException("Need " + name + " argument");
+    }
+    return res;
+  }
+
+  /** Get the comma separated point names from the <tt>points</tt> argument. */
+  private static String[] getPointNames(Map<String, String> args) {
+    return getArg(args, "points").split(",");
+  }
+
+  /** Get the named point, which must exist. */
+  private static PointDescription getPoint(String name) {
+    PointDescription res = PointDescription.getPoint(name);
+    if (res == null) {
+      throw new IllegalArgumentException("Named point doesn't exist");
+    }
+    return res;
+  }
+
+  /** Get a required time argument. */
+  private static AbsTime getTime(Map<String, String> args, String name) {
+    String arg = getArg(args, name);
+    try {
+      return AbsTime.factory(arg);
+    } catch (Exception e) {
+      throw new IllegalArgumentException("Couldn't parse " + name + " time");
+    }
+  }
+
+  /** Represent a time in the format requested by the <tt>timeformat</tt> argument. */
+  private static JsonValue toJSON(AbsTime time, Map<String, String> args) {
+    if (time == null) {
+      return JsonValue.NULL;
+    }
+    String format = args.get("timeformat");
+    if ("bat".equalsIgnoreCase(format)) {
+      return JsonValue.valueOf(time.toString(AbsTime.Format.HEX_BAT));
+    } else if ("ms".equalsIgnoreCase(format)) {
+      return JsonValue.valueOf(time.getAsDate().getTime());
+    } else {
+      return JsonValue.valueOf(time.toString(AbsTime.Format.UTC_STRING));
+    }
+  }
+
+  /** Represent a data value, keeping numbers and booleans as such. */
+  private static JsonValue toJSON(Object value) {
+    if (value == null) {
+      return JsonValue.NULL;
+    } else if (value instanceof Boolean) {
+      return JsonValue.valueOf(((Boolean) value).booleanValue());
+    } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+      return JsonValue.valueOf(((Number) value).longValue());
+    } else if (value instanceof Number) {
+      double d = ((Number) value).doubleValue();
+      if (Double.isNaN(d) || Double.isInfinite(d)) {
+        return JsonValue.valueOf(value.toString());
+      }
+      return JsonValue.valueOf(d);
+    } else {
+      return JsonValue.valueOf(value.toString());
+    }
+  }
+
+  /** Represent a value of a point, including the point name if it isn't null. */
+  private static JsonObject toJSON(String name, PointData data, Map<String, String> args) {
+    JsonObject res = new JsonObject();
+    if (name != null) {
+      res.add("pointName", name);
+    }
+    res.add("time", toJSON(data.getTimestamp(), args));
+    res.add("value", toJSON(data.getData()));
+    res.add("errorState", !data.getAlarm());
+    return res;
+  }
+
+  /** Represent an alarm. */
+  private static JsonObject toJSON(Alarm alarm, Map<String, String> args) {
+    JsonObject res = new JsonObject();
+    synchronized (alarm) {
+      res.add("pointName", alarm.getPointDesc().getFullName());
+      res.add("priority", alarm.getPriority());
+      res.add("alarming", alarm.isAlarming());
+      res.add("acknowledged", alarm.isAcknowledged());
+      if (alarm.isAcknowledged()) {
+        res.add("acknowledgedBy", String.valueOf(alarm.getAckedBy()));
+        res.add("acknowledgedAt", toJSON(alarm.getAckedAt(), args));
+      }
+      res.add("shelved", alarm.isShelved());
+      if (alarm.isShelved()) {
+        res.add("shelvedBy", String.valueOf(alarm.getShelvedBy()));
+        res.add("shelvedAt", toJSON(alarm.getShelvedAt(), args));
+      }
+      if (alarm.getGuidance() != null) {
+        res.add("guidance", alarm.getGuidance());
+      }
+      if (alarm.getData() != null) {
+        res.add("data", toJSON(null, alarm.getData(), args));
+      }
+    }
+    return res;
+  }
+
+  /** Add the headers which all responses carry. */
+  private static void addHeaders(HttpExchange exchange, String type) {
+    Headers headers = exchange.getResponseHeaders();
+    headers.set("Content-Type", type);
+    if (theirAllowOrigin != null) {
+      headers.set("Access-Control-Allow-Origin", theirAllowOrigin);
+    }
+  }
+
+  /** Check if the client will accept a compressed response. */
+  private static boolean acceptsGzip(HttpExchange exchange) {
+    List<String> encodings = exchange.getRequestHeaders().get("Accept-Encoding");
+    if (encodings != null) {
+      for (String e : encodings) {
+        if (e.toLowerCase().contains("gzip")) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /** Send a plain text error response. */
+  private static void sendError(HttpExchange exchange, int code, String message) throws IOException {
+    byte[] body = (message + "\n").getBytes(theirCharset);
+    addHeaders(exchange, "text/plain; charset=utf-8");
+    exchange.sendResponseHeaders(code, body.length);
+    exchange.getResponseBody().write(body);
+  }
+
+  /**
+   * Base class for requests which return a single JSON value. Takes care of argument parsing, errors, ETags and compression.
+   */
+  private abstract static class Handler implements HttpHandler {
+    /** Produce the response to the request, throwing IllegalArgumentException if the arguments are bad. */
+    protected abstract JsonValue get(Map<String, String> args);
+
+    public void handle(HttpExchange exchange) throws IOException {
+      try {
+        String method = exchange.getRequestMethod();
+        boolean head = method.equals("HEAD");
+        if (!head && !method.equals("GET")) {
+          exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+          sendError(exchange, 405, "Only GET is supported");
+          return;
+        }
+
+        byte[] body;
+        try {
+          body = get(getArgs(exchange)).toString().getBytes(theirCharset);
+        } catch (IllegalArgumentException e) {
+          sendError(exchange, 400, e.getMessage());
+          return;
+        }
+
+        // Weak tag since it is the same for the compressed and uncompressed response
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        String etag = "W/\"" + Long.toHexString(crc.getValue()) + Integer.toHexString(body.length) + "\"";
+        addHeaders(exchange, "application/json; charset=utf-8");
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("ETag", etag);
+        headers.set("Cache-Control", "no-cache");
+        headers.set("Vary", "Accept-Encoding");
+        String match = exchange.getRequestHeaders().getFirst("If-None-Match");
+        if (match != null && (match.equals(etag) || match.equals(etag.substring(2)))) {
+          exchange.sendResponseHeaders(304, -1);
+          return;
+        }
+
+        if (body.length >= theirMinCompress && acceptsGzip(exchange)) {
+          ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length / 4);
+          GZIPOutputStream gz = new GZIPOutputStream(bytes);
+          gz.write(body);
+          gz.close();
+          body = bytes.toByteArray();
+          headers.set("Content-Encoding", "gzip");
+        }
+        if (head) {
+          exchange.sendResponseHeaders(200, -1);
+        } else {
+          exchange.sendResponseHeaders(200, body.length);
+          exchange.getResponseBody().write(body);
+        }
+      } catch (Exception e) {
+        theirLogger.warn("Problem in request " + exchange.getRequestURI() + " from " + exchange.getRemoteAddress() + ": " + e);
+        if (exchange.getResponseCode() == -1) {
+          try {
+            sendError(exchange, 500, "Internal error");
+          } catch (IOException f) {
+          }
+        }
+      } finally {
+        exchange.close();
+      }
+    }
+  }
+
+  /**
+   * Handles requests for a stream of updates. The stream is delivered by its own thread so it doesn't hold up other requests.
+   */
+  private static class StreamHandler implements HttpHandler {
+    public void handle(final HttpExchange exchange) throws IOException {
+      try {
+        if (!exchange.getRequestMethod().equals("GET")) {
+          exchange.getResponseHeaders().set("Allow", "GET");
+          sendError(exchange, 405, "Only GET is supported");
+          exchange.close();
+          return;
+        }
+        final Map<String, String> args = getArgs(exchange);
+        final LinkedHashMap<String, PointDescription> points = new LinkedHashMap<String, PointDescription>();
+        try {
+          for (String name : getPointNames(args)) {
+            points.put(name, getPoint(name));
+          }
+        } catch (IllegalArgumentException e) {
+          sendError(exchange, 400, e.getMessage());
+          exchange.close();
+          return;
+        }
+        if (theirNumStreams.incrementAndGet() > theirMaxStreams) {
+          theirNumStreams.decrementAndGet();
+          sendError(exchange, 503, "Too many streams");
+          exchange.close();
+          return;
+        }
+        try {
+          theirStreamers.execute(new Runnable() {
+            public void run() {
+              try {
+                new Stream(exchange, points, args).run();
+              } finally {
+                theirNumStreams.decrementAndGet();
+              }
+            }
+          });
+        } catch (RejectedExecutionException e) {
+          theirNumStreams.decrementAndGet();
+          exchange.close();
+        }
+      } catch (IOException e) {
+        exchange.close();
+        throw e;
+      }
+    }
+  }
+
+  /** Delivers the updates for a set of points to one client, sending only the newest value of each if the client falls behind. */
+  private static class Stream implements PointListener {
+    private HttpExchange itsExchange;
+
+    /** The points, keyed by the name the client asked for. */
+    private LinkedHashMap<String, PointDescription> itsPoints;
+
+    private Map<String, String> itsArgs;
+
+    /** Values waiting to be sent, keyed by the name the client asked for. */
+    private LinkedHashMap<String, PointData> itsPending = new LinkedHashMap<String, PointData>();
+
+    Stream(HttpExchange exchange, LinkedHashMap<String, PointDescription> points, Map<String, String> args) {
+      itsExchange = exchange;
+      itsPoints = points;
+      itsArgs = args;
+    }
+
+    /** Queue the new value to be sent. */
+    public void onPointEvent(Object source, PointEvent evt) {
+      PointData data = evt.getPointData();
+      if (data == null) {
+        return;
+      }
+      synchronized (itsPending) {
+        for (Map.Entry<String, PointDescription> e : itsPoints.entrySet()) {
+          if (e.getValue() == source) {
+            itsPending.remove(e.getKey());
+            itsPending.put(e.getKey(), data);
+          }
+        }
+        itsPending.notify();
+      }
+    }
+
+    /** Send updates until the client goes away or the server is stopped. */
+    public void run() {
+      for (PointDescription pd : itsPoints.values()) {
+        pd.addPointListener(this);
+      }
+      OutputStream out = null;
+      try {
+        Headers headers = itsExchange.getResponseHeaders();
+        addHeaders(itsExchange, "text/event-stream; charset=utf-8");
+        headers.set("Cache-Control", "no-cache");
+        if (acceptsGzip(itsExchange)) {
+          headers.set("Content-Encoding", "gzip");
+          itsExchange.sendResponseHeaders(200, 0);
+          out = new GZIPOutputStream(itsExchange.getResponseBody(), true);
+        } else {
+          itsExchange.sendResponseHeaders(200, 0);
+          out = itsExchange.getResponseBody();
+        }
+
+        // Start with the latest value of each point
+        synchronized (itsPending) {
+          for (Map.Entry<String, PointDescription> e : itsPoints.entrySet()) {
+            if (!itsPending.containsKey(e.getKey())) {
+              PointData data = PointBuffer.getPointData(e.getValue());
+              if (data != null) {
+                itsPending.put(e.getKey(), data);
+              }
+            }
+          }
+        }
+
+        while (!Thread.currentThread().isInterrupted()) {
+          LinkedHashMap<String, PointData> tosend;
+          synchronized (itsPending) {
+            if (itsPending.isEmpty()) {
+              itsPending.wait(theirKeepAlive);
+            }
+            tosend = new LinkedHashMap<String, PointData>(itsPending);
+            itsPending.clear();
+          }
+          StringBuilder sb = new StringBuilder();
+          if (tosend.isEmpty()) {
+            // Comment which lets the client and any proxies know we're still here
+            sb.append(":\n\n");
+          }
+          for (Map.Entry<String, PointData> e : tosend.entrySet()) {
+            sb.append("data: ").append(toJSON(e.getKey(), e.getValue(), itsArgs).toString()).append("\n\n");
+          }
+          out.write(sb.toString().getBytes(theirCharset));
+          out.flush();
+        }
+      } catch (InterruptedException e) {
+        // Server is being stopped
+      } catch (IOException e) {
+        // Client has gone away
+      } catch (Exception e) {
+        theirLogger.warn("Problem in stream to " + itsExchange.getRemoteAddress() + ": " + e);
+      } finally {
+        for (PointDescription pd : itsPoints.values()) {
+          pd.removePointListener(this);
+        }
+        itsExchange.close();
+      }
+    }
+  }
+}
@@ -26,6 +26,8 @@ import Ice.Communicator;
 import org.apache.log4j.Logger;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import atnf.atoms.time.*;
 import atnf.atoms.mon.*;
 import atnf.atoms.mon.util.MonitorConfig;
@@ -52,6 +54,13 @@ import atnf.atoms.mon.util.MonitorConfig;
  * buildup of stale topics in the IceStorm server. However for good practice the
  * client should also destroy the topic if it is being shutdown cleanly.
  * 
+ * <P>
+ * Updates for each topic are queued and delivered by a shared pool of
+ * <tt>PubSubDeliveryThreads</tt> threads, with everything queued for a topic
+ * being sent in a single <tt>updateData</tt> call. Each queue holds at most
+ * <tt>PubSubQueueSize</tt> updates, the oldest being dropped when it is full.
+ * If <tt>PubSubCoalesce</tt> is true then only the newest queued update for
+ * each point is sent.
  * 
  * 
  * @author David Brodrick
@@ -77,6 +86,25 @@ public class PubSubManager {
     /** Time the client last sent a keep-alive signal. */
     public AbsTime itsLastKeepAliveTime = new AbsTime();
 
+    /** Updates awaiting delivery, keyed by point name when coalescing. */
+    protected LinkedHashMap<Object, PointData> itsPending = new LinkedHashMap<Object, PointData>();
+
+    /** Counter used to key updates when we are not coalescing. */
+    protected long itsNextKey = 0;
+
+    /** Records if a delivery task is currently queued or running for this client. */
+    protected boolean itsDeliveryScheduled = false;
+
+    /** Number of updates which were dropped because the queue was full. */
+    protected long itsNumDropped = 0;
+
+    /** Task which delivers all pending updates for this client. */
+    protected Runnable itsDeliveryTask = new Runnable() {
+      public void run() {
+        deliver();
+      }
+    };
+
     /** Constructor. */
     public PubSubClientInfo(String topic, String[] points) throws Exception {
       itsTopicName = topic;
@@ -119,33 +147,119 @@ public class PubSubManager {
     }
 
     /** Callback for when a listened-to point updates. */
-    public void onPointEvent(Object source, final PointEvent evt) {
-      // Use an anonymous thread to publish the data
-      new Thread("PubSub Delivery Thread") {
-        public void run() {
-          try {
-            PointData[] pd = new PointData[] { evt.getPointData() };
-            PointDataIce[] pdice = MoniCAIceUtil.getPointDataAsIce(pd);
-            itsClient.updateData(pdice);
-          } catch (Exception e) {
-            itsLogger.error("Error publishing data to topic " + itsTopicName + ": " + e);
-            // This client is now broken
-            PubSubClientInfo.this.destroy();
+    public void onPointEvent(Object source, PointEvent evt) {
+      PointDescription point = (PointDescription) source;
+      PointData data = evt.getPointData();
+      // Can't handle null's in Ice so map points with no values to null values
+      if (data == null) {
+        data = new PointData(point.getFullName());
+      }
+      boolean schedule = false;
+      synchronized (itsPending) {
+        if (itsTopic == null) {
+          // This client has been destroyed
+          return;
+        }
+        Object key;
+        if (itsCoalesce) {
+          // Remove any older update so the new one takes its place at the end
+          key = point.getFullName();
+          if (itsPending.remove(key) != null) {
+            itsNumCoalesced.incrementAndGet();
+          }
+        } else {
+          key = new Long(itsNextKey++);
+        }
+        if (itsPending.size() >= itsMaxQueueSize) {
+          // Queue is full so drop the oldest update
+          Iterator<Object> i = itsPending.keySet().iterator();
+          i.next();
+          i.remove();
+          itsNumDropped++;
+          itsTotalDropped.incrementAndGet();
+        }
+        itsPending.put(key, data);
+        if (!itsDeliveryScheduled) {
+          itsDeliveryScheduled = true;
+          schedule = true;
+        }
+      }
+      if (schedule) {
+        try {
+          itsDeliveryPool.execute(itsDeliveryTask);
+        } catch (RejectedExecutionException e) {
+          synchronized (itsPending) {
+            itsDeliveryScheduled = false;
           }
         }
-      }.start();
+      }
+    }
+
+    /** Publish everything currently queued for this client in a single call. */
+    protected void deliver() {
+      PointData[] pd;
+      synchronized (itsPending) {
+        if (itsPending.isEmpty() || itsTopic == null) {
+          itsDeliveryScheduled = false;
+          return;
+        }
+        pd = itsPending.values().toArray(new PointData[0]);
+        itsPending.clear();
+      }
+      try {
+        PointDataIce[] pdice = MoniCAIceUtil.getPointDataAsIce(pd);
+        itsClient.updateData(pdice);
+      } catch (Exception e) {
+        itsLogger.error("Error publishing data to topic " + itsTopicName + ": " + e);
+        // This client is now broken
+        PubSubClientInfo.this.destroy();
+      }
+      // Deliver anything which arrived in the meantime, without hogging the thread
+      boolean again;
+      synchronized (itsPending) {
+        again = !itsPending.isEmpty() && itsTopic != null;
+        itsDeliveryScheduled = again;
+      }
+      if (again) {
+        try {
+          itsDeliveryPool.execute(itsDeliveryTask);
+        } catch (RejectedExecutionException e) {
+          synchronized (itsPending) {
+            itsDeliveryScheduled = false;
+          }
+        }
+      }
+    }
+
+    /** Get the number of updates queued for delivery to this client. */
+    public int getQueueDepth() {
+      synchronized (itsPending) {
+        return itsPending.size();
+      }
+    }
+
+    /** Get the number of updates for this client that were dropped because the queue was full. */
+    public long getNumDropped() {
+      synchronized (itsPending) {
+        return itsNumDropped;
+      }
     }
 
     /** Release all resources used by this client. */
     public void destroy() {
       // Destroy the topic
-      if (itsTopic != null) {
+      TopicPrx topic;
+      synchronized (itsPending) {
+        topic = itsTopic;
+        itsTopic = null;
+        itsPending.clear();
+      }
+      if (topic != null) {
         try {
-          itsTopic.destroy();
+          topic.destroy();
         } catch (Exception e) {
         }
       }
-      itsTopic = null;
 
       // Unsubscribe from points
       for (int i = 0; i < itsPointNames.length; i++) {
@@ -265,6 +379,24 @@ public class PubSubManager {
   /** Map of all clients currently subscribed to updates. */
   protected HashMap<String, PubSubClientInfo> itsClients = new HashMap<String, PubSubClientInfo>();
 
+  /** The single instance, if pub/sub has been started. */
+  protected static PubSubManager theirManager = null;
+
+  /** Thread pool used to deliver updates to all clients. */
+  protected ThreadPoolExecutor itsDeliveryPool;
+
+  /** The maximum number of updates which may be queued for a single client. */
+  protected int itsMaxQueueSize;
+
+  /** Whether only the newest queued update for each point should be delivered. */
+  protected boolean itsCoalesce;
+
+  /** Total number of updates dropped because a client queue was full. */
+  protected AtomicLong itsTotalDropped = new AtomicLong();
+
+  /** Total number of queued updates which were superseded by a newer update for the same point. */
+  protected AtomicLong itsNumCoalesced = new AtomicLong();
+
   /**
    * The maximum time between keep-alives before we consider a subscriber dead.
    */
@@ -272,6 +404,30 @@ public class PubSubManager {
                                                                      // Config
 
   public PubSubManager() {
+    // Read configuration for the delivery of updates
+    int numthreads;
+    try {
+      numthreads = Integer.parseInt(MonitorConfig.getProperty("PubSubDeliveryThreads", "4"));
+    } catch (Exception e) {
+      itsLogger.warn("Error parsing PubSubDeliveryThreads configuration parameter: " + e);
+      numthreads = 4;
+    }
+    try {
+      itsMaxQueueSize = Integer.parseInt(MonitorConfig.getProperty("PubSubQueueSize", "1000"));
+    } catch (Exception e) {
+      itsLogger.warn("Error parsing PubSubQueueSize configuration parameter: " + e);
+      itsMaxQueueSize = 1000;
+    }
+    itsCoalesce = Boolean.parseBoolean(MonitorConfig.getProperty("PubSubCoalesce", "true"));
+    itsDeliveryPool = new ThreadPoolExecutor(numthreads, numthreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "PubSub Delivery Thread");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    theirManager = this;
+
     // Read configuration for location of icegrid registry
     String tempstr = MonitorConfig.getProperty("PubSubLocatorPort");
     if (tempstr == null) {
@@ -308,6 +464,32 @@ public class PubSubManager {
     new AbandonedClientPurger().start();
   }
 
+  /** Get the pub/sub manager, or null if pub/sub has not been started. */
+  public static PubSubManager getManager() {
+    return theirManager;
+  }
+
+  /** Get the total number of updates queued for delivery to all clients. */
+  public int getQueueDepth() {
+    int res = 0;
+    synchronized (itsClients) {
+      for (PubSubClientInfo client : itsClients.values()) {
+        res += client.getQueueDepth();
+      }
+    }
+    return res;
+  }
+
+  /** Get the total number of updates dropped because a client queue was full. */
+  public long getNumDropped() {
+    return itsTotalDropped.get();
+  }
+
+  /** Get the total number of queued updates superseded by a newer update for the same point. */
+  public long getNumCoalesced() {
+    return itsNumCoalesced.get();
+  }
+
   /**
    * Connect to the IceStorm Topic so that we can start publishing data.
    */
@@ -0,0 +1,352 @@
+// Copyright (C) CSIRO Australia Telescope National Facility
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Library General Public License
+// as published by the Free Software Foundation; either version 2
+// of the License, or (at your option) any later version.
+
+package atnf.atoms.mon.comms;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import atnf.atoms.mon.*;
+import atnf.atoms.mon.util.MonitorConfig;
+import org.apache.log4j.Logger;
+
+/**
+ * Maintains the subscriptions used by clients to receive point updates through the
+ * <tt>updateSubscription</tt> and <tt>getUpdates</tt> operations of the Ice interface.
+ *
+ * <P>
+ * Each update to a subscribed point is given a number from a single, increasing
+ * sequence. A subscription remembers the latest value of each of its points along
+ * with the sequence number of that update, so a client can ask for everything which
+ * has changed since the sequence number it last received. If nothing has changed
+ * the request is held until an update arrives or the client's timeout expires.
+ * Requests are completed asynchronously so waiting clients don't occupy any of the
+ * server's threads.
+ *
+ * <P>
+ * Subscriptions which aren't used for <tt>UpdateFeedTimeout</tt> ms are discarded.
+ *
+ * @author David Brodrick
+ */
+public class UpdateFeed {
+  /** The latest update for a point in a subscription. */
+  protected static class Entry {
+    /** Name of the point as requested by the client. */
+    public String itsName;
+
+    /** Sequence number of the update. */
+    public long itsSequence;
+
+    /** The latest value, or null if the point has no data. */
+    public PointData itsData;
+
+    public Entry(String name, long sequence, PointData data) {
+      itsName = name;
+      itsSequence = sequence;
+      itsData = data;
+    }
+  }
+
+  /** A response to a request, prepared while holding a lock and sent after releasing it. */
+  protected static class Reply {
+    public AMD_MoniCAIce_getUpdates itsCallback;
+
+    public PointDataIce[] itsData;
+
+    public long itsLatest;
+
+    public Reply(AMD_MoniCAIce_getUpdates cb, PointDataIce[] data, long latest) {
+      itsCallback = cb;
+      itsData = data;
+      itsLatest = latest;
+    }
+
+    /** Send the response, if there is one. */
+    public static void send(Reply reply) {
+      if (reply != null) {
+        reply.itsCallback.ice_response(reply.itsData, reply.itsLatest);
+      }
+    }
+  }
+
+  /** A client's subscription to a set of points. */
+  protected static class Subscription implements PointListener {
+    /** The ID of this subscription. */
+    public long itsID;
+
+    /** Latest update for each subscribed point. */
+    protected LinkedHashMap<PointDescription, Entry> itsEntries = new LinkedHashMap<PointDescription, Entry>();
+
+    /** Sequence number of the latest update for any of the points. */
+    protected long itsLatest = 0;
+
+    /** Time the subscription was last used by the client. */
+    protected volatile long itsLastUsed = System.currentTimeMillis();
+
+    /** Request waiting for updates, or null if there is none. */
+    protected AMD_MoniCAIce_getUpdates itsWaiting = null;
+
+    /** Sequence number given by the waiting request. */
+    protected long itsWaitingSequence;
+
+    /** Task which completes the waiting request when it times out. */
+    protected TimerTask itsTimeoutTask = null;
+
+    /** Set once the subscription has been discarded. */
+    protected boolean itsDestroyed = false;
+
+    public Subscription(long id) {
+      itsID = id;
+    }
+
+    /**
+     * Add the named points, recording their current values.
+     *
+     * @return False if the subscription has been discarded.
+     */
+    public boolean add(String[] names) {
+      Reply reply = null;
+      synchronized (this) {
+        if (itsDestroyed) {
+          return false;
+        }
+        for (int i = 0; i < names.length; i++) {
+          PointDescription point = PointDescription.getPoint(names[i]);
+          if (point == null) {
+            theirLogger.debug("Subscription " + itsID + " requested non-existent point \"" + names[i] + "\"");
+            continue;
+          }
+          if (!itsEntries.containsKey(point)) {
+            point.addPointListener(this);
+          }
+          itsLatest = theirSequence.incrementAndGet();
+          itsEntries.put(point, new Entry(names[i], itsLatest, PointBuffer.getPointData(point)));
+        }
+        reply = takeWaiting();
+      }
+      Reply.send(reply);
+      return true;
+    }
+
+    /** Remove the named points. */
+    public synchronized void remove(String[] names) {
+      for (int i = 0; i < names.length; i++) {
+        PointDescription point = PointDescription.getPoint(names[i]);
+        if (point != null && itsEntries.remove(point) != null) {
+          point.removePointListener(this);
+        }
+      }
+    }
+
+    /** Remove all points and abandon any waiting request. */
+    public void destroy() {
+      AMD_MoniCAIce_getUpdates cb;
+      synchronized (this) {
+        itsDestroyed = true;
+        Iterator<PointDescription> i = itsEntries.keySet().iterator();
+        while (i.hasNext()) {
+          i.next().removePointListener(this);
+        }
+        itsEntries.clear();
+        cb = itsWaiting;
+        takeWaiting();
+      }
+      if (cb != null) {
+        cb.ice_response(new PointDataIce[0], -1);
+      }
+    }
+
+    /** Record the update and wake any waiting request. */
+    public void onPointEvent(Object source, PointEvent evt) {
+      Reply reply;
+      synchronized (this) {
+        Entry entry = itsEntries.get(source);
+        if (entry == null) {
+          // Point has been removed
+          return;
+        }
+        itsLatest = theirSequence.incrementAndGet();
+        entry.itsSequence = itsLatest;
+        entry.itsData = evt.getPointData();
+        reply = takeWaiting();
+      }
+      Reply.send(reply);
+    }
+
+    /**
+     * Answer the request with the updates since the given sequence number, or hold
+     * it until an update arrives or the timeout expires.
+     */
+    public void getUpdates(AMD_MoniCAIce_getUpdates cb, long sequence, int timeout) {
+      itsLastUsed = System.currentTimeMillis();
+      Reply old;
+      Reply reply = null;
+      synchronized (this) {
+        // A client only makes one request at a time, so any earlier one was abandoned
+        old = takeWaiting();
+        if (itsDestroyed) {
+          reply = new Reply(cb, new PointDataIce[0], -1);
+        } else if (itsLatest > sequence || timeout <= 0) {
+          reply = new Reply(cb, getUpdates(sequence), Math.max(itsLatest, sequence));
+        } else {
+          itsWaiting = cb;
+          itsWaitingSequence = sequence;
+          itsTimeoutTask = new TimerTask() {
+            public void run() {
+              Reply reply;
+              synchronized (Subscription.this) {
+                if (itsTimeoutTask != this) {
+                  return;
+                }
+                reply = takeWaiting();
+              }
+              Reply.send(reply);
+            }
+          };
+          theirTimer.schedule(itsTimeoutTask, Math.min(timeout, theirExpiry));
+        }
+      }
+      Reply.send(old);
+      Reply.send(reply);
+    }
+
+    /** Remove the waiting request, if any, and prepare its response. Must hold the lock. */
+    protected Reply takeWaiting() {
+      if (itsWaiting == null) {
+        return null;
+      }
+      Reply res = new Reply(itsWaiting, getUpdates(itsWaitingSequence), Math.max(itsLatest, itsWaitingSequence));
+      itsWaiting = null;
+      itsTimeoutTask.cancel();
+      itsTimeoutTask = null;
+      itsLastUsed = System.currentTimeMillis();
+      return res;
+    }
+
+    /** Get the updates since the given sequence number. Must hold the lock. */
+    protected PointDataIce[] getUpdates(long sequence) {
+      Vector<PointDataIce> res = new Vector<PointDataIce>();
+      Iterator<Entry> i = itsEntries.values().iterator();
+      while (i.hasNext()) {
+        Entry entry = i.next();
+        if (entry.itsSequence > sequence) {
+          PointDataIce pdi;
+          if (entry.itsData != null) {
+            pdi = MoniCAIceUtil.getPointDataAsIce(entry.itsData);
+          } else {
+            // No data available so create dummy data with null value
+            pdi = MoniCAIceUtil.getPointDataAsIce(new PointData(entry.itsName));
+          }
+          // Use the name the client subscribed with
+          pdi.name = entry.itsName;
+          res.add(pdi);
+        }
+      }
+      return res.toArray(new PointDataIce[0]);
+    }
+
+    /** Check if the subscription has not been used within the expiry time. */
+    public synchronized boolean isExpired(long now) {
+      return itsWaiting == null && now - itsLastUsed > theirExpiry;
+    }
+  }
+
+  protected static Logger theirLogger = Logger.getLogger(UpdateFeed.class.getName());
+
+  /** Sequence number of the latest update to any subscription. */
+  protected static AtomicLong theirSequence = new AtomicLong();
+
+  /** ID for the next subscription. Starts from the time so IDs from before a restart aren't reused. */
+  protected static AtomicLong theirNextID = new AtomicLong(System.currentTimeMillis());
+
+  /** All current subscriptions, keyed by ID. */
+  protected static ConcurrentHashMap<Long, Subscription> theirSubscriptions = new ConcurrentHashMap<Long, Subscription>();
+
+  /** Time after which unused subscriptions are discarded, in ms. */
+  protected static long theirExpiry;
+
+  /** Timer for completing requests which time out and discarding unused subscriptions. */
+  protected static Timer theirTimer = new Timer("UpdateFeed Timer", true);
+
+  static {
+    try {
+      theirExpiry = Long.parseLong(MonitorConfig.getProperty("UpdateFeedTimeout", "60000"));
+    } catch (Exception e) {
+      theirLogger.warn("Error parsing UpdateFeedTimeout configuration parameter: " + e);
+      theirExpiry = 60000;
+    }
+    theirTimer.schedule(new TimerTask() {
+      public void run() {
+        purge();
+      }
+    }, theirExpiry, theirExpiry);
+  }
+
+  /**
+   * Add and remove points from a subscription, creating a new subscription if the
+   * ID is zero or doesn't exist.
+   *
+   * @return The ID of the subscription.
+   */
+  public static long updateSubscription(long id, String[] add, String[] remove) {
+    Subscription sub = theirSubscriptions.get(Long.valueOf(id));
+    if (sub != null) {
+      sub.itsLastUsed = System.currentTimeMillis();
+      sub.remove(remove);
+      if (sub.add(add)) {
+        return sub.itsID;
+      }
+      // Subscription was discarded in the meantime
+    }
+    if (id != 0) {
+      theirLogger.debug("Replacing unknown subscription " + id);
+    }
+    sub = new Subscription(theirNextID.incrementAndGet());
+    theirSubscriptions.put(Long.valueOf(sub.itsID), sub);
+    sub.add(add);
+    return sub.itsID;
+  }
+
+  /**
+   * Answer the request with the updates to the subscription since the given sequence
+   * number, waiting for up to the timeout if there are none.
+   */
+  public static void getUpdates(AMD_MoniCAIce_getUpdates cb, long id, long sequence, int timeout) {
+    Subscription sub = theirSubscriptions.get(Long.valueOf(id));
+    if (sub == null) {
+      cb.ice_response(new PointDataIce[0], -1);
+    } else {
+      sub.getUpdates(cb, sequence, timeout);
+    }
+  }
+
+  /** Get the number of current subscriptions. */
+  public static int getNumSubscriptions() {
+    return theirSubscriptions.size();
+  }
+
+  /** Discard subscriptions which haven't been used within the expiry time. */
+  protected static void purge() {
+    long now = System.currentTimeMillis();
+    Iterator<Subscription> i = theirSubscriptions.values().iterator();
+    while (i.hasNext()) {
+      Subscription sub = i.next();
+      if (sub.isExpired(now)) {
+        theirLogger.debug("Discarding unused subscription " + sub.itsID);
+        // Mark the subscription as discarded before removing it, so a concurrent update
+        // creates a new subscription rather than adding to this one
+        sub.destroy();
+        theirSubscriptions.remove(Long.valueOf(sub.itsID), sub);
+      }
+    }
+  }
+}
@@ -958,6 +958,12 @@ public final class _MoniCAIceDelD extends Ice._ObjectDelD implements _MoniCAIceD
         return __result.value;
     }
 
+    public PointDataIce[] getUpdates(long id, long sequence, int timeout, Ice.LongHolder latest, java.util.Map<String, String> __ctx, Ice.Instrumentation.InvocationObserver __observer)
+        throws IceInternal.LocalExceptionWrapper
+    {
+        throw new Ice.CollocationOptimizationException();
+    }
+
     public boolean setData(final String[] names, final PointDataIce[] values, final String username, final String passwd, java.util.Map<String, String> __ctx, Ice.Instrumentation.InvocationObserver __observer)
         throws IceInternal.LocalExceptionWrapper
     {
@@ -1061,4 +1067,56 @@ public final class _MoniCAIceDelD extends Ice._ObjectDelD implements _MoniCAIceD
         }
         return __result.value;
     }
+
+    public long updateSubscription(final long id, final String[] add, final String[] remove, java.util.Map<String, String> __ctx, Ice.Instrumentation.InvocationObserver __observer)
+        throws IceInternal.LocalExceptionWrapper
+    {
+        final Ice.Current __current = new Ice.Current();
+        __initCurrent(__current, "updateSubscription", Ice.OperationMode.Normal, __ctx);
+        final Ice.LongHolder __result = new Ice.LongHolder();
+        IceInternal.Direct __direct = null;
+        try
+        {
+            __direct = new IceInternal.Direct(__current)
+            {
+                public Ice.DispatchStatus run(Ice.Object __obj)
+                {
+                    MoniCAIce __servant = null;
+                    if(__obj == null || __obj instanceof MoniCAIce)
+                    {
+                        __servant = (MoniCAIce)__obj;
+                    }
+                    else
+                    {
+                        throw new Ice.OperationNotExistException(__current.id, __current.facet, __current.operation);
+                    }
+                    __result.value = __servant.updateSubscription(id, add, remove, __current);
+                    return Ice.DispatchStatus.DispatchOK;
+                }
+            };
+            try
+            {
+                Ice.DispatchStatus __status = __direct.getServant().__collocDispatch(__direct);
+                if(__status == Ice.DispatchStatus.DispatchUserException)
+                {
+                    __direct.throwUserException();
+                }
+                assert __status == Ice.DispatchStatus.DispatchOK;
+                return __result.value;
+            }
+            finally
+            {
+                __direct.destroy();
+            }
+        }
+        catch(Ice.SystemException __ex)
+        {
+            throw __ex;
+        }
+        catch(java.lang.Throwable __ex)
+        {
+            IceInternal.LocalExceptionWrapper.throwWrapper(__ex);
+        }
+        return __result.value;
+    }
 }
@@ -160,6 +160,11 @@ public abstract class _MoniCAIceDisp extends Ice.ObjectImpl implements MoniCAIce
         return getPoints(names, null);
     }
 
+    public final void getUpdates_async(AMD_MoniCAIce_getUpdates __cb, long id, long sequence, int timeout)
+    {
+        getUpdates_async(__cb, id, sequence, timeout, null);
+    }
+
     public final boolean setData(String[] names, PointDataIce[] values, String username, String passwd)
     {
         return setData(names, values, username, passwd, null);
@@ -170,6 +175,11 @@ public abstract class _MoniCAIceDisp extends Ice.ObjectImpl implements MoniCAIce
         return shelveAlarms(pointnames, shelve, username, passwd, null);
     }
 
+    public final long updateSubscription(long id, String[] add, String[] remove)
+    {
+        return updateSubscription(id, add, remove, null);
+    }
+
     public static Ice.DispatchStatus ___getAllPointNames(MoniCAIce __obj, IceInternal.Incoming __inS, Ice.Current __current)
     {
         __checkMode(Ice.OperationMode.Idempotent, __current.mode);
@@ -347,6 +357,47 @@ public abstract class _MoniCAIceDisp extends Ice.ObjectImpl implements MoniCAIce
         return Ice.DispatchStatus.DispatchOK;
     }
 
+    public static Ice.DispatchStatus ___updateSubscription(MoniCAIce __obj, IceInternal.Incoming __inS, Ice.Current __current)
+    {
+        __checkMode(Ice.OperationMode.Normal, __current.mode);
+        IceInternal.BasicStream __is = __inS.startReadParams();
+        long id;
+        String[] add;
+        String[] remove;
+        id = __is.readLong();
+        add = stringarrayHelper.read(__is);
+        remove = stringarrayHelper.read(__is);
+        __inS.endReadParams();
+        long __ret = __obj.updateSubscription(id, add, remove, __current);
+        IceInternal.BasicStream __os = __inS.__startWriteParams(Ice.FormatType.DefaultFormat);
+        __os.writeLong(__ret);
+        __inS.__endWriteParams(true);
+        return Ice.DispatchStatus.DispatchOK;
+    }
+
+    public static Ice.DispatchStatus ___getUpdates(MoniCAIce __obj, IceInternal.Incoming __inS, Ice.Current __current)
+    {
+        __checkMode(Ice.OperationMode.Idempotent, __current.mode);
+        IceInternal.BasicStream __is = __inS.startReadParams();
+        long id;
+        long sequence;
+        int timeout;
+        id = __is.readLong();
+        sequence = __is.readLong();
+        timeout = __is.readInt();
+        __inS.endReadParams();
+        AMD_MoniCAIce_getUpdates __cb = new _AMD_MoniCAIce_getUpdates(__inS);
+        try
+        {
+            __obj.getUpdates_async(__cb, id, sequence, timeout, __current);
+        }
+        catch(java.lang.Exception ex)
+        {
+            __cb.ice_exception(ex);
+        }
+        return Ice.DispatchStatus.DispatchAsync;
+    }
+
     public static Ice.DispatchStatus ___getAllSetups(MoniCAIce __obj, IceInternal.Incoming __inS, Ice.Current __current)
     {
         __checkMode(Ice.OperationMode.Idempotent, __current.mode);
@@ -493,12 +544,14 @@ public abstract class _MoniCAIceDisp extends Ice.ObjectImpl implements MoniCAIce
         "getEncryptionInfo",
         "getLeapSeconds",
         "getPoints",
+        "getUpdates",
         "ice_id",
         "ice_ids",
         "ice_isA",
         "ice_ping",
         "setData",
-        "shelveAlarms"
+        "shelveAlarms",
+        "updateSubscription"
     };
 
     public Ice.DispatchStatus __dispatch(IceInternal.Incoming in, Ice.Current __current)
@@ -585,28 +638,36 @@ public abstract class _MoniCAIceDisp extends Ice.ObjectImpl implements MoniCAIce
             }
             case 18:
             {
-                return ___ice_id(this, in, __current);
+                return ___getUpdates(this, in, __current);
             }
             case 19:
             {
-                return ___ice_ids(this, in, __current);
+                return ___ice_id(this, in, __current);
             }
             case 20:
             {
-                return ___ice_isA(this, in, __current);
+                return ___ice_ids(this, in, __current);
             }
             case 21:
             {
-                return ___ice_ping(this, in, __current);
+                return ___ice_isA(this, in, __current);
             }
             case 22:
             {
-                return ___setData(this, in, __current);
+                return ___ice_ping(this, in, __current);
             }
             case 23:
+            {
+                return ___setData(this, in, __current);
+            }
+            case 24:
             {
                 return ___shelveAlarms(this, in, __current);
             }
+            case 25:
+            {
+                return ___updateSubscription(this, in, __current);
+            }
         }
 
         assert(false);
@@ -44,6 +44,10 @@ public interface _MoniCAIceOperations
 
     boolean setData(String[] names, PointDataIce[] values, String username, String passwd, Ice.Current __current);
 
+    long updateSubscription(long id, String[] add, String[] remove, Ice.Current __current);
+
+    void getUpdates_async(AMD_MoniCAIce_getUpdates __cb, long id, long sequence, int timeout, Ice.Current __current);
+
     String[] getAllSetups(Ice.Current __current);
 
     boolean addSetup(String setup, String username, String passwd, Ice.Current __current);
@@ -44,6 +44,10 @@ public interface _MoniCAIceOperationsNC
 
     boolean setData(String[] names, PointDataIce[] values, String username, String passwd);
 
+    long updateSubscription(long id, String[] add, String[] remove);
+
+    void getUpdates_async(AMD_MoniCAIce_getUpdates __cb, long id, long sequence, int timeout);
+
     String[] getAllSetups();
 
     boolean addSetup(String setup, String username, String passwd);
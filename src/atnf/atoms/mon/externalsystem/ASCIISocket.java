@@ -29,6 +29,8 @@ import org.apache.log4j.Logger;
  * has the query string to be sent over the socket. An optional additional argument can specify the number of lines expected in the
  * response, this is useful when the server has inter-line latency which can trick the standard logic into thinking that the entire
  * response has been consumed. All response lines will be concatenated and returned as the data object.
+ * <P>
+ * <tt>ASCIISocketNIO</tt> provides the same default behaviour without needing a thread blocked on each socket.
  * 
  * @author David Brodrick
  */
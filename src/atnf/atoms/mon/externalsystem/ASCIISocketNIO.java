@@ -0,0 +1,209 @@
+// Copyright (C) CSIRO Australia Telescope National Facility
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Library General Public License
+// as published by the Free Software Foundation; either version 2
+// of the License, or (at your option) any later version.
+
+package atnf.atoms.mon.externalsystem;
+
+import java.nio.charset.Charset;
+
+import atnf.atoms.mon.*;
+import atnf.atoms.mon.transaction.TransactionStrings;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Equivalent of <tt>ASCIISocket</tt> which uses the non-blocking <tt>SocketEngine</tt> rather than a socket of its own, so that
+ * large numbers of devices can be monitored without a thread waiting on each one. The collection thread only sends the queries and
+ * the points are updated as the responses arrive.
+ * <P>
+ * The constructor argument defined in <tt>monitor-sources.txt</tt> must include the remote machine, port and optionally timeout in
+ * <tt>host:port:timeout_ms:pipelined</tt> format. If <i>pipelined</i> is <tt>true</tt> then queries are sent without waiting for
+ * the responses to previous queries, which should only be used if the device processes queries in order.
+ * <P>
+ * As for <tt>ASCIISocket</tt>, the points should have a <tt>TransactionStrings</tt> input transaction with the query string to be
+ * sent, and optionally the number of lines expected in the response. Sub-classes can override <tt>getQuery</tt>,
+ * <tt>getFramer</tt> and <tt>parseResponse</tt> to support specific devices.
+ *
+ * @author David Brodrick
+ */
+public class ASCIISocketNIO extends ExternalSystem {
+  /** Character set used for queries and responses. */
+  protected static final Charset theirCharset = Charset.forName("ISO-8859-1");
+
+  /** The hostname or IP of the remote end-point. */
+  protected String itsHostName;
+
+  /** The port to connect to the remote end-point. */
+  protected int itsPort;
+
+  /** Connection and response timeout, in ms. */
+  protected int itsTimeout = 5000;
+
+  /** Whether queries may be pipelined. */
+  protected boolean itsPipelined = false;
+
+  /** The connection to the remote end-point. */
+  protected SocketEngine.Connection itsConnection = null;
+
+  /** Argument must include host:port and optionally :timeout_ms:pipelined */
+  public ASCIISocketNIO(String[] args) {
+    super(args[0] + ":" + args[1]);
+    itsHostName = args[0];
+    itsPort = Integer.parseInt(args[1]);
+    if (args.length > 2) {
+      itsTimeout = Integer.parseInt(args[2]);
+    }
+    if (args.length > 3) {
+      itsPipelined = Boolean.parseBoolean(args[3]);
+    }
+  }
+
+  /** Create the connection. The engine connects in the background and reconnects whenever required. */
+  public synchronized boolean connect() throws Exception {
+    if (itsConnection == null) {
+      itsConnection = SocketEngine.connect(itsHostName, itsPort, itsTimeout, itsPipelined, getUnsolicitedFramer(),
+          getUnsolicitedHandler());
+      itsNumTransactions = 0;
+    }
+    itsConnected = true;
+    return itsConnected;
+  }
+
+  /** Close the connection. */
+  public synchronized void disconnect() throws Exception {
+    if (itsConnection != null) {
+      itsConnection.close();
+      itsConnection = null;
+    }
+    itsConnected = false;
+  }
+
+  /** Check if the connection to the remote end-point is currently established. */
+  public boolean isConnected() {
+    return itsConnection != null && itsConnection.isConnected();
+  }
+
+  /** Return the framer for data which arrives when no response is expected, or null to discard such data. */
+  protected SocketFramer getUnsolicitedFramer() {
+    return null;
+  }
+
+  /** Return the handler for data which arrives when no response is expected, or null to discard such data. */
+  protected SocketEngine.ResponseHandler getUnsolicitedHandler() {
+    return null;
+  }
+
+  /** Return the query string to be sent to collect data for the point. */
+  protected String getQuery(PointDescription requestor) throws Exception {
+    // Get the Transaction which associates the point with us
+    TransactionStrings thistrans = (TransactionStrings) getMyTransactions(requestor.getInputTransactions()).get(0);
+
+    // The Transaction should contain a query string to be issued to the server
+    if (thistrans.getNumStrings() < 1) {
+      throw new Exception("ASCIISocketNIO: Not enough arguments in Transaction");
+    }
+    String query = thistrans.getString();
+    // Substitute EOL characters
+    return query.replaceAll("\\\\n", "\n").replaceAll("\\\\r", "\r");
+  }
+
+  /** Return the framer which finds the end of the response to the point's query. */
+  protected SocketFramer getFramer(PointDescription requestor) throws Exception {
+    TransactionStrings thistrans = (TransactionStrings) getMyTransactions(requestor.getInputTransactions()).get(0);
+    // Check if the Transaction specifies the number of reply lines to expect
+    int numexpected = 0;
+    if (thistrans.getNumStrings() > 1) {
+      numexpected = Integer.parseInt(thistrans.getString(1));
+    }
+    return new SocketFramer.Line(numexpected);
+  }
+
+  /**
+   * Convert the response into the point's new value. This default implementation returns all response lines as a single string,
+   * with each line terminated by a newline, as <tt>ASCIISocket</tt> does.
+   */
+  protected Object parseResponse(PointDescription requestor, byte[] response) throws Exception {
+    String[] lines = new String(response, theirCharset).split("\n");
+    StringBuilder res = new StringBuilder(response.length + 1);
+    for (int i = 0; i < lines.length; i++) {
+      String line = lines[i];
+      if (line.endsWith("\r")) {
+        line = line.substring(0, line.length() - 1);
+      }
+      res.append(line).append('\n');
+    }
+    return res.toString();
+  }
+
+  /** Send the query for each point. The points are updated when the responses arrive. */
+  protected void getData(PointDescription[] points) throws Exception {
+    for (int i = 0; i < points.length; i++) {
+      final PointDescription pm = points[i];
+      try {
+        byte[] query = getQuery(pm).getBytes(theirCharset);
+        SocketFramer framer = getFramer(pm);
+        asynchCollecting(pm);
+        itsConnection.query(query, framer, new SocketEngine.ResponseHandler() {
+          public void response(byte[] data) {
+            Object o = null;
+            try {
+              o = parseResponse(pm, data);
+            } catch (Exception e) {
+              Logger.getLogger(ASCIISocketNIO.this.getClass().getName()).warn("(" + itsName + "): " + pm.getFullName() + ": " + e);
+            }
+            // Count successful transactions
+            if (o != null) {
+              synchronized (itsPoints) {
+                itsNumTransactions++;
+              }
+            }
+            update(pm, o);
+          }
+
+          public void failed(String reason) {
+            Logger.getLogger(ASCIISocketNIO.this.getClass().getName()).debug("(" + itsName + "): " + pm.getFullName() + ": " + reason);
+            update(pm, null);
+          }
+        });
+      } catch (Exception e) {
+        Logger.getLogger(this.getClass().getName()).error("(" + itsName + "): " + pm.getFullName() + ": " + e);
+        pm.firePointEvent(new PointEvent(this, new PointData(pm.getFullName()), true));
+      }
+    }
+  }
+
+  /** Fire the new data off for a point which was collected asynchronously and reschedule it. */
+  protected void update(PointDescription pm, Object data) {
+    try {
+      pm.firePointEvent(new PointEvent(this, new PointData(pm.getFullName(), data), true));
+    } catch (Exception e) {
+      Logger.getLogger(this.getClass().getName()).error("(" + itsName + "): Error updating " + pm.getFullName() + ": " + e);
+    }
+    asynchReturn(pm);
+  }
+
+  /** Send the output string with the data value substituted for $V. No response is expected. */
+  public void putData(PointDescription desc, PointData pd) throws Exception {
+    // Get the Transaction which associates the point with us
+    TransactionStrings thistrans = (TransactionStrings) getMyTransactions(desc.getOutputTransactions()).get(0);
+
+    // The Transaction should contain a query string to be issued to the server
+    if (thistrans.getNumStrings() < 1) {
+      throw new Exception("ASCIISocketNIO: Not enough arguments in Transaction");
+    }
+
+    String cmdstring = thistrans.getString();
+    // Substitute EOL characters
+    cmdstring = cmdstring.replaceAll("\\\\n", "\n").replaceAll("\\\\r", "\r");
+    // Substitute the data value for $V
+    cmdstring = cmdstring.replaceAll("\\$V", pd.getData().toString());
+
+    if (itsConnection == null) {
+      connect();
+    }
+    itsConnection.send(cmdstring.getBytes(theirCharset));
+  }
+}
@@ -29,53 +29,8 @@ import org.apache.log4j.Logger;
  * @author Le Cuong Nguyen
  */
 public class ExternalSystem implements Runnable {
-  /**
-   * Comparator to compare PointDescriptions and/or AbsTimes. We need to use this Comparator with the SortedLinkedList class.
-   */
-  private class TimeComp implements Comparator {
-    /** Return a timestamp for any known class type. */
-    private long getTimeStamp(Object o) {
-      if (o instanceof PointDescription) {
-        return ((PointDescription) o).getNextEpoch();
-      } else if (o instanceof AbsTime) {
-        return ((AbsTime) o).getValue();
-      } else if (o == null) {
-        return 0;
-      } else {
-        System.err.println("ExternalSystem: TimeComp: compare: UNKNOWN TYPE (" + o.getClass() + ")");
-        return 0;
-      }
-    }
-
-    /** Compare PointDescriptions and/or AbsTimes. */
-    public int compare(Object o1, Object o2) {
-      long val1 = getTimeStamp(o1);
-      long val2 = getTimeStamp(o2);
-
-      if (val1 > val2) {
-        return 1;
-      }
-      if (val1 < val2) {
-        return -1;
-      }
-      return 0;
-    }
-
-    /** Test if equivalent to the given Comparator. */
-    public boolean equals(Object o) {
-      if (o instanceof TimeComp) {
-        return true;
-      } else {
-        return false;
-      }
-    }
-  }
-
-  /**
-   * List of all the points which need to be collected. A SortedLinkedList is used to keep the list sorted in order of time of next
-   * collection.
-   */
-  protected SortedLinkedList itsPoints = new SortedLinkedList(new TimeComp());
+  /** List of all the points which need to be collected, in order of time of next collection. */
+  protected CollectionScheduler itsPoints = new CollectionScheduler();
 
   /**
    * Points which are currently being collected asynchronously. We need to keep track of them so we do not schedule them for
@@ -199,9 +154,17 @@ public class ExternalSystem implements Runnable {
 
   /** Get the number of points allocated to this ExternalSystem. */
   public int getNumPoints() {
-    synchronized (itsPoints) {
-      return itsPoints.size();
-    }
+    return itsPoints.size();
+  }
+
+  /** Get the moving average of how late points are being collected, in microseconds. */
+  public long getCollectionLateness() {
+    return itsPoints.getLateness();
+  }
+
+  /** Get the moving average of the variation in collection lateness, in microseconds. */
+  public long getCollectionJitter() {
+    return itsPoints.getJitter();
   }
 
   /**
@@ -211,10 +174,7 @@ public class ExternalSystem implements Runnable {
    *          The point to start monitoring.
    */
   public void addPoint(PointDescription p) {
-    synchronized (itsPoints) {
-      itsPoints.add(p);
-      itsPoints.notifyAll();
-    }
+    itsPoints.add(p);
   }
 
   /**
@@ -226,9 +186,8 @@ public class ExternalSystem implements Runnable {
   public void addPoints(Object[] v) {
     synchronized (itsPoints) {
       for (int i = 0; i < v.length; i++) {
-        itsPoints.add(v[i]);
+        itsPoints.add((PointDescription) v[i]);
       }
-      itsPoints.notifyAll();
     }
   }
 
@@ -249,10 +208,7 @@ public class ExternalSystem implements Runnable {
    *          The point to stop monitoring.
    */
   public void removePoint(PointDescription p) {
-    synchronized (itsPoints) {
-      itsPoints.remove(p);
-      itsPoints.notifyAll();
-    }
+    itsPoints.remove(p);
   }
 
   /**
@@ -274,8 +230,8 @@ public class ExternalSystem implements Runnable {
    */
   protected void asynchReturn(PointDescription point) {
     point.isCollecting(false);
+    // Adding the point wakes the collection thread if it is waiting
     addPoint(point);
-    itsThread.interrupt();
   }
 
   /** Return any Transactions which are associated with this ExternalSystem. */
@@ -383,12 +339,9 @@ public class ExternalSystem implements Runnable {
           continue;
         }
 
-        // Calculate the latest epoch we're prepared to collect now
-        AbsTime cutoff = AbsTime.factory();
-        cutoff.add(50000); // Fudge factor for better efficiency
-
-        // Get the set of all points within the time bracket
-        thesepoints = itsPoints.headSet(cutoff);
+        // Get the set of all points within the time bracket, with a fudge factor for better efficiency
+        long now = AbsTime.nowValue();
+        thesepoints = itsPoints.headSet(now + 50000, now);
       }
 
       if (!thesepoints.isEmpty()) {
@@ -431,19 +384,11 @@ public class ExternalSystem implements Runnable {
         }
       }
 
-      // We may need to wait before we collect the next point.
+      // We may need to wait before we collect the next point. We will be woken
+      // early if an asynchronous point needs rescheduling.
       try {
-        PointDescription headpoint = (PointDescription) itsPoints.first();
-        if (headpoint != null) {
-          AbsTime nextTime = headpoint.getNextEpoch_AbsTime();
-          AbsTime timenow = AbsTime.factory();
-          if (nextTime.isAfter(timenow)) {
-            RelTime waittime = Time.diff(nextTime, timenow);
-            waittime.sleep();
-          }
-        }
-      } catch (Exception e) {
-        // Sleep was interrupted because asych point needs rescheduling
+        itsPoints.awaitNext(AbsTime.nowValue(), 0);
+      } catch (InterruptedException e) {
       }
     }
   }
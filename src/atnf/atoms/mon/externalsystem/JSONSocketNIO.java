@@ -0,0 +1,107 @@
+// Copyright (C) CSIRO Australia Telescope National Facility
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Library General Public License
+// as published by the Free Software Foundation; either version 2
+// of the License, or (at your option) any later version.
+
+package atnf.atoms.mon.externalsystem;
+
+import java.util.HashMap;
+
+import com.eclipsesource.json.*;
+
+import atnf.atoms.mon.*;
+import atnf.atoms.mon.transaction.TransactionStrings;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Equivalent of <tt>JSONSocket</tt> which uses the non-blocking <tt>SocketEngine</tt>. The remote end-point sends JSON objects
+ * whenever it likes, and each top-level field is expected to have a numeric value. The objects are decoded as they arrive, and when
+ * points are collected they are each given a map of the values received since the previous collection, with spaces in the field
+ * names replaced by underscores.
+ * <P>
+ * The constructor argument defined in <tt>monitor-sources.txt</tt> must include the remote machine, port and optionally timeout in
+ * <tt>host:port:timeout_ms</tt> format.
+ *
+ * @author David Brodrick
+ */
+public class JSONSocketNIO extends ASCIISocketNIO {
+  /** Values received since the previous collection. */
+  private HashMap<String, Object> itsValues = new HashMap<String, Object>();
+
+  /** Argument must include host:port and optionally :timeout_ms */
+  public JSONSocketNIO(String[] args) {
+    super(args);
+  }
+
+  /** Each message from the end-point is a JSON object. */
+  protected SocketFramer getUnsolicitedFramer() {
+    return new SocketFramer.JSON();
+  }
+
+  /** Decode each JSON object as it arrives. */
+  protected SocketEngine.ResponseHandler getUnsolicitedHandler() {
+    return new SocketEngine.ResponseHandler() {
+      public void response(byte[] data) {
+        String msg = new String(data, theirCharset).trim();
+        if (!msg.startsWith("{")) {
+          // Junk between objects
+          return;
+        }
+        String key = "";
+        try {
+          JsonObject jsonObject = JsonObject.readFrom(msg);
+          HashMap<String, Object> values = new HashMap<String, Object>();
+          for (String thiskey : jsonObject.names()) {
+            key = thiskey;
+            values.put(thiskey.replace(' ', '_'), Float.valueOf(jsonObject.get(thiskey).asFloat()));
+          }
+          synchronized (itsValues) {
+            itsValues.putAll(values);
+          }
+        } catch (Exception e) {
+          Logger.getLogger(JSONSocketNIO.this.getClass().getName()).warn("(" + itsName + "): Caught exception: " + e + " key: " + key);
+        }
+      }
+
+      public void failed(String reason) {
+      }
+    };
+  }
+
+  /** Give each point the values received since the previous collection. */
+  protected void getData(PointDescription[] points) throws Exception {
+    HashMap<String, Object> values;
+    synchronized (itsValues) {
+      values = new HashMap<String, Object>(itsValues);
+      itsValues.clear();
+    }
+    if (!values.isEmpty()) {
+      itsNumTransactions++;
+    }
+    for (int i = 0; i < points.length; i++) {
+      PointDescription pm = points[i];
+      pm.firePointEvent(new PointEvent(this, new PointData(pm.getFullName(), new HashMap<String, Object>(values)), true));
+    }
+  }
+
+  /** Send the point's value as a JSON object, named after the last component of the point name. */
+  public void putData(PointDescription desc, PointData pd) throws Exception {
+    // Get the Transaction which associates the point with us
+    TransactionStrings thistrans = (TransactionStrings) getMyTransactions(desc.getOutputTransactions()).get(0);
+    if (thistrans.getNumStrings() < 1) {
+      throw new Exception("JSONSocketNIO: Not enough arguments in Transaction");
+    }
+
+    String fullname = pd.getName().toString();
+    String name = fullname.substring(fullname.lastIndexOf('.') + 1);
+    JsonObject thisdata = new JsonObject().add(name, pd.getData().toString());
+
+    if (itsConnection == null) {
+      connect();
+    }
+    itsConnection.send((thisdata.toString() + "\n").getBytes(theirCharset));
+  }
+}
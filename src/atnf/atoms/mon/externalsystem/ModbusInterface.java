@@ -5,6 +5,7 @@ import java.util.*;
 import java.text.*;
 
 import net.wimpi.modbus.ModbusIOException;
+import net.wimpi.modbus.ModbusSlaveException;
 import net.wimpi.modbus.msg.*;
 import net.wimpi.modbus.io.*;
 import net.wimpi.modbus.net.*;
@@ -14,6 +15,7 @@ import net.wimpi.modbus.procimg.Register;
 
 import atnf.atoms.mon.*;
 import atnf.atoms.mon.transaction.*;
+import atnf.atoms.mon.util.MonitorConfig;
 
 import org.apache.log4j.*;
 
@@ -23,7 +25,13 @@ import org.apache.log4j.*;
  * 
  * <P>
  * The constructor requires <i>hostname:port ModbusID ModbusFunction StartAddress</i> arguments. A timeout (ms) argument may
- * optionally be specified.
+ * optionally be specified, followed by the maximum gap which overrides the <tt>ModbusMaxGap</tt> configuration parameter.
+ * 
+ * <P>
+ * The points which are due for collection are merged into the fewest contiguous reads for each unit ID and function code, within
+ * the protocol limits of 125 registers or 2000 coils/inputs per request. Reads which are separated by no more than the maximum gap
+ * of unused addresses are merged. If the slave rejects a merged read, for instance because the gap contains invalid addresses, then
+ * each point is read separately.
  * 
  * <P>
  * NB: If control points are being used, at least one polling point should be defined as this will ensure the socket is reconnected
@@ -56,6 +64,26 @@ public class ModbusInterface extends ExternalSystem {
 
   private boolean itsDebug = false;
 
+  /** Maximum number of registers which may be read by a single request. */
+  public static final int MAX_REGISTERS = 125;
+
+  /** Maximum number of coils or discrete inputs which may be read by a single request. */
+  public static final int MAX_BITS = 2000;
+
+  /** Default maximum number of unused addresses which may be read in order to merge two reads. */
+  private static int theirMaxGap = 8;
+
+  /** Maximum number of unused addresses which may be read in order to merge two reads. */
+  private int itsMaxGap;
+
+  static {
+    try {
+      theirMaxGap = Integer.parseInt(MonitorConfig.getProperty("ModbusMaxGap", "8"));
+    } catch (Exception e) {
+      theirLogger.warn("Error parsing ModbusMaxGap configuration parameter: " + e);
+    }
+  }
+
   public ModbusInterface(String[] args) {
     super(args[0] + ":" + args[1]);
     itsHost = args[0];
@@ -63,6 +91,11 @@ public class ModbusInterface extends ExternalSystem {
     if (args.length > 2) {
       itsTimeout = Integer.parseInt(args[2]);
     }
+    if (args.length > 3) {
+      itsMaxGap = Integer.parseInt(args[3]);
+    } else {
+      itsMaxGap = theirMaxGap;
+    }
   }
 
   /**
@@ -139,6 +172,10 @@ public class ModbusInterface extends ExternalSystem {
       if (e.isEOF() || !itsConnection.isConnected()) {
         throw e;
       }
+    } catch (ModbusSlaveException e) {
+      // Slave returned an exception response
+      theirLogger.warn(itsHost + ":" + itsPort + ": readCoils: " + e);
+      return null;
     } catch (Exception e) {
       theirLogger.warn(itsHost + ":" + itsPort + ": readCoils: " + e);
     }
@@ -169,6 +206,10 @@ public class ModbusInterface extends ExternalSystem {
       if (e.isEOF() || !itsConnection.isConnected()) {
         throw e;
       }
+    } catch (ModbusSlaveException e) {
+      // Slave returned an exception response
+      theirLogger.warn(itsHost + ":" + itsPort + ": readDiscreteInputs: " + e);
+      return null;
     } catch (Exception e) {
       theirLogger.warn(itsHost + ":" + itsPort + ": readDiscreteInputs: " + e);
     }
@@ -200,6 +241,10 @@ public class ModbusInterface extends ExternalSystem {
       if (e.isEOF() || !itsConnection.isConnected()) {
         throw e;
       }
+    } catch (ModbusSlaveException e) {
+      // Slave returned an exception response
+      theirLogger.warn(itsHost + ":" + itsPort + ": readHoldingRegisters: " + e);
+      return null;
     } catch (Exception e) {
       theirLogger.warn(itsHost + ":" + itsPort + ": readHoldingRegisters: " + e);
     }
@@ -229,6 +274,10 @@ public class ModbusInterface extends ExternalSystem {
       if (e.isEOF() || !itsConnection.isConnected()) {
         throw e;
       }
+    } catch (ModbusSlaveException e) {
+      // Slave returned an exception response
+      theirLogger.warn(itsHost + ":" + itsPort + ": readInputRegisters: " + e);
+      return null;
     } catch (Exception e) {
       theirLogger.warn(itsHost + ":" + itsPort + ": readInputRegisters: " + e);
     }
@@ -362,111 +411,268 @@ public class ModbusInterface extends ExternalSystem {
 
     // theirLogger.info("(" + itsHost + ":" + itsPort + "): Monitoring = " + points.length);
 
-    int numberToRead = 1;
-    boolean useArray = false;
-
+    // Work out which registers each point needs
+    Vector<ModbusRead> reads = new Vector<ModbusRead>(points.length);
     for (int i = 0; i < points.length; i++) {
       PointDescription pm = points[i];
-      TransactionStrings tds = (TransactionStrings) getMyTransactions(pm.getInputTransactions()).get(0);
-
-      // Check we have correct number of arguments
-      if (tds.getNumStrings() != 3 && tds.getNumStrings() != 4) {
-        theirLogger.error("Modbus.getData requires either 3 or 4 arguments");
-        throw new IllegalArgumentException("Modbus.getData: requires 3 or 4 arguments");
-      }
-      if (tds.getNumStrings() == 4) {
-        numberToRead = Integer.parseInt(tds.getString(3));
-        useArray = true;
+      try {
+        reads.add(new ModbusRead(pm, (TransactionStrings) getMyTransactions(pm.getInputTransactions()).get(0)));
+      } catch (Exception e) {
+        theirLogger.error("(" + itsHost + ":" + itsPort + "): getData for point " + pm.getFullName() + ": " + e);
+        pm.firePointEvent(new PointEvent(this, new PointData(pm.getFullName(), null), true));
       }
-      int UnitID = Integer.parseInt(tds.getString(0));
-      int FCode = Integer.parseInt(tds.getString(1));
-      int StartAddress = Integer.parseInt(tds.getString(2));
+    }
 
+    // Read each block of registers and hand the values out to the points
+    Vector<ModbusBlock> blocks = planReads(reads, itsMaxGap);
+    for (int i = 0; i < blocks.size(); i++) {
+      ModbusBlock block = blocks.get(i);
       try {
-        switch (FCode) {
-        case 1:
-          // Read Coils
-          ReadCoilsResponse rc_response = readCoils(UnitID, StartAddress, numberToRead);
-          if (rc_response != null) {
-            if (!useArray) {
-              pm.firePointEvent(new PointEvent(this, new PointData(pm.getFullName(), new Boolean(rc_response.getCoilStatus(0))), true));
-            } else {
-              Boolean[] rc_Array = new Boolean[numberToRead];
-              for (int j = 0; j < (numberToRead); j++)
-                rc_Array[j] = new Boolean(rc_response.getCoilStatus(j));
-              pm.firePointEvent(new PointEvent(this, new PointData(pm.getFullName(), rc_Array), true));
-            }
-          } else {
-            // No response
-            pm.firePointEvent(new PointEvent(this, new PointData(pm.getFullName()), true));
+        Object values = readBlock(block.itsUnitID, block.itsFCode, block.itsStart, block.itsCount);
+        if (values == null && block.itsReads.size() > 1) {
+          // Slave may have rejected registers in the gaps, so read each point separately
+          for (int j = 0; j < block.itsReads.size(); j++) {
+            ModbusRead r = block.itsReads.get(j);
+            firePointData(r, readBlock(r.itsUnitID, r.itsFCode, r.itsStart, r.itsCount), r.itsStart);
           }
-          break;
-        case 2:
-          // Read Discrete Inputs
-          ReadInputDiscretesResponse di_response = readDiscreteInputs(UnitID, StartAddress, numberToRead);
-          if (di_response != null) {
-            if (!useArray) {
-              pm.firePointEvent(new PointEvent(this, new PointData(pm.getFullName(), new Boolean(di_response.getDiscreteStatus(0))), true));
-            } else {
-              Boolean[] di_Array = new Boolean[numberToRead];
-              for (int j = 0; j < (numberToRead); j++)
-                di_Array[j] = new Boolean(di_response.getDiscreteStatus(j));
-              pm.firePointEvent(new PointEvent(this, new PointData(pm.getFullName(), di_Array), true));
-            }
-          } else {
-            // No response
-            pm.firePointEvent(new PointEvent(this, new PointData(pm.getFullName()), true));
+        } else {
+          for (int j = 0; j < block.itsReads.size(); j++) {
+            firePointData(block.itsReads.get(j), values, block.itsStart);
           }
-          break;
-        case 3:
-          // Read Holding Registers (jamod library terminology uses multiple instead of holding)
-          ReadMultipleRegistersResponse rhr_response = readHoldingRegisters(UnitID, StartAddress, numberToRead);
-          if (rhr_response != null) {
-            if (!useArray) {
-              pm.firePointEvent(new PointEvent(this, new PointData(pm.getFullName(), new Integer(rhr_response.getRegisterValue(0))), true));
-            } else {
-              Integer[] rhr_Array = new Integer[numberToRead];
-              for (int j = 0; j < (numberToRead); j++)
-                rhr_Array[j] = new Integer(rhr_response.getRegisterValue(j));
-              pm.firePointEvent(new PointEvent(this, new PointData(pm.getFullName(), rhr_Array), true));
-            }
-          } else {
-            // No response
-            pm.firePointEvent(new PointEvent(this, new PointData(pm.getFullName()), true));
-          }
-          break;
-        case 4:
-          // Read Input Registers
-          ReadInputRegistersResponse rir_response = readInputRegisters(UnitID, StartAddress, numberToRead);
-          if (rir_response != null) {
-            if (!useArray) {
-              pm.firePointEvent(new PointEvent(this, new PointData(pm.getFullName(), new Integer(rir_response.getRegisterValue(0))), true));
-            } else {
-              Integer[] rir_Array = new Integer[numberToRead];
-              for (int j = 0; j < (numberToRead); j++)
-                rir_Array[j] = new Integer(rir_response.getRegisterValue(j));
-              pm.firePointEvent(new PointEvent(this, new PointData(pm.getFullName(), rir_Array), true));
-            }
-          } else {
-            // No response
-            pm.firePointEvent(new PointEvent(this, new PointData(pm.getFullName()), true));
-          }
-          break;
-        default:
-          theirLogger.warn("Modbus.getData: Unknown Modbus monitor function code: " + FCode);
-          pm.firePointEvent(new PointEvent(this, new PointData(pm.getFullName(), null), true));
-          break;
         }
       } catch (Exception f) {
-        theirLogger.error("(" + itsHost + ":" + itsPort + "): getData for point " + pm.getFullName() + ": " + f);
+        theirLogger.error("(" + itsHost + ":" + itsPort + "): getData for points " + block + ": " + f);
         disconnect();
         return;
       }
-
     }
     // Increment the transaction counter for this ExternalSystem
     itsNumTransactions++;
+  }
+
+  /**
+   * Read a contiguous range of coils, discrete inputs or registers.
+   * 
+   * @return A <tt>boolean[]</tt> for coils and discrete inputs or an <tt>int[]</tt> for registers, or null if no response was
+   *         received.
+   */
+  private Object readBlock(int uid, int fcode, int ref, int count) throws Exception {
+    switch (fcode) {
+    case 1: {
+      ReadCoilsResponse response = readCoils(uid, ref, count);
+      if (response == null) {
+        return null;
+      }
+      boolean[] res = new boolean[count];
+      for (int i = 0; i < count; i++) {
+        res[i] = response.getCoilStatus(i);
+      }
+      return res;
+    }
+    case 2: {
+      ReadInputDiscretesResponse response = readDiscreteInputs(uid, ref, count);
+      if (response == null) {
+        return null;
+      }
+      boolean[] res = new boolean[count];
+      for (int i = 0; i < count; i++) {
+        res[i] = response.getDiscreteStatus(i);
+      }
+      return res;
+    }
+    case 3: {
+      // Read Holding Registers (jamod library terminology uses multiple instead of holding)
+      ReadMultipleRegistersResponse response = readHoldingRegisters(uid, ref, count);
+      if (response == null) {
+        return null;
+      }
+      int[] res = new int[count];
+      for (int i = 0; i < count; i++) {
+        res[i] = response.getRegisterValue(i);
+      }
+      return res;
+    }
+    case 4: {
+      ReadInputRegistersResponse response = readInputRegisters(uid, ref, count);
+      if (response == null) {
+        return null;
+      }
+      int[] res = new int[count];
+      for (int i = 0; i < count; i++) {
+        res[i] = response.getRegisterValue(i);
+      }
+      return res;
+    }
+    default:
+      return null;
+    }
+  }
+
+  /**
+   * Fire an update for a point using the values read for a block.
+   * 
+   * @param r
+   *          The point's read.
+   * @param values
+   *          The values for the block, as returned by <tt>readBlock</tt>, or null if the read failed.
+   * @param blockstart
+   *          Address of the first value in the block.
+   */
+  private void firePointData(ModbusRead r, Object values, int blockstart) {
+    Object data = null;
+    int offset = r.itsStart - blockstart;
+    if (values instanceof boolean[]) {
+      boolean[] bools = (boolean[]) values;
+      if (!r.itsUseArray) {
+        data = Boolean.valueOf(bools[offset]);
+      } else {
+        Boolean[] arr = new Boolean[r.itsCount];
+        for (int j = 0; j < r.itsCount; j++) {
+          arr[j] = Boolean.valueOf(bools[offset + j]);
+        }
+        data = arr;
+      }
+    } else if (values instanceof int[]) {
+      int[] ints = (int[]) values;
+      if (!r.itsUseArray) {
+        data = Integer.valueOf(ints[offset]);
+      } else {
+        Integer[] arr = new Integer[r.itsCount];
+        for (int j = 0; j < r.itsCount; j++) {
+          arr[j] = Integer.valueOf(ints[offset + j]);
+        }
+        data = arr;
+      }
+    }
+    r.itsPoint.firePointEvent(new PointEvent(this, new PointData(r.itsPoint.getFullName(), data), true));
+  }
 
+  /** Return the maximum number of values which may be read by a single request with the given function code. */
+  protected static int getMaxCount(int fcode) {
+    if (fcode == 1 || fcode == 2) {
+      return MAX_BITS;
+    } else {
+      return MAX_REGISTERS;
+    }
+  }
+
+  /**
+   * Merge the reads into the fewest contiguous requests for each unit ID and function code. Reads are merged if the unused gap
+   * between them is no more than <tt>maxgap</tt> values and the merged request stays within the protocol limit for the function
+   * code.
+   * 
+   * @param reads
+   *          The reads required by the points.
+   * @param maxgap
+   *          Maximum number of unused values which may be read to join two reads.
+   * @return The merged requests.
+   */
+  protected static Vector<ModbusBlock> planReads(Vector<ModbusRead> reads, int maxgap) {
+    // Order by unit ID, function code and then address so mergeable reads are adjacent
+    ModbusRead[] sorted = reads.toArray(new ModbusRead[reads.size()]);
+    Arrays.sort(sorted, new Comparator<ModbusRead>() {
+      public int compare(ModbusRead a, ModbusRead b) {
+        if (a.itsUnitID != b.itsUnitID) {
+          return a.itsUnitID < b.itsUnitID ? -1 : 1;
+        } else if (a.itsFCode != b.itsFCode) {
+          return a.itsFCode < b.itsFCode ? -1 : 1;
+        } else if (a.itsStart != b.itsStart) {
+          return a.itsStart < b.itsStart ? -1 : 1;
+        } else {
+          return 0;
+        }
+      }
+    });
+
+    Vector<ModbusBlock> res = new Vector<ModbusBlock>();
+    ModbusBlock block = null;
+    for (int i = 0; i < sorted.length; i++) {
+      ModbusRead r = sorted[i];
+      if (block != null && block.itsUnitID == r.itsUnitID && block.itsFCode == r.itsFCode
+          && r.itsStart <= block.itsStart + block.itsCount + maxgap
+          && Math.max(block.itsStart + block.itsCount, r.itsStart + r.itsCount) - block.itsStart <= getMaxCount(r.itsFCode)) {
+        // Extend the current block to cover this read
+        block.itsCount = Math.max(block.itsCount, r.itsStart + r.itsCount - block.itsStart);
+        block.itsReads.add(r);
+      } else {
+        block = new ModbusBlock(r);
+        res.add(block);
+      }
+    }
+    return res;
+  }
+
+  /** The values which need to be read for a single point. */
+  protected static class ModbusRead {
+    /** The point. */
+    PointDescription itsPoint;
+
+    /** Unit ID of the slave. */
+    int itsUnitID;
+
+    /** Modbus function code. */
+    int itsFCode;
+
+    /** Address of the first value. */
+    int itsStart;
+
+    /** Number of values. */
+    int itsCount = 1;
+
+    /** Whether the point's value is an array rather than a scalar. */
+    boolean itsUseArray = false;
+
+    /** Create the read from the point's input transaction. */
+    ModbusRead(PointDescription pm, TransactionStrings tds) {
+      // Check we have correct number of arguments
+      if (tds.getNumStrings() != 3 && tds.getNumStrings() != 4) {
+        throw new IllegalArgumentException("Modbus.getData: requires 3 or 4 arguments");
+      }
+      itsPoint = pm;
+      itsUnitID = Integer.parseInt(tds.getString(0));
+      itsFCode = Integer.parseInt(tds.getString(1));
+      itsStart = Integer.parseInt(tds.getString(2));
+      if (tds.getNumStrings() == 4) {
+        itsCount = Integer.parseInt(tds.getString(3));
+        itsUseArray = true;
+      }
+      if (itsFCode < 1 || itsFCode > 4) {
+        throw new IllegalArgumentException("Unknown Modbus monitor function code: " + itsFCode);
+      }
+      if (itsCount < 1 || itsCount > getMaxCount(itsFCode)) {
+        throw new IllegalArgumentException("Invalid number of values to read: " + itsCount);
+      }
+    }
+  }
+
+  /** A single request which covers the values for one or more points. */
+  protected static class ModbusBlock {
+    /** Unit ID of the slave. */
+    int itsUnitID;
+
+    /** Modbus function code. */
+    int itsFCode;
+
+    /** Address of the first value. */
+    int itsStart;
+
+    /** Number of values. */
+    int itsCount;
+
+    /** The reads which are covered by this request. */
+    Vector<ModbusRead> itsReads = new Vector<ModbusRead>();
+
+    ModbusBlock(ModbusRead r) {
+      itsUnitID = r.itsUnitID;
+      itsFCode = r.itsFCode;
+      itsStart = r.itsStart;
+      itsCount = r.itsCount;
+      itsReads.add(r);
+    }
+
+    public String toString() {
+      return "unit " + itsUnitID + " function " + itsFCode + " " + itsStart + "+" + itsCount + " (" + itsReads.size() + " points)";
+    }
   }
 
   /**
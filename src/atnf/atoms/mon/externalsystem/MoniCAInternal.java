@@ -13,6 +13,8 @@ import atnf.atoms.time.DUTC;
 import atnf.atoms.time.Time;
 import atnf.atoms.mon.*;
 import atnf.atoms.mon.transaction.*;
+import atnf.atoms.mon.comms.PubSubManager;
+import atnf.atoms.mon.util.MailOutbox;
 
 /**
  * Used to return data about the MoniCA server.
@@ -26,6 +28,17 @@ import atnf.atoms.mon.transaction.*;
  * <li><b>points</b> Return the current number of points defined on the server.
  * <li><b>systems</b> Return the current number of external systems defined on the system.
  * <li><b>uptime</b> The elapsed time since the server was started.
+ * <li><b>lateness</b> Moving average of how late points are collected, in seconds, for the external system named by the third
+ * argument.
+ * <li><b>jitter</b> Moving average of the variation in collection lateness, in seconds, for the external system named by the third
+ * argument.
+ * <li><b>pubsubqueue</b> The number of updates queued for delivery to pub/sub clients.
+ * <li><b>pubsubdropped</b> The number of pub/sub updates dropped because a client queue was full.
+ * <li><b>pipelinelatency</b> The 99th percentile time, in seconds, taken to process updates in the point update pipeline stage
+ * named by the third argument (alarm, output, notify, archive or listener).
+ * <li><b>pipelinequeue</b> The number of updates waiting in the point update pipeline stage named by the third argument.
+ * <li><b>mailqueue</b> The number of notification emails waiting to be sent.
+ * <li><b>maillatency</b> The 99th percentile time, in seconds, between notification emails being queued and sent.
  * </ul>
  * 
  * @author David Brodrick
@@ -59,6 +72,42 @@ class MoniCAInternal extends ExternalSystem {
           pd.setData(Time.diff(new AbsTime(), itsStartTime));
         } else if (thistrans.getString().equals("dUTC")) {
           pd.setData(DUTC.get());
+        } else if (thistrans.getString().equals("lateness") || thistrans.getString().equals("jitter")) {
+          ExternalSystem es = null;
+          if (thistrans.getNumStrings() > 1) {
+            es = ExternalSystem.getExternalSystem(thistrans.getString(1));
+          }
+          if (es != null) {
+            long micros = thistrans.getString().equals("lateness") ? es.getCollectionLateness() : es.getCollectionJitter();
+            pd.setData(new Double(micros / 1000000.0));
+          }
+        } else if (thistrans.getString().equals("pubsubqueue")) {
+          PubSubManager psm = PubSubManager.getManager();
+          if (psm != null) {
+            pd.setData(new Integer(psm.getQueueDepth()));
+          }
+        } else if (thistrans.getString().equals("pubsubdropped")) {
+          PubSubManager psm = PubSubManager.getManager();
+          if (psm != null) {
+            pd.setData(new Long(psm.getNumDropped()));
+          }
+        } else if (thistrans.getString().equals("pipelinelatency") || thistrans.getString().equals("pipelinequeue")) {
+          PointEventPipeline pipeline = PointEventPipeline.getPipeline();
+          PointEventPipeline.Stage stage = null;
+          if (pipeline != null && thistrans.getNumStrings() > 1) {
+            stage = pipeline.getStage(thistrans.getString(1));
+          }
+          if (stage != null) {
+            if (thistrans.getString().equals("pipelinelatency")) {
+              pd.setData(new Double(stage.getServiceTime().getPercentile(99) / 1000000.0));
+            } else {
+              pd.setData(new Integer(stage.getPending()));
+            }
+          }
+        } else if (thistrans.getString().equals("mailqueue")) {
+          pd.setData(new Integer(MailOutbox.getQueueDepth()));
+        } else if (thistrans.getString().equals("maillatency")) {
+          pd.setData(new Double(MailOutbox.getLatency().getPercentile(99) / 1000000.0));
         }
 
         desc.firePointEvent(new PointEvent(this, pd, true));
@@ -12,19 +12,62 @@ import atnf.atoms.mon.transaction.*;
 
 import java.io.*;
 import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Ping a remote machine and provide true/false connectivity report.
  *
+ * <P>
+ * All hosts which are due are probed concurrently, with up to a limited
+ * number of probes in flight at once, so that unreachable hosts do not hold
+ * up the checks for other hosts or the collection of other points. The
+ * optional arguments are the maximum number of probes in flight (default 32)
+ * and the default probe timeout in milliseconds (default 10000), for
+ * instance <tt>PingCheck 64:5000</tt>.
+ *
+ * <P>
+ * The first string of each point's transaction is the host name. This may be
+ * followed by a TCP port number, in which case the host is probed by making a
+ * TCP connection to that port rather than by ICMP echo, and then by a timeout
+ * in milliseconds for this host. A port of 0 selects ICMP. If the final string
+ * is <tt>rtt</tt> then the point's value is the round-trip time in
+ * milliseconds, or null if the host could not be reached, rather than the
+ * true/false report. For instance <tt>Strings-"pingcheck""www.atnf.csiro.au""80""2000""rtt"</tt>.
+ * Points which probe the same host in the same way share a single probe.
+ *
  * @author David Brodrick
  * @version $Id: $
  **/
 class PingCheck
 extends ExternalSystem
 {
+  /** Threads which perform the probes. */
+  private ThreadPoolExecutor itsProbers;
+
+  /** Default timeout for each probe, in milliseconds. */
+  private int itsTimeout = 10000;
+
   public PingCheck(String[] args)
   {
     super("pingcheck");
+
+    int maxinflight = 32;
+    if (args != null && args.length > 0) {
+      maxinflight = Integer.parseInt(args[0]);
+    }
+    if (args != null && args.length > 1) {
+      itsTimeout = Integer.parseInt(args[1]);
+    }
+    itsProbers = new ThreadPoolExecutor(maxinflight, maxinflight, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+          public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "PingCheck");
+            t.setDaemon(true);
+            return t;
+          }
+        });
+    itsProbers.allowCoreThreadTimeOut(true);
   }
 
 
@@ -34,27 +77,143 @@ extends ExternalSystem
   getData(PointDescription[] points)
   throws Exception
   {
+    // Group the points which share the same probe
+    HashMap<String,Probe> probes = new HashMap<String,Probe>();
     for (int i=0; i<points.length; i++) {
       PointDescription pm = points[i];
-      String host = ((TransactionStrings)getMyTransactions(pm.getInputTransactions()).get(0)).getString();
+      Probe probe;
+      boolean rtt;
+      try {
+        TransactionStrings tds = (TransactionStrings)getMyTransactions(pm.getInputTransactions()).get(0);
+        int numargs = tds.getNumStrings();
+        rtt = numargs > 1 && tds.getString(numargs-1).equalsIgnoreCase("rtt");
+        if (rtt) {
+          numargs--;
+        }
+        String host = tds.getString(0);
+        int port = 0;
+        int timeout = itsTimeout;
+        if (numargs > 1) {
+          port = Integer.parseInt(tds.getString(1));
+        }
+        if (numargs > 2) {
+          timeout = Integer.parseInt(tds.getString(2));
+        }
+        String key = host + ":" + port + ":" + timeout;
+        probe = probes.get(key);
+        if (probe == null) {
+          probe = new Probe(host, port, timeout);
+          probes.put(key, probe);
+        }
+      }
+      catch (Exception e) {
+        System.err.println("PingCheck: Bad arguments for point " + pm.getFullName() + ": " + e);
+        pm.firePointEvent(new PointEvent(this, new PointData(pm.getFullName()), true));
+        continue;
+      }
+      probe.addPoint(pm, rtt);
+      // Point will be rescheduled once the probe completes
+      asynchCollecting(pm);
+    }
+
+    Iterator<Probe> i = probes.values().iterator();
+    while (i.hasNext()) {
+      itsProbers.execute(i.next());
+    }
+  }
+
+
+  /** Check whether a single host is reachable and update the points which monitor it. */
+  private
+  class Probe
+  implements Runnable
+  {
+    /** Host to probe. */
+    private String itsHost;
+
+    /** TCP port to connect to, or 0 for ICMP echo. */
+    private int itsPort;
+
+    /** Timeout in milliseconds. */
+    private int itsProbeTimeout;
+
+    /** The points to update with the result. */
+    private Vector<PointDescription> itsPoints = new Vector<PointDescription>(1, 1);
+
+    /** Whether each point wants the round-trip time rather than the true/false report. */
+    private Vector<Boolean> itsRTT = new Vector<Boolean>(1, 1);
+
+    public Probe(String host, int port, int timeout)
+    {
+      itsHost = host;
+      itsPort = port;
+      itsProbeTimeout = timeout;
+    }
+
+    public void addPoint(PointDescription pm, boolean rtt)
+    {
+      itsPoints.add(pm);
+      itsRTT.add(Boolean.valueOf(rtt));
+    }
+
+    public void run()
+    {
       boolean canping = false;
+      long start = System.nanoTime();
       try {
-        InetAddress address = InetAddress.getByName(host);
-        canping = address.isReachable(10000);
+        InetAddress address = InetAddress.getByName(itsHost);
+        // Don't include the name lookup in the round-trip time
+        start = System.nanoTime();
+        if (itsPort > 0) {
+          Socket sock = new Socket();
+          try {
+            sock.connect(new InetSocketAddress(address, itsPort), itsProbeTimeout);
+            canping = true;
+          }
+          finally {
+            sock.close();
+          }
+        } else {
+          canping = address.isReachable(itsProbeTimeout);
+        }
       }
       catch (UnknownHostException e) {
-        System.err.println("PingCheck: Unknown host \"" + host + "\"");
+        System.err.println("PingCheck: Unknown host \"" + itsHost + "\"");
       }
       catch (IOException e) {
-        System.err.println("PingCheck: Timeout for host \"" + host + "\"");
+        System.err.println("PingCheck: Timeout for host \"" + itsHost + "\"");
+      }
+      catch (Exception e) {
+        // Still need to update and reschedule the points below
+        System.err.println("PingCheck: Error probing host \"" + itsHost + "\": " + e);
+      }
+      Float rtt = null;
+      if (canping) {
+        rtt = new Float((System.nanoTime() - start) / 1000000.0f);
       }
 
       //Increment the transaction counter for this ExternalSystem
-      itsNumTransactions++;
+      synchronized (PingCheck.this.itsPoints) {
+        itsNumTransactions++;
+      }
 
-      //Fire off the updated value for this monitor point
-      pm.firePointEvent(new PointEvent(this, new
-         PointData(pm.getFullName(), new Boolean(canping)), true));
+      //Fire off the updated value for each monitor point
+      for (int i=0; i<itsPoints.size(); i++) {
+        PointDescription pm = itsPoints.get(i);
+        try {
+          Object val;
+          if (itsRTT.get(i).booleanValue()) {
+            val = rtt;
+          } else {
+            val = new Boolean(canping);
+          }
+          pm.firePointEvent(new PointEvent(PingCheck.this, new PointData(pm.getFullName(), val), true));
+        }
+        catch (Exception e) {
+          System.err.println("PingCheck: Error updating point " + pm.getFullName() + ": " + e);
+        }
+        asynchReturn(pm);
+      }
     }
   }
 }
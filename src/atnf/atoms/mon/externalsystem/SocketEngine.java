@@ -0,0 +1,601 @@
+// Copyright (C) CSIRO Australia Telescope National Facility
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Library General Public License
+// as published by the Free Software Foundation; either version 2
+// of the License, or (at your option) any later version.
+
+package atnf.atoms.mon.externalsystem;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.log4j.Logger;
+
+import atnf.atoms.mon.util.MonitorConfig;
+
+/**
+ * Non-blocking transport which multiplexes many TCP connections over a small number of I/O threads, so that devices do not each
+ * need a thread blocked on a socket. The number of threads is set by the <tt>SocketEngineThreads</tt> configuration parameter.
+ *
+ * <P>
+ * Each <tt>Connection</tt> sends queries and uses a <tt>SocketFramer</tt> to find the end of each response, which is passed to a
+ * <tt>ResponseHandler</tt> on the I/O thread. Handlers should not block. If the device supports pipelining then all queries are
+ * sent as soon as they are made and the responses are matched to them in order, otherwise each query is sent once the response to
+ * the previous one has been received. Data which arrives when no response is expected is passed to the connection's handler for
+ * unsolicited data, if it has one, or else discarded.
+ *
+ * <P>
+ * If a connection fails or a response times out then all outstanding queries fail and the connection is re-established in the
+ * background, waiting longer after each consecutive failure. Queries made while disconnected fail immediately.
+ *
+ * @author David Brodrick
+ */
+public class SocketEngine implements Runnable {
+  /** Logger. */
+  private static Logger theirLogger = Logger.getLogger(SocketEngine.class.getName());
+
+  /** Delay before the first attempt to reconnect, in ms. */
+  private static final long theirMinBackoff = 1000;
+
+  /** Longest delay between attempts to reconnect, in ms. */
+  private static final long theirMaxBackoff = 60000;
+
+  /** The I/O threads. */
+  private static SocketEngine[] theirEngines;
+
+  /** Index of the I/O thread to give the next connection to. */
+  private static int theirNextEngine = 0;
+
+  static {
+    int numthreads;
+    try {
+      numthreads = Integer.parseInt(MonitorConfig.getProperty("SocketEngineThreads", "2"));
+    } catch (Exception e) {
+      theirLogger.warn("Error parsing SocketEngineThreads configuration parameter: " + e);
+      numthreads = 2;
+    }
+    theirEngines = new SocketEngine[Math.max(numthreads, 1)];
+    for (int i = 0; i < theirEngines.length; i++) {
+      try {
+        theirEngines[i] = new SocketEngine();
+        Thread t = new Thread(theirEngines[i], "SocketEngine " + i);
+        t.setDaemon(true);
+        t.start();
+      } catch (IOException e) {
+        theirLogger.fatal("Unable to create selector: " + e);
+      }
+    }
+  }
+
+  /** Receives responses to queries. */
+  public static interface ResponseHandler {
+    /** Called with the complete response. */
+    public void response(byte[] data);
+
+    /** Called if no response will be received. */
+    public void failed(String reason);
+  }
+
+  /**
+   * Create a connection to the remote end-point. The connection is established in the background.
+   *
+   * @param host
+   *          Name or IP address of the remote end-point.
+   * @param port
+   *          The TCP port to connect to.
+   * @param timeout
+   *          Time to wait for a connection or response, in ms.
+   * @param pipelined
+   *          Whether queries may be sent before the responses to previous queries have been received.
+   * @param unsolicitedframer
+   *          Framer for data which arrives when no response is expected, or null to discard such data.
+   * @param unsolicited
+   *          Handler for data which arrives when no response is expected, or null to discard such data.
+   * @return The new connection.
+   */
+  public static Connection connect(String host, int port, int timeout, boolean pipelined, SocketFramer unsolicitedframer,
+      ResponseHandler unsolicited) {
+    SocketEngine engine;
+    synchronized (SocketEngine.class) {
+      engine = theirEngines[theirNextEngine];
+      theirNextEngine = (theirNextEngine + 1) % theirEngines.length;
+    }
+    final Connection res = engine.new Connection(host, port, timeout, pipelined, unsolicitedframer, unsolicited);
+    engine.invoke(new Runnable() {
+      public void run() {
+        res.open();
+      }
+    });
+    return res;
+  }
+
+  /** Selector for all connections on this thread. */
+  private Selector itsSelector;
+
+  /** Operations to be performed on the I/O thread. */
+  private ConcurrentLinkedQueue<Runnable> itsTasks = new ConcurrentLinkedQueue<Runnable>();
+
+  /** All connections handled by this thread. */
+  private HashSet<Connection> itsConnections = new HashSet<Connection>();
+
+  private SocketEngine() throws IOException {
+    itsSelector = Selector.open();
+  }
+
+  /** Arrange for the task to be run on the I/O thread. */
+  private void invoke(Runnable task) {
+    itsTasks.add(task);
+    itsSelector.wakeup();
+  }
+
+  /** Main loop for the I/O thread. */
+  public void run() {
+    while (true) {
+      try {
+        // Wait until there is I/O, a task, or something times out
+        long now = System.currentTimeMillis();
+        long next = now + theirMaxBackoff;
+        for (Connection c : itsConnections) {
+          next = Math.min(next, c.getDeadline());
+        }
+        if (next > now) {
+          itsSelector.select(next - now);
+        } else {
+          itsSelector.selectNow();
+        }
+
+        Runnable task;
+        while ((task = itsTasks.poll()) != null) {
+          task.run();
+        }
+
+        Iterator<SelectionKey> i = itsSelector.selectedKeys().iterator();
+        while (i.hasNext()) {
+          SelectionKey key = i.next();
+          i.remove();
+          Connection c = (Connection) key.attachment();
+          if (!key.isValid()) {
+            continue;
+          }
+          if (key.isConnectable()) {
+            c.finishOpen();
+          } else {
+            if (key.isReadable()) {
+              c.read();
+            }
+            if (key.isValid() && key.isWritable()) {
+              c.write();
+            }
+          }
+        }
+
+        now = System.currentTimeMillis();
+        for (Connection c : new Vector<Connection>(itsConnections)) {
+          if (c.getDeadline() <= now) {
+            c.timedOut();
+          }
+        }
+      } catch (Exception e) {
+        theirLogger.error("Unexpected exception: " + e);
+      }
+    }
+  }
+
+  /** A single query and the handler for its response. */
+  private static class Request {
+    /** The bytes to send. */
+    ByteBuffer itsData;
+
+    /** Finds the end of the response, or null if no response is expected. */
+    SocketFramer itsFramer;
+
+    /** The handler for the response. */
+    ResponseHandler itsHandler;
+
+    /** Time by which the response must be received. */
+    long itsDeadline = Long.MAX_VALUE;
+
+    Request(byte[] data, SocketFramer framer, ResponseHandler handler) {
+      itsData = ByteBuffer.wrap(data);
+      itsFramer = framer;
+      itsHandler = handler;
+    }
+  }
+
+  /** A connection to a remote end-point. All of the state is only accessed from the I/O thread. */
+  public class Connection {
+    /** The remote host. */
+    private String itsHost;
+
+    /** The remote port. */
+    private int itsPort;
+
+    /** Time to wait for a connection or response, in ms. */
+    private int itsTimeout;
+
+    /** Whether queries may be sent before previous responses have been received. */
+    private boolean itsPipelined;
+
+    /** Framer for data which arrives when no response is expected. */
+    private SocketFramer itsUnsolicitedFramer;
+
+    /** Handler for data which arrives when no response is expected. */
+    private ResponseHandler itsUnsolicited;
+
+    /** The socket, or null if not connected. */
+    private SocketChannel itsChannel = null;
+
+    /** Key which registers the socket with the selector. */
+    private SelectionKey itsKey = null;
+
+    /** Whether the connection has been established. */
+    private volatile boolean itsConnected = false;
+
+    /** Whether the connection has been closed for good. */
+    private boolean itsClosed = false;
+
+    /** Time by which the connection must be established, or when to try connecting again. */
+    private long itsConnectTime = Long.MAX_VALUE;
+
+    /** Delay before the next attempt to reconnect. */
+    private long itsBackoff = theirMinBackoff;
+
+    /** Queries which have not yet been sent. */
+    private LinkedList<Request> itsQueued = new LinkedList<Request>();
+
+    /** Queries which are being sent or which are awaiting their response, in order. */
+    private LinkedList<Request> itsPending = new LinkedList<Request>();
+
+    /** Data received but not yet consumed. */
+    private byte[] itsInput = new byte[4096];
+
+    /** Number of valid bytes in the input buffer. */
+    private int itsInputLength = 0;
+
+    private Connection(String host, int port, int timeout, boolean pipelined, SocketFramer unsolicitedframer,
+        ResponseHandler unsolicited) {
+      itsHost = host;
+      itsPort = port;
+      itsTimeout = timeout;
+      itsPipelined = pipelined;
+      itsUnsolicitedFramer = unsolicitedframer;
+      itsUnsolicited = unsolicited;
+    }
+
+    /** Check if the connection is currently established. */
+    public boolean isConnected() {
+      return itsConnected;
+    }
+
+    /**
+     * Send a query and wait for the response. If the connection is down then the handler will be told the query failed.
+     *
+     * @param data
+     *          The query to send.
+     * @param framer
+     *          Finds the end of the response.
+     * @param handler
+     *          Receives the response.
+     */
+    public void query(byte[] data, SocketFramer framer, ResponseHandler handler) {
+      final Request req = new Request(data, framer, handler);
+      invoke(new Runnable() {
+        public void run() {
+          if (!itsConnected) {
+            req.itsHandler.failed("Not connected to " + itsHost + ":" + itsPort);
+          } else {
+            itsQueued.add(req);
+            pump();
+          }
+        }
+      });
+    }
+
+    /** Send data for which no response is expected. */
+    public void send(byte[] data) {
+      final Request req = new Request(data, null, null);
+      invoke(new Runnable() {
+        public void run() {
+          if (itsConnected) {
+            itsQueued.add(req);
+            pump();
+          } else {
+            theirLogger.warn("Not connected to " + itsHost + ":" + itsPort + ", discarding data");
+          }
+        }
+      });
+    }
+
+    /** Close the connection for good. */
+    public void close() {
+      invoke(new Runnable() {
+        public void run() {
+          itsClosed = true;
+          disconnect("Connection closed");
+          itsConnections.remove(Connection.this);
+        }
+      });
+    }
+
+    /** Start connecting to the remote end-point. */
+    private void open() {
+      if (itsClosed) {
+        return;
+      }
+      itsConnections.add(this);
+      try {
+        itsChannel = SocketChannel.open();
+        itsChannel.configureBlocking(false);
+        itsChannel.socket().setTcpNoDelay(true);
+        itsConnectTime = System.currentTimeMillis() + itsTimeout;
+        if (itsChannel.connect(new InetSocketAddress(itsHost, itsPort))) {
+          itsKey = itsChannel.register(itsSelector, SelectionKey.OP_READ, this);
+          connected();
+        } else {
+          itsKey = itsChannel.register(itsSelector, SelectionKey.OP_CONNECT, this);
+        }
+      } catch (Exception e) {
+        theirLogger.debug("Connecting to " + itsHost + ":" + itsPort + ": " + e);
+        disconnect(e.toString());
+      }
+    }
+
+    /** Complete a connection which was in progress. */
+    private void finishOpen() {
+      try {
+        if (itsChannel.finishConnect()) {
+          itsKey.interestOps(SelectionKey.OP_READ);
+          connected();
+        }
+      } catch (Exception e) {
+        theirLogger.debug("Connecting to " + itsHost + ":" + itsPort + ": " + e);
+        disconnect(e.toString());
+      }
+    }
+
+    /** The connection has been established. */
+    private void connected() {
+      itsConnected = true;
+      itsConnectTime = Long.MAX_VALUE;
+      itsBackoff = theirMinBackoff;
+      itsInputLength = 0;
+      theirLogger.info("Connected to " + itsHost + ":" + itsPort);
+    }
+
+    /** Close the socket, fail any outstanding queries and schedule a reconnection attempt. */
+    private void disconnect(String reason) {
+      if (itsConnected) {
+        theirLogger.info("Disconnected from " + itsHost + ":" + itsPort + ": " + reason);
+      }
+      itsConnected = false;
+      if (itsKey != null) {
+        itsKey.cancel();
+        itsKey = null;
+      }
+      if (itsChannel != null) {
+        try {
+          itsChannel.close();
+        } catch (Exception e) {
+        }
+        itsChannel = null;
+      }
+      LinkedList<Request> failed = new LinkedList<Request>(itsPending);
+      failed.addAll(itsQueued);
+      itsPending.clear();
+      itsQueued.clear();
+      for (Request r : failed) {
+        if (r.itsHandler != null) {
+          r.itsHandler.failed(reason);
+        }
+      }
+      if (itsClosed) {
+        itsConnectTime = Long.MAX_VALUE;
+      } else {
+        itsConnectTime = System.currentTimeMillis() + itsBackoff;
+        itsBackoff = Math.min(itsBackoff * 2, theirMaxBackoff);
+      }
+    }
+
+    /** Return the time at which the connection needs attention. */
+    private long getDeadline() {
+      if (!itsConnected) {
+        return itsConnectTime;
+      } else if (!itsPending.isEmpty()) {
+        return itsPending.getFirst().itsDeadline;
+      }
+      return Long.MAX_VALUE;
+    }
+
+    /** Called when the deadline has passed. */
+    private void timedOut() {
+      if (itsChannel == null) {
+        // Time to try reconnecting
+        open();
+      } else if (!itsConnected) {
+        disconnect("Timed out connecting");
+      } else {
+        // We no longer know where the responses begin, so start afresh
+        disconnect("Timed out waiting for response");
+      }
+    }
+
+    /** Send the next query or queries, if appropriate. */
+    private void pump() {
+      while (!itsQueued.isEmpty() && (itsPipelined || itsPending.isEmpty())) {
+        Request r = itsQueued.removeFirst();
+        if (itsPending.isEmpty() && r.itsFramer != null) {
+          // Discard any stale data so it isn't taken as the response
+          itsInputLength = 0;
+        }
+        r.itsDeadline = System.currentTimeMillis() + itsTimeout;
+        itsPending.add(r);
+      }
+      write();
+    }
+
+    /** Write as much pending output as the socket will accept. */
+    private void write() {
+      try {
+        boolean blocked = false;
+        Iterator<Request> i = itsPending.iterator();
+        while (i.hasNext()) {
+          Request r = i.next();
+          if (r.itsData.hasRemaining()) {
+            itsChannel.write(r.itsData);
+            if (r.itsData.hasRemaining()) {
+              blocked = true;
+              break;
+            }
+          }
+          if (r.itsFramer == null) {
+            // Nothing to wait for once it has been sent
+            i.remove();
+          }
+        }
+        if (blocked) {
+          itsKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        } else {
+          itsKey.interestOps(SelectionKey.OP_READ);
+          if (itsPending.isEmpty() && !itsQueued.isEmpty()) {
+            pump();
+          }
+        }
+      } catch (Exception e) {
+        disconnect(e.toString());
+      }
+    }
+
+    /** Read any available data and pass on complete responses. */
+    private void read() {
+      try {
+        ByteBuffer buf = ByteBuffer.wrap(itsInput, itsInputLength, itsInput.length - itsInputLength);
+        int n = itsChannel.read(buf);
+        if (n < 0) {
+          disconnect("Connection closed by remote end");
+          return;
+        }
+        itsInputLength += n;
+        if (itsInputLength == itsInput.length) {
+          itsInput = Arrays.copyOf(itsInput, itsInput.length * 2);
+        }
+      } catch (Exception e) {
+        disconnect(e.toString());
+        return;
+      }
+
+      while (itsInputLength > 0) {
+        ResponseHandler handler;
+        SocketFramer framer;
+        Request r = null;
+        if (!itsPending.isEmpty()) {
+          r = itsPending.getFirst();
+          if (r.itsData.hasRemaining()) {
+            // Response to a query we haven't finished sending
+            break;
+          }
+          framer = r.itsFramer;
+          handler = r.itsHandler;
+        } else if (itsUnsolicited != null) {
+          framer = itsUnsolicitedFramer;
+          handler = itsUnsolicited;
+        } else {
+          // Nobody wants this data
+          itsInputLength = 0;
+          break;
+        }
+
+        int len = framer.frame(itsInput, itsInputLength);
+        if (len <= 0) {
+          break;
+        }
+        byte[] msg = Arrays.copyOf(itsInput, len);
+        System.arraycopy(itsInput, len, itsInput, 0, itsInputLength - len);
+        itsInputLength -= len;
+        if (r != null) {
+          itsPending.removeFirst();
+        }
+        try {
+          handler.response(msg);
+        } catch (Exception e) {
+          theirLogger.error("Handling response from " + itsHost + ":" + itsPort + ": " + e);
+        }
+        if (r != null && !itsPipelined) {
+          pump();
+        }
+      }
+    }
+  }
+
+  /**
+   * Simple check that pipelined responses which arrive together are each given to the query they belong to. A local server reads
+   * all of the queries and then sends all of the one-line responses in a single write.
+   */
+  public static final void main(String[] args) throws Exception {
+    final int numqueries = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+    final java.net.ServerSocket server = new java.net.ServerSocket(0);
+    new Thread() {
+      public void run() {
+        try {
+          java.net.Socket s = server.accept();
+          java.io.BufferedReader in = new java.io.BufferedReader(new java.io.InputStreamReader(s.getInputStream(), "ISO-8859-1"));
+          StringBuilder out = new StringBuilder();
+          for (int i = 0; i < numqueries; i++) {
+            out.append("reply ").append(in.readLine()).append('\n');
+          }
+          s.getOutputStream().write(out.toString().getBytes("ISO-8859-1"));
+          s.getOutputStream().flush();
+          Thread.sleep(10000);
+          s.close();
+        } catch (Exception e) {
+          System.err.println("SocketEngine.main: " + e);
+        }
+      }
+    }.start();
+
+    Connection c = connect("localhost", server.getLocalPort(), 5000, true, null, null);
+    for (int i = 0; i < 50 && !c.isConnected(); i++) {
+      Thread.sleep(100);
+    }
+    final String[] responses = new String[numqueries];
+    final int[] numdone = new int[1];
+    for (int i = 0; i < numqueries; i++) {
+      final int n = i;
+      c.query(("query" + i + "\n").getBytes("ISO-8859-1"), new SocketFramer.Line(0), new ResponseHandler() {
+        public void response(byte[] data) {
+          finished(new String(data));
+        }
+
+        public void failed(String reason) {
+          finished("failed: " + reason);
+        }
+
+        private void finished(String res) {
+          synchronized (numdone) {
+            responses[n] = res;
+            numdone[0]++;
+            numdone.notifyAll();
+          }
+        }
+      });
+    }
+    synchronized (numdone) {
+      while (numdone[0] < numqueries) {
+        numdone.wait();
+      }
+    }
+    int bad = 0;
+    for (int i = 0; i < numqueries; i++) {
+      if (!responses[i].equals("reply query" + i + "\n")) {
+        System.out.println("Query " + i + " got \"" + responses[i] + "\"");
+        bad++;
+      }
+    }
+    System.out.println(numqueries + " pipelined queries, " + bad + " framed incorrectly");
+    System.exit(bad == 0 ? 0 : 1);
+  }
+}
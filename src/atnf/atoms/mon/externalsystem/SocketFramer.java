@@ -0,0 +1,108 @@
+// Copyright (C) CSIRO Australia Telescope National Facility
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Library General Public License
+// as published by the Free Software Foundation; either version 2
+// of the License, or (at your option) any later version.
+
+package atnf.atoms.mon.externalsystem;
+
+/**
+ * Determines where a complete message ends in the data received from a <tt>SocketEngine</tt> connection. Implementations for
+ * line-oriented, fixed length and JSON object messages are provided.
+ *
+ * @author David Brodrick
+ */
+public interface SocketFramer {
+  /**
+   * Check if the buffer begins with a complete message.
+   *
+   * @param buf
+   *          The data received so far.
+   * @param len
+   *          The number of valid bytes in the buffer.
+   * @return The length of the complete message at the start of the buffer, or 0 if more data is needed.
+   */
+  public int frame(byte[] buf, int len);
+
+  /**
+   * Messages made up of lines of text terminated by a newline. If the number of lines is not known then the message is the first
+   * line, so that responses which arrive together are still taken one per query when queries are pipelined.
+   */
+  public static class Line implements SocketFramer {
+    /** Number of lines in each message. */
+    private int itsNumLines;
+
+    public Line(int numlines) {
+      // A single line is all we can be sure of if the number isn't known
+      itsNumLines = numlines > 0 ? numlines : 1;
+    }
+
+    public int frame(byte[] buf, int len) {
+      int lines = 0;
+      int end = 0;
+      for (int i = 0; i < len; i++) {
+        if (buf[i] == '\n') {
+          lines++;
+          end = i + 1;
+          if (lines == itsNumLines) {
+            break;
+          }
+        }
+      }
+      if (lines < itsNumLines) {
+        return 0;
+      }
+      return end;
+    }
+  }
+
+  /** Messages of a fixed number of bytes. */
+  public static class Fixed implements SocketFramer {
+    /** Number of bytes in each message. */
+    private int itsLength;
+
+    public Fixed(int length) {
+      itsLength = length;
+    }
+
+    public int frame(byte[] buf, int len) {
+      if (len < itsLength) {
+        return 0;
+      }
+      return itsLength;
+    }
+  }
+
+  /** Messages which are each a single JSON object. Any whitespace before the object is included in the message. */
+  public static class JSON implements SocketFramer {
+    public int frame(byte[] buf, int len) {
+      int depth = 0;
+      boolean instring = false;
+      for (int i = 0; i < len; i++) {
+        byte b = buf[i];
+        if (instring) {
+          if (b == '\\') {
+            // Skip the escaped character
+            i++;
+          } else if (b == '"') {
+            instring = false;
+          }
+        } else if (b == '"') {
+          instring = true;
+        } else if (b == '{') {
+          depth++;
+        } else if (b == '}') {
+          depth--;
+          if (depth == 0) {
+            return i + 1;
+          }
+        } else if (depth == 0 && b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+          // Discard junk between objects by treating it as a message of its own
+          return i + 1;
+        }
+      }
+      return 0;
+    }
+  }
+}
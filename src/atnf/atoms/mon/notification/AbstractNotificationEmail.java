@@ -10,7 +10,7 @@
 package atnf.atoms.mon.notification;
 
 import atnf.atoms.mon.*;
-import atnf.atoms.mon.util.MailSender;
+import atnf.atoms.mon.util.MailOutbox;
 import atnf.atoms.mon.util.MonitorUtils;
 import org.apache.log4j.Logger;
 
@@ -67,10 +67,7 @@ public abstract class AbstractNotificationEmail extends Notification {
   public void sendEmail(PointData data) {
     String subject = MonitorUtils.doSubstitutions(itsSubject, data, itsParent);
     String body = MonitorUtils.doSubstitutions(itsBody, data, itsParent);
-    if (itsSender == "") {
-      MailSender.sendMail(itsRecipient, subject, body);
-    } else {
-      MailSender.sendMail(itsRecipient, itsSender, subject, body);
-    }
+    // Queue the email so we aren't held up waiting for the mail server
+    MailOutbox.queue(itsRecipient, itsSender, subject, body);
   }
 }
@@ -123,7 +123,7 @@ public class TransactionLimitCheck extends Transaction {
      */
     protected Boolean doUpdate() {
       Boolean[] vals = new Boolean[itsPoints.length];
-      long now = (new AbsTime()).getValue();
+      long now = AbsTime.nowValue();
 
       // Check the current values of each monitor point
       for (int i = 0; i < itsPoints.length; i++) {
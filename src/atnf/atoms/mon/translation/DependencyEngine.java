@@ -0,0 +1,381 @@
+//
+// Copyright (C) CSIRO Australia Telescope National Facility
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Library General Public License
+// as published by the Free Software Foundation; either version 2
+// of the License, or (at your option) any later version.
+
+package atnf.atoms.mon.translation;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.log4j.Logger;
+
+import atnf.atoms.mon.*;
+import atnf.atoms.mon.util.MonitorConfig;
+
+/**
+ * Optional engine which delivers the updates of listened-to points to the <tt>TranslationListener</tt>s of derived points. When
+ * enabled with the <tt>DependencyEngine</tt> configuration property, the dependencies between all points are worked out once all
+ * of the points have been created, and from then on derived points are recalculated in dependency order rather than depth-first
+ * on whichever thread produced the update.
+ *
+ * <P>
+ * Each update to a listened-to point from outside the engine starts a wave of recalculation. Waves are processed in the order they
+ * started, and within each wave derived points are recalculated in order of their depth in the dependency graph, so a point which
+ * depends on several others which are all affected by the same update is only recalculated once, after all of its inputs have
+ * been updated, and never sees a mixture of old and new inputs. Points which are not connected
+ * by any dependencies are recalculated on a pool of <tt>DependencyEngineThreads</tt> threads, while the points within each
+ * connected group are recalculated by one thread at a time, in order.
+ *
+ * <P>
+ * Derived points which depend on themselves, directly or indirectly, are reported and left to listen to their inputs directly, as
+ * are points which listen to points that don't exist.
+ *
+ * @author David Brodrick
+ */
+public class DependencyEngine {
+  /** Logger. */
+  private static Logger theirLogger = Logger.getLogger(DependencyEngine.class.getName());
+
+  /** Threads which recalculate the derived points. */
+  private static ThreadPoolExecutor theirPool;
+
+  /** Whether the engine has been started. */
+  private static boolean theirStarted = false;
+
+  /** Number of the most recent wave of recalculation. */
+  private static AtomicLong theirWaveNum = new AtomicLong();
+
+  /** Number of the wave being processed by the current thread, or null if it isn't processing one. */
+  private static ThreadLocal<Long> theirCurrentWave = new ThreadLocal<Long>();
+
+  /** A derived point's listener in the dependency graph. */
+  private static class Node {
+    /** The listener which calculates the derived point. */
+    final TranslationListener itsListener;
+
+    /** Depth in the dependency graph, with nodes which only depend on ordinary points having depth 0. */
+    int itsRank = 0;
+
+    /** Order in which the node was created, to give a consistent order for nodes of the same depth. */
+    final int itsNum;
+
+    /** Group of connected nodes which this belongs to. */
+    Group itsGroup;
+
+    /** The most recently queued recalculation of the node, if it has not been started yet. */
+    Recalc itsQueued = null;
+
+    Node(TranslationListener listener, int num) {
+      itsListener = listener;
+      itsNum = num;
+    }
+  }
+
+  /** A recalculation of a node, with the updates to its inputs from one wave. */
+  private static class Recalc {
+    final Node itsNode;
+
+    final long itsWave;
+
+    final ArrayList<PointData> itsUpdates = new ArrayList<PointData>(2);
+
+    Recalc(Node node, long wave) {
+      itsNode = node;
+      itsWave = wave;
+    }
+  }
+
+  /** Nodes which are connected by dependencies, and so must be recalculated in order by one thread at a time. */
+  private static class Group implements Runnable {
+    /** Maximum number of recalculations before giving the thread to other groups. */
+    static final int MAXBATCH = 64;
+
+    /** Recalculations waiting to be done, in order of wave and then dependency order. */
+    final PriorityQueue<Recalc> itsQueue = new PriorityQueue<Recalc>(16, new Comparator<Recalc>() {
+      public int compare(Recalc a, Recalc b) {
+        if (a.itsWave != b.itsWave) {
+          return a.itsWave < b.itsWave ? -1 : 1;
+        }
+        if (a.itsNode.itsRank != b.itsNode.itsRank) {
+          return a.itsNode.itsRank < b.itsNode.itsRank ? -1 : 1;
+        }
+        return a.itsNode.itsNum < b.itsNode.itsNum ? -1 : (a.itsNode.itsNum == b.itsNode.itsNum ? 0 : 1);
+      }
+    });
+
+    /** Whether the group has been given to the thread pool. */
+    boolean itsScheduled = false;
+
+    /**
+     * Queue an update for each of the nodes as part of the given wave, all at once so that none of them are recalculated before the
+     * others are queued.
+     */
+    synchronized void add(ArrayList<Node> nodes, PointData pd, long wave) {
+      for (int i = 0; i < nodes.size(); i++) {
+        Node node = nodes.get(i);
+        Recalc recalc = node.itsQueued;
+        if (recalc == null || recalc.itsWave != wave) {
+          recalc = new Recalc(node, wave);
+          node.itsQueued = recalc;
+          itsQueue.add(recalc);
+        }
+        recalc.itsUpdates.add(pd);
+      }
+      if (!itsScheduled) {
+        itsScheduled = true;
+        theirPool.execute(this);
+      }
+    }
+
+    public void run() {
+      for (int i = 0; i < MAXBATCH; i++) {
+        Recalc recalc;
+        synchronized (this) {
+          recalc = itsQueue.poll();
+          if (recalc == null) {
+            itsScheduled = false;
+            return;
+          }
+          if (recalc.itsNode.itsQueued == recalc) {
+            recalc.itsNode.itsQueued = null;
+          }
+        }
+        // Any updates this causes to other nodes in the group are queued as part of the same wave
+        theirCurrentWave.set(recalc.itsWave);
+        try {
+          recalc.itsNode.itsListener.processInputs(recalc.itsUpdates);
+        } catch (Throwable e) {
+          theirLogger.error("(" + recalc.itsNode.itsListener.itsParent.getFullName() + ") Error recalculating derived point: " + e);
+          e.printStackTrace();
+        } finally {
+          theirCurrentWave.remove();
+        }
+      }
+      // Let other groups have a turn
+      synchronized (this) {
+        if (itsQueue.isEmpty()) {
+          itsScheduled = false;
+        } else {
+          theirPool.execute(this);
+        }
+      }
+    }
+  }
+
+  /** Passes the updates of a point to the nodes which depend on it, which are all in the same group. */
+  private static class Source implements PointListener {
+    /** The nodes which listen to the point. */
+    final ArrayList<Node> itsDependants = new ArrayList<Node>(2);
+
+    public void onPointEvent(Object source, PointEvent evt) {
+      PointData pd = evt.getPointData();
+      if (pd == null) {
+        return;
+      }
+      // Updates from outside the engine start a new wave
+      Long wave = theirCurrentWave.get();
+      if (wave == null) {
+        wave = theirWaveNum.incrementAndGet();
+      }
+      itsDependants.get(0).itsGroup.add(itsDependants, pd, wave);
+    }
+  }
+
+  /**
+   * Build the dependency graph for all of the points and start delivering updates to the derived points, if enabled by the
+   * <tt>DependencyEngine</tt> configuration property. This should be called once all of the points have been created.
+   */
+  public static synchronized void start() {
+    if (theirStarted || !Boolean.parseBoolean(MonitorConfig.getProperty("DependencyEngine", "false"))) {
+      return;
+    }
+    theirStarted = true;
+
+    int numthreads;
+    try {
+      numthreads = Integer.parseInt(MonitorConfig.getProperty("DependencyEngineThreads", "4"));
+    } catch (Exception e) {
+      theirLogger.warn("Error parsing DependencyEngineThreads configuration parameter: " + e);
+      numthreads = 4;
+    }
+    theirPool = new ThreadPoolExecutor(numthreads, numthreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactory() {
+          public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "DependencyEngine");
+            t.setDaemon(true);
+            return t;
+          }
+        });
+    theirPool.allowCoreThreadTimeOut(true);
+
+    // Find the listeners of all derived points
+    ArrayList<Node> nodes = new ArrayList<Node>();
+    HashMap<PointDescription, ArrayList<Node>> producers = new HashMap<PointDescription, ArrayList<Node>>();
+    PointDescription[] points = PointDescription.getAllUniquePoints();
+    for (PointDescription point : points) {
+      Translation[] translations = point.getTranslations();
+      if (translations == null) {
+        continue;
+      }
+      for (Translation t : translations) {
+        if (!(t instanceof TranslationListener)) {
+          continue;
+        }
+        TranslationListener listener = (TranslationListener) t;
+        boolean found = true;
+        for (int i = 0; i < listener.itsNumPoints; i++) {
+          if (PointDescription.getPoint(listener.itsNames[i]) == null) {
+            found = false;
+          }
+        }
+        if (!found) {
+          // Leave it to report the missing point
+          continue;
+        }
+        Node node = new Node(listener, nodes.size());
+        nodes.add(node);
+        ArrayList<Node> produced = producers.get(point);
+        if (produced == null) {
+          produced = new ArrayList<Node>(1);
+          producers.put(point, produced);
+        }
+        produced.add(node);
+      }
+    }
+
+    // Find the nodes each node depends on
+    HashMap<Node, ArrayList<Node>> upstream = new HashMap<Node, ArrayList<Node>>();
+    HashMap<Node, ArrayList<Node>> downstream = new HashMap<Node, ArrayList<Node>>();
+    for (Node node : nodes) {
+      upstream.put(node, new ArrayList<Node>());
+      downstream.put(node, new ArrayList<Node>());
+    }
+    for (Node node : nodes) {
+      for (int i = 0; i < node.itsListener.itsNumPoints; i++) {
+        ArrayList<Node> produced = producers.get(PointDescription.getPoint(node.itsListener.itsNames[i]));
+        if (produced != null) {
+          for (Node up : produced) {
+            upstream.get(node).add(up);
+            downstream.get(up).add(node);
+          }
+        }
+      }
+    }
+
+    // Sort the nodes into dependency order, finding the depth of each. Any left over are part of a cycle
+    HashMap<Node, Integer> numupstream = new HashMap<Node, Integer>();
+    LinkedList<Node> ready = new LinkedList<Node>();
+    for (Node node : nodes) {
+      numupstream.put(node, upstream.get(node).size());
+      if (upstream.get(node).isEmpty()) {
+        ready.add(node);
+      }
+    }
+    HashSet<Node> sorted = new HashSet<Node>();
+    while (!ready.isEmpty()) {
+      Node node = ready.removeFirst();
+      sorted.add(node);
+      for (Node down : downstream.get(node)) {
+        down.itsRank = Math.max(down.itsRank, node.itsRank + 1);
+        int remaining = numupstream.get(down) - 1;
+        numupstream.put(down, remaining);
+        if (remaining == 0) {
+          ready.add(down);
+        }
+      }
+    }
+    for (Node node : nodes) {
+      if (!sorted.contains(node)) {
+        theirLogger.error("(" + node.itsListener.itsParent.getFullName() + ") Derived point is part of a dependency cycle");
+      }
+    }
+
+    // Join the nodes which depend on each other or share an input point into groups, and pass each input point's updates to its
+    // dependants
+    HashMap<PointDescription, Source> sources = new HashMap<PointDescription, Source>();
+    HashMap<Node, Node> groupof = new HashMap<Node, Node>();
+    for (Node node : nodes) {
+      if (sorted.contains(node)) {
+        groupof.put(node, node);
+      }
+    }
+    for (Node node : groupof.keySet()) {
+      for (Node up : upstream.get(node)) {
+        if (groupof.containsKey(up)) {
+          union(groupof, node, up);
+        }
+      }
+      for (int i = 0; i < node.itsListener.itsNumPoints; i++) {
+        PointDescription input = PointDescription.getPoint(node.itsListener.itsNames[i]);
+        Source source = sources.get(input);
+        if (source == null) {
+          source = new Source();
+          sources.put(input, source);
+        } else {
+          // Join this node's group with that of the points which share the input
+          union(groupof, node, source.itsDependants.get(0));
+        }
+        if (!source.itsDependants.contains(node)) {
+          source.itsDependants.add(node);
+        }
+      }
+    }
+    HashMap<Node, Group> groups = new HashMap<Node, Group>();
+    for (Node node : groupof.keySet()) {
+      Node root = find(groupof, node);
+      Group group = groups.get(root);
+      if (group == null) {
+        group = new Group();
+        groups.put(root, group);
+      }
+      node.itsGroup = group;
+    }
+
+    // Start delivering updates, then stop the listeners from listening to the points themselves
+    for (Map.Entry<PointDescription, Source> entry : sources.entrySet()) {
+      entry.getKey().setDependencyListener(entry.getValue());
+    }
+    for (Node node : groupof.keySet()) {
+      node.itsListener.setManaged();
+    }
+
+    theirLogger.info("Dependency engine started for " + groupof.size() + " derived points in " + groups.size() + " independent groups, with "
+        + numthreads + " threads");
+  }
+
+  /** Return the root of the node's group, from the union-find forest. */
+  private static Node find(HashMap<Node, Node> groupof, Node node) {
+    Node root = node;
+    while (groupof.get(root) != root) {
+      root = groupof.get(root);
+    }
+    // Shorten the path for next time
+    while (node != root) {
+      Node next = groupof.get(node);
+      groupof.put(node, root);
+      node = next;
+    }
+    return root;
+  }
+
+  /** Join the groups of the two nodes. */
+  private static void union(HashMap<Node, Node> groupof, Node a, Node b) {
+    Node roota = find(groupof, a);
+    Node rootb = find(groupof, b);
+    if (roota != rootb) {
+      groupof.put(roota, rootb);
+    }
+  }
+
+  /** Return the number of derived point recalculations waiting for a thread, or 0 if the engine isn't running. */
+  public static int getQueueDepth() {
+    if (theirPool == null) {
+      return 0;
+    }
+    return theirPool.getQueue().size();
+  }
+}
@@ -12,6 +12,7 @@ package atnf.atoms.mon.translation;
 import org.nfunk.jep.JEP;
 
 import atnf.atoms.mon.PointDescription;
+import atnf.atoms.mon.util.CompiledExpression;
 import atnf.atoms.util.Angle;
 
 /**
@@ -28,6 +29,10 @@ import atnf.atoms.util.Angle;
  * This implementation clears all inputs after a value is calculated, so that a subsequent calculation will not happen until all
  * inputs have updated again.
  * 
+ * <P>
+ * Where possible the expression is compiled so that it can be evaluated directly from the numeric input values, with JEP only being
+ * used for expressions or inputs which the compiled form doesn't support.
+ * 
  * @author David Brodrick
  */
 public class TranslationCalculation extends TranslationListener {
@@ -37,6 +42,12 @@ public class TranslationCalculation extends TranslationListener {
   /** Used for parsing and evaluating the expression. */
   JEP itsParser = new JEP();
 
+  /** Compiled form of the expression, or null if it can only be evaluated by JEP. */
+  protected CompiledExpression itsCompiled;
+
+  /** Numeric values of the inputs, for the compiled expression. */
+  protected double[] itsNumericValues;
+
   public TranslationCalculation(PointDescription parent, String[] init) {
     super(parent, init);
 
@@ -50,6 +61,42 @@ public class TranslationCalculation extends TranslationListener {
     itsParser.addStandardFunctions();
     String expr = init[itsNumPoints + 1].replaceAll("'", "\"");
     itsParser.parseExpression(expr);
+
+    // Compile the expression if we can
+    String[] varnames = new String[itsNumPoints];
+    for (int i = 0; i < itsNumPoints; i++) {
+      varnames[i] = "" + ((char) (('a') + i));
+    }
+    itsCompiled = CompiledExpression.compile(itsParser, varnames);
+    itsNumericValues = new double[itsNumPoints];
+  }
+
+  /**
+   * Evaluate the compiled expression using the current input values.
+   * 
+   * @return The result, or null if the expression needs to be evaluated by JEP.
+   */
+  protected Double evaluateCompiled() {
+    if (itsCompiled == null) {
+      return null;
+    }
+    for (int i = 0; i < itsNumPoints; i++) {
+      Object thisval = itsValues[i].getData();
+      if (thisval instanceof Number) {
+        itsNumericValues[i] = ((Number) thisval).doubleValue();
+      } else if (thisval instanceof Boolean) {
+        itsNumericValues[i] = ((Boolean) thisval).booleanValue() ? 1.0 : 0.0;
+      } else if (thisval instanceof Angle) {
+        itsNumericValues[i] = ((Angle) thisval).getValue();
+      } else {
+        return null;
+      }
+    }
+    double res = itsCompiled.evaluate(itsNumericValues);
+    if (Double.isNaN(res)) {
+      return null;
+    }
+    return new Double(res);
   }
 
   /**
@@ -57,6 +104,14 @@ public class TranslationCalculation extends TranslationListener {
    * will be used next time.
    */
   protected Object doCalculations() {
+    Object res = evaluateCompiled();
+    if (res != null) {
+      for (int i = 0; i < itsNumPoints; i++) {
+        itsValues[i] = null;
+      }
+      return res;
+    }
+
     for (int i = 0; i < itsNumPoints; i++) {
       // Update the value for this variable
       String thisvar = "" + ((char) (('a') + i));
@@ -77,7 +132,7 @@ public class TranslationCalculation extends TranslationListener {
     }
 
     // Parse the expression using new values
-    Object res = itsParser.getValueAsObject();
+    res = itsParser.getValueAsObject();
 
     // Check for parse error
     if (itsParser.hasError()) {
@@ -80,6 +80,19 @@ public class TranslationCalculationTimed extends TranslationCalculation {
         missingdata = true;
         break;
       }
+    }
+    if (missingdata) {
+      // Some of the data is unavailable, so use the default value
+      return itsDefaultValue;
+    }
+
+    // Use the compiled expression if possible
+    res = evaluateCompiled();
+    if (res != null) {
+      return res;
+    }
+
+    for (int i = 0; i < itsNumPoints; i++) {
       // Update the value for this variable
       String thisvar = "" + ((char) (('a') + i));
       Object thisval = itsValues[i].getData();
@@ -96,18 +109,13 @@ public class TranslationCalculationTimed extends TranslationCalculation {
       }
     }
 
-    if (!missingdata) {
-      // Parse the expression using new values
-      res = itsParser.getValueAsObject();
+    // Parse the expression using new values
+    res = itsParser.getValueAsObject();
 
-      // Check for parse error
-      if (itsParser.hasError()) {
-        Logger logger = Logger.getLogger(this.getClass().getName());
-        logger.debug("TranslationCalculationTimed (" + itsParent.getFullName() + ") " + itsParser.getErrorInfo());
-      }
-    } else {
-      // Some of the data is unavailable, so use the default value
-      res = itsDefaultValue;
+    // Check for parse error
+    if (itsParser.hasError()) {
+      Logger logger = Logger.getLogger(this.getClass().getName());
+      logger.debug("TranslationCalculationTimed (" + itsParent.getFullName() + ") " + itsParser.getErrorInfo());
     }
     return res;
   }
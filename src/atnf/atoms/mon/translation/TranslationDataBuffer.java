@@ -3,14 +3,18 @@ package atnf.atoms.mon.translation;
 import java.util.Vector;
 
 import atnf.atoms.mon.*;
+import atnf.atoms.mon.util.SlidingWindow;
 import atnf.atoms.time.*;
+import atnf.atoms.util.Angle;
 
 /**
  * Abstract base class for points which retain a buffer of historical data. This requires that the first argument is the length of
  * the buffer in seconds.
  * 
  * <P>
- * Subclasses should call <tt>updateBuffer(newpointdata)</tt> in their translate method.
+ * Subclasses should call <tt>updateBuffer(newpointdata)</tt> in their translate method. The buffer holds the timestamps and values
+ * of numeric (or <tt>Angle</tt>) data as primitives, and keeps running statistics so that the mean, variance, minimum and maximum
+ * can be read without iterating over the buffer.
  * 
  * <P>
  * There is a utility method <tt>seedBufferFromArchive()</tt> which sub-classes may choose to call on construction, where
@@ -21,7 +25,7 @@ import atnf.atoms.time.*;
 public abstract class TranslationDataBuffer extends Translation {
 
   /** Buffer containing data. */
-  protected Vector<PointData> itsBuffer = new Vector<PointData>();
+  protected SlidingWindow itsBuffer = new SlidingWindow();
 
   /** Period to measure the peak over. */
   protected RelTime itsPeriod = RelTime.factory(-60000000l);
@@ -44,15 +48,17 @@ public abstract class TranslationDataBuffer extends Translation {
   /** Add new data to buffer and purge old data. */
   protected void updateBuffer(PointData newdata) {
     // Add the new data
-    if (newdata != null && newdata.getData() != null) {
-      itsBuffer.add(newdata);
+    if (newdata != null) {
+      Object thisdata = newdata.getData();
+      if (thisdata instanceof Number) {
+        itsBuffer.add(newdata.getTimestamp().getValue(), ((Number) thisdata).doubleValue());
+      } else if (thisdata instanceof Angle) {
+        itsBuffer.add(newdata.getTimestamp().getValue(), ((Angle) thisdata).getValue());
+      }
     }
 
     // Purge any old data which has now expired
-    AbsTime expiry = (new AbsTime()).add(itsPeriod);
-    while (itsBuffer.size() > 0 && ((PointData) itsBuffer.get(0)).getTimestamp().isBefore(expiry)) {
-      itsBuffer.remove(0);
-    }
+    itsBuffer.expire((new AbsTime()).add(itsPeriod).getValue());
   }
 
   /** Fetch data from the archive and use it to seed the buffer. */
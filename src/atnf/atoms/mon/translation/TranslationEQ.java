@@ -6,6 +6,7 @@ import org.apache.log4j.Logger;
 
 import atnf.atoms.mon.PointData;
 import atnf.atoms.mon.PointDescription;
+import atnf.atoms.mon.util.CompiledExpression;
 import atnf.atoms.util.Angle;
 
 /**
@@ -35,6 +36,12 @@ public class TranslationEQ extends Translation {
   /** The expression in String form. */
   protected String itsExpression;
 
+  /** Compiled form of the expression, or null if it can only be evaluated by JEP. */
+  protected CompiledExpression itsCompiled;
+
+  /** Numeric value of the input, for the compiled expression. */
+  protected double[] itsNumericValue = new double[1];
+
   /** Default value, if specified. */
   protected Double itsDefaultValue;
 
@@ -56,6 +63,7 @@ public class TranslationEQ extends Translation {
     itsParser.addStandardFunctions();
     itsExpression = init[0].replaceAll("'", "\"");
     itsParser.parseExpression(itsExpression);
+    itsCompiled = CompiledExpression.compile(itsParser, new String[] { "x" });
     if (init.length>1) {
       itsDefaultValue = new Double(init[1]);
     }
@@ -78,6 +86,22 @@ public class TranslationEQ extends Translation {
       return pdres;
     }
 
+    // Use the compiled expression if possible
+    if (itsCompiled != null && (val instanceof Number || val instanceof Boolean || val instanceof Angle)) {
+      if (val instanceof Number) {
+        itsNumericValue[0] = ((Number) val).doubleValue();
+      } else if (val instanceof Boolean) {
+        itsNumericValue[0] = ((Boolean) val).booleanValue() ? 1.0 : 0.0;
+      } else {
+        itsNumericValue[0] = ((Angle) val).getValue();
+      }
+      double res = itsCompiled.evaluate(itsNumericValue);
+      if (!Double.isNaN(res)) {
+        pdres.setData(new Double(res));
+        return pdres;
+      }
+    }
+
     if (val instanceof Boolean) {
       if (((Boolean) val).booleanValue()) {
         itsParser.addVariable("x", 1.0);
@@ -9,7 +9,7 @@
 
 package atnf.atoms.mon.translation;
 
-import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import org.apache.commons.math3.stat.descriptive.rank.Percentile;
 
 import atnf.atoms.mon.PointData;
 import atnf.atoms.mon.PointDescription;
@@ -65,16 +65,11 @@ public class TranslationFilteredMean extends TranslationDataBuffer {
 
   /** Do the processing and return the mean. */
   protected Double doFiltering() {
-    DescriptiveStatistics stats = new DescriptiveStatistics();
-
-    int size = itsBuffer.size();
-    for (int i = 0; i < size; i++) {
-      stats.addValue(((Number) itsBuffer.get(i).getData()).doubleValue());
-    }
-
-    // Compute the statistics
-    double median = stats.getPercentile(50);
-    double stddev = stats.getStandardDeviation();
+    // The median needs all of the values, but the standard deviation is maintained by the buffer
+    double[] values = itsBuffer.getValues();
+    int size = values.length;
+    double median = new Percentile().evaluate(values, 50);
+    double stddev = size > 1 ? Math.sqrt(itsBuffer.getSampleVariance()) : 0.0;
 
     // theirLogger.debug("median=" + median + ", stddev=" + stddev);
 
@@ -82,7 +77,7 @@ public class TranslationFilteredMean extends TranslationDataBuffer {
     double sum = 0.0;
     int counter = 0;
     for (int i = 0; i < size; i++) {
-      double thisval = ((Number) itsBuffer.get(i).getData()).doubleValue();
+      double thisval = values[i];
       if (thisval <= median + itsThreshold * stddev && thisval >= median - itsThreshold * stddev) {
         sum += thisval;
         counter++;
@@ -38,14 +38,14 @@ public class TranslationHermiteInterpolator extends TranslationInterpolator {
     HermiteInterpolator interpolator = new HermiteInterpolator();
 
     // Get the timestamp of the first point
-    AbsTime first = itsBuffer.firstElement().getTimestamp();
+    AbsTime first = AbsTime.factory(itsBuffer.getTime(0));
 
     int size = itsBuffer.size();
     for (int i = 0; i < size; i++) {
       // Get the time offset from the first point
-      double timeoffset = Time.diff(itsBuffer.get(i).getTimestamp(), first).getAsSeconds();
+      double timeoffset = Time.diff(AbsTime.factory(itsBuffer.getTime(i)), first).getAsSeconds();
       // Get the value for this point
-      double thisval = ((Number) ((PointData) itsBuffer.get(i)).getData()).doubleValue();
+      double thisval = itsBuffer.getValue(i);
       // Add it to the interpolator
       interpolator.addSamplePoint(timeoffset, new double[] { thisval });
     }
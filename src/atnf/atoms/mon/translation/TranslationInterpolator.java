@@ -54,7 +54,7 @@ public abstract class TranslationInterpolator extends TranslationDataBuffer {
     }
 
     // Get the value for the requested time offset
-    double reqtime = Time.diff(data.getTimestamp().add(itsPredictionTime), itsBuffer.firstElement().getTimestamp()).getAsSeconds();
+    double reqtime = Time.diff(data.getTimestamp().add(itsPredictionTime), AbsTime.factory(itsBuffer.getTime(0))).getAsSeconds();
     double fitval = interpolate(reqtime);
 
     // Return the interpolated value
@@ -11,6 +11,7 @@ package atnf.atoms.mon.translation;
 
 import org.apache.log4j.Logger;
 
+import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
 
@@ -45,6 +46,9 @@ import atnf.atoms.time.AbsTime;
  * last calculation was performed. Sub-classes can implement a <i>matchData</i>
  * method with more specialised behavior, such as checking that both data have
  * identical timestamps before allowing an output value to be calculated.
+ * <P>
+ * If the <tt>DependencyEngine</tt> is enabled it takes over delivering the updates of the listened-to points, so that derived
+ * points are recalculated in dependency order and simultaneous input updates are combined.
  * 
  * @author David Brodrick
  */
@@ -64,6 +68,12 @@ public abstract class TranslationListener extends Translation implements PointLi
   /** Timer used to subscribe to listened-to points. */
   protected static Timer theirTimer = new Timer();
 
+  /** Task which subscribes us to the listened-to points. */
+  private SubscriptionTask itsSubscriptionTask;
+
+  /** Whether updates are delivered by the DependencyEngine rather than by subscription. */
+  private boolean itsManaged = false;
+
   /** Base-class constructor. */
   public TranslationListener(PointDescription parent, String[] init) {
     super(parent, init);
@@ -93,7 +103,8 @@ public abstract class TranslationListener extends Translation implements PointLi
     }
 
     // Start the timer which subscribes us to updates from the points
-    theirTimer.schedule(new SubscriptionTask(), 500, 500);
+    itsSubscriptionTask = new SubscriptionTask();
+    theirTimer.schedule(itsSubscriptionTask, 500, 500);
   }
 
   /** Just returns the input (which is created by us) */
@@ -143,22 +154,58 @@ public abstract class TranslationListener extends Translation implements PointLi
     }
 
     // Find the index of the point
-    String fullname = pd.getName();
-    int i = 0;
-    for (; i < itsNumPoints; i++) {
-      if (itsNames[i].equals(fullname)) {
-        break;
-      }
-    }
-    if (i == itsNumPoints) {
-      Logger logger = Logger.getLogger(this.getClass().getName());
-      logger.warn("(" + itsParent.getFullName() + ") received unsolicited data from " + fullname);
+    int i = getInputIndex(pd);
+    if (i == -1) {
       return;
     }
 
     // Everything looks good
     itsValues[i] = pd;
+    recalculate(pd);
+  }
+
+  /**
+   * Called by the DependencyEngine with the updates received for the listened-to points since we were last called. Updates for
+   * different points are combined so that the output is only recalculated once, but if there is more than one update for the same
+   * point then the output is recalculated for each of them in turn.
+   */
+  synchronized void processInputs(List<PointData> updates) {
+    boolean[] updated = new boolean[itsNumPoints];
+    PointData last = null;
+    for (PointData pd : updates) {
+      int i = getInputIndex(pd);
+      if (i == -1) {
+        continue;
+      }
+      if (updated[i]) {
+        // Use the previous update before it is replaced
+        recalculate(last);
+        updated = new boolean[itsNumPoints];
+      }
+      itsValues[i] = pd;
+      updated[i] = true;
+      last = pd;
+    }
+    if (last != null) {
+      recalculate(last);
+    }
+  }
+
+  /** Return the index of the listened-to point which the update is for, or -1 if it is not for one of them. */
+  private int getInputIndex(PointData pd) {
+    String fullname = pd.getName();
+    for (int i = 0; i < itsNumPoints; i++) {
+      if (itsNames[i].equals(fullname)) {
+        return i;
+      }
+    }
+    Logger logger = Logger.getLogger(this.getClass().getName());
+    logger.warn("(" + itsParent.getFullName() + ") received unsolicited data from " + fullname);
+    return -1;
+  }
 
+  /** Recalculate the output if appropriate, following an update to the input data. */
+  private void recalculate(PointData pd) {
     // Check whether now is an appropriate time to recalculate output
     if (matchData()) {
       // Recalculate output and fire update event
@@ -176,9 +223,32 @@ public abstract class TranslationListener extends Translation implements PointLi
     }
   }
 
+  /**
+   * Stop listening to the points directly because the DependencyEngine will deliver their updates to us from now on.
+   */
+  synchronized void setManaged() {
+    itsManaged = true;
+    itsSubscriptionTask.cancel();
+    for (int i = 0; i < itsNumPoints; i++) {
+      if (itsPoints[i] != null) {
+        itsPoints[i].removePointListener(this);
+      }
+    }
+  }
+
   /** TimerTask used to subscribe to monitor point updates via timer. */
   private class SubscriptionTask extends TimerTask {
     public void run() {
+      synchronized (TranslationListener.this) {
+        if (itsManaged) {
+          cancel();
+        } else {
+          subscribe();
+        }
+      }
+    }
+
+    private void subscribe() {
       boolean stillmissing = false;
 
       // Try to find any points that are still missing
@@ -9,13 +9,9 @@
 
 package atnf.atoms.mon.translation;
 
-import java.util.Vector;
-
 import atnf.atoms.mon.PointData;
 import atnf.atoms.mon.PointDescription;
 import atnf.atoms.time.AbsTime;
-import atnf.atoms.time.RelTime;
-import atnf.atoms.util.Angle;
 
 /**
  * Calculate the mean value of a monitor point over time.
@@ -79,24 +75,6 @@ public class TranslationMean extends TranslationDataBuffer {
 
   /** Return the mean of the data in the buffer. */
   protected double getMean() {
-    int size = itsBuffer.size();
-    double[] data = new double[size];
-
-    // Translate the data to an array of doubles
-    for (int i = 0; i < size; i++) {
-      Object thisdata = ((PointData) itsBuffer.get(i)).getData();
-      if (thisdata instanceof Number) {
-        data[i] = ((Number) thisdata).doubleValue();
-      } else if (thisdata instanceof Angle) {
-        data[i] = ((Angle) thisdata).getValue();
-      }
-    }
-
-    // Calculate the mean of the data
-    double sum = 0.0;
-    for (int i = 0; i < size; i++) {
-      sum += data[i];
-    }
-    return sum / size;
+    return itsBuffer.getMean();
   }
 }
@@ -9,12 +9,8 @@
 
 package atnf.atoms.mon.translation;
 
-import java.util.Vector;
-
 import atnf.atoms.mon.PointData;
 import atnf.atoms.mon.PointDescription;
-import atnf.atoms.time.AbsTime;
-import atnf.atoms.time.RelTime;
 
 /**
  * Find the minimum of a numeric input over a specified period of time.
@@ -51,24 +47,12 @@ public class TranslationMinimum extends TranslationDataBuffer {
     return new PointData(itsParent.getFullName(), data.getTimestamp(), min);
   }
 
-  /** Return the mean of the peak in the buffer. */
+  /** Return the minimum value in the buffer. */
   protected Double getMin() {
-    double min = 0.0;
-    boolean first = true;
-
-    int size = itsBuffer.size();
-    for (int i = 0; i < size; i++) {
-      double thisval = ((Number) ((PointData) itsBuffer.get(i)).getData()).doubleValue();
-      if (first || thisval < min) {
-        min = thisval;
-        first = false;
-      }
-    }
-
-    if (first) {
+    if (itsBuffer.isEmpty()) {
       return null;
     } else {
-      return new Double(min);
+      return new Double(itsBuffer.getMin());
     }
   }
 }
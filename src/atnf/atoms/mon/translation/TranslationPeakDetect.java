@@ -9,12 +9,8 @@
 
 package atnf.atoms.mon.translation;
 
-import java.util.Vector;
-
 import atnf.atoms.mon.PointData;
 import atnf.atoms.mon.PointDescription;
-import atnf.atoms.time.AbsTime;
-import atnf.atoms.time.RelTime;
 
 /**
  * Find the peak of a numeric input over a specified period of time.
@@ -51,24 +47,12 @@ public class TranslationPeakDetect extends TranslationDataBuffer {
     return new PointData(itsParent.getFullName(), data.getTimestamp(), peak);
   }
 
-  /** Return the mean of the peak in the buffer. */
+  /** Return the peak value in the buffer. */
   protected Double getPeak() {
-    double peak = 0.0;
-    boolean first = true;
-
-    int size = itsBuffer.size();
-    for (int i = 0; i < size; i++) {
-      double thisval = ((Number) ((PointData) itsBuffer.get(i)).getData()).doubleValue();
-      if (first || thisval > peak) {
-        peak = thisval;
-        first = false;
-      }
-    }
-
-    if (first) {
+    if (itsBuffer.isEmpty()) {
       return null;
     } else {
-      return new Double(peak);
+      return new Double(itsBuffer.getMax());
     }
   }
 }
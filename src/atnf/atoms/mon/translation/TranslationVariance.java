@@ -9,10 +9,9 @@
 
 package atnf.atoms.mon.translation;
 
-import java.util.Vector;
-
 import atnf.atoms.mon.PointData;
 import atnf.atoms.mon.PointDescription;
+import atnf.atoms.mon.util.SlidingWindow;
 import atnf.atoms.time.AbsTime;
 import atnf.atoms.time.RelTime;
 import atnf.atoms.util.Angle;
@@ -30,7 +29,10 @@ import atnf.atoms.util.Angle;
 public class TranslationVariance extends Translation
 {
   /** Buffer containing data. */
-  protected Vector<PointData> itsBuffer = new Vector<PointData>();
+  protected SlidingWindow itsBuffer = new SlidingWindow();
+
+  /** Whether the data is an Angle rather than a Number. */
+  protected boolean itsIsAngle = false;
 
   /** Period to measure the variance over. */
   protected RelTime itsPeriod = null;
@@ -74,7 +76,7 @@ public class TranslationVariance extends Translation
     // Get the variance
     double v = getVariance();
     // Create result - set "raw" data field to null
-    if (((PointData) itsBuffer.get(0)).getData() instanceof Angle) {
+    if (itsIsAngle) {
       return new PointData(itsParent.getFullName(), data.getTimestamp(), Angle.factory(v, Angle.Format.RADIANS));
     } else {
       return new PointData(itsParent.getFullName(), data.getTimestamp(), new Double(v));
@@ -88,49 +90,23 @@ public class TranslationVariance extends Translation
     if (newdata != null && newdata.getData() != null) {
       if (!(newdata.getData() instanceof Number) && !(newdata.getData() instanceof Angle)) {
         System.err.println("TranslationVariance: " + itsParent.getLongName() + " Can't Use Non-Numeric Data!");
+      } else if (newdata.getData() instanceof Angle) {
+        itsBuffer.add(newdata.getTimestamp().getValue(), ((Angle) newdata.getData()).getValue());
+        itsIsAngle = true;
       } else {
-        itsBuffer.add(newdata);
+        itsBuffer.add(newdata.getTimestamp().getValue(), ((Number) newdata.getData()).doubleValue());
+        itsIsAngle = false;
       }
     }
 
     // Purge any old data which has now expired
-    AbsTime expiry = (new AbsTime()).add(itsPeriod);
-    while (itsBuffer.size() > 0 && ((PointData) itsBuffer.get(0)).getTimestamp().isBefore(expiry)) {
-      itsBuffer.remove(0);
-    }
+    itsBuffer.expire((new AbsTime()).add(itsPeriod).getValue());
   }
 
   /** Return the variance of the data in the buffer. */
   protected double getVariance()
   {
-    int size = itsBuffer.size();
-    double[] data = new double[size];
-
-    // Translate the data to an array of doubles
-    for (int i = 0; i < size; i++) {
-      Object thisdata = ((PointData) itsBuffer.get(i)).getData();
-      if (thisdata instanceof Number) {
-        data[i] = ((Number) thisdata).doubleValue();
-      } else if (thisdata instanceof Angle) {
-        data[i] = ((Angle) thisdata).getValue();
-      }
-    }
-
-    // Calculate the mean of the data
-    double sum = 0.0;
-    for (int i = 0; i < size; i++) {
-      sum += data[i];
-    }
-    double mean = sum / size;
-
-    // Get the variance
-    double var = 0.0;
-    for (int i = 0; i < size; i++) {
-      double diff = data[i] - mean;
-      var += diff * diff;
-    }
-    var = var / size;
-    return Math.sqrt(var);
+    return Math.sqrt(itsBuffer.getVariance());
   }
 
   public static String[] getArgs()
@@ -0,0 +1,94 @@
+//
+// Copyright (C) CSIRO Australia Telescope National Facility
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Library General Public License
+// as published by the Free Software Foundation; either version 2
+// of the License, or (at your option) any later version.
+
+package atnf.atoms.mon.util;
+
+import java.util.*;
+import java.util.concurrent.*;
+import org.apache.log4j.Logger;
+
+/**
+ * Shared pool of threads for reading history from the archive. Requests for several points can have their points read
+ * concurrently, so the response time is governed by the slowest point rather than the sum over all points, while the size of the
+ * pool bounds the number of archive reads in progress across all clients. The size is set by the <tt>ArchiveQueryThreads</tt>
+ * configuration property.
+ *
+ * @author David Brodrick
+ */
+public class ArchiveQueryPool {
+  /** Logger. */
+  private static Logger theirLogger = Logger.getLogger(ArchiveQueryPool.class.getName());
+
+  /** Threads which perform the archive reads. */
+  private static ThreadPoolExecutor theirPool;
+
+  static {
+    int numthreads;
+    try {
+      numthreads = Integer.parseInt(MonitorConfig.getProperty("ArchiveQueryThreads", "8"));
+    } catch (Exception e) {
+      theirLogger.warn("Error parsing ArchiveQueryThreads configuration parameter: " + e);
+      numthreads = 8;
+    }
+    theirPool = new ThreadPoolExecutor(numthreads, numthreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactory() {
+          public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "ArchiveQueryPool");
+            t.setDaemon(true);
+            return t;
+          }
+        });
+    theirPool.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Run the tasks on the pool and wait for them all to complete. Even a single task is run on the pool, so that the size of the
+   * pool always bounds the number of reads in progress.
+   *
+   * @param tasks
+   *          The tasks to run.
+   * @return The result of each task, in the same order as the tasks. The result is null for any task which threw an exception.
+   */
+  public static <T> Vector<T> invokeAll(List<Callable<T>> tasks) {
+    Vector<T> res = new Vector<T>(tasks.size());
+    Vector<Future<T>> futures = new Vector<Future<T>>(tasks.size());
+    for (Callable<T> t : tasks) {
+      futures.add(theirPool.submit(t));
+    }
+    for (int i = 0; i < futures.size(); i++) {
+      T result = null;
+      try {
+        result = futures.get(i).get();
+      } catch (InterruptedException e) {
+        // Give up on the remaining tasks
+        for (int j = i; j < futures.size(); j++) {
+          futures.get(j).cancel(true);
+        }
+        Thread.currentThread().interrupt();
+        while (res.size() < tasks.size()) {
+          res.add(null);
+        }
+        return res;
+      } catch (ExecutionException e) {
+        theirLogger.warn("Error in archive query: " + e.getCause());
+      }
+      res.add(result);
+    }
+    return res;
+  }
+
+  /** Return the number of archive reads in progress. */
+  public static int getActiveCount() {
+    return theirPool.getActiveCount();
+  }
+
+  /** Return the number of archive reads waiting for a thread. */
+  public static int getQueueDepth() {
+    return theirPool.getQueue().size();
+  }
+}
@@ -0,0 +1,231 @@
+//
+// Copyright (C) CSIRO Australia Telescope National Facility
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Library General Public License
+// as published by the Free Software Foundation; either version 2
+// of the License, or (at your option) any later version.
+
+package atnf.atoms.mon.util;
+
+import java.util.*;
+import atnf.atoms.mon.PointDescription;
+
+/**
+ * Schedule of points awaiting collection, ordered by the time of their next collection. This replaces the use of a
+ * <tt>SortedLinkedList</tt> for scheduling, with insertion and removal of due points being O(log n) through a binary heap.
+ *
+ * <P>
+ * Each point is scheduled at the value of <tt>getNextEpoch()</tt> when it was added, and a point can only be scheduled once.
+ * Adding a point which is already scheduled reschedules it. Points with equal epochs are returned in the order they were added.
+ *
+ * <P>
+ * The scheduler also keeps statistics on how late points are when they are taken for collection. The lateness is a moving average
+ * of the difference between the time a point was due and the time it was taken from the schedule, and the jitter is a moving
+ * average of the deviation of each lateness from that mean, in the manner of RFC 3550.
+ *
+ * <P>
+ * The scheduler's monitor is notified whenever a point is added, so a thread waiting in <tt>awaitNext</tt> will wake to
+ * reconsider the schedule.
+ *
+ * @author David Brodrick
+ */
+public class CollectionScheduler {
+  /** Weight given to each new lateness measurement in the moving averages. */
+  private static final double theirGain = 1.0 / 16;
+
+  /** A point which is scheduled for collection. */
+  private static class Entry implements Comparable<Entry> {
+    final PointDescription itsPoint;
+    final long itsEpoch;
+    final long itsSequence;
+    boolean itsCancelled = false;
+
+    Entry(PointDescription point, long epoch, long sequence) {
+      itsPoint = point;
+      itsEpoch = epoch;
+      itsSequence = sequence;
+    }
+
+    public int compareTo(Entry o) {
+      if (itsEpoch != o.itsEpoch) {
+        return itsEpoch < o.itsEpoch ? -1 : 1;
+      }
+      return itsSequence < o.itsSequence ? -1 : (itsSequence == o.itsSequence ? 0 : 1);
+    }
+  }
+
+  /** Heap of scheduled entries. May contain cancelled entries, which are discarded when they reach the head. */
+  private PriorityQueue<Entry> itsQueue = new PriorityQueue<Entry>();
+
+  /** The live entry for each scheduled point. */
+  private HashMap<PointDescription, Entry> itsEntries = new HashMap<PointDescription, Entry>();
+
+  /** Counter used to order entries with equal epochs. */
+  private long itsSequence = 0;
+
+  /** Moving average of the lateness, in microseconds. */
+  private double itsLateness = 0;
+
+  /** Moving average of the deviation of the lateness, in microseconds. */
+  private double itsJitter = 0;
+
+  /** Largest lateness observed, in microseconds. */
+  private long itsMaxLateness = 0;
+
+  /** Number of points which have been taken from the schedule. */
+  private long itsNumCollected = 0;
+
+  /** Schedule the point for collection at its next epoch, rescheduling it if already present. */
+  public synchronized void add(PointDescription point) {
+    if (point == null) {
+      return;
+    }
+    Entry old = itsEntries.get(point);
+    if (old != null) {
+      old.itsCancelled = true;
+    }
+    Entry e = new Entry(point, point.getNextEpoch(), itsSequence++);
+    itsEntries.put(point, e);
+    itsQueue.add(e);
+    if (itsQueue.size() > 2 * itsEntries.size() + 16) {
+      // Too many cancelled entries, rebuild the heap from the live ones
+      itsQueue = new PriorityQueue<Entry>(itsEntries.values());
+    }
+    notifyAll();
+  }
+
+  /** Remove the point from the schedule. */
+  public synchronized void remove(PointDescription point) {
+    Entry e = itsEntries.remove(point);
+    if (e != null) {
+      e.itsCancelled = true;
+      notifyAll();
+    }
+  }
+
+  /** Check if the point is currently scheduled. */
+  public synchronized boolean contains(PointDescription point) {
+    return itsEntries.containsKey(point);
+  }
+
+  /** Return the number of scheduled points. */
+  public synchronized int size() {
+    return itsEntries.size();
+  }
+
+  /** Check if no points are scheduled. */
+  public synchronized boolean isEmpty() {
+    return itsEntries.isEmpty();
+  }
+
+  /** Return the entry at the head of the schedule, discarding any cancelled entries. */
+  private Entry head() {
+    Entry e = itsQueue.peek();
+    while (e != null && e.itsCancelled) {
+      itsQueue.poll();
+      e = itsQueue.peek();
+    }
+    return e;
+  }
+
+  /** Return the next point due for collection, or null if none are scheduled. */
+  public synchronized PointDescription first() {
+    Entry e = head();
+    return e == null ? null : e.itsPoint;
+  }
+
+  /** Return the epoch at which the next point is due, or -1 if none are scheduled. */
+  public synchronized long getNextEpoch() {
+    Entry e = head();
+    return e == null ? -1 : e.itsEpoch;
+  }
+
+  /**
+   * Remove and return all points which are due before the cutoff time.
+   *
+   * @param cutoff
+   *          BAT of the latest epoch to be collected, exclusive.
+   * @param now
+   *          The current BAT, used to measure how late the points are.
+   * @return The due points, in order of their scheduled epoch.
+   */
+  public synchronized Vector<PointDescription> headSet(long cutoff, long now) {
+    Vector<PointDescription> res = new Vector<PointDescription>();
+    Entry e = head();
+    while (e != null && e.itsEpoch < cutoff) {
+      itsQueue.poll();
+      itsEntries.remove(e.itsPoint);
+      res.add(e.itsPoint);
+      if (e.itsEpoch > 0) {
+        // Don't count points which have never been collected
+        updateStatistics(now - e.itsEpoch);
+      }
+      e = head();
+    }
+    return res;
+  }
+
+  /** Fold a new lateness measurement into the statistics. */
+  private void updateStatistics(long lateness) {
+    if (lateness < 0) {
+      lateness = 0;
+    }
+    if (itsNumCollected == 0) {
+      itsLateness = lateness;
+    } else {
+      itsJitter += (Math.abs(lateness - itsLateness) - itsJitter) * theirGain;
+      itsLateness += (lateness - itsLateness) * theirGain;
+    }
+    if (lateness > itsMaxLateness) {
+      itsMaxLateness = lateness;
+    }
+    itsNumCollected++;
+  }
+
+  /**
+   * Wait until the next point is due for collection, a point is added or removed, or the maximum wait time elapses.
+   *
+   * @param now
+   *          The current BAT, on the same clock as the scheduled epochs.
+   * @param maxwait
+   *          The maximum time to wait in microseconds, or 0 to wait indefinitely if no points are scheduled.
+   */
+  public synchronized void awaitNext(long now, long maxwait) throws InterruptedException {
+    Entry e = head();
+    long waittime;
+    if (e == null) {
+      waittime = maxwait;
+    } else {
+      waittime = e.itsEpoch - now;
+      if (waittime <= 0) {
+        return;
+      }
+      if (maxwait > 0 && waittime > maxwait) {
+        waittime = maxwait;
+      }
+    }
+    // Round up to the next millisecond so that we don't wake early and spin
+    wait((waittime + 999) / 1000);
+  }
+
+  /** Return the moving average of how late points have been taken for collection, in microseconds. */
+  public synchronized long getLateness() {
+    return (long) itsLateness;
+  }
+
+  /** Return the moving average of the variation in lateness, in microseconds. */
+  public synchronized long getJitter() {
+    return (long) itsJitter;
+  }
+
+  /** Return the largest lateness observed, in microseconds. */
+  public synchronized long getMaxLateness() {
+    return itsMaxLateness;
+  }
+
+  /** Return the number of points which have been taken for collection. */
+  public synchronized long getNumCollected() {
+    return itsNumCollected;
+  }
+}
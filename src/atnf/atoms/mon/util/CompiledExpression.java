@@ -0,0 +1,517 @@
+//
+// Copyright (C) CSIRO Australia Telescope National Facility
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Library General Public License
+// as published by the Free Software Foundation; either version 2
+// of the License, or (at your option) any later version.
+
+package atnf.atoms.mon.util;
+
+import java.util.Random;
+
+import org.nfunk.jep.*;
+import org.nfunk.jep.function.*;
+
+/**
+ * Evaluator for an expression which has been parsed by JEP, which works directly on an array of doubles rather than boxing each
+ * variable into the JEP symbol table and walking the parse tree on every evaluation. The parse tree is converted into a tree of
+ * simple evaluation objects once, when the expression is compiled.
+ *
+ * <P>
+ * Only purely numeric expressions using the arithmetic, comparison and logical operators and the common real-valued functions are
+ * supported, with the same semantics as JEP. <tt>compile</tt> returns null for expressions which use anything else, such as
+ * strings, complex numbers or other functions, and those should be evaluated by JEP as before. JEP gives a complex result where
+ * a real function is undefined, such as the square root of a negative number, so NaN is propagated through every operation and if
+ * the result of an evaluation is NaN the caller should evaluate the expression with JEP instead, to get exactly the same result as
+ * it would have before.
+ *
+ * @author David Brodrick
+ */
+public class CompiledExpression {
+  /** Node of the evaluation tree. */
+  private abstract static class Term {
+    abstract double eval(double[] vars);
+  }
+
+  /** A constant value. */
+  private static class Constant extends Term {
+    private final double itsValue;
+
+    Constant(double value) {
+      itsValue = value;
+    }
+
+    double eval(double[] vars) {
+      return itsValue;
+    }
+  }
+
+  /** The value of a variable. */
+  private static class Var extends Term {
+    private final int itsIndex;
+
+    Var(int index) {
+      itsIndex = index;
+    }
+
+    double eval(double[] vars) {
+      return vars[itsIndex];
+    }
+  }
+
+  private static final int ADD = 0;
+
+  private static final int SUB = 1;
+
+  private static final int MUL = 2;
+
+  private static final int DIV = 3;
+
+  private static final int MOD = 4;
+
+  private static final int POW = 5;
+
+  private static final int LT = 6;
+
+  private static final int GT = 7;
+
+  private static final int LE = 8;
+
+  private static final int GE = 9;
+
+  private static final int EQ = 10;
+
+  private static final int NE = 11;
+
+  private static final int AND = 12;
+
+  private static final int OR = 13;
+
+  private static final int ATAN2 = 14;
+
+  /** An operator or function of two arguments. */
+  private static class Binary extends Term {
+    private final int itsOp;
+
+    private final Term itsLeft;
+
+    private final Term itsRight;
+
+    Binary(int op, Term left, Term right) {
+      itsOp = op;
+      itsLeft = left;
+      itsRight = right;
+    }
+
+    double eval(double[] vars) {
+      double x = itsLeft.eval(vars);
+      double y = itsRight.eval(vars);
+      if (itsOp > MOD && (Double.isNaN(x) || Double.isNaN(y))) {
+        // Might be a complex number in JEP, which these don't treat as NaN
+        return Double.NaN;
+      }
+      switch (itsOp) {
+      case ADD:
+        return x + y;
+      case SUB:
+        return x - y;
+      case MUL:
+        return x * y;
+      case DIV:
+        return x / y;
+      case MOD:
+        return x % y;
+      case POW:
+        if (x < 0.0 && y != (int) y) {
+          // JEP gives a complex result
+          return Double.NaN;
+        }
+        return Math.pow(x, y);
+      case LT:
+        return x < y ? 1.0 : 0.0;
+      case GT:
+        return x > y ? 1.0 : 0.0;
+      case LE:
+        return x <= y ? 1.0 : 0.0;
+      case GE:
+        return x >= y ? 1.0 : 0.0;
+      case EQ:
+        return x == y ? 1.0 : 0.0;
+      case NE:
+        return x != y ? 1.0 : 0.0;
+      case AND:
+        return (x != 0.0 && y != 0.0) ? 1.0 : 0.0;
+      case OR:
+        return (x != 0.0 || y != 0.0) ? 1.0 : 0.0;
+      case ATAN2:
+        return Math.atan2(x, y);
+      default:
+        return Double.NaN;
+      }
+    }
+  }
+
+  private static final int NEG = 0;
+
+  private static final int NOT = 1;
+
+  private static final int SIN = 2;
+
+  private static final int COS = 3;
+
+  private static final int TAN = 4;
+
+  private static final int ASIN = 5;
+
+  private static final int ACOS = 6;
+
+  private static final int ATAN = 7;
+
+  private static final int SQRT = 8;
+
+  private static final int EXP = 9;
+
+  private static final int LN = 10;
+
+  private static final int LOG = 11;
+
+  private static final int ABS = 12;
+
+  private static final int ROUND = 13;
+
+  private static final int FLOOR = 14;
+
+  private static final int CEIL = 15;
+
+  /** Natural logarithm of 10, calculated the same way as JEP does. */
+  private static final double theirLn10 = Math.log(10);
+
+  /** An operator or function of one argument. */
+  private static class Unary extends Term {
+    private final int itsOp;
+
+    private final Term itsArg;
+
+    Unary(int op, Term arg) {
+      itsOp = op;
+      itsArg = arg;
+    }
+
+    double eval(double[] vars) {
+      double x = itsArg.eval(vars);
+      if (Double.isNaN(x)) {
+        // Might be a complex number in JEP
+        return Double.NaN;
+      }
+      switch (itsOp) {
+      case NEG:
+        return -x;
+      case NOT:
+        return x == 0.0 ? 1.0 : 0.0;
+      case SIN:
+        return Math.sin(x);
+      case COS:
+        return Math.cos(x);
+      case TAN:
+        return Math.tan(x);
+      case ASIN:
+        return Math.asin(x);
+      case ACOS:
+        return Math.acos(x);
+      case ATAN:
+        return Math.atan(x);
+      case SQRT:
+        return Math.sqrt(x);
+      case EXP:
+        return Math.exp(x);
+      case LN:
+        return Math.log(x);
+      case LOG:
+        return Math.log(x) / theirLn10;
+      case ABS:
+        return Math.abs(x);
+      case ROUND:
+        return Math.rint(x);
+      case FLOOR:
+        return Math.floor(x);
+      case CEIL:
+        return Math.ceil(x);
+      default:
+        return Double.NaN;
+      }
+    }
+  }
+
+  /** The <tt>if</tt> function, with three or four arguments. */
+  private static class If extends Term {
+    private final Term itsCond;
+
+    private final Term itsPositive;
+
+    private final Term itsNegative;
+
+    private final Term itsZero;
+
+    If(Term cond, Term positive, Term negative, Term zero) {
+      itsCond = cond;
+      itsPositive = positive;
+      itsNegative = negative;
+      itsZero = zero;
+    }
+
+    double eval(double[] vars) {
+      double c = itsCond.eval(vars);
+      if (Double.isNaN(c)) {
+        return Double.NaN;
+      } else if (c > 0.0) {
+        return itsPositive.eval(vars);
+      } else if (itsZero == null || c < 0.0) {
+        return itsNegative.eval(vars);
+      } else {
+        return itsZero.eval(vars);
+      }
+    }
+  }
+
+  /** The root of the evaluation tree. */
+  private final Term itsRoot;
+
+  private CompiledExpression(Term root) {
+    itsRoot = root;
+  }
+
+  /**
+   * Evaluate the expression.
+   *
+   * @param vars
+   *          The value of each variable, in the order the variable names were given when the expression was compiled.
+   * @return The result, or NaN if the expression should be evaluated by JEP instead.
+   */
+  public double evaluate(double[] vars) {
+    return itsRoot.eval(vars);
+  }
+
+  /**
+   * Compile the expression which has been parsed by the JEP instance.
+   *
+   * @param parser
+   *          The JEP instance which has parsed the expression.
+   * @param varnames
+   *          The names of the variables, which will be provided in this order when the expression is evaluated. Any other variables
+   *          must be constants in the JEP symbol table.
+   * @return The compiled expression, or null if the expression can't be compiled.
+   */
+  public static CompiledExpression compile(JEP parser, String[] varnames) {
+    Node top = parser.getTopNode();
+    if (top == null || parser.hasError() || canReturnVariable(top, varnames)) {
+      // JEP passes the value of a variable straight through, so it may not be a Double
+      return null;
+    }
+    try {
+      return new CompiledExpression(compile(top, parser.getOperatorSet(), varnames));
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /** Check if the result of the expression might be the value of one of the variables, rather than a calculated Double. */
+  private static boolean canReturnVariable(Node node, String[] varnames) {
+    if (node instanceof ASTVarNode) {
+      return getIndex(((ASTVarNode) node).getName(), varnames) >= 0;
+    }
+    if (node instanceof ASTFunNode && ((ASTFunNode) node).getPFMC() instanceof org.nfunk.jep.function.If) {
+      for (int i = 1; i < node.jjtGetNumChildren(); i++) {
+        if (canReturnVariable(node.jjtGetChild(i), varnames)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /** Return the index of the variable name, or -1 if it isn't one of the names. */
+  private static int getIndex(String name, String[] varnames) {
+    for (int i = 0; i < varnames.length; i++) {
+      if (varnames[i].equals(name)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /** Return the evaluation tree for the node, or throw an IllegalArgumentException if it isn't supported. */
+  private static Term compile(Node node, OperatorSet ops, String[] varnames) {
+    if (node instanceof ASTConstant) {
+      Object value = ((ASTConstant) node).getValue();
+      if (!(value instanceof Double)) {
+        throw new IllegalArgumentException("Non-numeric constant");
+      }
+      return new Constant(((Double) value).doubleValue());
+    }
+
+    if (node instanceof ASTVarNode) {
+      ASTVarNode var = (ASTVarNode) node;
+      int index = getIndex(var.getName(), varnames);
+      if (index >= 0) {
+        return new Var(index);
+      }
+      Variable v = var.getVar();
+      if (v != null && v.isConstant() && v.getValue() instanceof Double) {
+        return new Constant(((Double) v.getValue()).doubleValue());
+      }
+      throw new IllegalArgumentException("Unknown variable " + var.getName());
+    }
+
+    if (!(node instanceof ASTFunNode)) {
+      throw new IllegalArgumentException("Unsupported node " + node);
+    }
+    ASTFunNode fun = (ASTFunNode) node;
+    int numargs = node.jjtGetNumChildren();
+    Term[] args = new Term[numargs];
+    for (int i = 0; i < numargs; i++) {
+      args[i] = compile(node.jjtGetChild(i), ops, varnames);
+    }
+
+    if (fun.isOperator()) {
+      Operator op = fun.getOperator();
+      if (numargs == 1) {
+        if (op == ops.getUMinus()) {
+          return new Unary(NEG, args[0]);
+        } else if (op == ops.getNot()) {
+          return new Unary(NOT, args[0]);
+        }
+      } else if (op == ops.getAdd() || op == ops.getMultiply()) {
+        // These can have more than two arguments, which JEP combines from the right
+        int code = op == ops.getAdd() ? ADD : MUL;
+        Term res = args[numargs - 1];
+        for (int i = numargs - 2; i >= 0; i--) {
+          res = new Binary(code, args[i], res);
+        }
+        return res;
+      } else if (numargs == 2) {
+        int code = -1;
+        if (op == ops.getSubtract()) {
+          code = SUB;
+        } else if (op == ops.getDivide()) {
+          code = DIV;
+        } else if (op == ops.getMod()) {
+          code = MOD;
+        } else if (op == ops.getPower()) {
+          code = POW;
+        } else if (op == ops.getLT()) {
+          code = LT;
+        } else if (op == ops.getGT()) {
+          code = GT;
+        } else if (op == ops.getLE()) {
+          code = LE;
+        } else if (op == ops.getGE()) {
+          code = GE;
+        } else if (op == ops.getEQ()) {
+          code = EQ;
+        } else if (op == ops.getNE()) {
+          code = NE;
+        } else if (op == ops.getAnd()) {
+          code = AND;
+        } else if (op == ops.getOr()) {
+          code = OR;
+        }
+        if (code >= 0) {
+          return new Binary(code, args[0], args[1]);
+        }
+      }
+      throw new IllegalArgumentException("Unsupported operator " + op.getName());
+    }
+
+    PostfixMathCommandI pfmc = fun.getPFMC();
+    if (pfmc instanceof org.nfunk.jep.function.If && (numargs == 3 || numargs == 4)) {
+      return new If(args[0], args[1], args[2], numargs == 4 ? args[3] : null);
+    }
+    if (pfmc instanceof ArcTangent2 && numargs == 2) {
+      return new Binary(ATAN2, args[0], args[1]);
+    }
+    if (numargs == 1) {
+      int code = -1;
+      if (pfmc instanceof Sine) {
+        code = SIN;
+      } else if (pfmc instanceof Cosine) {
+        code = COS;
+      } else if (pfmc instanceof Tangent) {
+        code = TAN;
+      } else if (pfmc instanceof ArcSine) {
+        code = ASIN;
+      } else if (pfmc instanceof ArcCosine) {
+        code = ACOS;
+      } else if (pfmc instanceof ArcTangent) {
+        code = ATAN;
+      } else if (pfmc instanceof SquareRoot) {
+        code = SQRT;
+      } else if (pfmc instanceof Exp) {
+        code = EXP;
+      } else if (pfmc instanceof NaturalLogarithm) {
+        code = LN;
+      } else if (pfmc instanceof Logarithm) {
+        code = LOG;
+      } else if (pfmc instanceof Abs) {
+        code = ABS;
+      } else if (pfmc instanceof Round) {
+        code = ROUND;
+      } else if (pfmc instanceof Floor) {
+        code = FLOOR;
+      } else if (pfmc instanceof Ceil) {
+        code = CEIL;
+      }
+      if (code >= 0) {
+        return new Unary(code, args[0]);
+      }
+    }
+    throw new IllegalArgumentException("Unsupported function " + fun.getName());
+  }
+
+  /**
+   * Simple benchmark which compares the time taken to evaluate an expression with JEP, as the calculation translations used to,
+   * and with the compiled expression. The optional argument is the expression to use, with input variables a, b and c.
+   */
+  public static final void main(String[] args) throws Exception {
+    String expr = args.length > 0 ? args[0] : "if(a > 0.5, sqrt(a*a + b*b) * cos(c), abs(b - c) / 2) + 0.1 * a";
+    int num = 1000000;
+    String[] names = new String[] { "a", "b", "c" };
+    JEP parser = new JEP();
+    parser.setAllowUndeclared(true);
+    parser.addStandardFunctions();
+    parser.parseExpression(expr);
+    CompiledExpression compiled = compile(parser, names);
+    if (compiled == null) {
+      System.out.println("Expression \"" + expr + "\" can't be compiled");
+      System.exit(1);
+    }
+    Random rand = new Random(1);
+    double[][] inputs = new double[1000][3];
+    for (int i = 0; i < inputs.length; i++) {
+      for (int j = 0; j < 3; j++) {
+        inputs[i][j] = rand.nextDouble();
+      }
+    }
+    System.out.println("Expression \"" + expr + "\", " + num + " evaluations");
+    System.out.println("pass\tJEP(ns/eval)\tcompiled(ns/eval)");
+    double check = 0.0;
+    for (int pass = 0; pass < 5; pass++) {
+      long start = System.nanoTime();
+      for (int i = 0; i < num; i++) {
+        double[] in = inputs[i % inputs.length];
+        for (int j = 0; j < 3; j++) {
+          parser.addVariable(names[j], new Double(in[j]));
+        }
+        check += ((Double) parser.getValueAsObject()).doubleValue();
+      }
+      long jeptime = System.nanoTime() - start;
+      start = System.nanoTime();
+      for (int i = 0; i < num; i++) {
+        check -= new Double(compiled.evaluate(inputs[i % inputs.length])).doubleValue();
+      }
+      long comptime = System.nanoTime() - start;
+      System.out.println(pass + "\t" + (jeptime / num) + "\t\t" + (comptime / num));
+    }
+    System.out.println("Difference between results: " + check);
+  }
+}
@@ -0,0 +1,501 @@
+//
+// Copyright (C) CSIRO Australia Telescope National Facility
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Library General Public License
+// as published by the Free Software Foundation; either version 2
+// of the License, or (at your option) any later version.
+
+package atnf.atoms.mon.util;
+
+import java.util.*;
+import atnf.atoms.mon.PointData;
+import atnf.atoms.time.*;
+import atnf.atoms.util.Angle;
+
+/**
+ * Reduces a time series to a limited number of samples in a single pass. Records are given to <tt>add</tt> in time order as they
+ * are read, so only the state of the current time bucket needs to be held rather than the full set of raw data.
+ *
+ * <P>
+ * The available modes are:
+ * <ul>
+ * <li><b>first</b> The first sample at or after each evenly spaced step through the time range. This is the original MoniCA
+ * behaviour and the default.
+ * <li><b>min</b>, <b>max</b> The sample with the smallest or largest value in each bucket.
+ * <li><b>mean</b> The mean value of each bucket, timestamped with the mean time of the samples.
+ * <li><b>count</b> The number of samples in each bucket, timestamped with the start of the bucket.
+ * <li><b>minmax</b> The smallest and largest samples in each bucket, so that spikes are retained.
+ * <li><b>m4</b> The first, smallest, largest and last samples in each bucket, which is sufficient to draw the same line plot as
+ * the raw data at a resolution of one bucket per pixel.
+ * <li><b>lttb</b> Largest-Triangle-Three-Buckets: the sample in each bucket which forms the largest triangle with the sample chosen
+ * from the previous bucket and the mean of the next bucket, which preserves the visual shape of the data.
+ * </ul>
+ * If no more than the requested maximum number of samples is added then they are returned unaltered. Otherwise the number of
+ * buckets is chosen so that no more than the requested maximum number of samples is returned. Samples which do not
+ * have a numeric value are ignored by the value-based modes, except that a bucket containing no numeric values is represented by
+ * its first sample.
+ *
+ * @author David Brodrick
+ */
+public abstract class Downsampler {
+  /** Names of the available modes. */
+  private static final String[] theirModes = new String[] { "first", "min", "max", "mean", "count", "minmax", "m4", "lttb" };
+
+  /** Start of the time range, as a BAT. */
+  protected long itsStart;
+
+  /** End of the time range, as a BAT. */
+  protected long itsEnd;
+
+  /** Number of time buckets. */
+  protected int itsNumBuckets;
+
+  /** The reduced data. */
+  protected Vector<PointData> itsResult;
+
+  /** The maximum number of samples to be returned. */
+  private int itsMaxSamples;
+
+  /** Records held until we know whether reduction is necessary, or null once reduction has begun. */
+  private Vector<PointData> itsPending = new Vector<PointData>();
+
+  /**
+   * Create a downsampler for the named mode.
+   *
+   * @param mode
+   *          Name of the mode, or null for the default.
+   * @param start
+   *          Start of the time range.
+   * @param end
+   *          End of the time range.
+   * @param maxsamples
+   *          Maximum number of samples to be returned.
+   * @return The downsampler, or null if the mode is not recognised.
+   */
+  public static Downsampler factory(String mode, AbsTime start, AbsTime end, int maxsamples) {
+    if (mode == null) {
+      mode = "first";
+    }
+    mode = mode.toLowerCase();
+    int numsamples = maxsamples;
+    Downsampler res;
+    if (mode.equals("first")) {
+      res = new FirstDownsampler();
+      maxsamples = Math.max(maxsamples, 1);
+    } else if (mode.equals("min") || mode.equals("max") || mode.equals("mean") || mode.equals("count")) {
+      res = new AggregateDownsampler(mode);
+      maxsamples = Math.max(maxsamples, 1);
+    } else if (mode.equals("minmax")) {
+      res = new ExtremaDownsampler(false);
+      maxsamples = Math.max(maxsamples / 2, 1);
+    } else if (mode.equals("m4")) {
+      res = new ExtremaDownsampler(true);
+      maxsamples = Math.max(maxsamples / 4, 1);
+    } else if (mode.equals("lttb")) {
+      res = new LTTBDownsampler();
+      // Leave room for the first and last samples, which are always kept
+      maxsamples = Math.max(maxsamples - 2, 1);
+    } else {
+      return null;
+    }
+    res.itsStart = start.getValue();
+    res.itsEnd = end.getValue();
+    res.itsNumBuckets = maxsamples;
+    res.itsMaxSamples = numsamples;
+    res.itsResult = new Vector<PointData>(Math.min(numsamples, 10000));
+    res.init();
+    return res;
+  }
+
+  /** Return the names of the available modes. */
+  public static String[] getModes() {
+    return theirModes.clone();
+  }
+
+  /** Check if the name is a valid mode. */
+  public static boolean isMode(String mode) {
+    for (int i = 0; i < theirModes.length; i++) {
+      if (theirModes[i].equalsIgnoreCase(mode)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Prepare to receive data, once the time range and number of buckets are known. */
+  protected void init() {
+  }
+
+  /** Add the next record. Records must be added in time order. */
+  public void add(PointData pd) {
+    if (itsPending != null) {
+      itsPending.add(pd);
+      if (itsPending.size() > itsMaxSamples) {
+        // Too many records so need to reduce them
+        Vector<PointData> pending = itsPending;
+        itsPending = null;
+        for (int i = 0; i < pending.size(); i++) {
+          reduce(pending.get(i));
+        }
+      }
+    } else {
+      reduce(pd);
+    }
+  }
+
+  /** Pass the next record to the reduction. */
+  protected abstract void reduce(PointData pd);
+
+  /** Process any data still held once all records have been reduced. */
+  protected abstract void finish();
+
+  /** Return the reduced data once all records have been added. */
+  public Vector<PointData> getResult() {
+    if (itsPending != null) {
+      // No reduction was necessary
+      return itsPending;
+    }
+    finish();
+    return itsResult;
+  }
+
+  /** Return the bucket which the time falls within. */
+  protected int getBucket(long t) {
+    if (t <= itsStart || itsEnd <= itsStart) {
+      return 0;
+    }
+    int res = (int) ((double) (t - itsStart) / (itsEnd - itsStart + 1) * itsNumBuckets);
+    return Math.min(res, itsNumBuckets - 1);
+  }
+
+  /** Return the BAT at the start of the bucket. */
+  protected long getBucketStart(int bucket) {
+    return itsStart + (long) ((double) (itsEnd - itsStart + 1) * bucket / itsNumBuckets);
+  }
+
+  /** Return the numeric value of the record, or NaN if it does not have one. */
+  protected static double getValue(PointData pd) {
+    Object data = pd.getData();
+    if (data instanceof Number) {
+      return ((Number) data).doubleValue();
+    } else if (data instanceof Boolean) {
+      return ((Boolean) data).booleanValue() ? 1.0 : 0.0;
+    } else if (data instanceof Angle) {
+      return ((Angle) data).getValue();
+    }
+    return Double.NaN;
+  }
+
+  /** Keeps the first sample at or after each time step, the original MoniCA downsampling. */
+  private static class FirstDownsampler extends Downsampler {
+    /** Time of the next sample to keep. */
+    private long itsNext;
+
+    /** Time between samples. */
+    private long itsIncrement;
+
+    protected void init() {
+      itsNext = itsStart;
+      itsIncrement = (itsEnd - itsStart) / itsNumBuckets;
+    }
+
+    protected void reduce(PointData pd) {
+      if (itsNext > itsEnd) {
+        return;
+      }
+      if (pd.getTimestamp().getValue() >= itsNext) {
+        itsResult.add(pd);
+        itsNext += itsIncrement;
+      }
+    }
+
+    protected void finish() {
+    }
+  }
+
+  /** Base class for modes which reduce each bucket in isolation. */
+  private static abstract class BucketDownsampler extends Downsampler {
+    /** The bucket currently being accumulated, or -1 before any data. */
+    protected int itsBucket = -1;
+
+    protected void reduce(PointData pd) {
+      int bucket = getBucket(pd.getTimestamp().getValue());
+      if (bucket != itsBucket) {
+        if (itsBucket != -1) {
+          endBucket();
+        }
+        itsBucket = bucket;
+        startBucket();
+      }
+      addToBucket(pd);
+    }
+
+    protected void finish() {
+      if (itsBucket != -1) {
+        endBucket();
+        itsBucket = -1;
+      }
+    }
+
+    /** Reset the state for a new bucket. */
+    protected abstract void startBucket();
+
+    /** Add a record to the current bucket. */
+    protected abstract void addToBucket(PointData pd);
+
+    /** Output the reduced data for the current bucket. */
+    protected abstract void endBucket();
+  }
+
+  /** Per-bucket min, max, mean or count. */
+  private static class AggregateDownsampler extends BucketDownsampler {
+    private final String itsMode;
+    private PointData itsFirst;
+    private PointData itsMin;
+    private PointData itsMax;
+    private double itsMinVal;
+    private double itsMaxVal;
+    private double itsSum;
+    private double itsTimeSum;
+    private int itsNumNumeric;
+    private int itsCount;
+    private boolean itsAlarm;
+
+    AggregateDownsampler(String mode) {
+      itsMode = mode;
+    }
+
+    protected void startBucket() {
+      itsFirst = itsMin = itsMax = null;
+      itsSum = itsTimeSum = 0;
+      itsNumNumeric = itsCount = 0;
+      itsAlarm = false;
+    }
+
+    protected void addToBucket(PointData pd) {
+      if (itsFirst == null) {
+        itsFirst = pd;
+      }
+      itsCount++;
+      itsAlarm |= pd.getAlarm();
+      double v = getValue(pd);
+      if (Double.isNaN(v)) {
+        return;
+      }
+      if (itsMin == null || v < itsMinVal) {
+        itsMin = pd;
+        itsMinVal = v;
+      }
+      if (itsMax == null || v > itsMaxVal) {
+        itsMax = pd;
+        itsMaxVal = v;
+      }
+      itsSum += v;
+      // Sum offsets from the bucket's first sample to retain precision
+      itsTimeSum += pd.getTimestamp().getValue() - itsFirst.getTimestamp().getValue();
+      itsNumNumeric++;
+    }
+
+    protected void endBucket() {
+      if (itsMode.equals("count")) {
+        itsResult.add(new PointData(itsFirst.getName(), AbsTime.factory(getBucketStart(itsBucket)), new Integer(itsCount), itsAlarm));
+      } else if (itsNumNumeric == 0) {
+        itsResult.add(itsFirst);
+      } else if (itsMode.equals("min")) {
+        itsResult.add(itsMin);
+      } else if (itsMode.equals("max")) {
+        itsResult.add(itsMax);
+      } else {
+        long t = itsFirst.getTimestamp().getValue() + (long) (itsTimeSum / itsNumNumeric);
+        itsResult.add(new PointData(itsFirst.getName(), AbsTime.factory(t), new Double(itsSum / itsNumNumeric), itsAlarm));
+      }
+    }
+  }
+
+  /** Per-bucket min and max, and optionally the first and last samples as for M4. */
+  private static class ExtremaDownsampler extends BucketDownsampler {
+    private final boolean itsM4;
+    private PointData itsFirst;
+    private PointData itsLast;
+    private PointData itsMin;
+    private PointData itsMax;
+    private double itsMinVal;
+    private double itsMaxVal;
+
+    ExtremaDownsampler(boolean m4) {
+      itsM4 = m4;
+    }
+
+    protected void startBucket() {
+      itsFirst = itsLast = itsMin = itsMax = null;
+    }
+
+    protected void addToBucket(PointData pd) {
+      if (itsFirst == null) {
+        itsFirst = pd;
+      }
+      itsLast = pd;
+      double v = getValue(pd);
+      if (Double.isNaN(v)) {
+        return;
+      }
+      if (itsMin == null || v < itsMinVal) {
+        itsMin = pd;
+        itsMinVal = v;
+      }
+      if (itsMax == null || v > itsMaxVal) {
+        itsMax = pd;
+        itsMaxVal = v;
+      }
+    }
+
+    protected void endBucket() {
+      if (itsMin == null) {
+        itsResult.add(itsFirst);
+        return;
+      }
+      // Output the distinct samples in time order
+      PointData[] samples;
+      if (itsM4) {
+        samples = new PointData[] { itsFirst, itsMin, itsMax, itsLast };
+      } else {
+        samples = new PointData[] { itsMin, itsMax };
+      }
+      Arrays.sort(samples, new Comparator<PointData>() {
+        public int compare(PointData a, PointData b) {
+          long ta = a.getTimestamp().getValue();
+          long tb = b.getTimestamp().getValue();
+          return ta < tb ? -1 : (ta == tb ? 0 : 1);
+        }
+      });
+      for (int i = 0; i < samples.length; i++) {
+        if (i == 0 || samples[i] != samples[i - 1]) {
+          itsResult.add(samples[i]);
+        }
+      }
+    }
+  }
+
+  /**
+   * Largest-Triangle-Three-Buckets. The choice of sample for a bucket depends on the mean of the following bucket, so the samples of
+   * the previous bucket are held until the current bucket is complete.
+   */
+  private static class LTTBDownsampler extends Downsampler {
+    /** The first sample, which is always kept. */
+    private PointData itsFirstSample;
+
+    /** The most recent sample. */
+    private PointData itsLastSample;
+
+    /** The sample most recently selected. */
+    private PointData itsSelected;
+
+    /** Samples of the bucket awaiting selection. */
+    private Vector<PointData> itsPrevious = new Vector<PointData>();
+
+    /** Samples of the bucket currently being accumulated. */
+    private Vector<PointData> itsCurrent = new Vector<PointData>();
+
+    /** The bucket currently being accumulated. */
+    private int itsBucket = -1;
+
+    protected void reduce(PointData pd) {
+      if (itsFirstSample == null) {
+        itsFirstSample = pd;
+        itsSelected = pd;
+        itsResult.add(pd);
+        return;
+      }
+      int bucket = getBucket(pd.getTimestamp().getValue());
+      if (bucket != itsBucket) {
+        if (!itsPrevious.isEmpty()) {
+          select(itsPrevious, itsCurrent);
+        }
+        Vector<PointData> temp = itsPrevious;
+        itsPrevious = itsCurrent;
+        itsCurrent = temp;
+        itsCurrent.clear();
+        itsBucket = bucket;
+      }
+      itsCurrent.add(pd);
+      itsLastSample = pd;
+    }
+
+    protected void finish() {
+      if (itsLastSample == null) {
+        return;
+      }
+      // The last sample is always kept, so don't consider it for selection
+      itsCurrent.remove(itsCurrent.size() - 1);
+      if (!itsPrevious.isEmpty()) {
+        select(itsPrevious, itsCurrent.isEmpty() ? null : itsCurrent);
+      }
+      if (!itsCurrent.isEmpty()) {
+        select(itsCurrent, null);
+      }
+      itsResult.add(itsLastSample);
+      itsPrevious.clear();
+      itsCurrent.clear();
+      itsLastSample = null;
+    }
+
+    /** Select the sample from the bucket with the largest triangle, given the next bucket or the last sample if null. */
+    private void select(Vector<PointData> bucket, Vector<PointData> next) {
+      // Mean of the next bucket, with times relative to the selected sample to retain precision
+      long t0 = itsSelected.getTimestamp().getValue();
+      double nextt = 0;
+      double nextv = 0;
+      int n = 0;
+      if (next != null) {
+        for (int i = 0; i < next.size(); i++) {
+          double v = getValue(next.get(i));
+          if (!Double.isNaN(v)) {
+            nextt += next.get(i).getTimestamp().getValue() - t0;
+            nextv += v;
+            n++;
+          }
+        }
+      }
+      if (n > 0) {
+        nextt /= n;
+        nextv /= n;
+      } else {
+        nextt = itsLastSample.getTimestamp().getValue() - t0;
+        nextv = getValue(itsLastSample);
+      }
+
+      double selv = getValue(itsSelected);
+      PointData best = null;
+      double bestarea = -1;
+      for (int i = 0; i < bucket.size(); i++) {
+        PointData pd = bucket.get(i);
+        double v = getValue(pd);
+        if (Double.isNaN(v)) {
+          continue;
+        }
+        double t = pd.getTimestamp().getValue() - t0;
+        double area;
+        if (Double.isNaN(selv) || Double.isNaN(nextv)) {
+          // Can't form a triangle, so prefer the sample furthest from the mean
+          area = Math.abs(v - nextv);
+          if (Double.isNaN(area)) {
+            area = 0;
+          }
+        } else {
+          area = Math.abs((0 - nextt) * (v - selv) - (0 - t) * (nextv - selv));
+        }
+        if (area > bestarea) {
+          bestarea = area;
+          best = pd;
+        }
+      }
+      if (best == null) {
+        // No numeric values in the bucket
+        best = bucket.firstElement();
+      }
+      itsResult.add(best);
+      itsSelected = best;
+    }
+  }
+}
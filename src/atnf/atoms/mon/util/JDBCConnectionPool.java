@@ -0,0 +1,175 @@
+//
+// Copyright (C) CSIRO Australia Telescope National Facility
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Library General Public License
+// as published by the Free Software Foundation; either version 2
+// of the License, or (at your option) any later version.
+
+package atnf.atoms.mon.util;
+
+import java.sql.*;
+import java.util.LinkedList;
+import org.apache.log4j.Logger;
+
+/**
+ * A small pool of JDBC connections to a single database URL. Connections are opened on demand up to the maximum size of the pool,
+ * after which callers wait for a connection to be released. Connections which have been idle for a while are checked before being
+ * handed out, and callers should <tt>invalidate</tt> rather than <tt>release</tt> a connection if they suspect it is broken.
+ *
+ * @author David Brodrick
+ */
+public class JDBCConnectionPool {
+  /** Time in milliseconds a connection can be idle before it is checked before reuse. */
+  private static final long theirValidationAge = 30000;
+
+  /** Logger. */
+  private static Logger theirLogger = Logger.getLogger(JDBCConnectionPool.class.getName());
+
+  /** An idle connection and the time it was released. */
+  private static class IdleConnection {
+    final Connection itsConnection;
+    final long itsReleaseTime;
+
+    IdleConnection(Connection c) {
+      itsConnection = c;
+      itsReleaseTime = System.currentTimeMillis();
+    }
+  }
+
+  /** The URL of the database. */
+  private String itsURL;
+
+  /** The maximum number of connections which may be open at once. */
+  private int itsMaxSize;
+
+  /** Connections available for use, most recently released first. */
+  private LinkedList<IdleConnection> itsIdle = new LinkedList<IdleConnection>();
+
+  /** Number of connections currently open, whether idle or in use. */
+  private int itsNumOpen = 0;
+
+  /**
+   * Constructor.
+   *
+   * @param url
+   *          The JDBC URL of the database.
+   * @param maxsize
+   *          The maximum number of connections which may be open at once.
+   */
+  public JDBCConnectionPool(String url, int maxsize) {
+    itsURL = url;
+    itsMaxSize = Math.max(1, maxsize);
+  }
+
+  /** Obtain a connection, waiting for one to become free if the pool is exhausted. */
+  public Connection getConnection() throws SQLException {
+    while (true) {
+      IdleConnection idle = null;
+      synchronized (this) {
+        while (itsIdle.isEmpty() && itsNumOpen >= itsMaxSize) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            throw new SQLException("Interrupted while waiting for a connection");
+          }
+        }
+        if (itsIdle.isEmpty()) {
+          // Reserve a slot for a new connection
+          itsNumOpen++;
+        } else {
+          idle = itsIdle.removeFirst();
+        }
+      }
+
+      if (idle == null) {
+        try {
+          return DriverManager.getConnection(itsURL);
+        } catch (SQLException e) {
+          discard(null);
+          throw e;
+        }
+      }
+
+      // Check connections which have sat idle for a while, they may have timed out
+      boolean valid = true;
+      if (System.currentTimeMillis() - idle.itsReleaseTime > theirValidationAge) {
+        try {
+          valid = idle.itsConnection.isValid(2);
+        } catch (SQLException e) {
+          valid = false;
+        }
+      }
+      if (valid) {
+        return idle.itsConnection;
+      }
+      theirLogger.debug("Discarding stale connection to " + itsURL);
+      discard(idle.itsConnection);
+    }
+  }
+
+  /** Return a connection to the pool once finished with it. */
+  public void release(Connection c) {
+    if (c == null) {
+      return;
+    }
+    synchronized (this) {
+      itsIdle.addFirst(new IdleConnection(c));
+      notifyAll();
+    }
+  }
+
+  /** Close a connection which may be broken rather than returning it to the pool. */
+  public void invalidate(Connection c) {
+    if (c != null) {
+      discard(c);
+    }
+  }
+
+  /**
+   * Return a connection to the pool after an operation on it failed. The connection is kept if it still appears usable, otherwise
+   * it is closed.
+   */
+  public void releaseAfterError(Connection c) {
+    if (c == null) {
+      return;
+    }
+    boolean valid;
+    try {
+      valid = c.isValid(2);
+    } catch (SQLException e) {
+      valid = false;
+    }
+    if (valid) {
+      release(c);
+    } else {
+      invalidate(c);
+    }
+  }
+
+  /** Close the connection and free its slot in the pool. */
+  private void discard(Connection c) {
+    if (c != null) {
+      try {
+        c.close();
+      } catch (Exception e) {
+      }
+    }
+    synchronized (this) {
+      itsNumOpen--;
+      notifyAll();
+    }
+  }
+
+  /** Close all idle connections. Connections in use will be closed when they are invalidated. */
+  public void close() {
+    LinkedList<IdleConnection> idle;
+    synchronized (this) {
+      idle = itsIdle;
+      itsIdle = new LinkedList<IdleConnection>();
+    }
+    for (IdleConnection i : idle) {
+      discard(i.itsConnection);
+    }
+  }
+}
@@ -0,0 +1,101 @@
+//
+// Copyright (C) CSIRO Australia Telescope National Facility
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Library General Public License
+// as published by the Free Software Foundation; either version 2
+// of the License, or (at your option) any later version.
+
+package atnf.atoms.mon.util;
+
+/**
+ * Histogram of latencies with logarithmically spaced bins. Bin <i>i</i> counts latencies of less than 2^<i>i</i> microseconds
+ * which were not counted in a lower bin, so percentiles are accurate to within a factor of two, which is plenty to see where time is
+ * being spent. Recording a latency does not allocate.
+ *
+ * @author David Brodrick
+ */
+public class LatencyHistogram {
+  /** Number of bins, enough for latencies up to about 2^40us (12 days). */
+  private static final int theirNumBins = 41;
+
+  /** Count of latencies in each bin. */
+  private long[] itsBins = new long[theirNumBins];
+
+  /** Total number of latencies recorded. */
+  private long itsCount = 0;
+
+  /** Sum of all latencies recorded, in microseconds. */
+  private long itsSum = 0;
+
+  /** Largest latency recorded, in microseconds. */
+  private long itsMax = 0;
+
+  /** Record a new latency, in microseconds. */
+  public synchronized void record(long micros) {
+    if (micros < 0) {
+      micros = 0;
+    }
+    int bin = 64 - Long.numberOfLeadingZeros(micros);
+    if (bin >= theirNumBins) {
+      bin = theirNumBins - 1;
+    }
+    itsBins[bin]++;
+    itsCount++;
+    itsSum += micros;
+    if (micros > itsMax) {
+      itsMax = micros;
+    }
+  }
+
+  /** Return the number of latencies recorded. */
+  public synchronized long getCount() {
+    return itsCount;
+  }
+
+  /** Return the mean latency in microseconds. */
+  public synchronized long getMean() {
+    return itsCount == 0 ? 0 : itsSum / itsCount;
+  }
+
+  /** Return the largest latency in microseconds. */
+  public synchronized long getMax() {
+    return itsMax;
+  }
+
+  /**
+   * Return an upper bound for the given percentile of the latency, in microseconds.
+   *
+   * @param percentile
+   *          The percentile of interest, between 0 and 100.
+   */
+  public synchronized long getPercentile(double percentile) {
+    if (itsCount == 0) {
+      return 0;
+    }
+    long target = (long) Math.ceil(itsCount * percentile / 100.0);
+    long seen = 0;
+    for (int i = 0; i < theirNumBins; i++) {
+      seen += itsBins[i];
+      if (seen >= target && seen > 0) {
+        return Math.min(i == 0 ? 0 : (1L << i) - 1, itsMax);
+      }
+    }
+    return itsMax;
+  }
+
+  /** Discard all recorded latencies. */
+  public synchronized void reset() {
+    for (int i = 0; i < theirNumBins; i++) {
+      itsBins[i] = 0;
+    }
+    itsCount = 0;
+    itsSum = 0;
+    itsMax = 0;
+  }
+
+  /** Return a short summary of the histogram. */
+  public synchronized String toString() {
+    return "n=" + itsCount + " mean=" + getMean() + "us p50=" + getPercentile(50) + "us p99=" + getPercentile(99) + "us max=" + itsMax + "us";
+  }
+}
@@ -0,0 +1,408 @@
+//
+// Copyright (C) CSIRO Australia Telescope National Facility
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Library General Public License
+// as published by the Free Software Foundation; either version 2
+// of the License, or (at your option) any later version.
+
+package atnf.atoms.mon.util;
+
+import java.io.*;
+import java.util.*;
+import javax.mail.*;
+import javax.mail.internet.MimeMessage;
+import org.apache.log4j.Logger;
+
+/**
+ * Queue of outgoing emails which are sent by a background thread, so that points raising notifications are not held up waiting for
+ * the mail server.
+ *
+ * <P>
+ * Each queued email is saved as a file in the directory given by the <tt>MailOutboxDir</tt> configuration parameter until it has
+ * been sent, so that notifications are not lost if the server is restarted or the mail server is unavailable. The sender keeps a
+ * single connection to the mail server open while there is mail to send.
+ *
+ * <P>
+ * The first email to a recipient is sent straight away, but any further emails to the same recipient within the number of seconds
+ * given by the <tt>MailDigestWindow</tt> configuration parameter are held and then sent together as a single digest, so that an
+ * alarm storm doesn't flood the recipient's mailbox. A window of 0 disables digests.
+ *
+ * @author David Brodrick
+ */
+public class MailOutbox implements Runnable {
+  /** Logger. */
+  private static Logger theirLogger = Logger.getLogger(MailOutbox.class.getName());
+
+  /** Time to wait before trying again after failing to send, in ms. */
+  private static final long theirRetryDelay = 30000;
+
+  /** Time after which an idle connection to the mail server is closed, in ms. */
+  private static final long theirIdleTime = 30000;
+
+  /** The single instance. */
+  private static MailOutbox theirOutbox = new MailOutbox();
+
+  /** A queued email. */
+  private static class Mail {
+    String itsTo;
+
+    String itsSender;
+
+    String itsSubject;
+
+    String itsBody;
+
+    /** Time the email was queued, in ms. */
+    long itsTime;
+
+    /** The file the email is saved in, or null if it isn't saved. */
+    File itsFile;
+  }
+
+  /** The emails waiting to be sent to a particular recipient. */
+  private static class Recipient {
+    /** The queued emails, in order. */
+    Vector<Mail> itsMail = new Vector<Mail>();
+
+    /** Time an email was last sent to this recipient, in ms. */
+    long itsLastSent = 0;
+
+    /** Time before which sending should not be attempted, in ms. */
+    long itsRetryTime = 0;
+  }
+
+  /** Directory for saving queued emails, or null if they are not saved. */
+  private File itsDir;
+
+  /** Time to hold further emails to a recipient for inclusion in a digest, in ms. */
+  private long itsWindow;
+
+  /** Queued emails for each recipient and sender. */
+  private HashMap<String, Recipient> itsRecipients = new HashMap<String, Recipient>();
+
+  /** Number of emails queued. */
+  private int itsQueueDepth = 0;
+
+  /** Number used to make saved file names unique. */
+  private long itsFileNum = 0;
+
+  /** Number of emails sent. */
+  private long itsNumSent = 0;
+
+  /** Time from queuing to sending of each email. */
+  private LatencyHistogram itsLatency = new LatencyHistogram();
+
+  /** Connection to the mail server, or null if not connected. */
+  private Transport itsTransport = null;
+
+  /** Time the connection to the mail server was last used, in ms. */
+  private long itsLastUsed = 0;
+
+  private MailOutbox() {
+    try {
+      itsWindow = (long) (Double.parseDouble(MonitorConfig.getProperty("MailDigestWindow", "60")) * 1000);
+    } catch (Exception e) {
+      theirLogger.warn("Error parsing MailDigestWindow configuration parameter: " + e);
+      itsWindow = 60000;
+    }
+
+    String dir = MonitorConfig.getProperty("MailOutboxDir");
+    if (dir != null && !dir.trim().equals("")) {
+      itsDir = new File(dir.trim());
+      if (!itsDir.isDirectory() && !itsDir.mkdirs()) {
+        theirLogger.error("Unable to create outbox directory " + itsDir + ", queued emails will not be saved");
+        itsDir = null;
+      }
+    }
+    if (itsDir != null) {
+      load();
+    }
+
+    Thread t = new Thread(this, "MailOutbox");
+    t.setDaemon(true);
+    t.start();
+  }
+
+  /**
+   * Queue an email to be sent.
+   *
+   * @param to
+   *          One or more whitespace separated recipient addresses.
+   * @param sender
+   *          The sender's address, or an empty string for the local address.
+   * @param subject
+   *          The subject line.
+   * @param body
+   *          The body text.
+   */
+  public static void queue(String to, String sender, String subject, String body) {
+    Mail m = new Mail();
+    m.itsTo = to;
+    m.itsSender = sender == null ? "" : sender;
+    m.itsSubject = subject;
+    m.itsBody = body;
+    m.itsTime = System.currentTimeMillis();
+    theirOutbox.add(m, true);
+  }
+
+  /** Return the number of emails waiting to be sent. */
+  public static int getQueueDepth() {
+    synchronized (theirOutbox) {
+      return theirOutbox.itsQueueDepth;
+    }
+  }
+
+  /** Return the number of emails which have been sent. */
+  public static long getNumSent() {
+    synchronized (theirOutbox) {
+      return theirOutbox.itsNumSent;
+    }
+  }
+
+  /** Return the distribution of times between emails being queued and sent. */
+  public static LatencyHistogram getLatency() {
+    return theirOutbox.itsLatency;
+  }
+
+  /** Add the email to the queue, optionally saving it. */
+  private void add(Mail m, boolean save) {
+    if (save && itsDir != null) {
+      save(m);
+    }
+    synchronized (this) {
+      String key = m.itsTo + "\n" + m.itsSender;
+      Recipient r = itsRecipients.get(key);
+      if (r == null) {
+        r = new Recipient();
+        itsRecipients.put(key, r);
+      }
+      r.itsMail.add(m);
+      itsQueueDepth++;
+      notifyAll();
+    }
+  }
+
+  /** Save the email to a file in the outbox directory. */
+  private void save(Mail m) {
+    Properties p = new Properties();
+    p.setProperty("to", m.itsTo);
+    p.setProperty("sender", m.itsSender);
+    p.setProperty("subject", m.itsSubject);
+    p.setProperty("body", m.itsBody);
+    p.setProperty("time", "" + m.itsTime);
+    long num;
+    synchronized (this) {
+      num = itsFileNum++;
+    }
+    File f = new File(itsDir, m.itsTime + "-" + num + ".mail");
+    try {
+      OutputStream out = new FileOutputStream(f);
+      try {
+        p.store(out, null);
+      } finally {
+        out.close();
+      }
+      m.itsFile = f;
+    } catch (Exception e) {
+      theirLogger.error("Unable to save queued email to " + f + ": " + e);
+      f.delete();
+    }
+  }
+
+  /** Queue any emails which were saved but not sent before the server was last stopped. */
+  private void load() {
+    File[] files = itsDir.listFiles(new FilenameFilter() {
+      public boolean accept(File dir, String name) {
+        return name.endsWith(".mail");
+      }
+    });
+    if (files == null) {
+      return;
+    }
+    Arrays.sort(files);
+    for (int i = 0; i < files.length; i++) {
+      try {
+        Properties p = new Properties();
+        InputStream in = new FileInputStream(files[i]);
+        try {
+          p.load(in);
+        } finally {
+          in.close();
+        }
+        Mail m = new Mail();
+        m.itsTo = p.getProperty("to");
+        m.itsSender = p.getProperty("sender", "");
+        m.itsSubject = p.getProperty("subject", "");
+        m.itsBody = p.getProperty("body", "");
+        m.itsTime = Long.parseLong(p.getProperty("time"));
+        m.itsFile = files[i];
+        add(m, false);
+      } catch (Exception e) {
+        theirLogger.error("Unable to load queued email from " + files[i] + ": " + e);
+      }
+    }
+    if (files.length > 0) {
+      theirLogger.info("Loaded " + files.length + " unsent emails from " + itsDir);
+    }
+  }
+
+  /** Return the time the recipient's emails can next be sent, in ms. */
+  private long getDueTime(Recipient r) {
+    long due = r.itsMail.get(0).itsTime;
+    if (r.itsMail.size() == 1 && due - r.itsLastSent >= itsWindow) {
+      // First email for a while, so send it straight away
+    } else {
+      due = Math.max(due, r.itsLastSent + itsWindow);
+    }
+    return Math.max(due, r.itsRetryTime);
+  }
+
+  /** Main loop for the sending thread. */
+  public void run() {
+    while (true) {
+      Vector<Mail> tosend = null;
+      Recipient recipient = null;
+      synchronized (this) {
+        long now = System.currentTimeMillis();
+        long next = Long.MAX_VALUE;
+        Iterator<Recipient> i = itsRecipients.values().iterator();
+        while (i.hasNext()) {
+          Recipient r = i.next();
+          if (r.itsMail.isEmpty()) {
+            if (now - r.itsLastSent >= itsWindow) {
+              // Nothing recent, so no need to keep track of this recipient
+              i.remove();
+            }
+            continue;
+          }
+          long due = getDueTime(r);
+          if (due <= now) {
+            recipient = r;
+            tosend = new Vector<Mail>(r.itsMail);
+            break;
+          }
+          next = Math.min(next, due);
+        }
+        if (tosend == null) {
+          // Nothing ready to send yet
+          if (itsTransport != null) {
+            if (now - itsLastUsed >= theirIdleTime) {
+              closeTransport();
+            } else {
+              next = Math.min(next, itsLastUsed + theirIdleTime);
+            }
+          }
+          try {
+            if (next == Long.MAX_VALUE) {
+              wait();
+            } else {
+              wait(next - now);
+            }
+          } catch (InterruptedException e) {
+          }
+          continue;
+        }
+      }
+
+      boolean sent;
+      try {
+        sent = send(tosend);
+      } catch (Exception e) {
+        theirLogger.error("Unexpected exception while sending email: " + e);
+        closeTransport();
+        sent = false;
+      }
+
+      synchronized (this) {
+        long now = System.currentTimeMillis();
+        if (sent) {
+          recipient.itsMail.removeAll(tosend);
+          recipient.itsLastSent = now;
+          recipient.itsRetryTime = 0;
+          itsQueueDepth -= tosend.size();
+          itsNumSent += tosend.size();
+        } else {
+          recipient.itsRetryTime = now + theirRetryDelay;
+        }
+      }
+      if (sent) {
+        for (Mail m : tosend) {
+          itsLatency.record((System.currentTimeMillis() - m.itsTime) * 1000);
+          if (m.itsFile != null) {
+            m.itsFile.delete();
+          }
+        }
+      }
+    }
+  }
+
+  /** Send the emails as a single message, as a digest if there is more than one. */
+  private boolean send(Vector<Mail> mail) {
+    Mail first = mail.get(0);
+    String subject;
+    String body;
+    if (mail.size() == 1) {
+      subject = first.itsSubject;
+      body = first.itsBody;
+    } else {
+      subject = first.itsSubject + " (and " + (mail.size() - 1) + " more)";
+      StringBuilder sb = new StringBuilder();
+      sb.append(mail.size() + " notifications:\n");
+      for (Mail m : mail) {
+        sb.append("\n---- " + new Date(m.itsTime) + ": " + m.itsSubject + "\n\n");
+        sb.append(m.itsBody);
+        if (!m.itsBody.endsWith("\n")) {
+          sb.append("\n");
+        }
+      }
+      body = sb.toString();
+    }
+
+    MimeMessage message;
+    try {
+      message = MailSender.createMessage(first.itsTo, first.itsSender, subject, body);
+      message.saveChanges();
+    } catch (MessagingException e) {
+      // Message can never be sent, so discard it
+      theirLogger.error("Discarding email to " + first.itsTo + ": " + e);
+      return true;
+    }
+
+    // Try the existing connection, then once more with a new connection in case it had gone stale
+    for (int attempt = 0; attempt < 2; attempt++) {
+      try {
+        if (itsTransport == null || !itsTransport.isConnected()) {
+          closeTransport();
+          itsTransport = MailSender.getSession().getTransport("smtp");
+          itsTransport.connect();
+        }
+        itsTransport.sendMessage(message, message.getAllRecipients());
+        itsLastUsed = System.currentTimeMillis();
+        return true;
+      } catch (SendFailedException e) {
+        // Server rejected the addresses so there's no point retrying
+        theirLogger.error("Cannot send email to " + first.itsTo + ": " + e);
+        itsLastUsed = System.currentTimeMillis();
+        return true;
+      } catch (MessagingException e) {
+        closeTransport();
+        if (attempt > 0) {
+          theirLogger.error("Cannot send email to " + first.itsTo + ", will retry: " + e);
+        }
+      }
+    }
+    return false;
+  }
+
+  /** Close the connection to the mail server. */
+  private void closeTransport() {
+    if (itsTransport != null) {
+      try {
+        itsTransport.close();
+      } catch (Exception e) {
+      }
+      itsTransport = null;
+    }
+  }
+}
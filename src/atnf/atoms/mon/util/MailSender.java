@@ -29,6 +29,7 @@ public class MailSender {
   static {
     try {
       properties.put("mail.smtp.socketFactory.port", MonitorConfig.getProperty("SMTPPort", "25"));
+      properties.put("mail.smtp.port", MonitorConfig.getProperty("SMTPPort", "25"));
       properties.put("mail.smtp.host", MonitorConfig.getProperty("SMTPHost", "localhost"));
       properties.put("mail.smtp.auth", MonitorConfig.getProperty("SMTPAuth", "false"));
       if (MonitorConfig.getProperty("SMTPSTARTTLS") == null) {
@@ -62,10 +63,31 @@ public class MailSender {
 
   /** Send an email with the specified recipient, sender, subject and body. */
   public static void sendMail(String to, String sender, String subject, String body) {
+    try {
+      Transport.send(createMessage(to, sender, subject, body));
+    } catch (MessagingException ex) {
+      theirLogger.error("Cannot send email: " + ex);
+    }
+  }
+
+  /** Return the mail session. */
+  public static Session getSession() {
+    return theirSession;
+  }
+
+  /**
+   * Create an email with the specified recipient, sender, subject and body.
+   * 
+   * @param to
+   *          One or more whitespace separated recipient addresses.
+   * @param sender
+   *          The sender's address, or an empty string for the local address.
+   */
+  public static MimeMessage createMessage(String to, String sender, String subject, String body) throws MessagingException {
     MimeMessage message = new MimeMessage(theirSession);
     InternetAddress from = new InternetAddress();
     try {
-      if (sender == "") {
+      if (sender == null || sender.equals("")) {
         from = InternetAddress.getLocalAddress(theirSession);
       } else {
         from = new InternetAddress(sender);
@@ -74,20 +96,16 @@ public class MailSender {
       theirLogger.error("AddressException occurred: " + ex);
     }
 
-    try {
-      String[] strAddresses = to.split("\\s+");
-      InternetAddress[] iaAddresses = new InternetAddress[strAddresses.length];
-      for (int i = 0; i < strAddresses.length; i++) {
-        iaAddresses[i] = new InternetAddress(strAddresses[i]);
-      }
-      message.addRecipients(Message.RecipientType.TO, iaAddresses);
-      message.setSubject(subject);
-      message.setText(body);
-      message.setFrom(from);
-      Transport.send(message);
-    } catch (MessagingException ex) {
-      theirLogger.error("Cannot send email: " + ex);
+    String[] strAddresses = to.trim().split("\\s+");
+    InternetAddress[] iaAddresses = new InternetAddress[strAddresses.length];
+    for (int i = 0; i < strAddresses.length; i++) {
+      iaAddresses[i] = new InternetAddress(strAddresses[i]);
     }
+    message.addRecipients(Message.RecipientType.TO, iaAddresses);
+    message.setSubject(subject);
+    message.setText(body);
+    message.setFrom(from);
+    return message;
   }
 
   /** Test method. */
@@ -0,0 +1,436 @@
+//
+// Copyright (C) CSIRO Australia Telescope National Facility
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Library General Public License
+// as published by the Free Software Foundation; either version 2
+// of the License, or (at your option) any later version.
+
+package atnf.atoms.mon.util;
+
+import java.util.Random;
+import java.util.Vector;
+
+/**
+ * Window of timestamped numeric values, for translations which calculate statistics over the recent history of a point. Values are
+ * added at the end and removed from the start, and are kept as primitives in a ring buffer which grows as required, so neither
+ * operation allocates or copies once the buffer has reached the working size of the window.
+ *
+ * <P>
+ * The mean and variance are maintained incrementally using Welford's method, and the minimum and maximum using monotonic queues, so
+ * they can all be read in constant time however long the window is. Non-finite values are excluded from the running totals and if
+ * any are present the statistics are calculated directly from the values instead, so the results are the same as a direct
+ * calculation would give. The running totals are recalculated from scratch periodically so that rounding errors can't accumulate.
+ *
+ * <P>
+ * This class is not thread-safe.
+ *
+ * @author David Brodrick
+ */
+public class SlidingWindow {
+  /** Number of values removed between recalculations of the running totals. */
+  private static final int theirResyncInterval = 65536;
+
+  /** Timestamp of each value. */
+  private long[] itsTimes;
+
+  /** The values. */
+  private double[] itsValues;
+
+  /** Index of the first value in the ring buffer. */
+  private int itsHead = 0;
+
+  /** Number of values in the window. */
+  private int itsSize = 0;
+
+  /** Sequence number of the first value, so that the queues can refer to values however the buffer is resized. */
+  private long itsHeadSeq = 0;
+
+  /** Number of finite values included in the running totals. */
+  private int itsCount = 0;
+
+  /** Running mean of the finite values. */
+  private double itsMean = 0.0;
+
+  /** Running sum of squared differences from the mean of the finite values. */
+  private double itsM2 = 0.0;
+
+  /** Number of values removed since the running totals were last recalculated. */
+  private int itsRemovals = 0;
+
+  /** Sequence numbers of the values which may yet become the minimum, in order of increasing value. */
+  private long[] itsMinQueue;
+
+  private int itsMinHead = 0;
+
+  private int itsMinSize = 0;
+
+  /** Sequence numbers of the values which may yet become the maximum, in order of decreasing value. */
+  private long[] itsMaxQueue;
+
+  private int itsMaxHead = 0;
+
+  private int itsMaxSize = 0;
+
+  public SlidingWindow() {
+    this(16);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param capacity
+   *          The initial number of values which can be held before the buffer needs to grow.
+   */
+  public SlidingWindow(int capacity) {
+    capacity = Math.max(capacity, 2);
+    itsTimes = new long[capacity];
+    itsValues = new double[capacity];
+    itsMinQueue = new long[capacity];
+    itsMaxQueue = new long[capacity];
+  }
+
+  /** Return the number of values in the window. */
+  public int size() {
+    return itsSize;
+  }
+
+  /** Check if the window is empty. */
+  public boolean isEmpty() {
+    return itsSize == 0;
+  }
+
+  /** Return the timestamp of the i'th oldest value. */
+  public long getTime(int i) {
+    if (i < 0 || i >= itsSize) {
+      throw new IndexOutOfBoundsException("Index " + i + ", size " + itsSize);
+    }
+    return itsTimes[(itsHead + i) % itsTimes.length];
+  }
+
+  /** Return the i'th oldest value. */
+  public double getValue(int i) {
+    if (i < 0 || i >= itsSize) {
+      throw new IndexOutOfBoundsException("Index " + i + ", size " + itsSize);
+    }
+    return itsValues[(itsHead + i) % itsValues.length];
+  }
+
+  /** Return a copy of the values, oldest first. */
+  public double[] getValues() {
+    double[] res = new double[itsSize];
+    int first = Math.min(itsSize, itsValues.length - itsHead);
+    System.arraycopy(itsValues, itsHead, res, 0, first);
+    System.arraycopy(itsValues, 0, res, first, itsSize - first);
+    return res;
+  }
+
+  /**
+   * Add a value to the end of the window.
+   *
+   * @param time
+   *          The timestamp for the value.
+   * @param value
+   *          The value.
+   */
+  public void add(long time, double value) {
+    if (itsSize == itsValues.length) {
+      grow();
+    }
+    int pos = (itsHead + itsSize) % itsValues.length;
+    itsTimes[pos] = time;
+    itsValues[pos] = value;
+    long seq = itsHeadSeq + itsSize;
+    itsSize++;
+
+    if (isFinite(value)) {
+      itsCount++;
+      double delta = value - itsMean;
+      itsMean += delta / itsCount;
+      itsM2 += delta * (value - itsMean);
+
+      // Values which are no smaller than the new one can never be the minimum again
+      while (itsMinSize > 0 && valueOf(itsMinQueue[(itsMinHead + itsMinSize - 1) % itsMinQueue.length]) >= value) {
+        itsMinSize--;
+      }
+      itsMinQueue[(itsMinHead + itsMinSize) % itsMinQueue.length] = seq;
+      itsMinSize++;
+
+      // Likewise for the maximum
+      while (itsMaxSize > 0 && valueOf(itsMaxQueue[(itsMaxHead + itsMaxSize - 1) % itsMaxQueue.length]) <= value) {
+        itsMaxSize--;
+      }
+      itsMaxQueue[(itsMaxHead + itsMaxSize) % itsMaxQueue.length] = seq;
+      itsMaxSize++;
+    }
+  }
+
+  /** Remove the oldest value from the window. */
+  public void removeFirst() {
+    if (itsSize == 0) {
+      throw new IndexOutOfBoundsException("Window is empty");
+    }
+    double value = itsValues[itsHead];
+    if (itsMinSize > 0 && itsMinQueue[itsMinHead] == itsHeadSeq) {
+      itsMinHead = (itsMinHead + 1) % itsMinQueue.length;
+      itsMinSize--;
+    }
+    if (itsMaxSize > 0 && itsMaxQueue[itsMaxHead] == itsHeadSeq) {
+      itsMaxHead = (itsMaxHead + 1) % itsMaxQueue.length;
+      itsMaxSize--;
+    }
+    itsHead = (itsHead + 1) % itsValues.length;
+    itsHeadSeq++;
+    itsSize--;
+
+    if (isFinite(value)) {
+      itsCount--;
+      if (itsCount <= 1) {
+        // Start afresh rather than leave rounding errors in a trivial result
+        resync();
+      } else {
+        double delta = value - itsMean;
+        itsMean -= delta / itsCount;
+        itsM2 -= delta * (value - itsMean);
+      }
+    }
+    if (++itsRemovals >= theirResyncInterval) {
+      resync();
+    }
+  }
+
+  /**
+   * Remove all values with timestamps before the given time. As with a queue, values are only removed from the start of the window,
+   * so any old value which was added after a newer one is kept until the newer one has also expired.
+   *
+   * @param time
+   *          Values with timestamps before this time are removed.
+   */
+  public void expire(long time) {
+    while (itsSize > 0 && itsTimes[itsHead] < time) {
+      removeFirst();
+    }
+  }
+
+  /** Remove all values from the window. */
+  public void clear() {
+    itsHead = 0;
+    itsHeadSeq += itsSize;
+    itsSize = 0;
+    itsCount = 0;
+    itsMean = 0.0;
+    itsM2 = 0.0;
+    itsMinSize = 0;
+    itsMaxSize = 0;
+  }
+
+  /** Return the mean of the values, or NaN if the window is empty. */
+  public double getMean() {
+    if (itsSize == 0) {
+      return Double.NaN;
+    }
+    if (itsCount < itsSize) {
+      return directSum() / itsSize;
+    }
+    return itsMean;
+  }
+
+  /** Return the population variance of the values, or NaN if the window is empty. */
+  public double getVariance() {
+    if (itsSize == 0) {
+      return Double.NaN;
+    }
+    if (itsCount < itsSize) {
+      return directSquares() / itsSize;
+    }
+    return Math.max(itsM2, 0.0) / itsSize;
+  }
+
+  /** Return the sample variance of the values, or NaN if there are fewer than two values. */
+  public double getSampleVariance() {
+    if (itsSize < 2) {
+      return Double.NaN;
+    }
+    if (itsCount < itsSize) {
+      return directSquares() / (itsSize - 1);
+    }
+    return Math.max(itsM2, 0.0) / (itsSize - 1);
+  }
+
+  /** Return the smallest value, ignoring NaNs, or NaN if there are no other values. */
+  public double getMin() {
+    if (itsCount < itsSize) {
+      double min = Double.NaN;
+      for (int i = 0; i < itsSize; i++) {
+        double v = getValue(i);
+        if (v < min || Double.isNaN(min)) {
+          min = v;
+        }
+      }
+      return min;
+    }
+    if (itsMinSize == 0) {
+      return Double.NaN;
+    }
+    return valueOf(itsMinQueue[itsMinHead]);
+  }
+
+  /** Return the largest value, ignoring NaNs, or NaN if there are no other values. */
+  public double getMax() {
+    if (itsCount < itsSize) {
+      double max = Double.NaN;
+      for (int i = 0; i < itsSize; i++) {
+        double v = getValue(i);
+        if (v > max || Double.isNaN(max)) {
+          max = v;
+        }
+      }
+      return max;
+    }
+    if (itsMaxSize == 0) {
+      return Double.NaN;
+    }
+    return valueOf(itsMaxQueue[itsMaxHead]);
+  }
+
+  /** Return the value with the given sequence number. */
+  private double valueOf(long seq) {
+    return itsValues[(int) ((itsHead + (seq - itsHeadSeq)) % itsValues.length)];
+  }
+
+  /** Check if the value can be included in the running totals. */
+  private static boolean isFinite(double value) {
+    return !Double.isNaN(value) && !Double.isInfinite(value);
+  }
+
+  /** Return the sum of all values, calculated directly. */
+  private double directSum() {
+    double sum = 0.0;
+    for (int i = 0; i < itsSize; i++) {
+      sum += getValue(i);
+    }
+    return sum;
+  }
+
+  /** Return the sum of squared differences from the mean of all values, calculated directly. */
+  private double directSquares() {
+    double mean = directSum() / itsSize;
+    double sum = 0.0;
+    for (int i = 0; i < itsSize; i++) {
+      double diff = getValue(i) - mean;
+      sum += diff * diff;
+    }
+    return sum;
+  }
+
+  /** Recalculate the running totals from the values in the window. */
+  private void resync() {
+    itsRemovals = 0;
+    itsCount = 0;
+    itsMean = 0.0;
+    itsM2 = 0.0;
+    for (int i = 0; i < itsSize; i++) {
+      double value = getValue(i);
+      if (isFinite(value)) {
+        itsCount++;
+        double delta = value - itsMean;
+        itsMean += delta / itsCount;
+        itsM2 += delta * (value - itsMean);
+      }
+    }
+  }
+
+  /** Double the capacity of the buffer and queues, preserving their contents. */
+  private void grow() {
+    int oldcap = itsValues.length;
+    int newcap = oldcap * 2;
+    long[] times = new long[newcap];
+    double[] values = new double[newcap];
+    for (int i = 0; i < itsSize; i++) {
+      int pos = (itsHead + i) % oldcap;
+      times[i] = itsTimes[pos];
+      values[i] = itsValues[pos];
+    }
+    itsTimes = times;
+    itsValues = values;
+    itsHead = 0;
+    itsMinQueue = growQueue(itsMinQueue, itsMinHead, itsMinSize, newcap);
+    itsMinHead = 0;
+    itsMaxQueue = growQueue(itsMaxQueue, itsMaxHead, itsMaxSize, newcap);
+    itsMaxHead = 0;
+  }
+
+  /** Return a copy of the queue with the new capacity, starting at index 0. */
+  private static long[] growQueue(long[] queue, int head, int size, int newcap) {
+    long[] res = new long[newcap];
+    for (int i = 0; i < size; i++) {
+      res[i] = queue[(head + i) % queue.length];
+    }
+    return res;
+  }
+
+  /**
+   * Simple benchmark which compares the time taken to update a window and calculate its mean, variance, minimum and maximum, for
+   * a <tt>Vector</tt> of boxed values as the translations used to keep and for this class. The arguments are the number of values
+   * in the window and the number of updates, which default to a 10 minute window at 10Hz.
+   */
+  public static final void main(String[] args) throws Exception {
+    int window = args.length > 0 ? Integer.parseInt(args[0]) : 6000;
+    int updates = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+    Random rand = new Random(1);
+    double[] input = new double[window + updates];
+    for (int i = 0; i < input.length; i++) {
+      input[i] = rand.nextGaussian();
+    }
+    System.out.println("Window of " + window + " values, " + updates + " updates");
+    System.out.println("pass\tvector(ns/update)\twindow(ns/update)");
+    double check = 0.0;
+    for (int pass = 0; pass < 5; pass++) {
+      // Old method, a Vector which is copied into an array for each calculation
+      Vector<Double> vec = new Vector<Double>();
+      for (int i = 0; i < window; i++) {
+        vec.add(input[i]);
+      }
+      long start = System.nanoTime();
+      for (int i = window; i < input.length; i++) {
+        vec.add(input[i]);
+        vec.remove(0);
+        int size = vec.size();
+        double[] data = new double[size];
+        for (int j = 0; j < size; j++) {
+          data[j] = vec.get(j).doubleValue();
+        }
+        double sum = 0.0;
+        double min = data[0];
+        double max = data[0];
+        for (int j = 0; j < size; j++) {
+          sum += data[j];
+          min = Math.min(min, data[j]);
+          max = Math.max(max, data[j]);
+        }
+        double mean = sum / size;
+        double var = 0.0;
+        for (int j = 0; j < size; j++) {
+          var += (data[j] - mean) * (data[j] - mean);
+        }
+        check += mean + var / size + min + max;
+      }
+      long vectime = System.nanoTime() - start;
+
+      // This class
+      SlidingWindow sw = new SlidingWindow();
+      for (int i = 0; i < window; i++) {
+        sw.add(i, input[i]);
+      }
+      start = System.nanoTime();
+      for (int i = window; i < input.length; i++) {
+        sw.add(i, input[i]);
+        sw.removeFirst();
+        check -= sw.getMean() + sw.getVariance() + sw.getMin() + sw.getMax();
+      }
+      long swtime = System.nanoTime() - start;
+      System.out.println(pass + "\t" + (vectime / updates) + "\t\t\t" + (swtime / updates));
+    }
+    System.out.println("Difference between results: " + check);
+  }
+}
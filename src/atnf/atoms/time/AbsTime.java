@@ -234,6 +234,21 @@ final public class AbsTime implements Cloneable, Serializable, Immutable, Compar
         itsValue = timeNow();
     }
 
+    /**
+     * Get the BAT of NOW, without making an object. This is the same value that a
+     * new <code>AbsTime</code> would hold.
+     * 
+     * @return The current BAT.
+     */
+    public static long nowValue()
+    {
+        long millis = System.currentTimeMillis();
+        // The value of 3506716800000000L is the BAT as at midnight on
+        // 1-Jan-1970, which is the base of the time that the system
+        // gives us. It has to be adjusted for leap seconds though.
+        return (millis * 1000L) + DUTC.getAtMillis(millis) * 1000000L + 3506716800000000L;
+    }
+
     /**
      * Construct an object representing a specific time given by a <code>long</code>.
      * 
@@ -728,6 +743,86 @@ final public class AbsTime implements Cloneable, Serializable, Immutable, Compar
         return (e1 < e2 ? -1 : (e1 == e2 ? 0 : 1));
     }
 
+    /**
+     * Map a BAT onto a value which orders correctly, including the special value for
+     * <code>NEVER</code>.
+     */
+    private static long orderKey(long bat)
+    {
+        // Code for NEVER should have been 0x7FFFFFFFFFFFFFFFL
+        return (bat == NEVER_CODE ? 0x7FFFFFFFFFFFFFFFL : bat);
+    }
+
+    /**
+     * Compare with an absolute time given as a BAT, as returned by
+     * <code>getValue()</code> or <code>nowValue()</code>. This allows comparisons
+     * against the current time without making an object.
+     * 
+     * @param refBAT The reference epoch to test against.
+     * 
+     * @return The value -1 if this time is before <code>refBAT</code>, 0 if times are
+     * equal, +1 otherwise.
+     */
+    public int compare(long refBAT)
+    {
+        long e1 = orderKey(itsValue);
+        long e2 = orderKey(refBAT);
+
+        return (e1 < e2 ? -1 : (e1 == e2 ? 0 : 1));
+    }
+
+    /**
+     * Compare for before an absolute time given as a BAT.
+     * 
+     * @param refBAT The reference epoch to test against.
+     * 
+     * @return The value <code>true</code> this time is before <code>refBAT</code>,
+     * <code>false</code> otherwise.
+     */
+    public boolean isBefore(long refBAT)
+    {
+        return orderKey(itsValue) < orderKey(refBAT);
+    }
+
+    /**
+     * Compare for before or same as an absolute time given as a BAT.
+     * 
+     * @param refBAT The reference epoch to test against.
+     * 
+     * @return The value <code>true</code> this time is before or equal to
+     * <code>refBAT</code>, <code>false</code> otherwise.
+     */
+    public boolean isBeforeOrEquals(long refBAT)
+    {
+        return orderKey(itsValue) <= orderKey(refBAT);
+    }
+
+    /**
+     * Compare for after an absolute time given as a BAT.
+     * 
+     * @param refBAT The reference epoch to test against.
+     * 
+     * @return The value <code>true</code> this time is after <code>refBAT</code>,
+     * <code>false</code> otherwise.
+     */
+    public boolean isAfter(long refBAT)
+    {
+        return !isBeforeOrEquals(refBAT);
+    }
+
+    /**
+     * Compare for after or equal to an absolute time given as a BAT.
+     * 
+     * @param refBAT The reference epoch to test against.
+     * 
+     * @return The value <code>true</code> this time is after or equal to
+     * <code>refBAT</code>, <code>false</code> otherwise.
+     */
+    public boolean isAfterOrEquals(long refBAT)
+    {
+        return !isBefore(refBAT);
+    }
+
     /**
      * Compare for before another absolute time.
      * 
@@ -890,10 +985,7 @@ final public class AbsTime implements Cloneable, Serializable, Immutable, Compar
      */
     private long timeNow()
     {
-        // The value of 3506716800000000L is the BAT as at midnight on
-        // 1-Jan-1970, which is the base of the time that the system
-        // gives us. It has to be adjusted for leap seconds though.
-        return (System.currentTimeMillis() * 1000L) + DUTC.get() * 1000000L + 3506716800000000L;
+        return nowValue();
     }
 
     /**
@@ -91,11 +91,63 @@ final public class DUTC {
   public static int get() {
     // To avoid recursion, we base our calculation directly on
     // the system time
-    double daysSince1970 = System.currentTimeMillis() / 1000.0 / 86400.0;
-    return get(daysSince1970 + MJD1970);
+    return getAtMillis(System.currentTimeMillis());
     // return Integer.parseInt(ATOMS.getProperty(ATOMS.OBS_PREFIX + "dUTC"));
   }
 
+  /**
+   * The dUTC for a range of system times between leap seconds.
+   */
+  private static final class Span {
+    /** Start of the range, as system time in ms. */
+    final long itsStart;
+
+    /** End of the range (exclusive), as system time in ms. */
+    final long itsEnd;
+
+    /** The dUTC throughout the range. */
+    final int itsDUTC;
+
+    Span(long start, long end, int dutc) {
+      itsStart = start;
+      itsEnd = end;
+      itsDUTC = dutc;
+    }
+  }
+
+  /** The range containing the most recently requested system time. */
+  private static volatile Span theirSpan = new Span(0, 0, 0);
+
+  /**
+   * Get the dUTC for the given system time. The dUTC is remembered until the time moves outside the range between leap seconds,
+   * so this is cheap when called repeatedly for the current time.
+   * 
+   * @param millis
+   *          System time, in milliseconds since 1970 as returned by <code>System.currentTimeMillis()</code>.
+   * @return The dUTC at that time (in seconds).
+   */
+  public static int getAtMillis(long millis) {
+    Span span = theirSpan;
+    if (millis < span.itsStart || millis >= span.itsEnd) {
+      // Find the leap seconds either side of the time
+      long end = Long.MAX_VALUE;
+      span = null;
+      for (int i = 0; i < leap.length; i++) {
+        long start = (long) (leap[i][0] - MJD1970) * 86400000L;
+        if (millis >= start) {
+          span = new Span(start, end, leap[i][1]);
+          break;
+        }
+        end = start;
+      }
+      if (span == null) {
+        span = new Span(Long.MIN_VALUE, end, 0);
+      }
+      theirSpan = span;
+    }
+    return span.itsDUTC;
+  }
+
   /**
    * Get the dUTC for the given utc time (in MJD days)
    * 